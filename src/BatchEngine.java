@@ -0,0 +1,354 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A simulation engine that runs events with equal times in parallel.
+*   After a synchronized boot, or with uniform link latencies, thousands of
+*   packets are often delivered at exactly the same time, each to a
+*   different node.  This engine takes every such batch off the event
+*   queue, groups it by destination node (timers go with the node that set
+*   them), and runs the groups on a fork-join pool.  Each node's events
+*   still run in order on one thread.
+*   Packets sent during a batch cannot arrive before the batch's time
+*   (every link must have a positive latency), so each worker buffers them
+*   and they are queued once the batch is done.  Link events change state
+*   seen by two nodes, so they run alone, before the packets of the same
+*   time, just as they are ordered in a sequential run.
+*   Because events are ordered by time and order key (see Event), the
+*   results are identical to a sequential run.
+*   @see Simulation
+*/
+public class BatchEngine {
+  /** Create a new engine.
+  *   @param threads The number of worker threads.
+  *   @param simulation The simulation to run, after its init().  Its
+  *   event pool's settings are copied by each worker.
+  *   @exception java.lang.IllegalArgumentException Thrown when a link has
+  *   no latency, so a packet could arrive within its own batch.
+  */
+  public BatchEngine(int threads, Simulation simulation) {
+    this.simulation = simulation;
+    Link[] links = simulation.getLinks();
+    for (int i=0; i<links.length; i++)
+      if (!(links[i].getLatency() > 0))
+        throw new IllegalArgumentException("batch simulation needs a " +
+          "positive latency on every link");
+    forkJoin = new ForkJoinPool(Math.max(1, threads));
+    mainPool = simulation.getEventPool();
+    metrics = simulation.getMetrics();
+    tracker = simulation.getConvergenceTracker();
+    workers = new ArrayList();
+  }
+
+  /** Run the simulation until no events remain.
+  *   @param queue The event queue, holding the events scheduled before the
+  *   run starts.  It is empty afterwards.
+  */
+  public void run(EventQueue queue) {
+    this.queue = queue;
+    Event[] batch = new Event[64];
+    try {
+      while (!queue.empty()) {
+        if (queue.peekNext().getTime() >= simulation.stopTime()) {
+          simulation.stoppedEarly();
+          break;
+        }
+        now = queue.peekNext().getTime();
+        if (metrics != null)
+          metrics.advance(now);
+        tracker.advance(now, simulation.getPacketsSent() + packetsSent);
+        // Link events come first among events with the same time.
+        while (!queue.empty() && queue.peekNext().getTime() == now &&
+            queue.peekNext().getNode() < 0) {
+          Event e = queue.getNext();
+          mainPool.checkLive(e);
+          e.run();
+          mainPool.recycle(e);
+          events++;
+        }
+        int n = 0;
+        while (!queue.empty() && queue.peekNext().getTime() == now) {
+          if (n == batch.length) {
+            Event[] a = new Event[batch.length*2];
+            System.arraycopy(batch, 0, a, 0, n);
+            batch = a;
+          }
+          batch[n++] = queue.getNext();
+        }
+        if (n == 0)
+          continue;
+        batches++;
+        largestBatch = Math.max(largestBatch, n);
+        if (n < MIN_PARALLEL_BATCH) {
+          for (int i=0; i<n; i++) {
+            mainPool.checkLive(batch[i]);
+            batch[i].run();
+            mainPool.recycle(batch[i]);
+            batch[i] = null;
+          }
+          events += n;
+        }
+        else {
+          runParallel(batch, n);
+          parallelBatches++;
+        }
+      }
+    }
+    finally {
+      forkJoin.shutdown();
+      this.queue = null;
+    }
+  }
+
+  /** Run a batch of packet and timer events with equal times on the
+  *   fork-join pool, then queue the events they scheduled.
+  */
+  private void runParallel(Event[] batch, int n) {
+    // Group by destination; within a destination, keep the order keys in
+    // order, which is the order the events came off the queue.
+    Arrays.sort(batch, 0, n, new Comparator() {
+      public int compare(Object a, Object b) {
+        Event x = (Event)a, y = (Event)b;
+        if (x.getNode() != y.getNode())
+          return (x.getNode() < y.getNode()) ? -1 : 1;
+        return (x.getOrder() < y.getOrder()) ? -1 :
+          (x.getOrder() > y.getOrder()) ? 1 : 0;
+      }
+    });
+    int[] groupStart = new int[n+1];
+    int groups = 0;
+    for (int i=0; i<n; i++)
+      if (i == 0 || batch[i].getNode() != batch[i-1].getNode())
+        groupStart[groups++] = i;
+    groupStart[groups] = n;
+    Worker[] done = new Worker[groups];
+    forkJoin.invoke(new GroupTask(batch, groupStart, 0, groups, done));
+    // Queue what each group sent, in group order.
+    for (int g=0; g<groups; g++) {
+      Worker w = done[g];
+      if (w == null)
+        continue;
+      if (w.changed)
+        tracker.change(now);
+      w.changed = false;
+      List out = w.out;
+      for (int i=0; i<out.size(); i++)
+        insert((Event)out.get(i));
+      out.clear();
+      events += w.events;
+      packetsSent += w.packetsSent;
+      w.events = w.packetsSent = 0;
+      w.flushTo = -1;
+    }
+    Arrays.fill(batch, 0, n, null);
+  }
+
+  /** Runs a range of groups, splitting it while it is large. */
+  private class GroupTask extends RecursiveAction {
+    GroupTask(Event[] batch, int[] groupStart, int from, int to,
+        Worker[] done) {
+      this.batch = batch;
+      this.groupStart = groupStart;
+      this.from = from;
+      this.to = to;
+      this.done = done;
+    }
+    protected void compute() {
+      if (to - from > 1 &&
+          groupStart[to] - groupStart[from] > GRAIN) {
+        int mid = (from + to) / 2;
+        invokeAll(new GroupTask(batch, groupStart, from, mid, done),
+          new GroupTask(batch, groupStart, mid, to, done));
+        return;
+      }
+      Worker w = worker();
+      current.set(w);
+      try {
+        for (int i=groupStart[from]; i<groupStart[to]; i++) {
+          Event e = batch[i];
+          w.pool.checkLive(e);
+          e.run();
+          w.pool.recycle(e);
+          w.events++;
+        }
+      }
+      finally {
+        current.set(null);
+      }
+      // Each range of groups is run by exactly one task, so its slot in
+      // DONE is written once; the join publishes it to the main thread.
+      done[from] = w;
+      w.flushTo = from;
+    }
+    private Event[] batch;
+    private int[] groupStart;
+    private int from, to;
+    private Worker[] done;
+  }
+
+  /** Schedule the delivery of a packet.  This is called by
+  *   Simulation.sendPacket.  During a parallel batch the packet is held by
+  *   the calling worker until the batch ends.
+  *   @param source The node sending.
+  *   @param dest The node receiving.
+  *   @param time The time of delivery.
+  *   @param pkt The packet, if it is a String.
+  *   @param bytes The packet, if it is binary.
+  */
+  void sendPacket(int source, int dest, double time, String pkt,
+      ByteBuffer bytes) {
+    Worker w = (Worker)current.get();
+    EventPool pool = (w != null) ? w.pool : mainPool;
+    PacketEvent pe = (bytes != null) ?
+      pool.packetEvent(time, source, dest, bytes) :
+      pool.packetEvent(time, source, dest, pkt);
+    pe.setOrder(simulation.nextSendOrder(source));
+    pe.simulation = simulation;
+    if (w != null) {
+      w.out.add(pe);
+      w.packetsSent++;
+    }
+    else {
+      insert(pe);
+      packetsSent++;
+    }
+  }
+  /** Queue an event for a node, such as a timer.  This is called by
+  *   Simulation.  During a parallel batch the event is held by the calling
+  *   worker until the batch ends, like a packet; it cannot be due within
+  *   the batch, since timers have a positive delay.
+  */
+  void schedule(Event e) {
+    Worker w = (Worker)current.get();
+    if (w != null)
+      w.out.add(e);
+    else
+      insert(e);
+  }
+  /** Note that a routing table changed.  This is called by Simulation,
+  *   on the thread running the node.
+  *   @param time The time of the change, which is the batch's.
+  */
+  void routeChanged(double time) {
+    Worker w = (Worker)current.get();
+    if (w != null)
+      w.changed = true;
+    else
+      tracker.change(time);
+  }
+  /** Returns the time of the batch being run. */
+  double getCurrentTime() {
+    return now;
+  }
+
+  /** Returns the number of batches (distinct event times) run. */
+  public long getBatches() { return batches; }
+  /** Returns the number of batches run in parallel. */
+  public long getParallelBatches() { return parallelBatches; }
+  /** Returns the largest number of packets delivered at one time. */
+  public int getLargestBatch() { return largestBatch; }
+  /** Returns the number of events run. */
+  public long getEvents() { return events; }
+  /** Returns the number of packets sent during the run. */
+  public long getPacketsSent() { return packetsSent; }
+  /** Returns the time of the last event run. */
+  public double getEndTime() { return now; }
+  /** Returns the number of events allocated by all pools. */
+  public long getCreated() {
+    long n = mainPool.getCreated();
+    synchronized (workers) {
+      for (int i=0; i<workers.size(); i++)
+        n += ((Worker)workers.get(i)).pool.getCreated();
+    }
+    return n;
+  }
+  /** Returns the number of events reused by all pools. */
+  public long getReused() {
+    long n = mainPool.getReused();
+    synchronized (workers) {
+      for (int i=0; i<workers.size(); i++)
+        n += ((Worker)workers.get(i)).pool.getReused();
+    }
+    return n;
+  }
+
+  /** Returns a free worker state for a leaf task.  Each leaf needs its
+  *   own, since its output is only collected after the whole batch, so a
+  *   thread that runs several leaves in one batch gets several.
+  */
+  private Worker worker() {
+    List mine = (List)threadWorkers.get();
+    if (mine == null) {
+      mine = new ArrayList();
+      threadWorkers.set(mine);
+    }
+    for (int i=0; i<mine.size(); i++)
+      if (((Worker)mine.get(i)).flushTo == -1)
+        return (Worker)mine.get(i);
+    Worker w = new Worker(mainPool.emptyCopy());
+    mine.add(w);
+    synchronized (workers) { workers.add(w); }
+    return w;
+  }
+  /** Queue an event. */
+  private void insert(Event e) {
+    try { queue.insert(e); }
+    catch (TimeInconsistencyException ex) {
+      throw new IllegalStateException("event occurs in the past: " + e);
+    }
+    if (metrics != null)
+      metrics.queued(queue.size());
+  }
+
+  /** The state of one leaf task. */
+  private static class Worker {
+    Worker(EventPool pool) {
+      this.pool = pool;
+    }
+    /** Where the task's events come from and go back to. */
+    final EventPool pool;
+    /** Packets sent by the task, waiting for the batch to end. */
+    final List out = new ArrayList();
+    /** The number of events run. */
+    long events;
+    /** The number of packets sent. */
+    long packetsSent;
+    /** <b>true</b> if a routing table changed during the batch. */
+    boolean changed;
+    /** The group whose output this worker holds, or -1 if it is free. */
+    int flushTo = -1;
+  }
+
+  /** Batches smaller than this are run on the main thread. */
+  private static final int MIN_PARALLEL_BATCH = 64;
+  /** Ranges of groups with more events than this are split. */
+  private static final int GRAIN = 32;
+  /** The simulation being run. */
+  private Simulation simulation;
+  /** The pool that runs the groups. */
+  private ForkJoinPool forkJoin;
+  /** Where events run outside parallel batches come from. */
+  private EventPool mainPool;
+  /** The simulation's live counters, or <b>null</b>. */
+  private SimulationMetrics metrics;
+  /** The simulation's convergence tracker. */
+  private ConvergenceTracker tracker;
+  /** Every Worker created, for the pool statistics. */
+  private List workers;
+  /** The worker used by a leaf task on each thread. */
+  private final ThreadLocal current = new ThreadLocal();
+  /** The workers belonging to each thread. */
+  private final ThreadLocal threadWorkers = new ThreadLocal();
+  /** The event queue while running. */
+  private EventQueue queue;
+  /** The time of the batch being run. */
+  private volatile double now = 0.0;
+  /** Statistics; see the accessors. */
+  private long batches = 0, parallelBatches = 0, events = 0,
+    packetsSent = 0;
+  private int largestBatch = 0;
+}
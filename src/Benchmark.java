@@ -0,0 +1,713 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+/** Microbenchmarks for the simulator's hot paths.  Run as
+*   "java Benchmark [name]"; with no name, every benchmark is run.  Each
+*   benchmark compares the current implementation against the one it
+*   replaced and prints the time per operation for both.
+*/
+public class Benchmark {
+  /** Run the named benchmark, or all of them.
+  *   @param argv Command-line arguments.  argv[0], if present, is the name
+  *   of the benchmark to run.
+  */
+  public static void main(String[] argv) {
+    String which = (argv.length > 0) ? argv[0] : "all";
+    boolean all = which.equals("all");
+    boolean ran = false;
+    if (all || which.equals("links")) {
+      linkLookup();
+      ran = true;
+    }
+    if (all || which.equals("queue")) {
+      eventQueue();
+      ran = true;
+    }
+    if (all || which.equals("hold")) {
+      holdComparison();
+      ran = true;
+    }
+    if (all || which.equals("pool")) {
+      eventPool();
+      ran = true;
+    }
+    if (all || which.equals("parallel")) {
+      parallelSpeedup();
+      ran = true;
+    }
+    if (all || which.equals("load")) {
+      topologyLoad();
+      ran = true;
+    }
+    if (all || which.equals("dv")) {
+      dvCoalescing();
+      ran = true;
+    }
+    if (!ran) {
+      System.out.println("unknown benchmark: " + which);
+      System.out.println("benchmarks: links queue hold pool parallel load dv");
+      System.exit(-1);
+    }
+  }
+
+  /** Compare the original Vector-based heap against the array heap, with
+  *   arity 2 and 4, on a hold-model workload: the queue is filled with a
+  *   million events, then each step removes the earliest event and inserts
+  *   a new one a random interval later, as a simulator does.
+  */
+  private static void eventQueue() {
+    int population = 1000000;
+    int holds = 1000000;
+    long vectorNanos = Long.MAX_VALUE, binaryNanos = Long.MAX_VALUE;
+    long quadNanos = Long.MAX_VALUE;
+    for (int rep=0; rep<3; rep++) {
+      long start = System.nanoTime();
+      VectorHeap vh = new VectorHeap();
+      Random r = new Random(rep);
+      for (int i=0; i<population; i++)
+        vh.insert(new BenchEvent(r.nextDouble()));
+      for (int i=0; i<holds; i++)
+        vh.insert(new BenchEvent(vh.getNext().getTime() + r.nextDouble()));
+      while (!vh.empty())
+        vh.getNext();
+      vectorNanos = Math.min(vectorNanos, System.nanoTime() - start);
+
+      binaryNanos = Math.min(binaryNanos,
+        holdModel(new HeapEventQueue(2), population, holds, rep));
+      quadNanos = Math.min(quadNanos,
+        holdModel(new HeapEventQueue(4), population, holds, rep));
+    }
+    long ops = 2L*(population + holds);
+    report("queue hold " + population, "vector", vectorNanos,
+      "array-2", binaryNanos, ops);
+    report("queue hold " + population, "vector", vectorNanos,
+      "array-4", quadNanos, ops);
+  }
+  /** Compare the heap and calendar queues on the hold model with the
+  *   increments a routing run produces: every new event is scheduled a
+  *   link latency plus a short transmission time after the current one.
+  */
+  private static void holdComparison() {
+    int[] populations = { 1000, 100000, 1000000 };
+    for (int p=0; p<populations.length; p++) {
+      int population = populations[p];
+      int holds = 2000000;
+      long heapNanos = Long.MAX_VALUE, calendarNanos = Long.MAX_VALUE;
+      for (int rep=0; rep<3; rep++) {
+        long heapStart = System.nanoTime();
+        hold(new HeapEventQueue(4), population, holds, rep);
+        heapNanos = Math.min(heapNanos, System.nanoTime() - heapStart);
+        long calendarStart = System.nanoTime();
+        hold(new CalendarEventQueue(), population, holds, rep);
+        calendarNanos = Math.min(calendarNanos,
+          System.nanoTime() - calendarStart);
+      }
+      report("hold " + population, "heap4", heapNanos,
+        "calendar", calendarNanos, holds);
+    }
+  }
+  /** Fill a queue with events in a narrow window and then perform hold
+  *   operations: remove the earliest event and insert one a latency plus
+  *   a transmission time later.
+  */
+  private static void hold(EventQueue q, int population, int holds,
+      long seed) {
+    Random r = new Random(seed);
+    try {
+      for (int i=0; i<population; i++)
+        q.insert(new BenchEvent(0.01 + r.nextDouble()*0.01));
+      for (int i=0; i<holds; i++)
+        q.insert(new BenchEvent(q.getNext().getTime() + 0.01 +
+          r.nextDouble()*0.001));
+    }
+    catch (TimeInconsistencyException e) {
+      throw new IllegalStateException("event queue out of order");
+    }
+  }
+  /** Compare allocating a PacketEvent per packet against recycling them
+  *   through an EventPool, on a send/deliver cycle like the simulator's.
+  *   Reports time per packet and bytes allocated per packet.
+  */
+  private static void eventPool() {
+    int pending = 10000;
+    int packets = 5000000;
+    long[] nanos = new long[2];
+    long[] bytes = new long[2];
+    for (int mode=0; mode<2; mode++) {
+      nanos[mode] = bytes[mode] = Long.MAX_VALUE;
+      for (int rep=0; rep<3; rep++) {
+        EventPool pool = new EventPool(mode == 1, false);
+        EventQueue q = new HeapEventQueue(4);
+        Random r = new Random(rep);
+        long startBytes = Simulation.allocatedBytes();
+        long start = System.nanoTime();
+        try {
+          for (int i=0; i<pending; i++)
+            q.insert(pool.packetEvent(r.nextDouble(), 0, 1, "x"));
+          for (int i=0; i<packets; i++) {
+            Event e = q.getNext();
+            double t = e.getTime();
+            pool.recycle(e);
+            q.insert(pool.packetEvent(t + 0.01, 0, 1, "x"));
+          }
+        }
+        catch (TimeInconsistencyException e) {
+          throw new IllegalStateException("event queue out of order");
+        }
+        nanos[mode] = Math.min(nanos[mode], System.nanoTime() - start);
+        bytes[mode] = Math.min(bytes[mode],
+          Simulation.allocatedBytes() - startBytes);
+      }
+    }
+    report("pool " + packets + " packets", "new", nanos[0],
+      "recycled", nanos[1], packets);
+    System.out.println("  allocated: new " +
+      format(bytes[0]/(double)packets) + " bytes/packet, recycled " +
+      format(bytes[1]/(double)packets) + " bytes/packet");
+  }
+  /** Run a hold-model workload on a queue and return its time in
+  *   nanoseconds.
+  */
+  static long holdModel(EventQueue q, int population, int holds, long seed) {
+    long start = System.nanoTime();
+    Random r = new Random(seed);
+    try {
+      for (int i=0; i<population; i++)
+        q.insert(new BenchEvent(r.nextDouble()));
+      for (int i=0; i<holds; i++)
+        q.insert(new BenchEvent(q.getNext().getTime() + r.nextDouble()));
+    }
+    catch (TimeInconsistencyException e) {
+      throw new IllegalStateException("event queue out of order");
+    }
+    while (!q.empty())
+      q.getNext();
+    return System.nanoTime() - start;
+  }
+
+  /** Compare sequential and parallel headless runs of PingNode on a
+  *   generated 50x50 grid with two link failures.  Each run is a
+  *   separate JVM; the summaries must match apart from timing.
+  */
+  private static void parallelSpeedup() {
+    File net;
+    try {
+      net = File.createTempFile("grid", ".net");
+      net.deleteOnExit();
+      writeGrid(net, 50);
+    }
+    catch (IOException e) {
+      System.out.println("parallel: cannot write topology: " + e);
+      return;
+    }
+    String[] sequential = runNetwork(new String[] {
+      "-headless", "-node", "Benchmark$PingNode", net.getPath() });
+    if (sequential == null)
+      return;
+    System.out.println("parallel: sequential " + sequential[0] +
+      " events in " + sequential[1] + " sec");
+    int[] threads = { 1, 2, 4, 8 };
+    for (int t=0; t<threads.length; t++) {
+      String[] result = runNetwork(new String[] {
+        "-parallel", String.valueOf(threads[t]),
+        "-node", "Benchmark$PingNode", net.getPath() });
+      if (result == null)
+        return;
+      boolean same = result[0].equals(sequential[0]) &&
+        result[2].equals(sequential[2]) && result[3].equals(sequential[3]);
+      System.out.println("parallel: " + threads[t] + " threads " +
+        result[1] + " sec, speedup " + format(
+          Double.parseDouble(sequential[1]) / Double.parseDouble(result[1])) +
+        "x, " + (same ? "identical" : "DIFFERENT") + " results");
+    }
+  }
+  /** Compare DistanceVectorNode's coalesced triggered updates against
+  *   sending every change at once, on partition.net, a generated 12x12
+  *   grid with two link failures and a 200-node Waxman graph with mixed
+  *   link costs.  Each run is a separate JVM, started in the current
+  *   directory, where partition.net is looked for.
+  */
+  private static void dvCoalescing() {
+    File net;
+    try {
+      net = File.createTempFile("grid", ".net");
+      net.deleteOnExit();
+      writeGrid(net, 12);
+    }
+    catch (IOException e) {
+      System.out.println("dv: cannot write topology: " + e);
+      return;
+    }
+    String[] topologies = { "partition.net", net.getPath(),
+      "gen:waxman,n=200,alpha=0.15,beta=0.4,cost=uniform:1:10" };
+    String[] names = { "partition.net", "grid 12x12", "waxman 200" };
+    for (int i=0; i<topologies.length; i++) {
+      String[] uncoalesced = runNetwork(new String[] {
+        "-headless", "-node", "DistanceVectorNode$Uncoalesced",
+        topologies[i] });
+      String[] coalesced = runNetwork(new String[] {
+        "-headless", "-node", "DistanceVectorNode", topologies[i] });
+      if (uncoalesced == null || coalesced == null)
+        return;
+      System.out.println("dv: " + names[i] + ": packets " +
+        reduction(uncoalesced[3], coalesced[3], "") + ", events " +
+        reduction(uncoalesced[0], coalesced[0], "") + ", wall " +
+        reduction(uncoalesced[1], coalesced[1], " sec"));
+    }
+  }
+  /** Describe how many times smaller a number from Network's summary
+  *   became.
+  */
+  private static String reduction(String before, String after,
+      String unit) {
+    double b = Double.parseDouble(before.replace(",", ""));
+    double a = Double.parseDouble(after.replace(",", ""));
+    return before + " -> " + after + unit + " (" +
+      format(b / Math.max(a, 1e-9)) + "x less)";
+  }
+  /** Run Network in a new JVM and return the events processed, wall
+  *   time, routing tables hash and packets sent from its summary, or
+  *   <b>null</b> if it failed.
+  */
+  private static String[] runNetwork(String[] args) {
+    String[] command = new String[args.length + 4];
+    command[0] = new File(new File(System.getProperty("java.home"), "bin"),
+      "java").getPath();
+    command[1] = "-cp";
+    command[2] = System.getProperty("java.class.path");
+    command[3] = "Network";
+    System.arraycopy(args, 0, command, 4, args.length);
+    String[] result = new String[4];
+    try {
+      Process p = new ProcessBuilder(command).redirectErrorStream(true)
+        .start();
+      BufferedReader in = new BufferedReader(
+        new InputStreamReader(p.getInputStream()));
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.startsWith("Events processed: "))
+          result[0] = line.substring(18);
+        else if (line.startsWith("Wall time: "))
+          result[1] = line.substring(11, line.indexOf(" sec")).replace(",", "");
+        else if (line.startsWith("Routing tables hash: "))
+          result[2] = line.substring(21);
+        else if (line.startsWith("Total packets sent: "))
+          result[3] = line.substring(20);
+        else if (line.startsWith("Exception") || line.startsWith("\tat "))
+          System.out.println("  " + line);
+      }
+      p.waitFor();
+    }
+    catch (Exception e) {
+      System.out.println("cannot run Network: " + e);
+      return null;
+    }
+    for (int i=0; i<result.length; i++)
+      if (result[i] == null) {
+        System.out.println("Network run failed");
+        return null;
+      }
+    return result;
+  }
+  /** Write a .net file for a side x side grid with two link failures. */
+  static void writeGrid(File file, int side) throws IOException {
+    PrintWriter out = new PrintWriter(new FileWriter(file));
+    for (int y=0; y<side; y++)
+      for (int x=0; x<side; x++)
+        out.println("node n" + (y*side+x) + " " + x/(double)side + " " +
+          y/(double)side);
+    int n = 0;
+    for (int y=0; y<side; y++)
+      for (int x=0; x<side; x++) {
+        int addr = y*side + x;
+        if (x+1 < side)
+          out.println("link l" + n++ + " n" + addr + " n" + (addr+1) +
+            " 57600 0.01");
+        if (y+1 < side)
+          out.println("link l" + n++ + " n" + addr + " n" + (addr+side) +
+            " 57600 0.01");
+      }
+    out.println("event 0.05 state l0 down");
+    out.println("event 0.15 state l" + (n/2) + " down");
+    out.println("event 0.25 state l0 up");
+    out.close();
+  }
+
+  /** Compare the original BufferedReader and StringTokenizer parser
+  *   against TopologyLoader on a generated 500x500 grid, then TopologyLoader
+  *   against loading a compiled image, and check that all three produce
+  *   the same topology.
+  */
+  private static void topologyLoad() {
+    File net;
+    try {
+      net = File.createTempFile("grid", ".net");
+      net.deleteOnExit();
+      writeGrid(net, 500);
+    }
+    catch (IOException e) {
+      System.out.println("load: cannot write topology: " + e);
+      return;
+    }
+    long tokenizerNanos = Long.MAX_VALUE, loaderNanos = Long.MAX_VALUE;
+    Topology old = null, loaded = null;
+    // The first round only warms up the compiler.
+    for (int rep=0; rep<4; rep++) {
+      long start = System.nanoTime();
+      old = readWithTokenizer(net.getPath());
+      if (rep > 0)
+        tokenizerNanos = Math.min(tokenizerNanos, System.nanoTime() - start);
+      start = System.nanoTime();
+      loaded = new TopologyLoader().load(net.getPath());
+      if (rep > 0)
+        loaderNanos = Math.min(loaderNanos, System.nanoTime() - start);
+    }
+    long lines = loaded.getNodeCount() + loaded.getLinkCount() +
+      loaded.getEventCount();
+    report("load " + lines + " lines", "tokenizer", tokenizerNanos,
+      "loader", loaderNanos, lines);
+    double mb = net.length() / 1e6;
+    System.out.println("  tokenizer " + format(mb / (tokenizerNanos/1e9)) +
+      " MB/sec, loader " + format(mb / (loaderNanos/1e9)) + " MB/sec, " +
+      (sameTopology(old, loaded) ? "identical" : "DIFFERENT") +
+      " topologies");
+
+    File image;
+    try {
+      image = File.createTempFile("grid", ".netc");
+      image.deleteOnExit();
+      TopologyImage.write(loaded, net, image.getPath());
+    }
+    catch (IOException e) {
+      System.out.println("load: cannot write image: " + e);
+      return;
+    }
+    long imageNanos = Long.MAX_VALUE;
+    Topology mapped = null;
+    for (int rep=0; rep<4; rep++) {
+      long start = System.nanoTime();
+      mapped = TopologyImage.read(image.getPath());
+      if (rep > 0)
+        imageNanos = Math.min(imageNanos, System.nanoTime() - start);
+    }
+    report("load " + lines + " lines", "loader", loaderNanos,
+      "image", imageNanos, lines);
+    System.out.println("  " + (mapped != null && sameTopology(loaded, mapped) ?
+      "identical" : "DIFFERENT") + " topologies");
+  }
+  /** The original topology parser: BufferedReader, StringTokenizer,
+  *   Double.valueOf and Hashtable.  Bad lines are skipped silently.
+  */
+  static Topology readWithTokenizer(String filename) {
+    Hashtable nodesByName = new Hashtable(), linksByName = new Hashtable();
+    Vector names = new Vector(), xs = new Vector(), ys = new Vector();
+    Vector linkNames = new Vector(), links = new Vector();
+    Vector events = new Vector();
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(filename));
+      String s;
+      while ((s = in.readLine()) != null) {
+        int comment = s.indexOf('#');
+        if (comment != -1)
+          s = s.substring(0, comment);
+        s = s.trim();
+        if (s.equals("")) continue;
+        StringTokenizer t = new StringTokenizer(s);
+        String command = t.nextToken();
+        try {
+          if (command.equalsIgnoreCase("node")) {
+            String name = t.nextToken();
+            Double x = Double.valueOf(t.nextToken());
+            Double y = Double.valueOf(t.nextToken());
+            nodesByName.put(name, Integer.valueOf(names.size()));
+            names.addElement(name);
+            xs.addElement(x);
+            ys.addElement(y);
+          }
+          else if (command.equalsIgnoreCase("link")) {
+            String name = t.nextToken();
+            Integer a = (Integer)nodesByName.get(t.nextToken());
+            Integer b = (Integer)nodesByName.get(t.nextToken());
+            if (a == null || b == null)
+              continue;
+            int speed = Integer.parseInt(t.nextToken());
+            double latency = Double.valueOf(t.nextToken()).doubleValue();
+            int cost = t.hasMoreTokens() ? Integer.parseInt(t.nextToken()) : 1;
+            linksByName.put(name, Integer.valueOf(links.size()));
+            linkNames.addElement(name);
+            links.addElement(new Link(a.intValue(), b.intValue(), speed,
+              latency, cost));
+          }
+          else if (command.equalsIgnoreCase("event")) {
+            String time = t.nextToken();
+            if (!t.nextToken().equalsIgnoreCase("state"))
+              continue;
+            Integer link = (Integer)linksByName.get(t.nextToken());
+            if (link == null)
+              continue;
+            boolean up = t.nextToken().equalsIgnoreCase("up");
+            events.addElement(new Object[] { Double.valueOf(time), link,
+              Boolean.valueOf(up) });
+          }
+        }
+        catch (NoSuchElementException e) {
+        }
+        catch (NumberFormatException e) {
+        }
+      }
+      in.close();
+    }
+    catch (IOException e) {
+      System.out.println(filename + ": " + e);
+      return null;
+    }
+    int n = names.size(), m = links.size(), k = events.size();
+    String[] nodeNames = new String[n];
+    names.copyInto(nodeNames);
+    double[] nodeX = new double[n], nodeY = new double[n];
+    for (int i=0; i<n; i++) {
+      nodeX[i] = ((Double)xs.elementAt(i)).doubleValue();
+      nodeY[i] = ((Double)ys.elementAt(i)).doubleValue();
+    }
+    String[] linkNameArray = new String[m];
+    linkNames.copyInto(linkNameArray);
+    int[] a = new int[m], b = new int[m], speed = new int[m], cost = new int[m];
+    double[] latency = new double[m];
+    for (int i=0; i<m; i++) {
+      Link l = (Link)links.elementAt(i);
+      a[i] = l.getEndpointA();
+      b[i] = l.getEndpointB();
+      speed[i] = l.getSpeed();
+      latency[i] = l.getLatency();
+      cost[i] = l.getCost();
+    }
+    double[] eventTime = new double[k];
+    int[] eventLink = new int[k];
+    boolean[] eventUp = new boolean[k];
+    for (int i=0; i<k; i++) {
+      Object[] e = (Object[])events.elementAt(i);
+      eventTime[i] = ((Double)e[0]).doubleValue();
+      eventLink[i] = ((Integer)e[1]).intValue();
+      eventUp[i] = ((Boolean)e[2]).booleanValue();
+    }
+    return new Topology(filename, nodeNames, nodeX, nodeY, linkNameArray, a,
+      b, speed, latency, cost, eventTime, eventLink, eventUp);
+  }
+  /** Returns <b>true</b> if two topologies have the same contents. */
+  static boolean sameTopology(Topology s, Topology t) {
+    if (s.getNodeCount() != t.getNodeCount() ||
+        s.getLinkCount() != t.getLinkCount() ||
+        s.getEventCount() != t.getEventCount())
+      return false;
+    for (int i=0; i<s.getNodeCount(); i++)
+      if (!s.getNodeName(i).equals(t.getNodeName(i)) ||
+          s.getNodeX(i) != t.getNodeX(i) || s.getNodeY(i) != t.getNodeY(i))
+        return false;
+    for (int i=0; i<s.getLinkCount(); i++)
+      if (!s.getLinkName(i).equals(t.getLinkName(i)) ||
+          s.getLinkEndpointA(i) != t.getLinkEndpointA(i) ||
+          s.getLinkEndpointB(i) != t.getLinkEndpointB(i) ||
+          s.getLinkSpeed(i) != t.getLinkSpeed(i) ||
+          s.getLinkLatency(i) != t.getLinkLatency(i) ||
+          s.getLinkCost(i) != t.getLinkCost(i))
+        return false;
+    for (int i=0; i<s.getEventCount(); i++)
+      if (s.getEventTime(i) != t.getEventTime(i) ||
+          s.getEventLink(i) != t.getEventLink(i) ||
+          s.getEventUp(i) != t.getEventUp(i))
+        return false;
+    return true;
+  }
+
+  /** A node that exchanges a fixed number of packets with each neighbor,
+  *   used as a workload.  Each packet carries a countdown and a vector of
+  *   numbers to parse, as a distance-vector update would.  Every receipt
+  *   folds the countdown and the time into the route for the sender, so
+  *   the final routing tables depend on the exact order of events.
+  */
+  public static class PingNode extends NodeBase {
+    public PingNode(int address) {
+      super(address);
+    }
+    public void init() {
+      Enumeration e = getInterfaces();
+      while (e.hasMoreElements())
+        send(((Link)e.nextElement()).getDest(getAddress()), ROUNDS);
+    }
+    public void interfaceUp(Link lnk) {
+      send(lnk.getDest(getAddress()), ROUNDS);
+    }
+    public void interfaceDown(Link lnk) {
+      routingTable.remove(lnk.getDest(getAddress()));
+    }
+    public void receivePacket(int source, String pkt) {
+      int colon = pkt.indexOf(':');
+      int count = Integer.parseInt(pkt.substring(0, colon));
+      int sum = 0;
+      for (int i=colon+1; i<pkt.length(); ) {
+        int end = pkt.indexOf(' ', i);
+        if (end == -1)
+          end = pkt.length();
+        sum += Integer.parseInt(pkt.substring(i, end));
+        i = end+1;
+      }
+      Route r = routingTable.findRoute(source);
+      int cost = (r == null ? 0 : r.getCost()*31) + count + sum +
+        (int)(getCurrentTime()*1e6);
+      routingTable.add(new Route(source, source, cost));
+      if (count > 0)
+        send(source, count-1);
+    }
+    private void send(int dest, int count) {
+      sendPacket(dest, count + ":" + VECTOR);
+    }
+    private static final int ROUNDS = 20;
+    private static final String VECTOR;
+    static {
+      StringBuffer b = new StringBuffer();
+      for (int i=0; i<32; i++)
+        b.append(i == 0 ? "" : " ").append(i*7 % 16);
+      VECTOR = b.toString();
+    }
+  }
+
+  /** Compare a linear scan of the link list against LinkIndex on square
+  *   grid topologies of increasing size.
+  */
+  private static void linkLookup() {
+    int[] sides = { 10, 32, 71 };  // about 100, 1000 and 5000 nodes
+    for (int s=0; s<sides.length; s++) {
+      Link[] links = gridLinks(sides[s]);
+      Vector linkVector = new Vector();
+      LinkIndex index = new LinkIndex(links.length);
+      for (int i=0; i<links.length; i++) {
+        linkVector.addElement(links[i]);
+        index.add(links[i]);
+      }
+      int lookups = 20000;
+      int[] a = new int[lookups];
+      int[] b = new int[lookups];
+      Random r = new Random(1);
+      for (int i=0; i<lookups; i++) {
+        Link l = links[r.nextInt(links.length)];
+        boolean flip = r.nextBoolean();
+        a[i] = flip ? l.getEndpointB() : l.getEndpointA();
+        b[i] = flip ? l.getEndpointA() : l.getEndpointB();
+      }
+
+      long found = 0;
+      long linearNanos = Long.MAX_VALUE, indexNanos = Long.MAX_VALUE;
+      for (int rep=0; rep<5; rep++) {
+        long start = System.nanoTime();
+        for (int i=0; i<lookups; i++)
+          if (linearFind(linkVector, a[i], b[i]) != null) found++;
+        linearNanos = Math.min(linearNanos, System.nanoTime() - start);
+        start = System.nanoTime();
+        for (int i=0; i<lookups; i++)
+          if (index.find(a[i], b[i]) != null) found++;
+        indexNanos = Math.min(indexNanos, System.nanoTime() - start);
+      }
+      report("links " + sides[s]*sides[s] + " nodes/" + links.length +
+        " links", "linear", linearNanos, "index", indexNanos, lookups);
+      if (found != 10L*lookups)
+        System.out.println("  (lookup mismatch: " + found + ")");
+    }
+  }
+  /** The original Network.findLinkByNodes: a scan over every link. */
+  private static Link linearFind(Vector links, int a, int b) {
+    for (int i=0; i<links.size(); i++) {
+      Link l = (Link)links.elementAt(i);
+      if ((l.getEndpointA() == a && l.getEndpointB() == b) ||
+          (l.getEndpointA() == b && l.getEndpointB() == a))
+        return l;
+    }
+    return null;
+  }
+  /** Build the links of a side x side grid, each node connected to its
+  *   right and lower neighbors.
+  */
+  static Link[] gridLinks(int side) {
+    Link[] links = new Link[2*side*(side-1)];
+    int n = 0;
+    for (int y=0; y<side; y++)
+      for (int x=0; x<side; x++) {
+        int addr = y*side + x;
+        if (x+1 < side)
+          links[n++] = new Link(addr, addr+1, 57600, 0.01, 1);
+        if (y+1 < side)
+          links[n++] = new Link(addr, addr+side, 57600, 0.01, 1);
+      }
+    return links;
+  }
+  /** An event that does nothing, used to exercise the event queues. */
+  static class BenchEvent extends Event {
+    BenchEvent(double time) { super(time); }
+    public void run() {}
+  }
+  /** The original EventQueue: a binary heap stored in a Vector. */
+  private static class VectorHeap {
+    boolean empty() { return data.size() == 0; }
+    void insert(Event e) {
+      int i = data.size();
+      data.addElement(e);
+      while (i > 0 && ((Event)data.elementAt(i)).getTime() <
+          ((Event)data.elementAt((i-1)/2)).getTime()) {
+        Object t = data.elementAt(i);
+        data.setElementAt(data.elementAt((i-1)/2), i);
+        data.setElementAt(t, (i-1)/2);
+        i = (i-1)/2;
+      }
+    }
+    Event getNext() {
+      Event n = (Event)data.elementAt(0);
+      int i = 0;
+      data.setElementAt(data.elementAt(data.size()-1), 0);
+      data.removeElementAt(data.size()-1);
+      while (true) {
+        int next;
+        if (i*2+1 >= data.size()) break;
+        if (i*2+2 >= data.size())
+          next = i*2+1;
+        else if (((Event)data.elementAt(i*2+1)).getTime() <
+            ((Event)data.elementAt(i*2+2)).getTime())
+          next = i*2+1;
+        else
+          next = i*2+2;
+        if (((Event)data.elementAt(i)).getTime() >
+            ((Event)data.elementAt(next)).getTime()) {
+          Object t = data.elementAt(i);
+          data.setElementAt(data.elementAt(next), i);
+          data.setElementAt(t, next);
+          i = next;
+        }
+        else
+          break;
+      }
+      return n;
+    }
+    private Vector data = new Vector();
+  }
+  /** Print the per-operation times of an old and a new implementation. */
+  static void report(String what, String oldName, long oldNanos,
+      String newName, long newNanos, long ops) {
+    System.out.println(what + ": " +
+      oldName + " " + format(oldNanos/(double)ops) + " ns/op, " +
+      newName + " " + format(newNanos/(double)ops) + " ns/op, " +
+      "speedup " + format(oldNanos/(double)Math.max(newNanos, 1)) + "x");
+  }
+  /** Format a number with at most two fraction digits. */
+  static String format(double d) {
+    return String.valueOf(Math.round(d*100)/100.0);
+  }
+}
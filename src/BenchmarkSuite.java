@@ -0,0 +1,749 @@
+import java.io.*;
+import java.util.*;
+
+/** A benchmark harness for the simulator's hot paths, in the manner of
+*   JMH: every benchmark runs for a number of timed warm-up iterations,
+*   which are thrown away, and then a number of measured iterations, and
+*   the score is the mean time per operation with a 99.9% confidence
+*   interval.  Run as
+*   <pre>
+*   java BenchmarkSuite [-warmup n] [-iterations n] [-time ms]
+*                       [-json file] [-compare base.json] [name...]
+*   </pre>
+*   Only the benchmarks whose names and parameters, as the results
+*   show them ("run file=ring.net"), contain one of the given names are
+*   run.  "-json" writes the results in JMH's JSON format, and "-compare"
+*   reads results written earlier (by this harness or by JMH) and prints
+*   the change of every benchmark they have in common, so runs can be
+*   compared across commits.  The benchmarks are
+*   <ul>
+*   <li>queue.hold: EventQueue getNext and insert on the hold model, for
+*   each queue and a small and large population;
+*   <li>queue.burst: a burst of inserts followed by draining the queue;
+*   <li>links.findLinkByNodes: Simulation.findLinkByNodes on grids of
+*   increasing size;
+*   <li>routing.findRoute, routing.findRouteByNextHop and routing.remove
+*   (a remove followed by adding the route back) on tables of increasing
+*   size;
+*   <li>link.timeToTransmit;
+*   <li>run: a full headless run of each shipped .net file, with
+*   Benchmark.PingNode as the workload.
+*   </ul>
+*   Unlike Benchmark, which compares each implementation against the one
+*   it replaced, this measures the tree as it is.
+*   @see Benchmark
+*/
+public class BenchmarkSuite {
+  /** Run the benchmarks.
+  *   @param argv Command-line arguments; see above.
+  */
+  public static void main(String[] argv) {
+    int warmup = 2, iterations = 5;
+    long time = 1000;
+    String json = null, compare = null;
+    Vector filters = new Vector();
+    try {
+      for (int arg=0; arg<argv.length; arg++) {
+        if (argv[arg].equals("-warmup") && arg+1 < argv.length)
+          warmup = Integer.parseInt(argv[++arg]);
+        else if (argv[arg].equals("-iterations") && arg+1 < argv.length)
+          iterations = Integer.parseInt(argv[++arg]);
+        else if (argv[arg].equals("-time") && arg+1 < argv.length)
+          time = Long.parseLong(argv[++arg]);
+        else if (argv[arg].equals("-json") && arg+1 < argv.length)
+          json = argv[++arg];
+        else if (argv[arg].equals("-compare") && arg+1 < argv.length)
+          compare = argv[++arg];
+        else if (argv[arg].startsWith("-"))
+          usage();
+        else
+          filters.addElement(argv[arg]);
+      }
+    }
+    catch (NumberFormatException e) {
+      usage();
+    }
+    if (iterations < 1 || warmup < 0 || time < 1)
+      usage();
+
+    Vector baseline = null;
+    if (compare != null) {
+      try {
+        baseline = (Vector)new JsonReader(compare).read();
+      }
+      catch (Exception e) {
+        System.out.println(compare + ": cannot read results: " +
+          e.getMessage());
+        System.exit(-1);
+      }
+    }
+
+    Vector results = new Vector();
+    Vector all = workloads();
+    for (int i=0; i<all.size(); i++) {
+      Workload w = (Workload)all.elementAt(i);
+      if (!selected(w.label(), filters))
+        continue;
+      Result r = measure(w, warmup, iterations, time * 1000000L);
+      results.addElement(r);
+      System.out.println(r);
+      if (baseline != null)
+        compare(r, baseline);
+    }
+    if (results.isEmpty()) {
+      System.out.println("no benchmarks match " + filters);
+      System.exit(-1);
+    }
+    if (json != null) {
+      try {
+        writeJson(results, warmup, iterations, time, json);
+        System.out.println(results.size() + " results written to " + json);
+      }
+      catch (IOException e) {
+        System.out.println(json + ": " + e);
+        System.exit(-1);
+      }
+    }
+    if (sink == 42)
+      System.out.println();  // keeps the results alive
+  }
+  /** Print a usage message and exit. */
+  private static void usage() {
+    System.out.println("usage: java BenchmarkSuite [-warmup n] " +
+      "[-iterations n] [-time ms] [-json file] [-compare base.json] " +
+      "[name...]");
+    System.exit(-1);
+  }
+  /** Returns <b>true</b> if a benchmark's label, its name and parameters
+  *   as the results show them, contains one of the filters, or there are
+  *   none.
+  */
+  private static boolean selected(String label, Vector filters) {
+    if (filters.isEmpty())
+      return true;
+    for (int i=0; i<filters.size(); i++)
+      if (label.indexOf((String)filters.elementAt(i)) != -1)
+        return true;
+    return false;
+  }
+
+  /** Returns every benchmark, with all of its parameters. */
+  private static Vector workloads() {
+    Vector v = new Vector();
+    String[] queues = { "heap", "heap4", "calendar" };
+    int[] populations = { 1000, 100000 };
+    for (int q=0; q<queues.length; q++)
+      for (int p=0; p<populations.length; p++)
+        v.addElement(new QueueHold(queues[q], populations[p]));
+    int[] bursts = { 1000, 100000 };
+    for (int q=0; q<queues.length; q++)
+      for (int b=0; b<bursts.length; b++)
+        v.addElement(new QueueBurst(queues[q], bursts[b]));
+    int[] sides = { 10, 100, 316 };
+    for (int s=0; s<sides.length; s++)
+      v.addElement(new FindLink(sides[s]));
+    String[] ops = { "findRoute", "findRouteByNextHop", "remove" };
+    int[] sizes = { 16, 1024, 65536 };
+    for (int o=0; o<ops.length; o++)
+      for (int s=0; s<sizes.length; s++)
+        v.addElement(new Routing(ops[o], sizes[s]));
+    v.addElement(new TimeToTransmit());
+    String[] files = { "ring.net", "tree.net", "partition.net" };
+    for (int f=0; f<files.length; f++)
+      v.addElement(new FullRun(files[f]));
+    return v;
+  }
+
+  /** Run a benchmark's iterations and return its result.
+  *   @param w The benchmark.
+  *   @param warmup The number of warm-up iterations.
+  *   @param iterations The number of measured iterations.
+  *   @param nanos The length of each iteration.
+  */
+  private static Result measure(Workload w, int warmup, int iterations,
+      long nanos) {
+    w.setUp();
+    double[] scores = new double[iterations];
+    for (int i=-warmup; i<iterations; i++) {
+      long ops = 0;
+      long start = System.nanoTime(), elapsed;
+      do {
+        ops += w.run();
+        elapsed = System.nanoTime() - start;
+      } while (elapsed < nanos);
+      if (i >= 0)
+        scores[i] = elapsed / (double)ops;
+    }
+    sink ^= w.sink;
+    w.tearDown();
+    return new Result(w, scores);
+  }
+  /** Print the change of a result from the one with the same name and
+  *   parameters in a baseline, if there is one.
+  */
+  private static void compare(Result r, Vector baseline) {
+    for (int i=0; i<baseline.size(); i++) {
+      Hashtable b = (Hashtable)baseline.elementAt(i);
+      Hashtable params = (Hashtable)b.get("params");
+      if (!r.workload.name.equals(b.get("benchmark")) ||
+          !r.workload.params.equals(params == null ? new Hashtable() : params))
+        continue;
+      Hashtable metric = (Hashtable)b.get("primaryMetric");
+      double old = number(metric.get("score"));
+      double oldError = number(metric.get("scoreError"));
+      // The change only counts if the confidence intervals do not overlap;
+      // with a single iteration there is no interval to go by.
+      boolean within = Math.abs(r.score - old) <= r.error + oldError;
+      System.out.println("  baseline " + Benchmark.format(old) + " ns/op, " +
+        (r.score <= old ? "speedup " + Benchmark.format(old / r.score) :
+        "slowdown " + Benchmark.format(r.score / old)) + "x" +
+        (within ? " (within error)" : ""));
+      return;
+    }
+    System.out.println("  not in baseline");
+  }
+
+  /** Write results as JMH's JSON does: an array with one object per
+  *   benchmark and set of parameters.
+  */
+  private static void writeJson(Vector results, int warmup, int iterations,
+      long time, String filename) throws IOException {
+    PrintWriter out = new PrintWriter(new BufferedWriter(
+      new FileWriter(filename)));
+    out.println("[");
+    for (int i=0; i<results.size(); i++) {
+      Result r = (Result)results.elementAt(i);
+      out.println("    {");
+      out.println("        \"jmhVersion\" : \"none\",");
+      out.println("        \"benchmark\" : " + quote(r.workload.name) + ",");
+      out.println("        \"mode\" : \"avgt\",");
+      out.println("        \"threads\" : 1,");
+      out.println("        \"forks\" : 0,");
+      out.println("        \"jvm\" : " +
+        quote(System.getProperty("java.home")) + ",");
+      out.println("        \"vmName\" : " +
+        quote(System.getProperty("java.vm.name")) + ",");
+      out.println("        \"vmVersion\" : " +
+        quote(System.getProperty("java.vm.version")) + ",");
+      out.println("        \"warmupIterations\" : " + warmup + ",");
+      out.println("        \"warmupTime\" : \"" + time + " ms\",");
+      out.println("        \"measurementIterations\" : " + iterations + ",");
+      out.println("        \"measurementTime\" : \"" + time + " ms\",");
+      out.println("        \"params\" : {");
+      Vector keys = new Vector(r.workload.params.keySet());
+      Collections.sort(keys);
+      for (int k=0; k<keys.size(); k++) {
+        String key = (String)keys.elementAt(k);
+        out.println("            " + quote(key) + " : " +
+          quote((String)r.workload.params.get(key)) +
+          (k+1 < keys.size() ? "," : ""));
+      }
+      out.println("        },");
+      out.println("        \"primaryMetric\" : {");
+      out.println("            \"score\" : " + json(r.score) + ",");
+      out.println("            \"scoreError\" : " + json(r.error) + ",");
+      out.println("            \"scoreConfidence\" : [ " +
+        json(r.score - r.error) + ", " + json(r.score + r.error) + " ],");
+      out.println("            \"scoreUnit\" : \"ns/op\",");
+      out.print("            \"rawData\" : [ [ ");
+      for (int s=0; s<r.scores.length; s++)
+        out.print((s > 0 ? ", " : "") + json(r.scores[s]));
+      out.println(" ] ]");
+      out.println("        },");
+      out.println("        \"secondaryMetrics\" : {}");
+      out.println("    }" + (i+1 < results.size() ? "," : ""));
+    }
+    out.println("]");
+    out.close();
+    if (out.checkError())
+      throw new IOException("write failed");
+  }
+  /** Returns a number as JSON.  JSON has no NaN or infinity, so those
+  *   are written as strings, as JMH writes them.
+  */
+  private static String json(double v) {
+    if (Double.isNaN(v) || Double.isInfinite(v))
+      return quote(String.valueOf(v));
+    return String.valueOf(v);
+  }
+  /** Returns a number read from JSON: a number, or a string such as
+  *   "NaN" as json() writes; NaN for anything else.
+  */
+  private static double number(Object v) {
+    if (v instanceof Double)
+      return ((Double)v).doubleValue();
+    if (!(v instanceof String))
+      return Double.NaN;
+    try {
+      return Double.valueOf((String)v).doubleValue();
+    }
+    catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+  /** Returns a string as a JSON string literal. */
+  private static String quote(String s) {
+    StringBuffer b = new StringBuffer("\"");
+    for (int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+        b.append('\\').append(c);
+      else if (c < ' ')
+        b.append("\\u").append(Integer.toHexString(0x10000 | c).substring(1));
+      else
+        b.append(c);
+    }
+    return b.append('"').toString();
+  }
+
+  /** One benchmark with one set of parameters.  Each call to run()
+  *   performs a batch of operations and returns how many.
+  */
+  abstract static class Workload {
+    Workload(String name) {
+      this.name = name;
+    }
+    /** Add a parameter, for the report. */
+    Workload param(String key, Object value) {
+      params.put(key, String.valueOf(value));
+      return this;
+    }
+    /** Returns the name followed by the parameters, sorted by name: for
+    *   example, "run file=ring.net".
+    */
+    String label() {
+      Vector keys = new Vector(params.keySet());
+      Collections.sort(keys);
+      StringBuffer b = new StringBuffer(name);
+      for (int k=0; k<keys.size(); k++)
+        b.append(k == 0 ? " " : ",").append(keys.elementAt(k)).append('=')
+          .append(params.get(keys.elementAt(k)));
+      return b.toString();
+    }
+    void setUp() {}
+    abstract long run();
+    void tearDown() {}
+    /** The benchmark's name. */
+    String name;
+    /** The parameters, by name. */
+    Hashtable params = new Hashtable();
+    /** Results folded together so the work cannot be optimized away. */
+    long sink;
+  }
+  /** The score of a benchmark. */
+  private static class Result {
+    Result(Workload workload, double[] scores) {
+      this.workload = workload;
+      this.scores = scores;
+      double sum = 0;
+      for (int i=0; i<scores.length; i++)
+        sum += scores[i];
+      score = sum / scores.length;
+      if (scores.length > 1) {
+        double squares = 0;
+        for (int i=0; i<scores.length; i++)
+          squares += (scores[i] - score)*(scores[i] - score);
+        int df = scores.length - 1;
+        error = studentT(df) * Math.sqrt(squares / df / scores.length);
+      }
+    }
+    public String toString() {
+      StringBuffer b = new StringBuffer(workload.label());
+      b.append(": ").append(Benchmark.format(score));
+      if (!Double.isNaN(error))
+        b.append(" +- ").append(Benchmark.format(error));
+      return b.append(" ns/op").toString();
+    }
+    Workload workload;
+    double[] scores;
+    double score, error = Double.NaN;
+  }
+  /** Returns the two-sided 99.9% quantile of Student's t distribution. */
+  private static double studentT(int df) {
+    return df <= T999.length ? T999[df-1] : 3.291;
+  }
+  /** The two-sided 99.9% quantiles of Student's t, for 1-30 degrees of
+  *   freedom.
+  */
+  private static final double[] T999 = {
+    636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+    4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+    3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+  /** Returns a new event queue of the given kind. */
+  private static EventQueue newQueue(String kind) {
+    if (kind.equals("calendar"))
+      return new CalendarEventQueue();
+    return new HeapEventQueue(kind.equals("heap4") ? 4 : 2);
+  }
+  /** The hold model: remove the earliest event, and insert it again a
+  *   random interval later.  The events are reused, so nothing is
+  *   allocated while measuring.
+  */
+  private static class QueueHold extends Workload {
+    QueueHold(String queue, int population) {
+      super("queue.hold");
+      param("queue", queue).param("population", Integer.valueOf(population));
+      this.queue = queue;
+      this.population = population;
+    }
+    void setUp() {
+      q = newQueue(queue);
+      r = new Random(1);
+      try {
+        for (int i=0; i<population; i++)
+          q.insert(new Benchmark.BenchEvent(r.nextDouble()));
+      }
+      catch (TimeInconsistencyException e) {
+        throw new IllegalStateException("event queue out of order");
+      }
+    }
+    long run() {
+      try {
+        for (int i=0; i<BATCH; i++) {
+          Event e = q.getNext();
+          e.setTime(e.getTime() + r.nextDouble());
+          q.insert(e);
+        }
+      }
+      catch (TimeInconsistencyException e) {
+        throw new IllegalStateException("event queue out of order");
+      }
+      return BATCH;
+    }
+    void tearDown() {
+      q = null;
+    }
+    private static final int BATCH = 1024;
+    private String queue;
+    private int population;
+    private EventQueue q;
+    private Random r;
+  }
+  /** Bursts: insert a burst of events spread over one second after the
+  *   last one, then drain the queue.  One operation is an insert and a
+  *   getNext.
+  */
+  private static class QueueBurst extends Workload {
+    QueueBurst(String queue, int burst) {
+      super("queue.burst");
+      param("queue", queue).param("burst", Integer.valueOf(burst));
+      this.queue = queue;
+      this.burst = burst;
+    }
+    void setUp() {
+      q = newQueue(queue);
+      r = new Random(1);
+      events = new Event[burst];
+      for (int i=0; i<burst; i++)
+        events[i] = new Benchmark.BenchEvent(0);
+      now = 0;
+    }
+    long run() {
+      try {
+        for (int i=0; i<burst; i++) {
+          events[i].setTime(now + r.nextDouble());
+          q.insert(events[i]);
+        }
+        while (!q.empty())
+          now = q.getNext().getTime();
+      }
+      catch (TimeInconsistencyException e) {
+        throw new IllegalStateException("event queue out of order");
+      }
+      return burst;
+    }
+    void tearDown() {
+      q = null;
+      events = null;
+    }
+    private String queue;
+    private int burst;
+    private EventQueue q;
+    private Random r;
+    private Event[] events;
+    private double now;
+  }
+  /** Simulation.findLinkByNodes on a side x side grid, for random pairs
+  *   of neighbors in either order.
+  */
+  private static class FindLink extends Workload {
+    FindLink(int side) {
+      super("links.findLinkByNodes");
+      param("links", Integer.valueOf(2*side*(side-1)));
+      this.side = side;
+    }
+    void setUp() {
+      sim = new Simulation();
+      sim.load(new TopologyGenerator("grid,width=" + side).generate("grid"));
+      Random r = new Random(1);
+      a = new int[LOOKUPS];
+      b = new int[LOOKUPS];
+      int links = sim.getLinkCount();
+      for (int i=0; i<LOOKUPS; i++) {
+        Link l = sim.getLink("l" + r.nextInt(links));
+        boolean flip = r.nextBoolean();
+        a[i] = flip ? l.getEndpointB() : l.getEndpointA();
+        b[i] = flip ? l.getEndpointA() : l.getEndpointB();
+      }
+    }
+    long run() {
+      for (int i=0; i<LOOKUPS; i++)
+        sink += sim.findLinkByNodes(a[i], b[i]).getCost();
+      return LOOKUPS;
+    }
+    void tearDown() {
+      sim = null;
+    }
+    private static final int LOOKUPS = 4096;
+    private int side;
+    private Simulation sim;
+    private int[] a, b;
+  }
+  /** RoutingTable operations on a table of the given size, whose routes
+  *   go through sixteen next hops.  "remove" removes a route and adds it
+  *   back, so the table keeps its size.
+  */
+  private static class Routing extends Workload {
+    Routing(String op, int size) {
+      super("routing." + op);
+      param("size", Integer.valueOf(size));
+      this.op = op;
+      this.size = size;
+    }
+    void setUp() {
+      table = new RoutingTable();
+      routes = new Route[size];
+      for (int d=0; d<size; d++) {
+        routes[d] = new Route(d, d % 16, d);
+        table.add(routes[d]);
+      }
+      Random r = new Random(1);
+      keys = new int[LOOKUPS];
+      for (int i=0; i<LOOKUPS; i++)
+        keys[i] = r.nextInt(op.equals("findRouteByNextHop") ? 16 : size);
+    }
+    long run() {
+      if (op.equals("findRoute"))
+        for (int i=0; i<LOOKUPS; i++)
+          sink += table.findRoute(keys[i]).getCost();
+      else if (op.equals("findRouteByNextHop"))
+        for (int i=0; i<LOOKUPS; i++)
+          sink += table.findRouteByNextHop(keys[i]).getCost();
+      else
+        for (int i=0; i<LOOKUPS; i++) {
+          table.remove(keys[i]);
+          table.add(routes[keys[i]]);
+        }
+      sink += table.size();
+      return LOOKUPS;
+    }
+    void tearDown() {
+      table = null;
+      routes = null;
+    }
+    private static final int LOOKUPS = 4096;
+    private String op;
+    private int size;
+    private RoutingTable table;
+    private Route[] routes;
+    private int[] keys;
+  }
+  /** Link.timeToTransmit for packets of varying sizes. */
+  private static class TimeToTransmit extends Workload {
+    TimeToTransmit() {
+      super("link.timeToTransmit");
+    }
+    void setUp() {
+      link = new Link(0, 1, 57600, 0.01, 1);
+    }
+    long run() {
+      double t = 0;
+      for (int i=0; i<BATCH; i++)
+        t += link.timeToTransmit(i & 1023);
+      sink += (long)t;
+      return BATCH;
+    }
+    private static final int BATCH = 4096;
+    private Link link;
+  }
+  /** A full headless run of a .net file.  The file is read once; each
+  *   operation is a new Simulation loading, initializing and running it.
+  */
+  private static class FullRun extends Workload {
+    FullRun(String file) {
+      super("run");
+      param("file", file);
+      this.file = file;
+    }
+    void setUp() {
+      PrintStream out = System.out;
+      System.setOut(new PrintStream(new ByteArrayOutputStream()));
+      try {
+        topology = Topology.read(file);
+      }
+      finally {
+        System.setOut(out);
+      }
+      if (topology == null)
+        throw new IllegalStateException(file + ": cannot read topology");
+    }
+    long run() {
+      Simulation sim = new Simulation(new HeapEventQueue(),
+        new EventPool(true, false), Benchmark.PingNode.class);
+      sim.load(topology);
+      sim.init();
+      sim.run();
+      sink += sim.routingTablesHash();
+      return 1;
+    }
+    void tearDown() {
+      topology = null;
+    }
+    private String file;
+    private Topology topology;
+  }
+
+  /** Reads the JSON that JMH and this harness write: objects become
+  *   Hashtables, arrays Vectors, numbers Doubles and true, false and null
+  *   Booleans and <b>null</b>.
+  */
+  private static class JsonReader {
+    JsonReader(String filename) throws IOException {
+      Reader in = new BufferedReader(new FileReader(filename));
+      StringBuffer b = new StringBuffer();
+      char[] buf = new char[8192];
+      int n;
+      while ((n = in.read(buf)) != -1)
+        b.append(buf, 0, n);
+      in.close();
+      text = b.toString();
+    }
+    Object read() throws IOException {
+      Object v = value();
+      skipSpace();
+      if (pos != text.length())
+        throw error("trailing characters");
+      return v;
+    }
+    private Object value() throws IOException {
+      skipSpace();
+      if (pos == text.length())
+        throw error("unexpected end");
+      char c = text.charAt(pos);
+      if (c == '{') {
+        Hashtable h = new Hashtable();
+        pos++;
+        skipSpace();
+        if (peek('}'))
+          return h;
+        do {
+          skipSpace();
+          String key = string();
+          skipSpace();
+          expect(':');
+          Object v = value();
+          if (v != null)
+            h.put(key, v);
+          skipSpace();
+        } while (peek(','));
+        expect('}');
+        return h;
+      }
+      if (c == '[') {
+        Vector v = new Vector();
+        pos++;
+        skipSpace();
+        if (peek(']'))
+          return v;
+        do {
+          v.addElement(value());
+          skipSpace();
+        } while (peek(','));
+        expect(']');
+        return v;
+      }
+      if (c == '"')
+        return string();
+      if (text.startsWith("true", pos)) {
+        pos += 4;
+        return Boolean.TRUE;
+      }
+      if (text.startsWith("false", pos)) {
+        pos += 5;
+        return Boolean.FALSE;
+      }
+      if (text.startsWith("null", pos)) {
+        pos += 4;
+        return null;
+      }
+      int start = pos;
+      while (pos < text.length() && "+-0123456789.eE".indexOf(
+          text.charAt(pos)) != -1)
+        pos++;
+      String number = text.substring(start, pos);
+      if (number.equals("NaN") || text.startsWith("NaN", start)) {
+        pos = start + 3;
+        return Double.valueOf(Double.NaN);
+      }
+      try {
+        return Double.valueOf(number);
+      }
+      catch (NumberFormatException e) {
+        throw error("bad value");
+      }
+    }
+    private String string() throws IOException {
+      expect('"');
+      StringBuffer b = new StringBuffer();
+      while (pos < text.length() && text.charAt(pos) != '"') {
+        char c = text.charAt(pos++);
+        if (c == '\\' && pos < text.length()) {
+          c = text.charAt(pos++);
+          if (c == 'u' && pos+4 <= text.length()) {
+            c = (char)Integer.parseInt(text.substring(pos, pos+4), 16);
+            pos += 4;
+          }
+          else if (c == 'n')
+            c = '\n';
+          else if (c == 't')
+            c = '\t';
+          else if (c == 'r')
+            c = '\r';
+          else if (c == 'b')
+            c = '\b';
+          else if (c == 'f')
+            c = '\f';
+        }
+        b.append(c);
+      }
+      expect('"');
+      return b.toString();
+    }
+    private void skipSpace() {
+      while (pos < text.length() && text.charAt(pos) <= ' ')
+        pos++;
+    }
+    private boolean peek(char c) {
+      if (pos < text.length() && text.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+    private void expect(char c) throws IOException {
+      if (!peek(c))
+        throw error("expected '" + c + "'");
+    }
+    private IOException error(String message) {
+      return new IOException(message + " at character " + pos);
+    }
+    private String text;
+    private int pos;
+  }
+
+  /** Results of every benchmark, folded together so that no benchmark's
+  *   work can be optimized away.
+  */
+  private static long sink;
+}
@@ -0,0 +1,272 @@
+/** A calendar queue (R. Brown, 1988) to represent the event queue.  Time
+*   is divided into "days" of equal width, and the days of one "year" map
+*   onto an array of buckets, each holding a sorted list of the events
+*   that fall on it.  Events are retrieved by walking the buckets in order,
+*   like turning the pages of a calendar, taking only events that belong to
+*   the current year.
+*   When the day width suits the spacing of pending events, most buckets
+*   hold a handful of events and both insert and getNext take amortized
+*   constant time.  The queue keeps it that way by doubling or halving the
+*   number of buckets as the population grows or shrinks, and re-estimating
+*   the day width from the spacing of the earliest events each time.
+*   Events with equal times are retrieved by their order keys, and those
+*   with equal keys in the order they were inserted.
+*   @see Event
+*   @see EventQueue
+*/
+public class CalendarEventQueue implements EventQueue {
+  /** Construct a new, empty queue. */
+  public CalendarEventQueue() {
+    buckets = new Entry[MIN_BUCKETS];
+    width = 1.0;
+    setThresholds();
+    size = 0;
+    currentDay = 0;
+    lastEventTime = 0.0;  // no events allowed before 0.0
+  }
+  /** Returns <b>true</b> if the queue is empty (there are no pending
+  *   events).
+  */
+  public boolean empty() {
+    return size == 0;
+  }
+  /** Returns the number of pending events. */
+  public int size() {
+    return size;
+  }
+  /** Returns the pending events, bucket by bucket. */
+  public Event[] toArray() {
+    Event[] a = new Event[size];
+    int n = 0;
+    for (int i=0; i<buckets.length; i++)
+      for (Entry e=buckets[i]; e!=null; e=e.next)
+        a[n++] = e.event;
+    return a;
+  }
+  /** Removes every pending event, and allows events from time 0.0 again.
+  */
+  public void clear() {
+    buckets = new Entry[MIN_BUCKETS];
+    width = 1.0;
+    setThresholds();
+    size = 0;
+    currentDay = 0;
+    free = null;
+    lastEventTime = 0.0;
+  }
+  /** Inserts an event into the queue, in order among the events of
+  *   the bucket for its day.  This function runs in amortized constant
+  *   time when the day width matches the spacing of the events.
+  *   @param e The event to insert
+  *   @exception TimeInconsistencyException Thrown when the new event
+  *   being inserted occurs in the past (i.e., before any event already
+  *   retrieved with getNext).
+  */
+  public void insert(Event e) throws TimeInconsistencyException {
+    double t = e.getTime();
+    if (t < lastEventTime)
+      throw new TimeInconsistencyException();
+    Entry entry = free;
+    if (entry != null)
+      free = entry.next;
+    else
+      entry = new Entry();
+    entry.event = e;
+    entry.time = t;
+    entry.order = e.getOrder();
+    link(entry);
+    size++;
+    if (size > growThreshold)
+      resize(buckets.length*2);
+  }
+  /** Returns the next event (the one with the earliest time) without
+  *   removing it from the queue.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
+  */
+  public Event peekNext() {
+    return buckets[findNext()].event;
+  }
+  /** Returns the next event (the one with the earliest time) and removes
+  *   it from the queue.  This function runs in amortized constant time
+  *   when the day width matches the spacing of the events.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
+  */
+  public Event getNext() {
+    int b = findNext();
+    Entry entry = buckets[b];
+    buckets[b] = entry.next;
+    size--;
+    lastEventTime = entry.time;
+    Event n = entry.event;
+    entry.event = null;
+    entry.next = free;
+    free = entry;
+    if (size < shrinkThreshold)
+      resize(buckets.length/2);
+    return n;
+  }
+
+  /** Find the bucket whose first entry is the earliest event in the queue,
+  *   and move currentDay to that event's day.  Normally this is within a
+  *   year of currentDay; if the whole year is empty, every bucket is
+  *   searched directly for the earliest event.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
+  */
+  private int findNext() {
+    if (size == 0)
+      throw new ArrayIndexOutOfBoundsException(0);
+    int n = buckets.length;
+    for (int k=0; k<n; k++) {
+      long day = currentDay + k;
+      int b = (int)day & (n-1);
+      Entry head = buckets[b];
+      // Compare days rather than times so that rounding can never
+      // disagree with the bucket the entry was linked into.
+      if (head != null && dayOf(head.time) <= day) {
+        currentDay = day;
+        return b;
+      }
+    }
+    // Nothing this year: the next event is far in the future.
+    int best = -1;
+    for (int b=0; b<n; b++)
+      if (buckets[b] != null && (best == -1 ||
+          Event.before(buckets[b].time, buckets[b].order,
+            buckets[best].time, buckets[best].order)))
+        best = b;
+    currentDay = dayOf(buckets[best].time);
+    return best;
+  }
+  /** Put an entry into its bucket after any entries that do not come
+  *   after it.
+  */
+  private void link(Entry entry) {
+    long day = dayOf(entry.time);
+    // An event earlier than the current day can arrive after peekNext has
+    // moved ahead; move back so that the search starts at its day.
+    if (day < currentDay)
+      currentDay = day;
+    int b = (int)day & (buckets.length-1);
+    Entry prev = null;
+    Entry cur = buckets[b];
+    while (cur != null &&
+        !Event.before(entry.time, entry.order, cur.time, cur.order)) {
+      prev = cur;
+      cur = cur.next;
+    }
+    entry.next = cur;
+    if (prev == null)
+      buckets[b] = entry;
+    else
+      prev.next = entry;
+  }
+  /** Rebuild the calendar with the given number of buckets and a day
+  *   width estimated from the events at the front of the queue.
+  */
+  private void resize(int newBuckets) {
+    if (newBuckets < MIN_BUCKETS)
+      newBuckets = MIN_BUCKETS;
+    if (newBuckets != buckets.length) {
+      double newWidth = estimateWidth();
+      Entry[] old = buckets;
+      buckets = new Entry[newBuckets];
+      width = newWidth;
+      currentDay = dayOf(lastEventTime);
+      for (int i=0; i<old.length; i++) {
+        Entry e = old[i];
+        while (e != null) {
+          Entry next = e.next;
+          link(e);
+          e = next;
+        }
+      }
+    }
+    setThresholds();
+  }
+  /** Estimate a good day width: three times the average gap between the
+  *   earliest events, ignoring unusually large gaps.  The earliest events
+  *   are found by removing them and putting them back, which leaves the
+  *   queue unchanged.
+  */
+  private double estimateWidth() {
+    int samples = Math.min(size, MAX_SAMPLES);
+    if (samples < 2)
+      return width;
+    Entry[] taken = new Entry[samples];
+    for (int i=0; i<samples; i++) {
+      int b = findNext();
+      taken[i] = buckets[b];
+      buckets[b] = taken[i].next;
+    }
+    double total = taken[samples-1].time - taken[0].time;
+    double average = total / (samples-1);
+    double sum = 0.0;
+    int count = 0;
+    for (int i=1; i<samples; i++) {
+      double gap = taken[i].time - taken[i-1].time;
+      if (gap <= average*2) {
+        sum += gap;
+        count++;
+      }
+    }
+    // Put them back in reverse so that equal times keep their order.
+    for (int i=samples-1; i>=0; i--) {
+      int b = (int)dayOf(taken[i].time) & (buckets.length-1);
+      taken[i].next = buckets[b];
+      buckets[b] = taken[i];
+    }
+    currentDay = dayOf(lastEventTime);
+    if (count == 0 || sum <= 0.0)
+      return width;  // all at the same time; any width will do
+    return 3.0 * sum / count;
+  }
+  /** Set the population limits beyond which the calendar is resized. */
+  private void setThresholds() {
+    growThreshold = buckets.length*2;
+    shrinkThreshold = (buckets.length > MIN_BUCKETS) ?
+      buckets.length/2 - 2 : -1;
+  }
+  /** Returns the day number of a time with the current day width. */
+  private long dayOf(double time) {
+    return (long)(time / width);
+  }
+
+  /** One pending event, linked into its bucket's list. */
+  private static class Entry {
+    /** The event. */
+    Event event;
+    /** The event's trigger time. */
+    double time;
+    /** The event's order key. */
+    long order;
+    /** The next entry in the same bucket, or on the free list. */
+    Entry next;
+  }
+
+  /** The fewest buckets the calendar will shrink to. */
+  private static final int MIN_BUCKETS = 2;
+  /** The number of events sampled to estimate the day width. */
+  private static final int MAX_SAMPLES = 25;
+  /** One sorted list of entries per day of the year. */
+  private Entry[] buckets;
+  /** The width of a day (bucket), in seconds. */
+  private double width;
+  /** The day (time divided by width) of the last event found. */
+  private long currentDay;
+  /** The number of events in the queue. */
+  private int size;
+  /** Resize to more buckets when size grows beyond this. */
+  private int growThreshold;
+  /** Resize to fewer buckets when size falls below this. */
+  private int shrinkThreshold;
+  /** Entries no longer in use, reused by insert. */
+  private Entry free;
+  /** The time of the last event fetched by getNext.  This is stored to
+  *   prevent users from inserting new events that occur before ones that
+  *   have already been retreived.
+  */
+  private double lastEventTime;
+}
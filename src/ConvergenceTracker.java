@@ -0,0 +1,180 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+/** Records how long routing takes to converge after each topology change.
+*   The run is divided into epochs: the first starts when the network
+*   boots, and each link event (or set of link events with the same time)
+*   starts another.  For each epoch the tracker keeps the last time any
+*   routing table changed, and how many packets had been sent by the end
+*   of that time.  Packets are counted from the start of the epoch,
+*   including every packet sent at the time of the last change, so the
+*   count does not depend on the order in which events with equal times
+*   happen to run, and every engine reports the same numbers.
+*   Simulation and its engines feed the tracker from a single thread:
+*   change() when a routing table changes, advance() when the clock moves
+*   past a time, and topologyChange() when a link event runs.
+*   @see Simulation#getConvergenceTracker
+*/
+public class ConvergenceTracker {
+  /** Create a tracker whose first epoch is the boot of the network.
+  *   @param time The time the network boots.
+  *   @param packetsSent The number of packets sent so far.
+  */
+  ConvergenceTracker(double time, long packetsSent) {
+    epochs = new Vector();
+    open("boot", time, packetsSent);
+  }
+
+  /** Note that a routing table changed at the given time, which is no
+  *   earlier than any change noted before.  The packet count is filled in
+  *   by the next advance(), topologyChange() or finish().
+  */
+  void change(double time) {
+    current.lastChange = time;
+    pending = true;
+  }
+  /** Note that a routing table changed at the given time, when the number
+  *   of packets sent by the end of that time is already known.
+  */
+  void change(double time, long packetsThrough) {
+    current.lastChange = time;
+    current.packets = packetsThrough - current.startPackets;
+    pending = false;
+  }
+  /** Returns the time of the last change noted whose packet count is not
+  *   yet known, or negative infinity.
+  */
+  double pendingChange() {
+    return pending ? current.lastChange : Double.NEGATIVE_INFINITY;
+  }
+  /** Note that every event at or before the time of the last change has
+  *   run.
+  *   @param time The time of the next event.
+  *   @param packetsSent The number of packets sent so far, all of them
+  *   before this time.
+  */
+  void advance(double time, long packetsSent) {
+    if (pending && time > current.lastChange) {
+      current.packets = packetsSent - current.startPackets;
+      pending = false;
+    }
+  }
+  /** Start a new epoch for a link event, or add the link event to the
+  *   current epoch if that started at the same time.
+  *   @param time The time of the link event.
+  *   @param what What changed, such as "l3 down".
+  *   @param packetsSent The number of packets sent so far.
+  */
+  void topologyChange(double time, String what, long packetsSent) {
+    if (epochs.size() > 1 && current.start == time) {
+      current.trigger += ", " + what;
+      return;
+    }
+    finish(packetsSent);
+    open(what, time, packetsSent);
+  }
+  /** Settle the packet count of the current epoch at the end of a run. */
+  void finish(long packetsSent) {
+    if (pending) {
+      current.packets = packetsSent - current.startPackets;
+      pending = false;
+    }
+  }
+  /** Returns the time of the last routing table change in the current
+  *   epoch, or its start if there was none: the time from which quiet is
+  *   measured.
+  */
+  double getLastActivity() {
+    return Math.max(current.start, current.lastChange);
+  }
+
+  /** Returns the number of epochs so far. */
+  public int getEpochCount() { return epochs.size(); }
+  /** Returns what started an epoch: "boot", or the link events, such as
+  *   "l3 down, l4 down".
+  */
+  public String getTrigger(int epoch) { return get(epoch).trigger; }
+  /** Returns the time an epoch started. */
+  public double getStartTime(int epoch) { return get(epoch).start; }
+  /** Returns <b>true</b> if any routing table changed during an epoch. */
+  public boolean hasChanges(int epoch) {
+    return get(epoch).lastChange >= get(epoch).start;
+  }
+  /** Returns the time of the last routing table change in an epoch, or
+  *   its start time if there was none.
+  */
+  public double getConvergedTime(int epoch) {
+    return Math.max(get(epoch).start, get(epoch).lastChange);
+  }
+  /** Returns the number of packets sent from the start of an epoch up to
+  *   and including the time of its last routing table change.
+  */
+  public long getPackets(int epoch) { return get(epoch).packets; }
+
+  /** Write every epoch so far to a checkpoint. */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(epochs.size());
+    for (int i=0; i<epochs.size(); i++) {
+      Epoch e = get(i);
+      out.writeUTF(e.trigger);
+      out.writeDouble(e.start);
+      out.writeDouble(e.lastChange);
+      out.writeLong(e.startPackets);
+      out.writeLong(e.packets);
+    }
+    out.writeBoolean(pending);
+  }
+  /** Returns a tracker with the epochs written by write(). */
+  static ConvergenceTracker read(DataInputStream in) throws IOException {
+    ConvergenceTracker t = new ConvergenceTracker(0.0, 0);
+    t.epochs.removeAllElements();
+    for (int i=in.readInt(); i>0; i--) {
+      t.open(in.readUTF(), in.readDouble(), 0);
+      t.current.lastChange = in.readDouble();
+      t.current.startPackets = in.readLong();
+      t.current.packets = in.readLong();
+    }
+    t.pending = in.readBoolean();
+    return t;
+  }
+
+  /** Start a new epoch. */
+  private void open(String trigger, double time, long packetsSent) {
+    current = new Epoch();
+    current.trigger = trigger;
+    current.start = time;
+    current.lastChange = Double.NEGATIVE_INFINITY;
+    current.startPackets = packetsSent;
+    epochs.addElement(current);
+  }
+  private Epoch get(int epoch) {
+    return (Epoch)epochs.elementAt(epoch);
+  }
+
+  /** One epoch: the time from one topology change to the next. */
+  private static class Epoch {
+    /** What started the epoch. */
+    String trigger;
+    /** When the epoch started. */
+    double start;
+    /** The last time a routing table changed, or negative infinity. */
+    double lastChange;
+    /** The number of packets sent before the epoch started. */
+    long startPackets;
+    /** The number of packets sent in the epoch up to the end of
+    *   lastChange.
+    */
+    long packets;
+  }
+
+  /** Every epoch so far, in order. */
+  private Vector epochs;
+  /** The last epoch. */
+  private Epoch current;
+  /** <b>true</b> if the current epoch's packet count awaits the clock
+  *   moving past its last change.
+  */
+  private boolean pending = false;
+}
@@ -0,0 +1,356 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+/** A reference distance-vector routing node.  Each node keeps the latest
+*   distance vector heard from each neighbor, and routes to every
+*   destination through the neighbor with the cheapest link cost plus
+*   advertised distance (the lowest address among equal ones).  Neighbors
+*   are told about changed routes in triggered updates, with split
+*   horizon and poison reverse: a route is advertised as unreachable to
+*   the neighbor it goes through, so two nodes never count to infinity
+*   between themselves.  Larger loops still may, after a partition, and
+*   the count takes about infinity / (the loop's cost) rounds of updates,
+*   so infinity is capped as in RIP: by default at INFINITY, or at one
+*   more than the cost of the longest simple path the topology could have
+*   if that is less.  A route that costs infinity or more is unreachable,
+*   so a topology with longer routes needs a subclass that passes a
+*   larger infinity, or 0 for no cap.
+*   <p>
+*   Triggered updates are coalesced.  The first change after a quiet
+*   spell is sent at once and starts a hold-down timer; changes made while
+*   it runs are only noted, and when it goes off every destination whose
+*   route changed in the meantime is sent in one delta packet per
+*   neighbor, starting the timer again.  A burst of changes therefore
+*   costs each neighbor at most one packet per hold-down period.
+*   Run DistanceVectorNode$Uncoalesced to send every change at once
+*   instead.  A new neighbor is sent the whole vector straight away.
+*   Each node counts the updates it sent and the changes it held back;
+*   see getStatistics().
+*   <p>
+*   An update is a binary packet of big-endian ints: the sender's
+*   sequence number, then a destination and the sender's distance to it
+*   for each route.  A link may deliver a short packet before a longer
+*   one sent earlier, so each distance heard is kept with the number of
+*   the update it came in, and only a later update replaces it.
+*/
+public class DistanceVectorNode extends NodeBase {
+  /** Create a new node with the given address and the default hold-down
+  *   time.
+  */
+  public DistanceVectorNode(int address) {
+    this(address, HOLD_DOWN, INFINITY);
+  }
+  /** Create a new node with the given address.
+  *   @param holdDown The time, in seconds, over which triggered updates
+  *   are coalesced; 0 to send every change at once.
+  *   @param infinity The cap on the distance of an unreachable
+  *   destination, or 0 for none; see the class description.
+  */
+  protected DistanceVectorNode(int address, double holdDown, int infinity) {
+    super(address);
+    if (holdDown < 0)
+      throw new IllegalArgumentException("negative hold-down: " + holdDown);
+    if (infinity < 0)
+      throw new IllegalArgumentException("negative infinity: " + infinity);
+    this.holdDown = holdDown;
+    infinityCap = infinity;
+  }
+
+  /** Set up an empty vector for every link, and advertise the routes to
+  *   the neighbors over those that are up.
+  */
+  public void init() {
+    int n = simulation.getNodeCount();
+    int maxCost = 1;
+    Link[] all = simulation.getLinks();
+    for (int i=0; i<all.length; i++)
+      maxCost = Math.max(maxCost, all[i].getCost());
+    // Long enough for any loop-free route, unless capped, but no more than
+    // a route cost plus one link's cost can still hold.
+    long bound = (long)(n-1) * maxCost + 1;
+    if (infinityCap > 0)
+      bound = Math.min(bound, infinityCap);
+    infinity = (int)Math.min(bound, Integer.MAX_VALUE - maxCost);
+    dist = new int[n];
+    Arrays.fill(dist, infinity);
+    dist[getAddress()] = 0;
+    next = new int[n];
+    Arrays.fill(next, NONE);
+    dirty = new boolean[n];
+    dirtyList = new int[n];
+    slot = new int[n];
+    Arrays.fill(slot, NONE);
+    links = new Link[interfaces.size()];
+    vectors = new int[links.length][];
+    heard = new int[links.length][];
+    Enumeration e = getInterfaces();
+    for (int i=0; e.hasMoreElements(); i++) {
+      links[i] = (Link)e.nextElement();
+      slot[links[i].getDest(getAddress())] = i;
+      vectors[i] = new int[n];
+      Arrays.fill(vectors[i], infinity);
+      heard[i] = new int[n];
+    }
+    for (int i=0; i<links.length; i++)
+      if (links[i].isUp())
+        neighborUp(i);
+    triggerUpdate();
+  }
+  /** Route to the new neighbor, and send it the whole vector. */
+  public void interfaceUp(Link lnk) {
+    int neighbor = lnk.getDest(getAddress());
+    neighborUp(slot[neighbor]);
+    int[] all = new int[dist.length];
+    for (int d=0; d<all.length; d++)
+      all[d] = d;
+    sendVector(neighbor, all, all.length);
+    triggerUpdate();
+  }
+  /** Forget the neighbor's vector and reroute around it. */
+  public void interfaceDown(Link lnk) {
+    int i = slot[lnk.getDest(getAddress())];
+    Arrays.fill(vectors[i], infinity);
+    for (int d=0; d<dist.length; d++)
+      if (next[d] == lnk.getDest(getAddress()))
+        recompute(d);
+    triggerUpdate();
+  }
+  /** Distance-vector packets are binary. */
+  public void receivePacket(int source, String pkt) {
+    throw new IllegalArgumentException("unexpected packet: " + pkt);
+  }
+  /** Take in the distances in a neighbor's update, and reroute the
+  *   destinations they change.
+  */
+  public void receivePacket(int source, ByteBuffer pkt) {
+    int i = slot[source];
+    if (!links[i].isUp())
+      return;
+    int[] vector = vectors[i], seen = heard[i];
+    int number = pkt.getInt(pkt.position());
+    for (int p=pkt.position()+4; p<pkt.limit(); p+=8) {
+      int d = pkt.getInt(p);
+      int c = Math.min(pkt.getInt(p+4), infinity);
+      if (number < seen[d])
+        continue;
+      seen[d] = number;
+      if (vector[d] == c)
+        continue;
+      vector[d] = c;
+      recompute(d);
+    }
+    triggerUpdate();
+  }
+  /** Send the routes changed during the hold-down period, if any, and
+  *   hold down again.
+  */
+  public void timerExpired(int id) {
+    holding = false;
+    triggerUpdate();
+  }
+
+  /** Write the vectors heard, the routes, the changes waiting for the
+  *   hold-down timer, and the statistics.
+  */
+  public void writeState(DataOutputStream out) throws IOException {
+    out.writeInt(infinity);
+    for (int i=0; i<links.length; i++) {
+      writeInts(out, vectors[i]);
+      writeInts(out, heard[i]);
+    }
+    out.writeInt(seq);
+    writeInts(out, dist);
+    writeInts(out, next);
+    writeInts(out, Arrays.copyOf(dirtyList, dirtyCount));
+    out.writeBoolean(holding);
+    out.writeLong(updatesSent);
+    out.writeLong(changesCoalesced);
+  }
+  /** Read the state written by writeState().  The interfaces are listed
+  *   in the same order as by init().
+  */
+  public void readState(DataInputStream in) throws IOException {
+    int n = simulation.getNodeCount();
+    infinity = in.readInt();
+    slot = new int[n];
+    Arrays.fill(slot, NONE);
+    links = new Link[interfaces.size()];
+    vectors = new int[links.length][];
+    heard = new int[links.length][];
+    Enumeration e = getInterfaces();
+    for (int i=0; e.hasMoreElements(); i++) {
+      links[i] = (Link)e.nextElement();
+      slot[links[i].getDest(getAddress())] = i;
+      vectors[i] = readInts(in);
+      heard[i] = readInts(in);
+    }
+    seq = in.readInt();
+    dist = readInts(in);
+    next = readInts(in);
+    int[] changed = readInts(in);
+    dirty = new boolean[n];
+    dirtyList = new int[n];
+    dirtyCount = changed.length;
+    for (int k=0; k<dirtyCount; k++) {
+      dirtyList[k] = changed[k];
+      dirty[changed[k]] = true;
+    }
+    holding = in.readBoolean();
+    updatesSent = in.readLong();
+    changesCoalesced = in.readLong();
+  }
+
+  /** Returns the updates the node sent, and the route changes held back
+  *   to go with a later update.
+  */
+  public String getStatistics() {
+    return updatesSent + " updates sent, " + changesCoalesced +
+      " changes coalesced";
+  }
+  /** Returns the number of update packets sent. */
+  public long getUpdatesSent() { return updatesSent; }
+  /** Returns the number of route changes that were held back by the
+  *   hold-down timer and sent with others.
+  */
+  public long getChangesCoalesced() { return changesCoalesced; }
+
+  /** A distance-vector node that sends each change as soon as it
+  *   happens, for comparison with coalesced updates.
+  */
+  public static class Uncoalesced extends DistanceVectorNode {
+    /** Create a new node with the given address and no hold-down. */
+    public Uncoalesced(int address) {
+      super(address, 0, INFINITY);
+    }
+  }
+
+  /** Start using a link: the neighbor at its far end is reachable at the
+  *   link's cost, and nothing more is known of its vector.
+  */
+  private void neighborUp(int i) {
+    int neighbor = links[i].getDest(getAddress());
+    Arrays.fill(vectors[i], infinity);
+    vectors[i][neighbor] = 0;
+    recompute(neighbor);
+  }
+  /** Choose the best route to a destination again, and mark it to be
+  *   advertised if it changed.
+  */
+  private void recompute(int d) {
+    if (d == getAddress())
+      return;
+    int best = infinity, via = NONE;
+    for (int i=0; i<links.length; i++) {
+      if (!links[i].isUp() || vectors[i][d] >= infinity)
+        continue;
+      int c = Math.min(links[i].getCost() + vectors[i][d], infinity);
+      int neighbor = links[i].getDest(getAddress());
+      if (c < best || (c == best && c < infinity && neighbor < via)) {
+        best = c;
+        via = neighbor;
+      }
+    }
+    if (best >= infinity)
+      via = NONE;
+    if (best == dist[d] && via == next[d])
+      return;
+    dist[d] = best;
+    next[d] = via;
+    if (via == NONE)
+      routingTable.remove(d);
+    else
+      routingTable.add(new Route(d, via, best));
+    if (!dirty[d]) {
+      dirty[d] = true;
+      dirtyList[dirtyCount++] = d;
+      if (holding)
+        changesCoalesced++;
+    }
+  }
+  /** Send the changed routes to every neighbor, unless the hold-down
+  *   timer is running, in which case they wait for it to go off.
+  */
+  private void triggerUpdate() {
+    if (dirtyCount == 0 || holding)
+      return;
+    for (int i=0; i<links.length; i++)
+      if (links[i].isUp())
+        sendVector(links[i].getDest(getAddress()), dirtyList, dirtyCount);
+    for (int k=0; k<dirtyCount; k++)
+      dirty[dirtyList[k]] = false;
+    dirtyCount = 0;
+    if (holdDown > 0) {
+      holding = true;
+      setTimer(holdDown, HOLD_DOWN_TIMER);
+    }
+  }
+  /** Send a neighbor the distances to some destinations, poisoning the
+  *   routes that go through it.  The neighbor's distance to itself is
+  *   left out, and nothing is sent if nothing is left.
+  */
+  private void sendVector(int neighbor, int[] dests, int count) {
+    int size = 0;
+    for (int k=0; k<count; k++)
+      if (dests[k] != neighbor)
+        size++;
+    if (size == 0)
+      return;
+    ByteBuffer pkt = ByteBuffer.allocate(4 + 8*size);
+    pkt.putInt(++seq);
+    for (int k=0; k<count; k++) {
+      int d = dests[k];
+      if (d != neighbor)
+        pkt.putInt(d).putInt((next[d] == neighbor) ? infinity : dist[d]);
+    }
+    pkt.flip();
+    sendPacket(neighbor, pkt);
+    updatesSent++;
+  }
+
+  /** No next hop or link. */
+  private static final int NONE = -1;
+  /** The default hold-down time, in seconds. */
+  private static final double HOLD_DOWN = 0.05;
+  /** The default cap on infinity: RIP's 16, scaled for link costs of up
+  *   to about 4.
+  */
+  protected static final int INFINITY = 64;
+  /** The id of the hold-down timer. */
+  private static final int HOLD_DOWN_TIMER = 0;
+
+  /** The hold-down time, in seconds, or 0 for none. */
+  private final double holdDown;
+  /** <b>true</b> while the hold-down timer runs. */
+  private boolean holding;
+  /** The cap on infinity, or 0 for none. */
+  private final int infinityCap;
+  /** The distance of an unreachable destination. */
+  private int infinity;
+  /** The node's interfaces, and the index of each neighbor's among them
+  *   (NONE for nodes that are not neighbors).
+  */
+  private Link[] links;
+  private int[] slot;
+  /** The latest vector heard over each interface: its neighbor's
+  *   distance to every destination.
+  */
+  private int[][] vectors;
+  /** The number of the update that brought each distance in vectors. */
+  private int[][] heard;
+  /** The number of the last update sent. */
+  private int seq;
+  /** The distance to each destination, and the neighbor it is through. */
+  private int[] dist, next;
+  /** The destinations whose routes changed since the last update, as
+  *   flags and as a list.
+  */
+  private boolean[] dirty;
+  private int[] dirtyList;
+  private int dirtyCount;
+  /** The statistics reported by getStatistics(). */
+  private long updatesSent, changesCoalesced;
+}
@@ -1,5 +1,10 @@
 /** A class representing an event for the simulator to handle.
 *   This class cannot be instantiated directly.
+*   Events are ordered by time, and events with equal times by an order
+*   key that the simulator assigns when it schedules them.  The key does
+*   not depend on how the event queue is implemented or on how nodes are
+*   spread over threads, so every run of the same scenario retrieves
+*   events in the same order.
 *   @see PacketEvent
 *   @see LinkEvent
 */
@@ -16,7 +21,53 @@ public abstract class Event {
   public double getTime() {
     return time;
   }
+  /** Returns the key that orders events with equal times; smaller keys
+  *   come first.
+  */
+  public final long getOrder() {
+    return order;
+  }
+  /** Set the key that orders events with equal times.  Only the simulator
+  *   does this, when it schedules the event.
+  */
+  final void setOrder(long order) {
+    this.order = order;
+  }
+  /** Returns <b>true</b> if this event comes before the given one. */
+  public final boolean before(Event e) {
+    return before(time, order, e.time, e.order);
+  }
+  /** Returns <b>true</b> if an event with time t1 and order key o1 comes
+  *   before one with time t2 and order key o2.
+  */
+  static boolean before(double t1, long o1, double t2, long o2) {
+    return t1 < t2 || (t1 == t2 && o1 < o2);
+  }
+  /** Returns the address of the only node whose state the event reads
+  *   or changes, or -1 if it may touch several, as a link event does.
+  *   The parallel engines run an event with a node alongside the events
+  *   of other nodes, and one without a node alone.
+  */
+  int getNode() {
+    return -1;
+  }
+  /** Set the event's trigger time.  Only EventPool does this, when the
+  *   event is reused.
+  */
+  void setTime(double time) {
+    this.time = time;
+  }
 
   /** The event's trigger time. */
   private double time;
+  /** The key that orders events with equal times. */
+  private long order;
+  /** The simulation the event was scheduled in, which runs it.  Set by
+  *   the simulation (or its engine) whenever the event is queued.
+  */
+  Simulation simulation;
+  /** <b>true</b> while the event sits in an EventPool waiting for reuse.
+  *   Only maintained when the pool is checking for use after recycling.
+  */
+  boolean recycled;
 }
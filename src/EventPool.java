@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+
+/** A source of PacketEvent and LinkEvent objects that reuses events once
+*   they have run, instead of leaving each one for the garbage collector.
+*   The simulator hands every event back with recycle() after running it;
+*   nothing else may keep a reference to an event after that point.
+*   In checked mode the pool marks every recycled event and fails fast,
+*   with an IllegalStateException, if a recycled event is recycled again
+*   or handed to the simulator to run.
+*   @see Event
+*/
+public class EventPool {
+  /** Create a new pool.
+  *   @param reuse <b>false</b> to allocate every event, as if there were
+  *   no pool.
+  *   @param checked <b>true</b> to detect use after recycling.  This
+  *   implies reuse.
+  */
+  public EventPool(boolean reuse, boolean checked) {
+    this.reuse = reuse || checked;
+    this.checked = checked;
+    freePackets = new PacketEvent[INITIAL_CAPACITY];
+    freeLinks = new LinkEvent[INITIAL_CAPACITY];
+  }
+  /** Returns a new, empty pool with the same settings as this one. */
+  public EventPool emptyCopy() {
+    return new EventPool(reuse, checked);
+  }
+  /** Returns a packet delivery event, reused if one is available.
+  *   @see PacketEvent#PacketEvent
+  */
+  public PacketEvent packetEvent(double time, int source, int dest,
+      String pkt) {
+    if (freePacketCount == 0) {
+      created++;
+      return new PacketEvent(time, source, dest, pkt);
+    }
+    PacketEvent pe = freePackets[--freePacketCount];
+    freePackets[freePacketCount] = null;
+    pe.reset(time, source, dest, pkt);
+    pe.recycled = false;
+    reused++;
+    return pe;
+  }
+  /** Returns a binary packet delivery event, reused if one is available.
+  *   @see PacketEvent#PacketEvent
+  */
+  public PacketEvent packetEvent(double time, int source, int dest,
+      ByteBuffer bytes) {
+    if (freePacketCount == 0) {
+      created++;
+      return new PacketEvent(time, source, dest, bytes);
+    }
+    PacketEvent pe = freePackets[--freePacketCount];
+    freePackets[freePacketCount] = null;
+    pe.reset(time, source, dest, bytes);
+    pe.recycled = false;
+    reused++;
+    return pe;
+  }
+  /** Returns a link state event, reused if one is available.
+  *   @see LinkEvent#LinkEvent
+  */
+  public LinkEvent linkEvent(double time, Link link, boolean up) {
+    if (freeLinkCount == 0) {
+      created++;
+      return new LinkEvent(time, link, up);
+    }
+    LinkEvent le = freeLinks[--freeLinkCount];
+    freeLinks[freeLinkCount] = null;
+    le.reset(time, link, up);
+    le.recycled = false;
+    reused++;
+    return le;
+  }
+  /** Take back an event that has run.  The caller must not use the event
+  *   afterwards.
+  *   @param e The event.
+  *   @exception java.lang.IllegalStateException Thrown in checked mode if
+  *   the event has already been recycled.
+  */
+  public void recycle(Event e) {
+    if (!reuse)
+      return;
+    // Other events, such as timers and TrafficEngine's, never come from
+    // the pool.
+    if (!(e instanceof PacketEvent || e instanceof LinkEvent))
+      return;
+    if (checked) {
+      if (e.recycled)
+        throw new IllegalStateException("event recycled twice: " + e);
+      e.recycled = true;
+    }
+    if (e instanceof PacketEvent) {
+      PacketEvent pe = (PacketEvent)e;
+      pe.clear();
+      if (freePacketCount == freePackets.length) {
+        PacketEvent[] a = new PacketEvent[freePackets.length*2];
+        System.arraycopy(freePackets, 0, a, 0, freePacketCount);
+        freePackets = a;
+      }
+      freePackets[freePacketCount++] = pe;
+    }
+    else if (e instanceof LinkEvent) {
+      LinkEvent le = (LinkEvent)e;
+      le.clear();
+      if (freeLinkCount == freeLinks.length) {
+        LinkEvent[] a = new LinkEvent[freeLinks.length*2];
+        System.arraycopy(freeLinks, 0, a, 0, freeLinkCount);
+        freeLinks = a;
+      }
+      freeLinks[freeLinkCount++] = le;
+    }
+  }
+  /** In checked mode, make sure an event about to run has not been
+  *   recycled.  Does nothing otherwise.
+  *   @exception java.lang.IllegalStateException Thrown if the event has
+  *   been recycled.
+  */
+  public void checkLive(Event e) {
+    if (checked && e.recycled)
+      throw new IllegalStateException("recycled event used: " + e);
+  }
+  /** Returns the number of events allocated by the pool. */
+  public long getCreated() { return created; }
+  /** Returns the number of events handed out again after recycling. */
+  public long getReused() { return reused; }
+
+  /** The initial capacity of each free list. */
+  private static final int INITIAL_CAPACITY = 64;
+  /** <b>true</b> if recycled events are handed out again. */
+  private boolean reuse;
+  /** <b>true</b> if recycled events are marked and checked. */
+  private boolean checked;
+  /** Recycled packet events, used as a stack. */
+  private PacketEvent[] freePackets;
+  /** The number of events in freePackets. */
+  private int freePacketCount;
+  /** Recycled link events, used as a stack. */
+  private LinkEvent[] freeLinks;
+  /** The number of events in freeLinks. */
+  private int freeLinkCount;
+  /** The number of events allocated. */
+  private long created;
+  /** The number of events reused. */
+  private long reused;
+}
@@ -1,118 +1,44 @@
-import java.util.Vector;
-
-/** A simple heap to represent the event queue
- *  @see Event
- */
-public class EventQueue {
-  /** Construct a new queue */
-  public EventQueue() {
-    data = new Vector();
-    lastEventTime = 0.0;  // no events allowed before 0.0
-  }
+/** The queue of pending events, ordered by trigger time.  The simulator
+*   only ever retrieves the earliest event, so implementations are free to
+*   choose any structure that supports that efficiently.  Events with equal
+*   times may be retrieved in any order, but the same sequence of calls
+*   must always produce the same result.
+*   @see HeapEventQueue
+*   @see CalendarEventQueue
+*   @see Event
+*/
+public interface EventQueue {
   /** Returns <b>true</b> if the queue is empty (there are no pending
   *   events).
   */
-  public boolean empty() {
-    return data.size() == 0;
-  }
-  /** Inserts an event into the queue.  The queue implementation is
-  *   a heap stored as an array.
-  *   Insertion is done by appending the new element at the end of the
-  *   array (i.e., as a new leaf in the heap) and "bubbling" it up as long
-  *   as it is smaller than its parent.
-  *   When storing a heap (remember, a heap is a tree) as a zero-based array,
-  *   the parent of node I is node (I-1)/2.
-  *   This function runs in O(lg n) time, where n is the number of events
-  *   in the heap.
+  boolean empty();
+  /** Returns the number of pending events. */
+  int size();
+  /** Inserts an event into the queue.
   *   @param e The event to insert
   *   @exception TimeInconsistencyException Thrown when the new event
   *   being inserted occurs in the past (i.e., before any event already
   *   retrieved with getNext).
   */
-  public void insert(Event e) throws TimeInconsistencyException {
-    if (e.getTime() < lastEventTime)
-      throw new TimeInconsistencyException();
-    int i = data.size();
-    data.addElement(e);
-    // while the node pointed to by I has a smaller value than its parent...
-    while (i > 0 && ((Event)data.elementAt(i)).getTime() <
-        ((Event)data.elementAt((i-1)/2)).getTime()) {
-      // swap the element at I with its parent
-      Object t = data.elementAt(i);
-      data.setElementAt(data.elementAt((i-1)/2), i);
-      data.setElementAt(t, (i-1)/2);
-      // continue up the tree -- now consider the parent
-      i = (i-1)/2;
-    }
-  }
+  void insert(Event e) throws TimeInconsistencyException;
   /** Returns the next event (the one with the earliest time) without
-  *   removing it from the queue.  The minimum element in a heap is the
-  *   root of the heap; when using an array for storage, the root is the
-  *   first element of the array.
-  *   This function runs in constant time.
+  *   removing it from the queue.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
   */
-  public Event peekNext() {
-    return (Event)data.elementAt(0);
-  }
+  Event peekNext();
   /** Returns the next event (the one with the earliest time) and removes
-  *   it from the queue.  The queue implementation is a heap stored as an
-  *   array.
-  *   Finding the minimum element is easy -- it's the first element of the
-  *   array (see peekNext, above).
-  *   Removing it is done by copying the last leaf of the heap over the
-  *   root, removing the last leaf, and "bubbling" the new root (which was
-  *   the last leaf) down as long as it is larger than either of its
-  *   children.
-  *   When storing a heap (remember, a heap is a tree) as a zero-based array,
-  *   the children of node I are nodes (I*2)+1 and (I*2)+2.
-  *   This function runs in O(lg n) time, where n is the number of events
-  *   in the heap.
+  *   it from the queue.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
   */
-  public Event getNext() {
-    Event n = (Event)data.elementAt(0);
-    lastEventTime = n.getTime();
-    int i = 0;
-    data.setElementAt(data.elementAt(data.size()-1), 0);
-    data.removeElementAt(data.size()-1);
-    while (true) {
-      // I stores the node being bubbled down.
-      // NEXT stores the smaller of its two children.
-      int next;
-      // If I is now a leaf node (it has no children), we're done.
-      if (i*2+1 >= data.size()) break;
-      // If I has only one child, I*2+1 is the smallest child by default.
-      if (i*2+2 >= data.size()) {
-        next = i*2+1;
-      }
-      // I has two children, so find the smaller and put it in NEXT.
-      else {
-        if (((Event)data.elementAt(i*2+1)).getTime() <
-            ((Event)data.elementAt(i*2+2)).getTime())
-          next = i*2+1;
-        else
-          next = i*2+2;
-      }
-      // If the value of node I is bigger than the value of node NEXT...
-      if (((Event)data.elementAt(i)).getTime() >
-          ((Event)data.elementAt(next)).getTime()) {
-        // swap them.
-        Object t = data.elementAt(i);
-        data.setElementAt(data.elementAt(next), i);
-        data.setElementAt(t, next);
-        // continue down the tree -- now consider what was the smaller child.
-        i = next;
-      }
-      else
-        break;
-    }
-    return n;
-  }
-
-  /** The heap, represented as a dynamic array. */
-  private Vector data;
-  /** The time of the last event fetched by getNext.  This is stored to
-  *   prevent users from inserting new events that occur before ones that
-  *   have already been retreived.
+  Event getNext();
+  /** Returns the pending events, in no particular order, leaving them in
+  *   the queue.
   */
-  private double lastEventTime;
+  Event[] toArray();
+  /** Removes every pending event, and forgets the time of the last one
+  *   retrieved, leaving the queue as it was when new.
+  */
+  void clear();
 }
@@ -0,0 +1,290 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A binary trace of what happens in one Simulation, for TraceAnalyzer to
+*   study afterwards.  Created by Simulation.enableTrace(); a simulation
+*   without a trace pays only a null check at each tracing point.
+*   <p>
+*   The trace is a series of segment files, named after the trace with a
+*   four-digit number added ("run.trace.0000", "run.trace.0001", ...).
+*   Each segment is mapped into memory at its full size as it is begun,
+*   records are copied straight into the mapping, and when one is full
+*   it is cut down to what was written and the next one is begun, so
+*   writing a record costs no system call.  Every segment starts with a
+*   header of five ints: MAGIC, VERSION, the segment's number, the
+*   snap length and RECORD_SIZE.  The first segment goes on to name the
+*   topology: the node count, each node's name, the link count, and each
+*   link's name and endpoints, with names as in DataOutput.writeUTF.
+*   <p>
+*   Then come the records, each RECORD_SIZE bytes: the time as a double,
+*   the type as a byte, a spare byte, the number of payload bytes that
+*   follow the record as a short, and five ints: the source node, the
+*   destination node, the link, the packet's length, and an extra value
+*   (the timer id for TIMER records).  Fields that do not apply are -1.
+*   A packet's first bytes, up to the snap length, follow its record if
+*   the snap length is not 0; otherwise every record is the same size.
+*   A text packet's bytes are its characters in modified UTF-8, as in
+*   DataOutput.writeUTF, cut down to whole characters.  A record of type
+*   END, or the end of the file if there was no room for one, ends the
+*   segment.  All numbers are in the platform's byte order, which the
+*   header's magic number reveals.
+*   <p>
+*   Only sequential runs can be traced.  Data-plane traffic is not traced.
+*   @see TraceAnalyzer
+*/
+public class EventTrace {
+  /** Create a trace and begin its first segment.
+  *   @param name The name of the trace; segments are named after it.
+  *   @param simulation The simulation to trace, whose topology is
+  *   complete and frozen.
+  *   @param snapLength The most bytes of each packet to keep, or 0 for
+  *   none.
+  *   @param segmentSize The size of each segment, in bytes.
+  *   @exception java.io.IOException Thrown when the first segment cannot
+  *   be created.
+  */
+  EventTrace(String name, Simulation simulation, int snapLength,
+      int segmentSize) throws IOException {
+    if (snapLength < 0 || snapLength > Short.MAX_VALUE)
+      throw new IllegalArgumentException("bad snap length: " + snapLength);
+    if (segmentSize < HEADER_SIZE + RECORD_SIZE + snapLength)
+      throw new IllegalArgumentException("segment too small: " +
+        segmentSize);
+    this.name = name;
+    this.simulation = simulation;
+    this.snapLength = snapLength;
+    this.segmentSize = segmentSize;
+    begin();
+    // The topology goes in the first segment only.
+    segment.putInt(simulation.getNodeCount());
+    for (int i=0; i<simulation.getNodeCount(); i++)
+      putUTF(simulation.getNodeName(i));
+    segment.putInt(simulation.getLinkCount());
+    for (int i=0; i<simulation.getLinkCount(); i++) {
+      Link l = simulation.getLinks()[i];
+      putUTF(simulation.getLinkName(i));
+      segment.putInt(l.getEndpointA());
+      segment.putInt(l.getEndpointB());
+    }
+  }
+
+  /** Trace a text packet sent, received or dropped at the current time. */
+  final void packet(int type, int source, int dest, Link l, String pkt) {
+    int captured = utfLength(pkt, snapLength);
+    if (!header(type, source, dest, l.index, pkt.length(), -1, captured))
+      return;
+    putChars(pkt, captured);
+  }
+  /** Trace a binary packet sent, received or dropped at the current
+  *   time.
+  */
+  final void packet(int type, int source, int dest, Link l,
+      ByteBuffer pkt) {
+    int captured = Math.min(snapLength, pkt.remaining());
+    if (!header(type, source, dest, l.index, pkt.remaining(), -1, captured))
+      return;
+    for (int i=0; i<captured; i++)
+      segment.put(pkt.get(pkt.position() + i));
+  }
+  /** Trace a link going up or down at the current time. */
+  final void link(Link l, boolean up) {
+    header(up ? LINK_UP : LINK_DOWN, l.getEndpointA(), l.getEndpointB(),
+      l.index, -1, -1, 0);
+  }
+  /** Trace a change to a node's routing table at the current time. */
+  final void routeChanged(int node) {
+    header(ROUTE_CHANGE, node, -1, -1, -1, -1, 0);
+  }
+  /** Trace a node's timer going off at the current time. */
+  final void timer(int node, int id) {
+    header(TIMER, node, -1, -1, -1, id, 0);
+  }
+
+  /** Cut the last segment down to what was written, and close the trace.
+  *   Nothing more is traced.
+  *   @exception java.io.IOException Thrown when the trace could not be
+  *   written, now or earlier.
+  */
+  public void close() throws IOException {
+    if (segment != null) {
+      end();
+      segment = null;
+    }
+    if (failure != null)
+      throw failure;
+  }
+  /** Returns the name the trace's segments are named after. */
+  public String getName() { return name; }
+  /** Returns the number of records written. */
+  public long getRecords() { return records; }
+  /** Returns the number of bytes written, counting every segment's
+  *   header.
+  */
+  public long getBytes() {
+    return bytes + (segment == null ? 0 : segment.position());
+  }
+  /** Returns the number of segments begun. */
+  public int getSegments() { return segments; }
+
+  /** Returns the name of one segment of a trace. */
+  static String segmentName(String name, int number) {
+    return name + "." + String.format("%04d", Integer.valueOf(number));
+  }
+
+  /** Write a record's fixed part, beginning a new segment first if the
+  *   record and its payload do not fit.  If the new segment cannot be
+  *   made, tracing stops and close() reports why.
+  *   @return <b>false</b> if the record was not written.
+  */
+  private boolean header(int type, int source, int dest, int link,
+      int length, int extra, int captured) {
+    if (segment == null)
+      return false;
+    if (segment.remaining() < RECORD_SIZE + captured) {
+      try {
+        end();
+        begin();
+      }
+      catch (IOException e) {
+        failure = e;
+        segment = null;
+        return false;
+      }
+    }
+    segment.putDouble(simulation.getCurrentTime());
+    segment.put((byte)type);
+    segment.put((byte)0);
+    segment.putShort((short)captured);
+    segment.putInt(source);
+    segment.putInt(dest);
+    segment.putInt(link);
+    segment.putInt(length);
+    segment.putInt(extra);
+    records++;
+    return true;
+  }
+  /** Begin the next segment, and write its header. */
+  private void begin() throws IOException {
+    file = new RandomAccessFile(segmentName(name, segments), "rw");
+    file.setLength(0);
+    segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+      segmentSize);
+    segment.order(ByteOrder.nativeOrder());
+    segment.putInt(MAGIC);
+    segment.putInt(VERSION);
+    segment.putInt(segments++);
+    segment.putInt(snapLength);
+    segment.putInt(RECORD_SIZE);
+  }
+  /** Finish the current segment, cutting the file down to what was
+  *   written.
+  */
+  private void end() throws IOException {
+    if (segment.remaining() >= RECORD_SIZE) {
+      segment.putDouble(simulation.getCurrentTime());
+      segment.put((byte)END);
+      segment.put((byte)0);
+      segment.putShort((short)0);
+      for (int i=0; i<5; i++)
+        segment.putInt(-1);
+    }
+    int used = segment.position();
+    file.getChannel().truncate(used);
+    file.close();
+    bytes += used;
+  }
+  /** Write a string as in DataOutput.writeUTF. */
+  private void putUTF(String s) throws IOException {
+    int length = utfLength(s, Integer.MAX_VALUE);
+    if (length > 0xffff)
+      throw new IOException(name + ": name too long: " + s);
+    if (segment.remaining() < 2 + length)
+      throw new IOException(name + ": the names do not fit in a segment");
+    segment.putShort((short)length);
+    putChars(s, length);
+  }
+  /** Write the first characters of a string in modified UTF-8, as many as
+  *   make up the given number of bytes; see utfLength.
+  */
+  private void putChars(String s, int bytes) {
+    int end = segment.position() + bytes;
+    for (int i=0; segment.position() < end; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x0001 && c <= 0x007f)
+        segment.put((byte)c);
+      else if (c <= 0x07ff) {
+        segment.put((byte)(0xc0 | (c >> 6)));
+        segment.put((byte)(0x80 | (c & 0x3f)));
+      }
+      else {
+        segment.put((byte)(0xe0 | (c >> 12)));
+        segment.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+        segment.put((byte)(0x80 | (c & 0x3f)));
+      }
+    }
+  }
+  /** Returns the length in modified UTF-8 of the longest run of whole
+  *   characters at the start of a string that is no longer than a limit.
+  */
+  private static int utfLength(String s, int limit) {
+    int length = 0;
+    for (int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      int n = (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff) ? 2 : 3;
+      if (length + n > limit)
+        break;
+      length += n;
+    }
+    return length;
+  }
+
+  /** The number at the start of every segment. */
+  static final int MAGIC = 0x52535452;
+  /** The version of the trace format. */
+  static final int VERSION = 1;
+  /** The size of a segment's header, and of a record without payload. */
+  static final int HEADER_SIZE = 20;
+  static final int RECORD_SIZE = 32;
+  /** The default size of a segment: 64 MB. */
+  static final int SEGMENT_SIZE = 1 << 26;
+  /** The record types.  END marks the end of a segment's records. */
+  static final int END = 0;
+  /** A packet sent: its record's time is the time it was sent. */
+  static final int SEND = 1;
+  /** A packet received by its destination. */
+  static final int RECEIVE = 2;
+  /** A packet that arrived over a link that had gone down. */
+  static final int DROP_DOWN = 3;
+  /** A packet dropped on sending because the transmit queue was full. */
+  static final int DROP_QUEUE = 4;
+  /** A link brought up or down; the source and destination are its
+  *   endpoints.
+  */
+  static final int LINK_UP = 5;
+  static final int LINK_DOWN = 6;
+  /** A change to the source node's routing table. */
+  static final int ROUTE_CHANGE = 7;
+  /** A timer of the source node going off. */
+  static final int TIMER = 8;
+
+  /** The name the segments are named after. */
+  private final String name;
+  /** The simulation traced. */
+  private final Simulation simulation;
+  /** The most bytes of each packet kept. */
+  private final int snapLength;
+  /** The size each segment is mapped at. */
+  private final int segmentSize;
+  /** The current segment, its file, and the number of segments begun. */
+  private MappedByteBuffer segment;
+  private RandomAccessFile file;
+  private int segments;
+  /** Why tracing stopped early, or <b>null</b>. */
+  private IOException failure;
+  /** The records written, and the bytes in the finished segments. */
+  private long records, bytes;
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+/** A simple heap to represent the event queue.  The heap is stored in two
+*   parallel arrays: the events themselves, and their trigger times and
+*   order keys, so that comparisons never have to touch the event
+*   objects.  The number of children per heap node (the arity) is
+*   configurable; a binary heap is the default, and a 4-ary heap trades
+*   slightly more comparisons per level for half as many levels and
+*   better cache behavior.
+*   @see Event
+*   @see EventQueue
+*/
+public class HeapEventQueue implements EventQueue {
+  /** Construct a new queue using a binary heap. */
+  public HeapEventQueue() {
+    this(2);
+  }
+  /** Construct a new queue using a heap with the given arity.
+  *   @param arity The number of children of each heap node; at least 2.
+  */
+  public HeapEventQueue(int arity) {
+    if (arity < 2)
+      throw new IllegalArgumentException("heap arity must be at least 2");
+    this.arity = arity;
+    events = new Event[INITIAL_CAPACITY];
+    times = new double[INITIAL_CAPACITY];
+    orders = new long[INITIAL_CAPACITY];
+    size = 0;
+    lastEventTime = 0.0;  // no events allowed before 0.0
+  }
+  /** Returns <b>true</b> if the queue is empty (there are no pending
+  *   events).
+  */
+  public boolean empty() {
+    return size == 0;
+  }
+  /** Returns the number of pending events. */
+  public int size() {
+    return size;
+  }
+  /** Returns the pending events, in heap order. */
+  public Event[] toArray() {
+    Event[] a = new Event[size];
+    System.arraycopy(events, 0, a, 0, size);
+    return a;
+  }
+  /** Removes every pending event, and allows events from time 0.0 again.
+  */
+  public void clear() {
+    Arrays.fill(events, 0, size, null);
+    size = 0;
+    lastEventTime = 0.0;
+  }
+  /** Inserts an event into the queue.  The queue implementation is
+  *   a heap stored as an array.
+  *   Insertion is done by opening a hole at the end of the array (i.e., as
+  *   a new leaf in the heap) and moving it up, shifting each parent down
+  *   into the hole, as long as the new event comes before that parent.
+  *   When storing a heap (remember, a heap is a tree) as a zero-based array,
+  *   the parent of node I is node (I-1)/ARITY.
+  *   This function runs in O(lg n) time, where n is the number of events
+  *   in the heap.
+  *   @param e The event to insert
+  *   @exception TimeInconsistencyException Thrown when the new event
+  *   being inserted occurs in the past (i.e., before any event already
+  *   retrieved with getNext).
+  */
+  public void insert(Event e) throws TimeInconsistencyException {
+    double t = e.getTime();
+    long o = e.getOrder();
+    if (t < lastEventTime)
+      throw new TimeInconsistencyException();
+    if (size == events.length)
+      grow();
+    int i = size++;
+    // while the hole at I has a parent later than the new event...
+    while (i > 0) {
+      int parent = (i-1)/arity;
+      if (!Event.before(t, o, times[parent], orders[parent]))
+        break;
+      // move the parent down into the hole and continue up the tree
+      events[i] = events[parent];
+      times[i] = times[parent];
+      orders[i] = orders[parent];
+      i = parent;
+    }
+    events[i] = e;
+    times[i] = t;
+    orders[i] = o;
+  }
+  /** Returns the next event (the one with the earliest time) without
+  *   removing it from the queue.  The minimum element in a heap is the
+  *   root of the heap; when using an array for storage, the root is the
+  *   first element of the array.
+  *   This function runs in constant time.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
+  */
+  public Event peekNext() {
+    if (size == 0)
+      throw new ArrayIndexOutOfBoundsException(0);
+    return events[0];
+  }
+  /** Returns the next event (the one with the earliest time) and removes
+  *   it from the queue.  The queue implementation is a heap stored as an
+  *   array.
+  *   Finding the minimum element is easy -- it's the first element of the
+  *   array (see peekNext, above).
+  *   Removing it is done by taking the last leaf of the heap out, leaving
+  *   a hole at the root, and moving the hole down -- shifting the earliest
+  *   child up into it -- as long as that child comes before the old last
+  *   leaf, which is then stored in the hole.
+  *   When storing a heap (remember, a heap is a tree) as a zero-based array,
+  *   the children of node I are nodes (I*ARITY)+1 through (I*ARITY)+ARITY.
+  *   This function runs in O(lg n) time, where n is the number of events
+  *   in the heap.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when the
+  *   queue is empty.
+  */
+  public Event getNext() {
+    if (size == 0)
+      throw new ArrayIndexOutOfBoundsException(0);
+    Event n = events[0];
+    lastEventTime = times[0];
+    size--;
+    Event last = events[size];
+    double t = times[size];
+    long o = orders[size];
+    events[size] = null;  // don't keep a reference to a retrieved event
+    int i = 0;
+    while (true) {
+      // I stores the hole being moved down.
+      // NEXT stores the earliest of its children.
+      int first = i*arity+1;
+      // If I is now a leaf node (it has no children), we're done.
+      if (first >= size) break;
+      int end = Math.min(first+arity, size);
+      int next = first;
+      for (int c=first+1; c<end; c++)
+        if (Event.before(times[c], orders[c], times[next], orders[next]))
+          next = c;
+      // If the earliest child comes before the displaced leaf...
+      if (Event.before(times[next], orders[next], t, o)) {
+        // move the child up and continue down the tree.
+        events[i] = events[next];
+        times[i] = times[next];
+        orders[i] = orders[next];
+        i = next;
+      }
+      else
+        break;
+    }
+    if (size > 0) {
+      events[i] = last;
+      times[i] = t;
+      orders[i] = o;
+    }
+    return n;
+  }
+
+  /** Double the capacity of the heap arrays. */
+  private void grow() {
+    Event[] newEvents = new Event[events.length*2];
+    double[] newTimes = new double[times.length*2];
+    long[] newOrders = new long[orders.length*2];
+    System.arraycopy(events, 0, newEvents, 0, size);
+    System.arraycopy(times, 0, newTimes, 0, size);
+    System.arraycopy(orders, 0, newOrders, 0, size);
+    events = newEvents;
+    times = newTimes;
+    orders = newOrders;
+  }
+
+  /** The initial capacity of the heap arrays. */
+  private static final int INITIAL_CAPACITY = 64;
+  /** The number of children of each heap node. */
+  private final int arity;
+  /** The heap of events, represented as a dynamic array. */
+  private Event[] events;
+  /** The trigger time of each event in the heap, at the same index. */
+  private double[] times;
+  /** The order key of each event in the heap, at the same index. */
+  private long[] orders;
+  /** The number of events in the heap. */
+  private int size;
+  /** The time of the last event fetched by getNext.  This is stored to
+  *   prevent users from inserting new events that occur before ones that
+  *   have already been retreived.
+  */
+  private double lastEventTime;
+}
@@ -1,3 +1,7 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /** A class representing a link between two nodes. */
 public class Link {
   /** Create a new link.
@@ -16,12 +20,60 @@ public class Link {
   }
 
   /** Returns the time required to transmit a packet of a given size over
-  *   this link.
+  *   this link, ignoring any other packets being sent over it at the same
+  *   time.
   *   @param bytes The size of the packet, in bytes.
   */
   public double timeToTransmit(int bytes) {
     return latency + bytes*8/(double)speed;
   }
+  /** Send a packet through the link's transmit queue for one direction.
+  *   Each direction sends one packet at a time, in the order they were
+  *   given: a packet starts once the link is free, is serialized at the
+  *   link's speed, and arrives one latency after it has been sent.
+  *   @param from The address of the sending endpoint.
+  *   @param now The current time.
+  *   @param bytes The size of the packet, in bytes.
+  *   @param buffer The most packets that may wait for the link in one
+  *   direction, not counting the one being sent, or 0 for no limit.
+  *   @return The time the packet arrives, or -1 if the buffer was full
+  *   and the packet was dropped.
+  */
+  public double transmit(int from, double now, int bytes, int buffer) {
+    int d = (from == nodeA) ? 0 : 1;
+    if (stats == null)
+      stats = new double[2*STATS];
+    double start = Math.max(now, busyUntil[d]);
+    if (buffer > 0) {
+      if (waiting == null) {
+        waiting = new double[2][buffer];
+        waitingHead = new int[2];
+        waitingCount = new int[2];
+      }
+      double[] w = waiting[d];
+      // Forget the packets that have started sending by now.
+      while (waitingCount[d] > 0 && w[waitingHead[d]] <= now) {
+        waitingHead[d] = (waitingHead[d] + 1) % w.length;
+        waitingCount[d]--;
+      }
+      if (start > now) {
+        if (waitingCount[d] == w.length) {
+          stats[d*STATS + DROPPED]++;
+          return -1;
+        }
+        w[(waitingHead[d] + waitingCount[d]) % w.length] = start;
+        waitingCount[d]++;
+      }
+    }
+    double serialize = bytes*8/(double)speed;
+    busyUntil[d] = start + serialize;
+    int s = d*STATS;
+    stats[s + SENT]++;
+    stats[s + BUSY] += serialize;
+    stats[s + DELAY] += start - now;
+    stats[s + MAX_DELAY] = Math.max(stats[s + MAX_DELAY], start - now);
+    return start + serialize + latency;
+  }
   /** Returns the address of the first endpoint. */
   public final int getEndpointA() { return nodeA; }
   /** Returns the address of the second endpoint. */
@@ -35,6 +87,10 @@ public class Link {
     else
       return -1;
   }
+  /** Returns the latency, in seconds. */
+  public final double getLatency() { return latency; }
+  /** Returns the speed, in bits per second. */
+  public final int getSpeed() { return speed; }
   /** Returns the per-packet cost of using the link. */
   public final int getCost() { return cost; }
   /** Returns <b>true</b> if the link is up. */
@@ -44,6 +100,81 @@ public class Link {
   /** Brings the link down*/
   public final void down() { up = false; }
 
+  /** Returns the number of packets sent through the transmit queue from
+  *   the given endpoint.
+  */
+  public long getPacketsTransmitted(int from) { return (long)stat(from, SENT); }
+  /** Returns the number of packets dropped because the transmit queue
+  *   from the given endpoint was full.
+  */
+  public long getPacketsOverflowed(int from) {
+    return (long)stat(from, DROPPED);
+  }
+  /** Returns the total time the link spent sending from the given
+  *   endpoint, in seconds; divided by the length of the run, this is the
+  *   link's utilization in that direction.
+  */
+  public double getBusyTime(int from) { return stat(from, BUSY); }
+  /** Returns the total time packets from the given endpoint waited for
+  *   the link, in seconds.
+  */
+  public double getQueueingDelay(int from) { return stat(from, DELAY); }
+  /** Returns the longest time a packet from the given endpoint waited
+  *   for the link, in seconds.
+  */
+  public double getMaxQueueingDelay(int from) {
+    return stat(from, MAX_DELAY);
+  }
+  /** Write whether the link is up, and its transmit queues, to a
+  *   checkpoint.
+  */
+  void writeState(DataOutputStream out) throws IOException {
+    out.writeBoolean(up);
+    out.writeDouble(busyUntil[0]);
+    out.writeDouble(busyUntil[1]);
+    out.writeBoolean(stats != null);
+    if (stats != null)
+      for (int i=0; i<stats.length; i++)
+        out.writeDouble(stats[i]);
+    out.writeInt(waiting == null ? 0 : waiting[0].length);
+    if (waiting != null)
+      for (int d=0; d<2; d++) {
+        out.writeInt(waitingCount[d]);
+        for (int k=0; k<waitingCount[d]; k++)
+          out.writeDouble(waiting[d][(waitingHead[d] + k) % waiting[d].length]);
+      }
+  }
+  /** Read the state written by writeState. */
+  void readState(DataInputStream in) throws IOException {
+    up = in.readBoolean();
+    busyUntil[0] = in.readDouble();
+    busyUntil[1] = in.readDouble();
+    stats = null;
+    if (in.readBoolean()) {
+      stats = new double[2*STATS];
+      for (int i=0; i<stats.length; i++)
+        stats[i] = in.readDouble();
+    }
+    int buffer = in.readInt();
+    waiting = null;
+    if (buffer > 0) {
+      waiting = new double[2][buffer];
+      waitingHead = new int[2];
+      waitingCount = new int[2];
+      for (int d=0; d<2; d++) {
+        waitingCount[d] = in.readInt();
+        for (int k=0; k<waitingCount[d]; k++)
+          waiting[d][k] = in.readDouble();
+      }
+    }
+  }
+  /** Returns one of the transmit queue statistics for a direction. */
+  private double stat(int from, int which) {
+    if (stats == null)
+      return 0.0;
+    return stats[((from == nodeA) ? 0 : STATS) + which];
+  }
+
   /** The addresses of the endpoints. */
   private int nodeA, nodeB;
   /** The link speed, in bits per second. */
@@ -54,4 +185,27 @@ public class Link {
   private int cost;
   /** Whether or not the link is up. */
   private boolean up;
+  /** The time each direction's transmit queue is busy until: entry 0 for
+  *   packets from A to B, 1 for B to A.
+  */
+  private double[] busyUntil = new double[2];
+  /** The times the packets waiting in each direction will start sending,
+  *   as a ring of the buffer's size; only used with a finite buffer.
+  */
+  private double[][] waiting;
+  /** The first entry and the number of entries in each waiting ring. */
+  private int[] waitingHead, waitingCount;
+  /** The transmit queue statistics, STATS entries per direction, or
+  *   <b>null</b> if the queues have not been used.
+  */
+  private double[] stats;
+  /** The indices of the statistics: packets sent, packets dropped, busy
+  *   time, total and longest queueing delay.
+  */
+  private static final int SENT = 0, DROPPED = 1, BUSY = 2, DELAY = 3,
+    MAX_DELAY = 4, STATS = 5;
+  /** The link's position among its simulation's links, in the order they
+  *   were added.  Set by Simulation.
+  */
+  int index;
 }
@@ -12,14 +12,33 @@ public class LinkEvent extends Event {
     this.link = link;
     this.up = up;
   }
+  /** Reinitialize a recycled event.  Used only by EventPool. */
+  void reset(double time, Link link, boolean up) {
+    setTime(time);
+    this.link = link;
+    this.up = up;
+  }
+  /** Drop the reference to the link while the event waits for reuse.
+  *   Used only by EventPool.
+  */
+  void clear() {
+    link = null;
+  }
+  /** Returns the link being brought up or down. */
+  Link getLink() { return link; }
+  /** Returns <b>true</b> if the link is being brought up. */
+  boolean isUp() { return up; }
   /** Run the event (bring the link up or down). */
   public void run() {
-    Network.linkSet(link, up);
+    simulation.linkSet(link, up);
   }
   /** Returns a string representation.  For example, <code>1-&gt;2
-  * down</code>
+  * down</code>, or <code>recycled link event</code> once the event has
+  * gone back to the pool.
   */
   public String toString() {
+    if (link == null)
+      return getTime() + ": recycled link event";
     return getTime() + ": " + link.getEndpointA() + "->" +
       link.getEndpointB() + " " + (up ? "up" : "down");
   }
@@ -0,0 +1,96 @@
+/** A hash table mapping an unordered pair of node addresses to the link
+*   connecting them.  The table uses open addressing with linear probing;
+*   each pair is packed into a single long key (smaller address in the high
+*   word) so that a lookup costs one hash and, typically, one comparison.
+*   @see Network
+*/
+public class LinkIndex {
+  /** Create a new, empty index.
+  *   @param expectedLinks A hint for the number of links that will be
+  *   added.  The table grows as needed, so this need not be exact.
+  */
+  public LinkIndex(int expectedLinks) {
+    int capacity = 16;
+    while (capacity < expectedLinks*2)
+      capacity *= 2;
+    keys = new long[capacity];
+    values = new Link[capacity];
+    size = 0;
+  }
+  /** Add a link to the index.  If a link between the same two endpoints
+  *   is already present, the existing one is kept, matching the
+  *   first-match behavior of a linear scan.
+  *   @param l The link to add.
+  */
+  public void add(Link l) {
+    if ((size+1)*2 > values.length)
+      grow();
+    if (put(keys, values, l))
+      size++;
+  }
+  /** Finds the link connecting two nodes, or <b>null</b> if there is none.
+  *   @param a The address of one endpoint.
+  *   @param b The address of the other endpoint.
+  */
+  public Link find(int a, int b) {
+    long k = key(a, b);
+    int mask = values.length-1;
+    for (int i=hash(k) & mask; values[i] != null; i = (i+1) & mask) {
+      if (keys[i] == k)
+        return values[i];
+    }
+    return null;
+  }
+  /** Returns the number of distinct endpoint pairs in the index. */
+  public int size() {
+    return size;
+  }
+
+  /** Store a link in the given arrays.  Returns <b>false</b> if its
+  *   endpoint pair was already present.
+  */
+  private static boolean put(long[] keys, Link[] values, Link l) {
+    long k = key(l.getEndpointA(), l.getEndpointB());
+    int mask = values.length-1;
+    int i = hash(k) & mask;
+    while (values[i] != null) {
+      if (keys[i] == k)
+        return false;
+      i = (i+1) & mask;
+    }
+    keys[i] = k;
+    values[i] = l;
+    return true;
+  }
+  /** Double the size of the table and rehash every entry. */
+  private void grow() {
+    long[] newKeys = new long[keys.length*2];
+    Link[] newValues = new Link[values.length*2];
+    for (int i=0; i<values.length; i++)
+      if (values[i] != null)
+        put(newKeys, newValues, values[i]);
+    keys = newKeys;
+    values = newValues;
+  }
+  /** Pack an unordered pair of addresses into one key. */
+  private static long key(int a, int b) {
+    if (a > b) {
+      int t = a;
+      a = b;
+      b = t;
+    }
+    return ((long)a << 32) | (b & 0xffffffffL);
+  }
+  /** Scramble a key so that neighboring addresses spread over the table. */
+  private static int hash(long k) {
+    k *= 0x9E3779B97F4A7C15L;
+    return (int)(k ^ (k >>> 32));
+  }
+
+  /** The packed endpoint pair stored in each slot. */
+  private long[] keys;
+  /** The link stored in each slot; <b>null</b> marks an empty slot. */
+  private Link[] values;
+  /** The number of occupied slots. */
+  private int size;
+}
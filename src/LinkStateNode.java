@@ -0,0 +1,603 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+/** A reference link-state routing node.  Each node floods a link-state
+*   advertisement (LSA) listing its up interfaces and their costs whenever
+*   they change, and keeps every node's latest LSA in its link-state
+*   database.  The database is a compact graph: all adjacencies in two
+*   int arrays, each node's in one slice of them (compressed sparse rows),
+*   rewritten in place when a new LSA fits and compacted when too much
+*   space is left over.  A link is only used if both of its ends list it.
+*   <p>
+*   Routes come from a shortest-path tree rooted at the node.  When LSAs
+*   change, the tree is repaired rather than recomputed: the subtrees
+*   hanging from links that got worse are cut off, their nodes are
+*   offered the best path from a node outside them, and Dijkstra's
+*   algorithm runs from those nodes and from the far ends of links that
+*   got better, touching only nodes whose distance or parent changes.
+*   Among equal-cost parents the lowest address wins, so the tree, and
+*   every route, is the same as a full recomputation would give (only the
+*   order of the routing table may differ); run LinkStateNode$FullSpf to
+*   recompute from scratch every time instead.
+*   Each node counts its SPF runs, the time they took and the nodes they
+*   touched; see getStatistics().
+*   <p>
+*   An LSA is a binary packet of big-endian ints: the originating node,
+*   its sequence number, the number of neighbors, and a neighbor and cost
+*   for each.  Received LSAs are forwarded as they are, without copying.
+*/
+public class LinkStateNode extends NodeBase {
+  /** Create a new node with the given address. */
+  public LinkStateNode(int address) {
+    super(address);
+  }
+
+  /** Set up an empty database and tree, and advertise the node's links. */
+  public void init() {
+    int n = simulation.getNodeCount();
+    seq = new int[n];
+    packets = new ByteBuffer[n];
+    lsaStart = new int[n];
+    lsaCount = new int[n];
+    lsaCapacity = new int[n];
+    neighbors = new int[Math.max(16, 4*n)];
+    costs = new int[neighbors.length];
+    dist = new int[n];
+    Arrays.fill(dist, INFINITY);
+    dist[getAddress()] = 0;
+    parent = newArray(n);
+    hop = newArray(n);
+    firstChild = newArray(n);
+    nextSibling = newArray(n);
+    prevSibling = newArray(n);
+    marks = new int[n];
+    order = new int[n];
+    heap = new long[16];
+    originate();
+  }
+  /** Advertise the new link. */
+  public void interfaceUp(Link lnk) {
+    originate();
+    // Bring the new neighbor's database up to date.
+    int neighbor = lnk.getDest(getAddress());
+    for (int i=0; i<packets.length; i++)
+      if (packets[i] != null && i != getAddress())
+        sendPacket(neighbor, packets[i]);
+  }
+  /** Advertise the loss of the link. */
+  public void interfaceDown(Link lnk) {
+    originate();
+  }
+  /** Link-state packets are binary. */
+  public void receivePacket(int source, String pkt) {
+    throw new IllegalArgumentException("unexpected packet: " + pkt);
+  }
+  /** Install and flood an LSA if it is newer than the one in the
+  *   database, or send the newer one back if it is older.
+  */
+  public void receivePacket(int source, ByteBuffer pkt) {
+    int p = pkt.position();
+    int origin = pkt.getInt(p), number = pkt.getInt(p+4);
+    if (number < seq[origin]) {
+      sendPacket(source, packets[origin]);
+      return;
+    }
+    if (number == seq[origin])
+      return;
+    int count = pkt.getInt(p+8);
+    int[] n = new int[count], c = new int[count];
+    for (int i=0; i<count; i++) {
+      n[i] = pkt.getInt(p + 12 + 8*i);
+      c[i] = pkt.getInt(p + 16 + 8*i);
+    }
+    seq[origin] = number;
+    packets[origin] = pkt;
+    flood(pkt, source);
+    install(origin, n, c, count);
+    spf();
+  }
+
+  /** Write the database, with each node's latest LSA, and the
+  *   shortest-path tree.
+  */
+  public void writeState(DataOutputStream out) throws IOException {
+    writeInts(out, seq);
+    for (int i=0; i<packets.length; i++) {
+      ByteBuffer pkt = packets[i];
+      out.writeInt(pkt == null ? -1 : pkt.remaining());
+      if (pkt != null)
+        for (int k=pkt.position(); k<pkt.limit(); k++)
+          out.writeByte(pkt.get(k));
+    }
+    writeInts(out, lsaStart);
+    writeInts(out, lsaCount);
+    writeInts(out, lsaCapacity);
+    writeInts(out, neighbors);
+    writeInts(out, costs);
+    out.writeInt(used);
+    out.writeInt(wasted);
+    writeInts(out, dist);
+    writeInts(out, parent);
+    writeInts(out, hop);
+    writeInts(out, firstChild);
+    writeInts(out, nextSibling);
+    writeInts(out, prevSibling);
+    out.writeLong(spfRuns);
+    out.writeLong(fullSpfRuns);
+    out.writeLong(spfNanos);
+    out.writeLong(nodesTouched);
+  }
+  /** Read the database and tree written by writeState().  Every SPF
+  *   finishes within the event that started it, so there are no pending
+  *   changes, and the scratch space starts out empty.
+  */
+  public void readState(DataInputStream in) throws IOException {
+    int n = simulation.getNodeCount();
+    seq = readInts(in);
+    packets = new ByteBuffer[n];
+    for (int i=0; i<n; i++) {
+      int length = in.readInt();
+      if (length < 0)
+        continue;
+      byte[] b = new byte[length];
+      in.readFully(b);
+      packets[i] = ByteBuffer.wrap(b).asReadOnlyBuffer();
+    }
+    lsaStart = readInts(in);
+    lsaCount = readInts(in);
+    lsaCapacity = readInts(in);
+    neighbors = readInts(in);
+    costs = readInts(in);
+    used = in.readInt();
+    wasted = in.readInt();
+    dist = readInts(in);
+    parent = readInts(in);
+    hop = readInts(in);
+    firstChild = readInts(in);
+    nextSibling = readInts(in);
+    prevSibling = readInts(in);
+    spfRuns = in.readLong();
+    fullSpfRuns = in.readLong();
+    spfNanos = in.readLong();
+    nodesTouched = in.readLong();
+    marks = new int[n];
+    order = new int[n];
+    heap = new long[16];
+  }
+
+  /** Returns the node's SPF runs (full ones in parentheses), their total
+  *   time, and the nodes they touched.
+  */
+  public String getStatistics() {
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(3);
+    return spfRuns + " SPF runs (" + fullSpfRuns + " full), " +
+      nf.format(spfNanos / 1e6) + " ms, " + nodesTouched + " nodes touched";
+  }
+  /** Returns the number of times the shortest-path tree was computed or
+  *   repaired.
+  */
+  public long getSpfRuns() { return spfRuns; }
+  /** Returns the number of those runs that recomputed the whole tree. */
+  public long getFullSpfRuns() { return fullSpfRuns; }
+  /** Returns the total time spent in SPF, in nanoseconds. */
+  public long getSpfNanos() { return spfNanos; }
+  /** Returns the total number of nodes whose distance was reset or
+  *   settled by SPF.
+  */
+  public long getNodesTouched() { return nodesTouched; }
+
+  /** A link-state node that recomputes its whole shortest-path tree on
+  *   every change, for comparison with the incremental repair.
+  */
+  public static class FullSpf extends LinkStateNode {
+    public FullSpf(int address) {
+      super(address);
+      incremental = false;
+    }
+  }
+
+  /** Advertise the node's up interfaces in a new LSA. */
+  private void originate() {
+    int count = 0;
+    Enumeration e = getInterfaces();
+    while (e.hasMoreElements())
+      if (((Link)e.nextElement()).isUp())
+        count++;
+    int[] n = new int[count], c = new int[count];
+    ByteBuffer pkt = ByteBuffer.allocate(12 + 8*count);
+    pkt.putInt(getAddress()).putInt(++seq[getAddress()]).putInt(count);
+    count = 0;
+    e = getInterfaces();
+    while (e.hasMoreElements()) {
+      Link l = (Link)e.nextElement();
+      if (!l.isUp())
+        continue;
+      n[count] = l.getDest(getAddress());
+      c[count] = l.getCost();
+      pkt.putInt(n[count]).putInt(c[count]);
+      count++;
+    }
+    pkt.flip();
+    packets[getAddress()] = pkt;
+    flood(pkt, -1);
+    install(getAddress(), n, c, count);
+    spf();
+  }
+  /** Send an LSA to every neighbor over an up link, except one. */
+  private void flood(ByteBuffer pkt, int except) {
+    Enumeration e = getInterfaces();
+    while (e.hasMoreElements()) {
+      Link l = (Link)e.nextElement();
+      int neighbor = l.getDest(getAddress());
+      if (l.isUp() && neighbor != except)
+        sendPacket(neighbor, pkt);
+    }
+  }
+
+  /** Replace a node's adjacencies in the database, and note every link
+  *   whose usable cost changed as a result.
+  */
+  private void install(int origin, int[] n, int[] c, int count) {
+    // The links that may change: to the old and the new neighbors, in
+    // both directions.
+    int stamp = ++markStamp;
+    int[] ends = new int[lsaCount[origin] + count];
+    int endCount = 0;
+    for (int i=lsaStart[origin]; i<lsaStart[origin]+lsaCount[origin]; i++)
+      if (marks[neighbors[i]] != stamp) {
+        marks[neighbors[i]] = stamp;
+        ends[endCount++] = neighbors[i];
+      }
+    for (int i=0; i<count; i++)
+      if (marks[n[i]] != stamp) {
+        marks[n[i]] = stamp;
+        ends[endCount++] = n[i];
+      }
+    int[] before = new int[2*endCount];
+    for (int i=0; i<endCount; i++) {
+      before[2*i] = cost(origin, ends[i]);
+      before[2*i+1] = cost(ends[i], origin);
+    }
+
+    if (count > lsaCapacity[origin]) {
+      if (wasted > used/2 && wasted > 64)
+        compact();
+      wasted += lsaCapacity[origin];
+      if (used + count > neighbors.length) {
+        int capacity = Math.max(used + count, neighbors.length*2);
+        neighbors = grow(neighbors, capacity);
+        costs = grow(costs, capacity);
+      }
+      lsaStart[origin] = used;
+      lsaCapacity[origin] = count;
+      used += count;
+    }
+    System.arraycopy(n, 0, neighbors, lsaStart[origin], count);
+    System.arraycopy(c, 0, costs, lsaStart[origin], count);
+    lsaCount[origin] = count;
+
+    for (int i=0; i<endCount; i++) {
+      noteChange(origin, ends[i], before[2*i], cost(origin, ends[i]));
+      noteChange(ends[i], origin, before[2*i+1], cost(ends[i], origin));
+    }
+  }
+  /** Add a link whose cost changed to the list for the next SPF. */
+  private void noteChange(int from, int to, int before, int after) {
+    if (before == after)
+      return;
+    if (changes == changeFrom.length) {
+      changeFrom = grow(changeFrom, changes*2);
+      changeTo = grow(changeTo, changes*2);
+      changeBefore = grow(changeBefore, changes*2);
+      changeAfter = grow(changeAfter, changes*2);
+    }
+    changeFrom[changes] = from;
+    changeTo[changes] = to;
+    changeBefore[changes] = before;
+    changeAfter[changes] = after;
+    changes++;
+  }
+  /** Returns the cost a node lists for a neighbor, or -1 if it does not
+  *   list it.
+  */
+  private int listed(int from, int to) {
+    for (int i=lsaStart[from]; i<lsaStart[from]+lsaCount[from]; i++)
+      if (neighbors[i] == to)
+        return costs[i];
+    return -1;
+  }
+  /** Returns the cost of the link from one node to another, or INFINITY
+  *   unless both list it.
+  */
+  private int cost(int from, int to) {
+    int c = listed(from, to);
+    return (c < 0 || listed(to, from) < 0) ? INFINITY : c;
+  }
+  /** Move every node's adjacencies to the front of the arrays, in
+  *   address order, leaving no gaps.
+  */
+  private void compact() {
+    int[] n = new int[neighbors.length], c = new int[costs.length];
+    int at = 0;
+    for (int i=0; i<lsaStart.length; i++) {
+      System.arraycopy(neighbors, lsaStart[i], n, at, lsaCount[i]);
+      System.arraycopy(costs, lsaStart[i], c, at, lsaCount[i]);
+      lsaStart[i] = at;
+      lsaCapacity[i] = lsaCount[i];
+      at += lsaCount[i];
+    }
+    neighbors = n;
+    costs = c;
+    used = at;
+    wasted = 0;
+  }
+
+  /** Bring the shortest-path tree and the routing table up to date with
+  *   the links changed since the last run.
+  */
+  private void spf() {
+    if (changes == 0)
+      return;
+    long start = System.nanoTime();
+    int self = getAddress();
+    int stamp = ++markStamp;  // marks the nodes cut off from the tree
+    int n = dist.length;
+    // Cut off the subtrees below links that got worse, or everything.
+    int cut = 0;
+    if (!incremental) {
+      for (int v=0; v<n; v++)
+        if (v != self) {
+          marks[v] = stamp;
+          order[cut++] = v;
+        }
+      fullSpfRuns++;
+    }
+    else {
+      for (int i=0; i<changes; i++) {
+        int v = changeTo[i];
+        if (changeAfter[i] > changeBefore[i] && parent[v] == changeFrom[i] &&
+            marks[v] != stamp) {
+          marks[v] = stamp;
+          order[cut++] = v;
+          for (int k=cut-1; k<cut; k++)
+            for (int x=firstChild[order[k]]; x!=NONE; x=nextSibling[x])
+              if (marks[x] != stamp) {
+                marks[x] = stamp;
+                order[cut++] = x;
+              }
+        }
+      }
+    }
+    for (int k=0; k<cut; k++) {
+      int x = order[k];
+      dist[x] = INFINITY;
+      setParent(x, NONE);
+      touch(x);
+    }
+    // Offer each cut-off node the best path from outside the cut.
+    size = 0;
+    for (int k=0; k<cut; k++) {
+      int x = order[k];
+      for (int i=lsaStart[x]; i<lsaStart[x]+lsaCount[x]; i++) {
+        int y = neighbors[i];
+        if (marks[y] == stamp || dist[y] == INFINITY)
+          continue;
+        int c = listed(y, x);
+        if (c >= 0)
+          relax(y, x, c);
+      }
+    }
+    nodesTouched += cut;
+    // Offer the far ends of links that got better the path across them.
+    if (incremental)
+      for (int i=0; i<changes; i++)
+        if (changeAfter[i] < changeBefore[i] &&
+            dist[changeFrom[i]] != INFINITY)
+          relax(changeFrom[i], changeTo[i], changeAfter[i]);
+    changes = 0;
+    // Dijkstra's algorithm from every node offered a better path.
+    while (size > 0) {
+      long top = pop();
+      int u = (int)top;
+      if ((int)(top >>> 32) != dist[u])
+        continue;
+      nodesTouched++;
+      for (int i=lsaStart[u]; i<lsaStart[u]+lsaCount[u]; i++) {
+        int v = neighbors[i];
+        if (v != self && listed(v, u) >= 0)
+          relax(u, v, costs[i]);
+      }
+    }
+    updateRoutes();
+    spfRuns++;
+    spfNanos += System.nanoTime() - start;
+  }
+  /** Offer a node the path through one of its neighbors: take it if it
+  *   is shorter, or as long but through a lower address.
+  */
+  private void relax(int u, int v, int c) {
+    if (v == getAddress())
+      return;
+    int d = dist[u] + c;
+    if (d < dist[v]) {
+      dist[v] = d;
+      setParent(v, u);
+      touch(v);
+      push(((long)d << 32) | v);
+    }
+    else if (d == dist[v] && c > 0 && u < parent[v])
+      setParent(v, u);
+  }
+  /** Move a node to a new parent in the tree, and note it for
+  *   updateRoutes().
+  */
+  private void setParent(int v, int p) {
+    if (parent[v] == p)
+      return;
+    if (parent[v] != NONE) {
+      if (prevSibling[v] == NONE)
+        firstChild[parent[v]] = nextSibling[v];
+      else
+        nextSibling[prevSibling[v]] = nextSibling[v];
+      if (nextSibling[v] != NONE)
+        prevSibling[nextSibling[v]] = prevSibling[v];
+    }
+    parent[v] = p;
+    prevSibling[v] = NONE;
+    nextSibling[v] = NONE;
+    if (p != NONE) {
+      nextSibling[v] = firstChild[p];
+      if (firstChild[p] != NONE)
+        prevSibling[firstChild[p]] = v;
+      firstChild[p] = v;
+    }
+    if (reparented == reparentedNodes.length)
+      reparentedNodes = grow(reparentedNodes, reparented*2);
+    reparentedNodes[reparented++] = v;
+  }
+  /** Note that a node's distance, parent or first hop changed, so its
+  *   route must be checked.
+  */
+  private void touch(int v) {
+    if (touched == touchedNodes.length)
+      touchedNodes = grow(touchedNodes, touched*2);
+    touchedNodes[touched++] = v;
+  }
+  /** Recompute the first hop of every node whose parent changed, and of
+  *   the nodes below them where that changes it, then bring the route of
+  *   every node touched in line with the tree.
+  */
+  private void updateRoutes() {
+    int self = getAddress();
+    for (int k=0; k<reparented; k++) {
+      int count = 0;
+      order[count++] = reparentedNodes[k];
+      while (count > 0) {
+        int x = order[--count];
+        int p = parent[x];
+        int h = (p == NONE) ? NONE : (p == self) ? x : hop[p];
+        if (h == hop[x])
+          continue;
+        hop[x] = h;
+        touch(x);
+        for (int c=firstChild[x]; c!=NONE; c=nextSibling[c])
+          order[count++] = c;
+      }
+    }
+    reparented = 0;
+    for (int k=0; k<touched; k++) {
+      int x = touchedNodes[k];
+      Route r = routingTable.findRoute(x);
+      if (hop[x] == NONE) {
+        if (r != null)
+          routingTable.remove(x);
+      }
+      else if (r == null || r.getNextHop() != hop[x] ||
+          r.getCost() != dist[x])
+        routingTable.add(new Route(x, hop[x], dist[x]));
+    }
+    touched = 0;
+  }
+
+  /** Add an entry to the heap of (distance << 32 | node). */
+  private void push(long entry) {
+    if (size == heap.length) {
+      long[] a = new long[size*2];
+      System.arraycopy(heap, 0, a, 0, size);
+      heap = a;
+    }
+    int i = size++;
+    heap[i] = entry;
+    while (i > 0 && heap[(i-1)/2] > heap[i]) {
+      long x = heap[i]; heap[i] = heap[(i-1)/2]; heap[(i-1)/2] = x;
+      i = (i-1)/2;
+    }
+  }
+  /** Remove and return the smallest entry of the heap. */
+  private long pop() {
+    long top = heap[0];
+    heap[0] = heap[--size];
+    for (int i=0; ; ) {
+      int c = 2*i+1;
+      if (c >= size)
+        break;
+      if (c+1 < size && heap[c+1] < heap[c])
+        c++;
+      if (heap[i] <= heap[c])
+        break;
+      long x = heap[i]; heap[i] = heap[c]; heap[c] = x;
+      i = c;
+    }
+    return top;
+  }
+  /** Returns an array of n NONEs. */
+  private static int[] newArray(int n) {
+    int[] a = new int[n];
+    Arrays.fill(a, NONE);
+    return a;
+  }
+  /** Copy an array into a larger one. */
+  private static int[] grow(int[] a, int capacity) {
+    int[] b = new int[capacity];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+
+  /** No node, parent or hop. */
+  private static final int NONE = -1;
+  /** The distance of an unreachable node, and the cost of a missing
+  *   link.
+  */
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  /** <b>false</b> to recompute the whole tree on every change. */
+  boolean incremental = true;
+  /** The latest sequence number seen from each node, and its LSA. */
+  private int[] seq;
+  private ByteBuffer[] packets;
+  /** Each node's adjacencies are neighbors[lsaStart[i]] to
+  *   neighbors[lsaStart[i]+lsaCount[i]-1], with their costs in costs, in
+  *   a slice with room for lsaCapacity[i].
+  */
+  private int[] lsaStart, lsaCount, lsaCapacity;
+  private int[] neighbors, costs;
+  /** The slots of neighbors in use, and those in abandoned slices. */
+  private int used, wasted;
+  /** The links whose cost changed since the last SPF: from, to, and the
+  *   cost before and after.
+  */
+  private int[] changeFrom = new int[16], changeTo = new int[16],
+    changeBefore = new int[16], changeAfter = new int[16];
+  private int changes;
+  /** The shortest-path tree: each node's distance, parent and first hop,
+  *   and its children as a doubly-linked list.
+  */
+  private int[] dist, parent, hop;
+  private int[] firstChild, nextSibling, prevSibling;
+  /** The nodes whose parent changed during this SPF. */
+  private int[] reparentedNodes = new int[16];
+  private int reparented;
+  /** The nodes whose routes may have changed during this SPF, some of
+  *   them more than once.
+  */
+  private int[] touchedNodes = new int[16];
+  private int touched;
+  /** Scratch marks, valid where equal to markStamp. */
+  private int[] marks;
+  private int markStamp;
+  /** A scratch list of nodes.  No list ever holds a node twice, so it
+  *   needs no more room than there are nodes.
+  */
+  private int[] order;
+  /** The SPF heap, and the number of entries in it. */
+  private long[] heap;
+  private int size;
+  /** The statistics reported by getStatistics(). */
+  private long spfRuns, fullSpfRuns, spfNanos, nodesTouched;
+}
@@ -1,50 +1,254 @@
 import java.awt.*;
-import java.io.*;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.*;
 
-/** A class representing an entire network to be simulated.
-*   Since everything here is static, these are essentially scoped globals.
-*   You may only run one network at a time.
+/** The simulator's command-line front end and GUI.  It reads a .net file
+*   into a Simulation and runs it, either headless or one step at a time
+*   under the control of the GUI.
+*   @see Simulation
 */
 public class Network {
   /** Start the simulation.
-  *   @param argv Command-line arguments.  argv[0] must be the name of a
-  *   .net file to read.
+  *   @param argv Command-line arguments.  Zero or more options may come
+  *   first, followed by the name of a .net file to read.  The options are:
+  *   <ul>
+  *   <li>"-headless": run the simulation to completion without any GUI
+  *   and print a summary at the end.
+  *   <li>"-queue heap|heap4|calendar": select the event queue
+  *   implementation; "heap" is the default.
+  *   <li>"-pool on|off|check": control whether events are recycled after
+  *   they run, and whether recycled events are checked for reuse; "on" is
+  *   the default.
+  *   <li>"-node <i>class</i>": the NodeBase subclass to run on every
+  *   node; Node is the default.
+  *   <li>"-parallel <i>threads</i>": run headless on the given number of
+  *   threads; see ParallelEngine.
+  *   <li>"-batch <i>threads</i>": run headless, running events with equal
+  *   times on the given number of threads; see BatchEngine.
+  *   <li>"-metrics <i>seconds</i>": count events, packets and queue
+  *   depth, publish the counts as a JMX MBean, and print them every so
+  *   many seconds (never, if 0) and at the end; see SimulationMetrics.
+  *   <li>"-stop-quiet <i>seconds</i>": when running headless, stop as
+  *   soon as no link events remain and no routing table has changed for
+  *   the given simulated time; see Simulation.setStopWhenQuiet.
+  *   <li>"-link-queue <i>packets</i>": queue packets sent over a busy
+  *   link, dropping them when more than the given number are waiting in
+  *   one direction (never, if 0); see Simulation.setTransmitQueues.
+  *   <li>"-flow <i>spec</i>": forward a flow of data packets along the
+  *   routing tables, such as "cbr,from=n1,to=n9,rate=100,stop=2", and
+  *   report what became of them; may be given more than once.  See
+  *   TrafficEngine.  Not with "-parallel" or "-batch".
+  *   <li>"-check-routes": when running headless, check every routing
+  *   table against the shortest paths at the end, on every processor;
+  *   see RouteOracle.
+  *   <li>"-checkpoint-at <i>seconds file</i>": run headless up to the
+  *   given time, write the state of the simulation to the file, then go
+  *   on to the end; see Simulation.writeCheckpoint.
+  *   <li>"-restore <i>file</i>": start from a checkpoint of the same
+  *   topology and node class instead of from scratch.  The link events in
+  *   the .net file are replaced by those pending in the checkpoint.
+  *   <li>"-schedule <i>file</i>": add the link events in a file of
+  *   "event" lines to the topology; with "-restore", they are added to the
+  *   restored simulation, and must not come before the checkpoint.
+  *   <li>"-trace <i>file</i>": record every packet, link event, timer and
+  *   routing change in a binary trace, in segments named after the file,
+  *   for TraceAnalyzer; see EventTrace.  Not with "-parallel" or
+  *   "-batch".
+  *   <li>"-trace-snap <i>bytes</i>": keep the first so many bytes of each
+  *   packet in the trace; by default none are kept.
+  *   </ul>
   */
   public static void main(String[] argv) {
-    nodesByName = new Hashtable();
-    linksByName = new Hashtable();
-    nodes = new Vector();
-    nodeCoords = new Vector();
-    links = new Vector();
-    nodeNames = new Vector();
-    now = 0.0;
-    eventQueue = new EventQueue();
+    boolean headless = false;
+    String queueKind = "heap";
+    EventPool eventPool = new EventPool(true, false);
+    String nodeClassName = "Node";
+    int parallelThreads = 0;
+    int batchThreads = 0;
+    double metricsInterval = -1;
+    double quiet = -1;
+    int linkQueue = -1;
+    Vector flows = new Vector();
+    boolean checkRoutes = false;
+    double checkpointTime = -1;
+    String checkpointFile = null;
+    String restoreFile = null;
+    String scheduleFile = null;
+    String traceFile = null;
+    int traceSnap = 0;
+    int arg = 0;
+    while (arg < argv.length && argv[arg].startsWith("-")) {
+      if (argv[arg].equals("-headless"))
+        headless = true;
+      else if (argv[arg].equals("-queue") && arg+1 < argv.length)
+        queueKind = argv[++arg];
+      else if (argv[arg].equals("-pool") && arg+1 < argv.length) {
+        String mode = argv[++arg];
+        if (mode.equals("on"))
+          eventPool = new EventPool(true, false);
+        else if (mode.equals("off"))
+          eventPool = new EventPool(false, false);
+        else if (mode.equals("check"))
+          eventPool = new EventPool(true, true);
+        else {
+          System.out.println("unknown pool mode: " + mode);
+          usage();
+        }
+      }
+      else if (argv[arg].equals("-node") && arg+1 < argv.length)
+        nodeClassName = argv[++arg];
+      else if (argv[arg].equals("-parallel") && arg+1 < argv.length) {
+        parallelThreads = Integer.parseInt(argv[++arg]);
+        headless = true;
+      }
+      else if (argv[arg].equals("-batch") && arg+1 < argv.length) {
+        batchThreads = Integer.parseInt(argv[++arg]);
+        headless = true;
+      }
+      else if (argv[arg].equals("-metrics") && arg+1 < argv.length)
+        metricsInterval = Double.valueOf(argv[++arg]).doubleValue();
+      else if (argv[arg].equals("-stop-quiet") && arg+1 < argv.length)
+        quiet = Double.valueOf(argv[++arg]).doubleValue();
+      else if (argv[arg].equals("-link-queue") && arg+1 < argv.length)
+        linkQueue = Integer.parseInt(argv[++arg]);
+      else if (argv[arg].equals("-flow") && arg+1 < argv.length)
+        flows.addElement(argv[++arg]);
+      else if (argv[arg].equals("-check-routes"))
+        checkRoutes = true;
+      else if (argv[arg].equals("-checkpoint-at") && arg+2 < argv.length) {
+        checkpointTime = Double.valueOf(argv[++arg]).doubleValue();
+        checkpointFile = argv[++arg];
+        headless = true;
+      }
+      else if (argv[arg].equals("-restore") && arg+1 < argv.length)
+        restoreFile = argv[++arg];
+      else if (argv[arg].equals("-schedule") && arg+1 < argv.length)
+        scheduleFile = argv[++arg];
+      else if (argv[arg].equals("-trace") && arg+1 < argv.length)
+        traceFile = argv[++arg];
+      else if (argv[arg].equals("-trace-snap") && arg+1 < argv.length)
+        traceSnap = Integer.parseInt(argv[++arg]);
+      else {
+        System.out.println("unknown option: " + argv[arg]);
+        usage();
+      }
+      arg++;
+    }
+    if (arg != argv.length-1)
+      usage();
+    if (flows.size() > 0 && (parallelThreads > 0 || batchThreads > 0)) {
+      System.out.println("-flow cannot be used with -parallel or -batch");
+      usage();
+    }
+    if (traceFile != null && (parallelThreads > 0 || batchThreads > 0)) {
+      System.out.println("-trace cannot be used with -parallel or -batch");
+      usage();
+    }
+    if (flows.size() > 0 && (checkpointFile != null || restoreFile != null)) {
+      System.out.println("-flow cannot be used with -checkpoint-at or " +
+        "-restore");
+      usage();
+    }
+    try {
+      simulation = new Simulation(newEventQueue(queueKind), eventPool,
+        Class.forName(nodeClassName));
+    }
+    catch (Exception e) {
+      System.out.println("cannot use node class " + nodeClassName + ": " + e);
+      usage();
+    }
 
-    readTopology(argv[0]);
-    for (int i=0; i<nodes.size(); i++)
-      ((Node)nodes.elementAt(i)).init();
+    Topology base = Topology.read(argv[arg], null, true);
+    if (base == null)
+      System.exit(-1);
+    Topology schedule = null;
+    if (scheduleFile != null) {
+      schedule = Topology.read(scheduleFile, base, true);
+      if (schedule == null)
+        System.exit(-1);
+    }
+    simulation.load(schedule == null || restoreFile != null ?
+      base : schedule);
+    if (linkQueue >= 0)
+      simulation.setTransmitQueues(true, linkQueue);
+    for (int i=0; i<flows.size(); i++) {
+      try {
+        simulation.enableTraffic().addFlow((String)flows.elementAt(i));
+      }
+      catch (IllegalArgumentException e) {
+        System.out.println(e.getMessage());
+        System.exit(-1);
+      }
+    }
+    if (metricsInterval >= 0) {
+      SimulationMetrics metrics = simulation.enableMetrics();
+      System.out.println("Metrics registered as " + metrics.register());
+      if (metricsInterval > 0)
+        metrics.startLogging(metricsInterval);
+    }
+    if (traceFile != null) {
+      try {
+        simulation.enableTrace(traceFile, traceSnap);
+      }
+      catch (Exception e) {
+        System.out.println("cannot trace to " + traceFile + ": " +
+          e.getMessage());
+        System.exit(-1);
+      }
+    }
+    if (restoreFile == null)
+      simulation.init();
+    else
+      restore(restoreFile, base, schedule);
+
+    if (headless) {
+      simulation.setParallelThreads(parallelThreads);
+      simulation.setBatchThreads(batchThreads);
+      simulation.setStopWhenQuiet(quiet);
+      if (checkpointFile != null) {
+        simulation.runUntil(checkpointTime);
+        try {
+          simulation.writeCheckpoint(checkpointFile);
+        }
+        catch (IOException e) {
+          System.out.println("cannot write checkpoint: " + e.getMessage());
+          System.exit(-1);
+        }
+        System.out.println("Checkpoint at " + simulation.getCurrentTime() +
+          " sec written to " + checkpointFile);
+      }
+      simulation.run();
+      if (simulation.getMetrics() != null)
+        simulation.getMetrics().stopLogging();
+      closeTrace();
+      simulation.printSummary();
+      if (checkRoutes) {
+        RouteOracle oracle = new RouteOracle(simulation,
+          Runtime.getRuntime().availableProcessors());
+        oracle.compute();
+        oracle.check();
+        oracle.printSummary();
+      }
+      return;
+    }
 
+    int n = simulation.getNodeCount();
     Frame outputFrame = new Frame();
     GridBagConstraints gbc = new GridBagConstraints();
     outputFrame.setLayout(new GridBagLayout());
     outputFrame.setTitle("Routing Simulator: Network Map");
 
-    rtview = new RoutingTablesView(nodes.size());
-    for (int i=0; i<nodes.size(); i++) {
-      rtview.setName(i, (String)nodeNames.elementAt(i));
+    rtview = new RoutingTablesView(n);
+    for (int i=0; i<n; i++) {
+      rtview.setName(i, simulation.getNodeName(i));
     }
     rtview.show();
 
-    Node[] nodesArray = new Node[nodes.size()];
-    nodes.copyInto(nodesArray);
-    Link[] linksArray = new Link[links.size()];
-    links.copyInto(linksArray);
-    nmview = new NetworkMap(nodesArray, linksArray);
-    for (int i=0; i<nodes.size(); i++) {
-      nmview.setName(i, (String)nodeNames.elementAt(i));
-      nmview.setLocation(i, (FPoint)nodeCoords.elementAt(i));
+    nmview = new NetworkMap(simulation.getNodes(), simulation.getLinks());
+    for (int i=0; i<n; i++) {
+      nmview.setName(i, simulation.getNodeName(i));
+      nmview.setLocation(i, simulation.getNodeLocation(i));
     }
     gbc.gridx = gbc.gridy = 0;
     gbc.weightx = gbc.weighty = 1;
@@ -56,217 +260,98 @@ public class Network {
     gbc.gridy = 1;
     sview.show();
 
-    nodesByName = null;
-    linksByName = null;
-    nodeCoords = null;
-    
     outputFrame.pack();
     outputFrame.show();
     simulate();
   }
-  /** Send a packet (really queue a packet receive event).
-  *   @param source The node sending.
-  *   @param dest The node receiving.
-  *   @param pkt The actual packet to be sent.
-  */
-  public static void sendPacket(int source, int dest, String pkt) {
-    packetsSent++;
-    Link l = findLinkByNodes(source, dest);
-    PacketEvent pe = new PacketEvent(now+l.timeToTransmit(pkt.length()),
-      source, dest, pkt);
-    try { eventQueue.insert(pe); }
-    catch (TimeInconsistencyException e) {
-      System.out.println("Internal error: event occurs in the past.");
-    }
+  /** Print a usage message and exit. */
+  private static void usage() {
+    System.out.println("usage: java Network [-headless] " +
+      "[-queue heap|heap4|calendar] [-pool on|off|check] [-node class] " +
+      "[-parallel threads | -batch threads] [-metrics seconds] " +
+      "[-stop-quiet seconds] [-link-queue packets] [-flow spec]... " +
+      "[-check-routes] [-checkpoint-at seconds file] [-restore file] " +
+      "[-schedule file] [-trace file] [-trace-snap bytes] <file.net>");
+    System.exit(-1);
   }
-
-  /** Deliver a packet.  This is called by PacketEvent.run() only. */
-  public static void deliver(int source, int dest, String pkt) {
-    Link l = findLinkByNodes(source, dest);
-    if (l.isUp())
-      ((Node)nodes.elementAt(dest)).receivePacket(source, pkt);
+  /** Close the simulation's trace, if it has one. */
+  private static void closeTrace() {
+    if (simulation.getTrace() == null)
+      return;
+    try {
+      simulation.getTrace().close();
+    }
+    catch (IOException e) {
+      System.out.println("cannot write trace: " + e.getMessage());
+    }
   }
-
-  /** Read in a topology file.
-  *   @param filename The name of the file, typically ending in ".net"
+  /** Restore the simulation from a checkpoint, then add the link events
+  *   of a failure schedule that the base topology does not have.
+  *   @param filename The checkpoint.
+  *   @param base The topology read from the .net file.
+  *   @param schedule The base with the schedule's events added, or
+  *   <b>null</b> for none.
   */
-  private static void readTopology(String filename) {
-    int line = 0;
-    BufferedReader in;
+  private static void restore(String filename, Topology base,
+      Topology schedule) {
     try {
-      in = new BufferedReader(new FileReader(filename));
+      simulation.restoreCheckpoint(filename);
     }
-    catch (FileNotFoundException e) {
-      System.out.println(filename + ": file not found");
+    catch (IOException e) {
+      System.out.println("cannot restore checkpoint: " + e.getMessage());
       System.exit(-1);
-      return;  // not reached
     }
-    try {
-    String s;
-    while ((s = in.readLine()) != null) {
-      line++;
-      int comment = s.indexOf('#');
-      if (comment != -1)
-        s = s.substring(0, comment);
-      s = s.trim();
-      if (s.equals("")) continue;
-      StringTokenizer t = new StringTokenizer(s);
-      String command = t.nextToken();
-      try {
-        if (command.equalsIgnoreCase("node")) {
-          cmdNode(t);
-          if (t.hasMoreElements())
-            System.out.println(filename + ":" + line +
-              ": extra argument(s) ignored");
-        }
-        else if (command.equalsIgnoreCase("link")) {
-          cmdLink(t);
-          if (t.hasMoreElements())
-            System.out.println(filename + ":" + line +
-              ": extra argument(s) ignored");
-        }
-        else if (command.equalsIgnoreCase("event")) {
-          cmdEvent(t);
-          if (t.hasMoreElements())
-            System.out.println(filename + ":" + line +
-              ": extra argument(s) ignored");
-        }
-        else {
-          System.out.println(filename + ":" + line +
-            ": unknown command: " + command);
-        }
-      }
-      catch (NoSuchElementException e) {
-        System.out.println(filename + ":" + line +
-          ": missing argument(s) to " + command);
-      }
-      catch (NumberFormatException e) {
-        System.out.println(filename + ":" + line + ": " + e);
+    if (schedule == null)
+      return;
+    double now = simulation.getCurrentTime();
+    for (int i=base.getEventCount(); i<schedule.getEventCount(); i++) {
+      double time = schedule.getEventTime(i);
+      String link = schedule.getLinkName(schedule.getEventLink(i));
+      if (time < now) {
+        System.out.println("event for link " + link + " at " + time +
+          " sec is before the checkpoint at " + now + " sec");
+        System.exit(-1);
       }
-      catch (NoSuchNodeException e) {
-        System.out.println(filename + ":" + line + ": " + e);
+      try {
+        simulation.addLinkEvent(time, link, schedule.getEventUp(i));
       }
       catch (NoSuchLinkException e) {
-        System.out.println(filename + ":" + line + ": " + e);
+        System.out.println("no such link: " + link);
+        System.exit(-1);
       }
     }
-    }
-    catch (IOException e) {
-      System.out.println(filename + ":" + line + ": " + e);
-    }
-    System.out.println(nodes.size() + " nodes read.");
-    System.out.println(links.size() + " links read.");
-  } 
-  /** Process a "node" command.  This function creates a new node based
-  *   on the information it parses.
-  *   @param t A string tokenizer object representing the line from the
-  *   .net file with the first token (the command) already removed.
-  *   @exception java.lang.NumberFormatException Thrown when a numeric
-  *   field (i.e., bandwidth or latency) contains an invalid number.
-  */
-  private static void cmdNode(StringTokenizer t) throws
-      NumberFormatException {
-    String nodeName = t.nextToken();
-    double nodeX = Double.valueOf(t.nextToken()).doubleValue();
-    double nodeY = Double.valueOf(t.nextToken()).doubleValue();
-    Node newNode = new Node(nodes.size());
-    nodes.addElement(newNode);
-    nodesByName.put(nodeName, newNode);
-    nodeCoords.addElement(new FPoint(nodeX, nodeY));
-    nodeNames.addElement(nodeName);
   }
-  /** Process a "link" command.  This function creates a new link based
-  *   on the information it parses.
-  *   @param t A string tokenizer object representing the line from the
-  *   .net file with the first token (the command) already removed.
-  *   @exception NoSuchLinkException Thrown when a link description
-  *   references a node that cannot be found in the nodesByName mapping.
-  *   @exception java.lang.NumberFormatException Thrown when a numeric
-  *   field (i.e., bandwidth or latency) contains an invalid number.
-  */
-  private static void cmdLink(StringTokenizer t)
-      throws NoSuchNodeException, NumberFormatException {
-    String linkName = t.nextToken();
-    String firstNodeName = t.nextToken();
-    String secondNodeName = t.nextToken();
-    Node firstNode = (Node)nodesByName.get(firstNodeName);
-    if (firstNode == null)
-      throw new NoSuchNodeException(firstNodeName);
-    Node secondNode = (Node)nodesByName.get(secondNodeName);
-    if (secondNode == null)
-      throw new NoSuchNodeException(secondNodeName);
-    int speed = Integer.parseInt(t.nextToken());
-    double latency = Double.valueOf(t.nextToken()).doubleValue();
-    int cost = t.hasMoreTokens() ? Integer.parseInt(t.nextToken()) : 1;
-    Link newLink = new Link(firstNode.getAddress(), secondNode.getAddress(),
-      speed, latency, cost);
-    firstNode.addInterface(newLink);
-    secondNode.addInterface(newLink);
-    links.addElement(newLink);
-    linksByName.put(linkName, newLink);
-  } 
-  /** Process an "event" command.  This function creates and queues a new
-  *   event based on the information it parses.
-  *   @param t A string tokenizer object representing the line from the
-  *   .net file with the first token (the command) already removed.
-  *   @exception NoSuchLinkException Thrown when an event description
-  *   references a link that cannot be found in the linksByName mapping.
+  /** Create an empty event queue of the given kind.
+  *   @param kind "heap", "heap4" or "calendar".
   */
-  private static void cmdEvent(StringTokenizer t) throws NoSuchLinkException {
-    String eventTime = t.nextToken();
-    String eventType = t.nextToken();
-    if (eventType.equalsIgnoreCase("state")) {
-      String linkName = t.nextToken();
-      Link link = (Link)linksByName.get(linkName);
-      if (link == null)
-        throw new NoSuchLinkException(linkName);
-      String linkState = t.nextToken();
-      LinkEvent le = new LinkEvent(
-        Double.valueOf(eventTime).doubleValue(), link,
-        linkState.equalsIgnoreCase("up"));
-      try { eventQueue.insert(le); }
-      catch (TimeInconsistencyException e) {
-        System.out.println("Internal error: event occurs in the past.");
-      }
-    }
-    else
-      System.out.println("Unknown event type: " + eventType);
+  private static EventQueue newEventQueue(String kind) {
+    if (kind.equals("heap"))
+      return new HeapEventQueue(2);
+    else if (kind.equals("heap4"))
+      return new HeapEventQueue(4);
+    else if (kind.equals("calendar"))
+      return new CalendarEventQueue();
+    System.out.println("unknown event queue: " + kind);
+    usage();
+    return null;  // not reached
   }
-
-  /** Bring a given link up or down.  This function takes care of calling
-  *   Up() or Down() for all appropriate interfaces and calling
-  *   interfaceUp() or interfaceDown() for all appropriate nodes.
-  *   @param link The link to bring up or down.
-  *   @param up <b>true</b> if the link is being brought up.
+  /** Returns the current time of the simulation started from the
+  *   command line.  Nodes should use NodeBase.getCurrentTime, which works
+  *   for any simulation.
   */
-  public static void linkSet(Link link, boolean up) {
-    Node a = (Node)nodes.elementAt(link.getEndpointA());
-    Node b = (Node)nodes.elementAt(link.getEndpointB());
-    if (up) {
-      link.up();
-      a.interfaceUp(link);
-      b.interfaceUp(link);
-    }
-    else {
-      link.down();
-      a.interfaceDown(link);
-      b.interfaceDown(link);
-    }
-    nmview.repaint();
+  public static double getCurrentTime() {
+    return simulation.getCurrentTime();
   }
 
-  /** Returns the current time according to the network. */
-  public static double getCurrentTime() { return now; }
-
-  /** Actually run the simulation -- pop events off the queue and run them
-  *   until no events remain.
+  /** Actually run the simulation -- run events one step at a time, as
+  *   directed by the GUI, until no events remain.
   */
   private static void simulate() {
     NumberFormat nf = NumberFormat.getInstance();
-    while (!eventQueue.empty()) {
-      Event e = eventQueue.getNext();
-      nf.setMaximumFractionDigits(5);
-      now = e.getTime();
+    nf.setMaximumFractionDigits(5);
+    double now = 0.0;
+    while (simulation.hasPendingEvents()) {
+      now = simulation.peekNextTime();
       dump();
       sview.setTime(nf.format(now) + " sec");
       sview.setStopAt(Math.floor(now*10+1)/10);
@@ -276,97 +361,70 @@ public class Network {
       }
       double stopTime = sview.getStopAt();
       System.out.println(">> Time = " + now
-        + "  packetsSent = " + packetsSent);
-      //System.out.println("Event at time " + now + ": " + e);
-      e.run();
-      while (!eventQueue.empty() && (eventQueue.peekNext().getTime() == now
-          || eventQueue.peekNext().getTime() < stopTime)) {
-        e = eventQueue.getNext();
-        if (now != e.getTime()) {
-          now = e.getTime();
+        + "  packetsSent = " + simulation.getPacketsSent());
+      simulation.step();
+      while (simulation.hasPendingEvents() &&
+          (simulation.peekNextTime() == now ||
+           simulation.peekNextTime() < stopTime)) {
+        if (now != simulation.peekNextTime()) {
+          now = simulation.peekNextTime();
           System.out.println(">> Time = " + now
-            + "  packetsSent = " + packetsSent);
+            + "  packetsSent = " + simulation.getPacketsSent());
         }
-        //System.out.println("Event at time " + now + ": " + e);
-        e.run();
+        simulation.step();
       }
     }
     dump();
     sview.setTime(nf.format(now) + " sec (done)");
     sview.disableStepping();
-    System.out.println("Total packets sent: " + packetsSent);
+    closeTrace();
+    System.out.println("Total packets sent: " + simulation.getPacketsSent());
   }
 
   /** Dump the current state of the simulator into the output frame.  This
   *   involves updating the state of the routing table view (rtview) and
   *   the network map view (nmview) with new link state and routing table
-  *   information.
+  *   information.  Only the tables that changed since the last dump are
+  *   rendered again.
   */
   private static void dump() {
-    for (int i=0; i<nodes.size(); i++) {
-      Node n = (Node)nodes.elementAt(i);
-      String table = "dest  next  cost\n";
+    if (dumpedVersions == null) {
+      dumpedVersions = new long[simulation.getNodeCount()];
+      for (int i=0; i<dumpedVersions.length; i++)
+        dumpedVersions[i] = -1;
+    }
+    NodeBase[] nodes = simulation.getNodes();
+    StringBuffer table = new StringBuffer();
+    for (int i=0; i<nodes.length; i++) {
+      NodeBase n = nodes[i];
+      long version = n.getRoutingTableVersion();
+      if (version == dumpedVersions[i])
+        continue;
+      table.setLength(0);
+      table.append("dest  next  cost\n");
       Enumeration e = n.getRoutingTable();
       while (e.hasMoreElements()) {
         Route r = (Route)e.nextElement();
-        table += "  " + r.getDest() + "     " + r.getNextHop() + "     " +
-          r.getCost() + "\n";
+        table.append("  ").append(r.getDest()).append("     ")
+          .append(r.getNextHop()).append("     ")
+          .append(r.getCost()).append('\n');
       }
-      rtview.setTable(i, table);
+      rtview.setTable(i, table.toString());
+      dumpedVersions[i] = version;
     }
+    nmview.repaint();
   }
 
-  /** Finds a link object given two endpoints.  If the data structures are
-  *   consistent, the link returned should be unique.
-  *   @param a The address of one endpoint.
-  *   @param b The address of the other endpoint.
-  */
-  private static Link findLinkByNodes(int a, int b) {
-    for (int i=0; i<links.size(); i++) {
-      if ((((Link)links.elementAt(i)).getEndpointA() == a && 
-          ((Link)links.elementAt(i)).getEndpointB() == b) ||
-          (((Link)links.elementAt(i)).getEndpointA() == b && 
-          ((Link)links.elementAt(i)).getEndpointB() == a))
-        return (Link)links.elementAt(i);
-    }
-    return null;
-  }
-  
-  /** All nodes in the network. */
-  private static Vector nodes;
-  /** All links in the network. */
-  private static Vector links;
-  /** The coordinates (X and Y in the range 0.0-1.0) of each node. */
-  private static Vector nodeCoords;
-  /** A mapping from node names (in the .net file) to node objects. */
-  private static Hashtable nodesByName;
-  /** A mapping from link names (in the .net file) to link objects. */
-  private static Hashtable linksByName;
-  /** Each node's name (in the .net file) */
-  private static Vector nodeNames;
-  /** The simulator's current time (the time of the next event in the
-  * queue). */
-  private static double now;
-  /** The event queue. */
-  private static EventQueue eventQueue;
+  /** The simulation started from the command line. */
+  private static Simulation simulation;
   /** The GUI widget representing all routing tables. */
   private static RoutingTablesView rtview;
+  /** The routing table version of each node as last shown in rtview. */
+  private static long[] dumpedVersions;
   /** The GUI widget representing the network map. */
   private static NetworkMap nmview;
   /** The GUI widget with a time display, Step button, and Quit button. */
   private static StepView sview;
-  /** A count of all packets sent so far. */
-  private static int packetsSent = 0;
+  /** The object simulate() waits on between steps; notified by sview. */
   private static Object monitor;
 }
-
-class NoSuchNodeException extends Exception {
-  NoSuchNodeException(String name) {
-    super(name);
-  }
-}
-class NoSuchLinkException extends Exception {
-  NoSuchLinkException(String name) {
-    super(name);
-  }
-}
@@ -19,7 +19,7 @@ public class NetworkMap extends Component {
 
   /** Create a new network map widget with the given number of nodes.
   */
-  public NetworkMap(Node[] _nodes, Link[] _links) {
+  public NetworkMap(NodeBase[] _nodes, Link[] _links) {
   // note, I use _ to indicate constructor parameters to avoid naming
   // confusion with inner classes
     nodes = _nodes;
@@ -94,7 +94,7 @@ public class NetworkMap extends Component {
     nodeName[node] = name;
   }
 
-  Node[] nodes;
+  NodeBase[] nodes;
   Link[] links;
   /** The coordinates at which to draw each node, in the range 0.0-1.0. */
   private FPoint[] fcoords;
@@ -0,0 +1,10 @@
+/** Exception thrown by Simulation when a link is named that does not
+*   exist.
+*   @see Simulation#addLinkEvent
+*/
+public class NoSuchLinkException extends Exception {
+  /** Create the exception for the link's label. */
+  public NoSuchLinkException(String name) {
+    super(name);
+  }
+}
@@ -0,0 +1,10 @@
+/** Exception thrown by Simulation when a node is named that does not
+*   exist.
+*   @see Simulation#addLink
+*/
+public class NoSuchNodeException extends Exception {
+  /** Create the exception for the node's label. */
+  public NoSuchNodeException(String name) {
+    super(name);
+  }
+}
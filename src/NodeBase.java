@@ -1,3 +1,7 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Enumeration;
 import java.lang.String;
 import java.util.Vector;
@@ -21,7 +25,39 @@ public abstract class NodeBase {
   *   @param pkt The packet to send.
   */
   public void sendPacket(int dest, String pkt) {
-    Network.sendPacket(getAddress(), dest, pkt);
+    simulation.sendPacket(getAddress(), dest, pkt);
+  }
+  /** Send a binary packet.  The bytes between the buffer's position and
+  *   its limit are the packet; they are not copied, so the caller must not
+  *   change them after sending.  The transmission time is computed from
+  *   the exact number of bytes.
+  *   @param dest The address of the node that will receive the packet.
+  *   @param pkt The packet to send.
+  */
+  public void sendPacket(int dest, ByteBuffer pkt) {
+    simulation.sendPacket(getAddress(), dest, pkt);
+  }
+  /** Ask for timerExpired() to be called after a delay.  A timer cannot
+  *   be cancelled; a node that no longer wants one should ignore it when
+  *   it goes off.
+  *   @param delay The delay, in seconds, which must be positive.
+  *   @param id A number passed back to timerExpired(), to tell the node's
+  *   timers apart.
+  */
+  public void setTimer(double delay, int id) {
+    simulation.setTimer(getAddress(), delay, id);
+  }
+  /** Called when a timer set with setTimer() goes off.  By default, does
+  *   nothing.
+  *   @param id The number given to setTimer().
+  */
+  public void timerExpired(int id) {
+  }
+  /** Returns the current time in the node's simulation.
+  *   @see Simulation#getCurrentTime
+  */
+  public double getCurrentTime() {
+    return simulation.getCurrentTime();
   }
 
   /** Add a new interface. */
@@ -37,6 +73,13 @@ public abstract class NodeBase {
   public Enumeration getRoutingTable() {
     return routingTable.enumerate();
   }
+  /** Return the routing table's version number, which changes whenever
+  *   the table does.
+  *   @see RoutingTable#getVersion
+  */
+  public long getRoutingTableVersion() {
+    return routingTable.getVersion();
+  }
 
   /** @see Node */
   public abstract void init();
@@ -46,9 +89,69 @@ public abstract class NodeBase {
   public abstract void interfaceDown(Link lnk);
   /** @see Node */
   public abstract void receivePacket(int source, String pkt);
+  /** Called when the node receives a binary packet.  The buffer is a
+  *   read-only view of the bytes that were sent, starting at its position.
+  *   Nodes that send binary packets should override this; by default each
+  *   byte is turned into one character and the packet is passed to
+  *   receivePacket(int, String).
+  *   @param source The node that sent the packet.
+  *   @param pkt The packet itself.
+  */
+  public void receivePacket(int source, ByteBuffer pkt) {
+    char[] chars = new char[pkt.remaining()];
+    for (int i=0; i<chars.length; i++)
+      chars[i] = (char)(pkt.get(pkt.position()+i) & 0xff);
+    receivePacket(source, new String(chars));
+  }
+
+  /** Returns a one-line account of the work the node has done, which the
+  *   summary of a headless run lists, or <b>null</b> if it has none; by
+  *   default, <b>null</b>.
+  *   @see LinkStateNode#getStatistics
+  */
+  public String getStatistics() {
+    return null;
+  }
+
+  /** Write the node's own state, apart from its routing table, to a
+  *   checkpoint; see Simulation.writeCheckpoint.  A node that keeps any
+  *   state in fields of its own must override this and readState().  By
+  *   default, writes nothing.
+  *   @param out Where to write the state.
+  */
+  public void writeState(DataOutputStream out) throws IOException {
+  }
+  /** Restore the state written by writeState(), in place of init().  The
+  *   routing table and interfaces are already restored.  By default, does
+  *   nothing.
+  *   @param in The state, which must be read to its end.
+  */
+  public void readState(DataInputStream in) throws IOException {
+  }
+
+  /** Write an array of ints, or <b>null</b>, for writeState(). */
+  protected static void writeInts(DataOutputStream out, int[] a)
+      throws IOException {
+    out.writeInt(a == null ? -1 : a.length);
+    if (a != null)
+      for (int i=0; i<a.length; i++)
+        out.writeInt(a[i]);
+  }
+  /** Read an array written by writeInts(), for readState(). */
+  protected static int[] readInts(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0)
+      return null;
+    int[] a = new int[length];
+    for (int i=0; i<length; i++)
+      a[i] = in.readInt();
+    return a;
+  }
 
   /** The numeric address of the node. */
   private int address;
+  /** The simulation the node belongs to.  Set by Simulation.addNode. */
+  Simulation simulation;
   /** A table of routes, maintained by init, interfaceUp, interfaceDown,
   *   and receivePacket. */
   protected RoutingTable routingTable;
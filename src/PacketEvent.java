@@ -1,4 +1,7 @@
-/** A subclass of Event representing packet deliveries.
+import java.nio.ByteBuffer;
+
+/** A subclass of Event representing packet deliveries.  The packet is
+*   either a String or a ByteBuffer, depending on how it was sent.
 *   @see Event
 */
 public class PacketEvent extends Event {
@@ -14,21 +17,74 @@ public class PacketEvent extends Event {
     this.dest = dest;
     this.pkt = pkt;
   }
+  /** Create a new binary packet delivery event.
+  *   @param time The time at which the event will occur.
+  *   @param source The address from which the packet originated.
+  *   @param dest The address to which the packet is going.
+  *   @param bytes The packet being delivered.
+  */
+  public PacketEvent(double time, int source, int dest, ByteBuffer bytes) {
+    super(time);
+    this.source = source;
+    this.dest = dest;
+    this.bytes = bytes;
+  }
+  /** Reinitialize a recycled event.  Used only by EventPool. */
+  void reset(double time, int source, int dest, String pkt) {
+    setTime(time);
+    this.source = source;
+    this.dest = dest;
+    this.pkt = pkt;
+    this.bytes = null;
+  }
+  /** Reinitialize a recycled event with a binary packet.  Used only by
+  *   EventPool.
+  */
+  void reset(double time, int source, int dest, ByteBuffer bytes) {
+    setTime(time);
+    this.source = source;
+    this.dest = dest;
+    this.pkt = null;
+    this.bytes = bytes;
+  }
+  /** Drop the reference to the packet so that it can be collected while
+  *   the event waits for reuse.  Used only by EventPool.
+  */
+  void clear() {
+    pkt = null;
+    bytes = null;
+  }
+  /** Returns the address of the node that sent the packet. */
+  public int getSource() { return source; }
+  /** Returns the address of the node that will receive the packet. */
+  public int getDest() { return dest; }
+  /** Returns the node that will receive the packet. */
+  int getNode() { return dest; }
+  /** Returns the packet, if it is a String, or <b>null</b>. */
+  String getPacket() { return pkt; }
+  /** Returns the packet, if it is binary, or <b>null</b>. */
+  ByteBuffer getBytes() { return bytes; }
   /** Run the event (deliver the packet). */
   public void run() {
-    Network.deliver(source, dest, pkt);
+    if (bytes != null)
+      simulation.deliver(source, dest, bytes);
+    else
+      simulation.deliver(source, dest, pkt);
   }
   /** Returns a string representation.  For example, <code>1-&gt;2:
   * foo</code>
   */
   public String toString() {
-    return getTime() + ": " + source + "->" + dest + ": " + pkt;
+    return getTime() + ": " + source + "->" + dest + ": " +
+      (bytes != null ? "<" + bytes.remaining() + " bytes>" : pkt);
   }
 
   /** The address of the node from which the packet originated. */
   private int source;
   /** The address of the node that will receive the packet. */
   private int dest;
-  /** The packet being delivered. */
+  /** The packet being delivered, if it is a String. */
   private String pkt;
+  /** The packet being delivered, if it is binary. */
+  private ByteBuffer bytes;
 }
@@ -0,0 +1,438 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A conservative parallel simulation engine.  The nodes are split into
+*   contiguous blocks of addresses, one per logical process, and each
+*   logical process keeps its own event queue and clock and runs on its own
+*   thread.
+*   The logical processes advance together in windows.  If the earliest
+*   pending event anywhere is at time T, and every link between two
+*   partitions has a latency of at least L (the lookahead), then no packet
+*   sent during [T, T+L) can reach another partition before T+L.  So each
+*   logical process can safely run all of its events before T+L without
+*   hearing from the others.  Packets for other partitions are held in
+*   outboxes until the window ends, then moved to their destination queues.
+*   A node's timers go to its own partition's queue, like the packets it
+*   receives.
+*   Link events affect nodes in two partitions at once, so windows never
+*   cross them: at a link event's time every logical process stops, and
+*   the link events for that time run on the main thread.
+*   Because events are ordered by time and order key (see Event), each
+*   node sees exactly the same events in exactly the same order as in a
+*   sequential run, and the results are identical.
+*   @see Simulation
+*/
+public class ParallelEngine {
+  /** Create a new engine.
+  *   @param threads The number of logical processes (and threads).
+  *   @param simulation The simulation to run, after its init().  Its
+  *   event pool's settings are copied by each logical process.
+  *   @exception java.lang.IllegalArgumentException Thrown when a link
+  *   between two partitions has no latency, so there is no lookahead.
+  */
+  public ParallelEngine(int threads, Simulation simulation) {
+    this.simulation = simulation;
+    metrics = simulation.getMetrics();
+    NodeBase[] nodes = simulation.getNodes();
+    Link[] links = simulation.getLinks();
+    EventPool pool = simulation.getEventPool();
+    int p = Math.max(1, Math.min(threads, nodes.length));
+    partition = new int[nodes.length];
+    for (int i=0; i<nodes.length; i++)
+      partition[i] = (int)((long)i * p / nodes.length);
+    lookahead = Double.POSITIVE_INFINITY;
+    for (int i=0; i<links.length; i++) {
+      Link l = links[i];
+      if (partition[l.getEndpointA()] != partition[l.getEndpointB()])
+        lookahead = Math.min(lookahead, l.getLatency());
+    }
+    if (!(lookahead > 0))
+      throw new IllegalArgumentException("parallel simulation needs a " +
+        "positive latency on every link between partitions");
+    lps = new LogicalProcess[p];
+    for (int i=0; i<p; i++)
+      lps[i] = new LogicalProcess(i, p, pool.emptyCopy());
+  }
+
+  /** Run the simulation until no events remain.
+  *   @param initial The queue holding the events scheduled before the run
+  *   starts: link events from the .net file and packets sent by init().
+  *   It is empty afterwards.
+  */
+  public void run(EventQueue initial) {
+    List linkEvents = new ArrayList();
+    while (!initial.empty()) {
+      Event e = initial.getNext();
+      if (e.getNode() >= 0)
+        lps[partition[e.getNode()]].insert(e);
+      else
+        linkEvents.add(e);
+    }
+    int nextLink = 0;
+    noteMetrics(0.0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(lps.length);
+    try {
+      List runTasks = new ArrayList();
+      List mergeTasks = new ArrayList();
+      for (int i=0; i<lps.length; i++) {
+        runTasks.add(lps[i].runTask);
+        mergeTasks.add(lps[i].mergeTask);
+      }
+      while (true) {
+        double next = Double.POSITIVE_INFINITY;
+        for (int i=0; i<lps.length; i++)
+          next = Math.min(next, lps[i].nextTime());
+        double linkTime = (nextLink < linkEvents.size()) ?
+          ((Event)linkEvents.get(nextLink)).getTime() :
+          Double.POSITIVE_INFINITY;
+        if (next == Double.POSITIVE_INFINITY &&
+            linkTime == Double.POSITIVE_INFINITY)
+          break;
+        double stopTime = simulation.stopTime();
+        if (Math.min(next, linkTime) >= stopTime) {
+          simulation.stoppedEarly();
+          break;
+        }
+        if (linkTime <= next) {
+          // Every logical process has run all events before linkTime.
+          barrierTime = linkTime;
+          endTime = Math.max(endTime, linkTime);
+          while (nextLink < linkEvents.size() &&
+              ((Event)linkEvents.get(nextLink)).getTime() == linkTime) {
+            Event e = (Event)linkEvents.get(nextLink);
+            linkEvents.set(nextLink++, null);
+            e.run();
+            events++;
+          }
+          noteMetrics(linkTime);
+          continue;
+        }
+        windowEnd = Math.min(Math.min(next + lookahead, linkTime), stopTime);
+        inWindow = true;
+        invokeAll(executor, runTasks);
+        inWindow = false;
+        settleChanges();
+        invokeAll(executor, mergeTasks);
+        windows++;
+        double reached = 0.0;
+        for (int i=0; i<lps.length; i++)
+          reached = Math.max(reached, lps[i].now);
+        noteMetrics(reached);
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    for (int i=0; i<lps.length; i++) {
+      events += lps[i].events;
+      packetsSent += lps[i].packetsSent;
+      endTime = Math.max(endTime, lps[i].now);
+    }
+  }
+
+  /** Schedule the delivery of a packet.  This is called by
+  *   Simulation.sendPacket, on the thread running the sending node.
+  *   @param source The node sending.
+  *   @param dest The node receiving.
+  *   @param time The time of delivery.
+  *   @param pkt The packet, if it is a String.
+  *   @param bytes The packet, if it is binary.
+  */
+  void sendPacket(int source, int dest, double time, String pkt,
+      ByteBuffer bytes) {
+    LogicalProcess from = lps[partition[source]];
+    PacketEvent pe = (bytes != null) ?
+      from.pool.packetEvent(time, source, dest, bytes) :
+      from.pool.packetEvent(time, source, dest, pkt);
+    pe.setOrder(simulation.nextSendOrder(source));
+    pe.simulation = simulation;
+    from.packetsSent++;
+    int to = partition[dest];
+    if (to == from.index || !inWindow)
+      lps[to].insert(pe);
+    else
+      from.outboxes[to].add(pe);
+  }
+  /** Queue an event for a node, such as a timer.  This is called by
+  *   Simulation, on the thread running the node, so the event goes
+  *   straight into the queue of the node's own partition.
+  */
+  void schedule(Event e) {
+    lps[partition[e.getNode()]].insert(e);
+  }
+  /** Note that a routing table changed.  This is called by Simulation,
+  *   on the thread running the node.
+  *   @param time The time of the change.
+  */
+  void routeChanged(double time) {
+    LogicalProcess lp = (LogicalProcess)current.get();
+    if (lp != null)
+      lp.routeChanged(time);
+    else
+      simulation.getConvergenceTracker().change(time);
+  }
+  /** Returns the number of packets sent so far during the run.  Only
+  *   called between windows.
+  */
+  long packetsSentSoFar() {
+    long n = 0;
+    for (int i=0; i<lps.length; i++)
+      n += lps[i].packetsSent;
+    return n;
+  }
+  /** After a window, give the convergence tracker the last routing table
+  *   change so far and the number of packets sent up to and including its
+  *   time, which each logical process can tell from its checkpoints.
+  */
+  private void settleChanges() {
+    ConvergenceTracker tracker = simulation.getConvergenceTracker();
+    double last = tracker.pendingChange();
+    for (int i=0; i<lps.length; i++)
+      if (lps[i].changed)
+        last = Math.max(last, lps[i].lastChange);
+    if (last == Double.NEGATIVE_INFINITY)
+      return;
+    long through = simulation.getPacketsSent();
+    for (int i=0; i<lps.length; i++)
+      through += lps[i].sentThrough(last);
+    tracker.change(last, through);
+  }
+  /** Give the metrics, if any, the time reached and the depth of the
+  *   queues.  Only called between windows, when every event sent is in
+  *   one of the queues.
+  */
+  private void noteMetrics(double time) {
+    if (metrics == null)
+      return;
+    metrics.advance(time);
+    metrics.queued(getQueueDepth());
+  }
+  /** Returns the time of the event being run by the calling thread, or of
+  *   the link events being run between windows.
+  */
+  double getCurrentTime() {
+    LogicalProcess lp = (LogicalProcess)current.get();
+    return (lp != null) ? lp.now : barrierTime;
+  }
+
+  /** Returns the number of events waiting in all the logical processes'
+  *   queues.  Read from another thread during a window, it may be stale.
+  */
+  public int getQueueDepth() {
+    int n = 0;
+    for (int i=0; i<lps.length; i++)
+      n += lps[i].queue.size();
+    return n;
+  }
+  /** Returns the number of logical processes. */
+  public int getPartitions() { return lps.length; }
+  /** Returns the lookahead, in seconds. */
+  public double getLookahead() { return lookahead; }
+  /** Returns the number of windows run. */
+  public long getWindows() { return windows; }
+  /** Returns the number of events run. */
+  public long getEvents() { return events; }
+  /** Returns the number of packets sent during the run. */
+  public long getPacketsSent() { return packetsSent; }
+  /** Returns the time of the last event run. */
+  public double getEndTime() { return endTime; }
+  /** Returns the number of events allocated by all logical processes. */
+  public long getCreated() {
+    long n = 0;
+    for (int i=0; i<lps.length; i++)
+      n += lps[i].pool.getCreated();
+    return n;
+  }
+  /** Returns the number of events reused by all logical processes. */
+  public long getReused() {
+    long n = 0;
+    for (int i=0; i<lps.length; i++)
+      n += lps[i].pool.getReused();
+    return n;
+  }
+
+  /** Run a set of tasks on the executor and wait for all of them, passing
+  *   on any exception thrown by a task.
+  */
+  private static void invokeAll(ExecutorService executor, Collection tasks) {
+    try {
+      List futures = executor.invokeAll(tasks);
+      for (Iterator i = futures.iterator(); i.hasNext(); )
+        ((Future)i.next()).get();
+    }
+    catch (InterruptedException e) {
+      throw new IllegalStateException("parallel simulation interrupted");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new IllegalStateException(cause.toString());
+    }
+  }
+
+  /** One partition of the nodes, with its own event queue and clock. */
+  private class LogicalProcess {
+    LogicalProcess(int index, int partitions, EventPool pool) {
+      this.index = index;
+      this.pool = pool;
+      queue = new HeapEventQueue(4);
+      outboxes = new List[partitions];
+      for (int i=0; i<partitions; i++)
+        outboxes[i] = new ArrayList();
+    }
+    /** Returns the time of the earliest pending event, or infinity. */
+    double nextTime() {
+      return queue.empty() ? Double.POSITIVE_INFINITY :
+        queue.peekNext().getTime();
+    }
+    /** Queue an event for one of this partition's nodes. */
+    void insert(Event e) {
+      try { queue.insert(e); }
+      catch (TimeInconsistencyException ex) {
+        throw new IllegalStateException("event occurs in the past: " + e);
+      }
+    }
+    /** Run every event before the end of the window. */
+    void runWindow() {
+      current.set(this);
+      changed = false;
+      checkpoints = 0;
+      sentAtWindowStart = packetsSent;
+      try {
+        while (!queue.empty() && queue.peekNext().getTime() < windowEnd) {
+          Event e = queue.getNext();
+          if (e.getTime() > now)
+            checkpoint();
+          now = e.getTime();
+          pool.checkLive(e);
+          e.run();
+          pool.recycle(e);
+          events++;
+        }
+      }
+      finally {
+        current.set(null);
+      }
+    }
+    /** Record how many packets were sent up to the end of the current
+    *   time, as the clock moves past it.
+    */
+    private void checkpoint() {
+      if (checkpoints == checkpointTime.length) {
+        double[] t = new double[checkpoints*2];
+        long[] n = new long[checkpoints*2];
+        System.arraycopy(checkpointTime, 0, t, 0, checkpoints);
+        System.arraycopy(checkpointSent, 0, n, 0, checkpoints);
+        checkpointTime = t;
+        checkpointSent = n;
+      }
+      checkpointTime[checkpoints] = now;
+      checkpointSent[checkpoints++] = packetsSent;
+    }
+    /** Note that one of this partition's routing tables changed.  Earlier
+    *   checkpoints are no longer needed: the tracker only asks about times
+    *   at or after the last change.
+    */
+    void routeChanged(double time) {
+      lastChange = time;
+      changed = true;
+      checkpoints = 0;
+    }
+    /** Returns the number of packets this partition sent up to and
+    *   including the given time, which is no earlier than any change in
+    *   the window just run.
+    */
+    long sentThrough(double time) {
+      if (now <= time)
+        return packetsSent;
+      long sent = sentAtWindowStart;
+      for (int i=0; i<checkpoints && checkpointTime[i] <= time; i++)
+        sent = checkpointSent[i];
+      return sent;
+    }
+    /** Take the packets other partitions sent to this one. */
+    void merge() {
+      for (int i=0; i<lps.length; i++) {
+        List box = lps[i].outboxes[index];
+        for (int j=0; j<box.size(); j++)
+          insert((Event)box.get(j));
+        box.clear();
+      }
+    }
+
+    /** The partition number. */
+    final int index;
+    /** Where this partition's events come from. */
+    final EventPool pool;
+    /** The events for this partition's nodes. */
+    final EventQueue queue;
+    /** Packets sent during the current window, by destination partition. */
+    final List[] outboxes;
+    /** The time of the last event run. */
+    double now = 0.0;
+    /** The number of events run. */
+    long events = 0;
+    /** The number of packets sent by this partition's nodes. */
+    long packetsSent = 0;
+    /** <b>true</b> if a routing table changed during the current window. */
+    boolean changed;
+    /** The time of the last routing table change. */
+    double lastChange;
+    /** The number of packets sent before the current window. */
+    long sentAtWindowStart;
+    /** Checkpoints taken during the current window since the last
+    *   routing table change: each time the clock moved past, and the
+    *   number of packets sent by then.
+    */
+    double[] checkpointTime = new double[16];
+    long[] checkpointSent = new long[16];
+    int checkpoints;
+    /** Runs a window; see runWindow. */
+    final Callable runTask = new Callable() {
+      public Object call() { runWindow(); return null; }
+    };
+    /** Collects incoming packets; see merge. */
+    final Callable mergeTask = new Callable() {
+      public Object call() { merge(); return null; }
+    };
+  }
+
+  /** The simulation being run. */
+  private Simulation simulation;
+  /** The simulation's metrics, or <b>null</b>. */
+  private SimulationMetrics metrics;
+  /** The partition of each node, indexed by address. */
+  private int[] partition;
+  /** The logical processes, one per partition. */
+  private LogicalProcess[] lps;
+  /** The smallest latency of any link between two partitions. */
+  private double lookahead;
+  /** Events before this time may run in the current window. */
+  private volatile double windowEnd;
+  /** <b>true</b> while the logical processes are running a window. */
+  private volatile boolean inWindow = false;
+  /** The time of the link events being run between windows. */
+  private double barrierTime = 0.0;
+  /** The logical process running on each worker thread. */
+  private final ThreadLocal current = new ThreadLocal();
+  /** The number of windows run. */
+  private long windows = 0;
+  /** The number of events run. */
+  private long events = 0;
+  /** The number of packets sent. */
+  private long packetsSent = 0;
+  /** The time of the last event run. */
+  private double endTime = 0.0;
+}
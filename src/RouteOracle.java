@@ -0,0 +1,419 @@
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Checks every routing table of a simulation against the true shortest
+*   paths over the links that are up.  compute() runs Dijkstra's
+*   algorithm from every node, a range of sources per task on a fork-join
+*   pool, into two flat matrices indexed by source*n + destination: the
+*   cost of the cheapest path, and its first hop (the lowest address among
+*   equally cheap ones).  The hops are kept as shorts when every address
+*   fits, so a network of n nodes takes about 6n<sup>2</sup> bytes.
+*   <p>
+*   check() then compares every node's route to every other node with the
+*   matrices, also in parallel.  A route is right when its cost is the
+*   cheapest and its next hop is a neighbor over an up link that lies on
+*   some cheapest path, so a protocol is free to break ties its own way.
+*   It counts routes that are wrong, destinations left without a route,
+*   routes to destinations that cannot be reached, and pairs whose packets
+*   would go round a loop if forwarded along the tables.
+*   Nodes must not change while the oracle runs; use it after the run.
+*   @see Network
+*/
+public class RouteOracle {
+  /** Create an oracle for a simulation's current links and tables.
+  *   @param simulation The simulation.
+  *   @param threads The number of threads to use.
+  */
+  public RouteOracle(Simulation simulation, int threads) {
+    this.simulation = simulation;
+    this.threads = Math.max(1, threads);
+    nodes = simulation.getNodes();
+    n = nodes.length;
+    if ((long)n * n > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("too many nodes for an " +
+        "all-pairs matrix: " + n);
+  }
+
+  /** Compute the shortest paths between every pair of nodes over the
+  *   links that are up now.
+  */
+  public void compute() {
+    long start = System.nanoTime();
+    // Each node's up links, as offsets into two arrays.
+    Link[] links = simulation.getLinks();
+    adjacencyStart = new int[n+1];
+    for (int i=0; i<links.length; i++)
+      if (links[i].isUp()) {
+        adjacencyStart[links[i].getEndpointA()+1]++;
+        adjacencyStart[links[i].getEndpointB()+1]++;
+      }
+    for (int i=0; i<n; i++)
+      adjacencyStart[i+1] += adjacencyStart[i];
+    adjacent = new int[adjacencyStart[n]];
+    adjacentCost = new int[adjacencyStart[n]];
+    int[] fill = adjacencyStart.clone();
+    for (int i=0; i<links.length; i++)
+      if (links[i].isUp()) {
+        int a = links[i].getEndpointA(), b = links[i].getEndpointB();
+        adjacent[fill[a]] = b;
+        adjacentCost[fill[a]++] = links[i].getCost();
+        adjacent[fill[b]] = a;
+        adjacentCost[fill[b]++] = links[i].getCost();
+      }
+    costs = new int[n*n];
+    if (n <= Short.MAX_VALUE)
+      shortHops = new short[n*n];
+    else
+      intHops = new int[n*n];
+    run(new RangeTask(0, n, false));
+    computeNanos = System.nanoTime() - start;
+  }
+  /** Compare every node's routing table with the shortest paths, which
+  *   compute() must have found.
+  *   @return <b>true</b> if every route is right and no destination that
+  *   can be reached is missing.
+  */
+  public boolean check() {
+    if (costs == null)
+      throw new IllegalStateException("compute() has not been run");
+    long start = System.nanoTime();
+    taskCounts = new long[n][];
+    taskProblems = new Vector[n];
+    run(new RangeTask(0, n, true));
+    // Each range of nodes is checked by exactly one task, so its slot is
+    // written once; the join publishes it to this thread.
+    counts = new long[COUNTS];
+    problems = new Vector();
+    for (int i=0; i<n; i++) {
+      if (taskCounts[i] == null)
+        continue;
+      for (int k=0; k<COUNTS; k++)
+        counts[k] += taskCounts[i][k];
+      for (int k=0; k<taskProblems[i].size(); k++)
+        if (problems.size() < MAX_PROBLEMS)
+          problems.addElement(taskProblems[i].elementAt(k));
+    }
+    taskCounts = null;
+    taskProblems = null;
+    checkNanos = System.nanoTime() - start;
+    return counts[WRONG] + counts[MISSING] + counts[UNREACHABLE] +
+      counts[LOOPING] == 0;
+  }
+  /** Print what check() found: a count of each kind of problem, and the
+  *   first few problems.
+  */
+  public void printSummary() {
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(1);
+    System.out.println("Route check: " + counts[CHECKED] + " routes, " +
+      counts[WRONG] + " wrong, " + counts[MISSING] + " missing, " +
+      counts[UNREACHABLE] + " to unreachable destinations, " +
+      counts[LOOPING] + " looping (" + counts[NO_PATH] +
+      " pairs without a path)");
+    System.out.println("Route check time: all pairs " +
+      nf.format(computeNanos / 1e6) + " ms, tables " +
+      nf.format(checkNanos / 1e6) + " ms, on " + threads +
+      (threads == 1 ? " thread" : " threads"));
+    for (int i=0; i<problems.size(); i++)
+      System.out.println("  " + problems.elementAt(i));
+    long total = counts[WRONG] + counts[MISSING] + counts[UNREACHABLE] +
+      counts[LOOPING];
+    if (total > problems.size())
+      System.out.println("  (" + (total - problems.size()) + " more)");
+  }
+
+  /** Returns the cost of the cheapest path from one node to another, or
+  *   -1 if there is none.
+  */
+  public int getCost(int source, int dest) {
+    int c = costs[source*n + dest];
+    return (c == INFINITY) ? -1 : c;
+  }
+  /** Returns the first hop of the cheapest path from one node to another,
+  *   or -1 if there is none (or the nodes are the same).
+  */
+  public int getNextHop(int source, int dest) {
+    return (shortHops != null) ? shortHops[source*n + dest] :
+      intHops[source*n + dest];
+  }
+  /** Returns the number of routes check() compared. */
+  public long getRoutesChecked() { return counts[CHECKED]; }
+  /** Returns the number of routes with the wrong cost or a next hop off
+  *   every cheapest path.
+  */
+  public long getWrongRoutes() { return counts[WRONG]; }
+  /** Returns the number of reachable destinations without a route. */
+  public long getMissingRoutes() { return counts[MISSING]; }
+  /** Returns the number of routes to destinations that cannot be
+  *   reached.
+  */
+  public long getUnreachableRoutes() { return counts[UNREACHABLE]; }
+  /** Returns the number of source and destination pairs whose packets
+  *   would loop, forwarded along the routing tables.
+  */
+  public long getLoopingPairs() { return counts[LOOPING]; }
+
+  /** Run a task on a new fork-join pool. */
+  private void run(RangeTask task) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(task);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+  /** Find the shortest paths from one source: Dijkstra's algorithm with a
+  *   binary heap of (distance, node) pairs packed into longs.
+  */
+  private void shortestPaths(int source, Scratch s) {
+    int[] dist = s.dist, hop = s.hop;
+    Arrays.fill(dist, INFINITY);
+    Arrays.fill(hop, NONE);
+    dist[source] = 0;
+    s.size = 0;
+    s.push(source);
+    while (s.size > 0) {
+      long top = s.pop();
+      int u = (int)top, d = (int)(top >>> 32);
+      if (d != dist[u])
+        continue;
+      for (int i=adjacencyStart[u]; i<adjacencyStart[u+1]; i++) {
+        int v = adjacent[i];
+        int c = d + adjacentCost[i];
+        int h = (u == source) ? v : hop[u];
+        if (c < dist[v]) {
+          dist[v] = c;
+          hop[v] = h;
+          s.push(((long)c << 32) | v);
+        }
+        else if (c == dist[v] && v != source && h < hop[v])
+          hop[v] = h;
+      }
+    }
+    int row = source*n;
+    System.arraycopy(dist, 0, costs, row, n);
+    if (shortHops != null)
+      for (int v=0; v<n; v++)
+        shortHops[row + v] = (short)hop[v];
+    else
+      System.arraycopy(hop, 0, intHops, row, n);
+  }
+  /** Check one node's route to every other node. */
+  private void checkRoutes(int source, long[] count, Vector found) {
+    int row = source*n;
+    for (int d=0; d<n; d++) {
+      if (d == source)
+        continue;
+      Route r = nodes[source].routingTable.findRoute(d);
+      int best = costs[row + d];
+      if (best == INFINITY) {
+        count[NO_PATH]++;
+        if (r != null) {
+          count[UNREACHABLE]++;
+          note(found, source, d, "cannot be reached, but has a route via " +
+            name(r.getNextHop()));
+        }
+        continue;
+      }
+      if (r == null) {
+        count[MISSING]++;
+        note(found, source, d, "has no route; want " + want(source, d));
+        continue;
+      }
+      count[CHECKED]++;
+      int h = r.getNextHop();
+      int link = linkCost(source, h);
+      int rest = (h >= 0 && h < n) ? costs[h*n + d] : INFINITY;
+      if (r.getCost() != best || link == INFINITY || rest == INFINITY ||
+          link + rest != best) {
+        count[WRONG]++;
+        note(found, source, d, "has " + name(h) + " cost " + r.getCost() +
+          "; want " + want(source, d));
+      }
+    }
+  }
+  /** Follow every node's route to one destination, and count the nodes
+  *   whose packets would go round a loop.
+  */
+  private void checkLoops(int dest, Scratch s, long[] count, Vector found) {
+    int[] state = s.dist, path = s.hop;
+    Arrays.fill(state, UNKNOWN);
+    state[dest] = DELIVERS;
+    for (int source=0; source<n; source++) {
+      int length = 0, v = source, result;
+      while (true) {
+        if (state[v] == ON_PATH) {
+          result = LOOPS;
+          break;
+        }
+        if (state[v] != UNKNOWN) {
+          result = state[v];
+          break;
+        }
+        state[v] = ON_PATH;
+        path[length++] = v;
+        Route r = nodes[v].routingTable.findRoute(dest);
+        int h = (r == null) ? NONE : r.getNextHop();
+        if (linkCost(v, h) == INFINITY) {
+          result = STOPS;
+          break;
+        }
+        v = h;
+      }
+      for (int i=0; i<length; i++)
+        state[path[i]] = result;
+      if (result == LOOPS && length > 0) {
+        count[LOOPING] += length;
+        note(found, source, dest, "loops (through " + name(v) + ")");
+      }
+    }
+  }
+  /** Returns the cost of the cheapest up link between two nodes, or
+  *   INFINITY if there is none.
+  */
+  private int linkCost(int from, int to) {
+    int best = INFINITY;
+    if (from < 0 || from >= n)
+      return best;
+    for (int i=adjacencyStart[from]; i<adjacencyStart[from+1]; i++)
+      if (adjacent[i] == to)
+        best = Math.min(best, adjacentCost[i]);
+    return best;
+  }
+  /** Returns the route a node should have to a destination. */
+  private String want(int source, int dest) {
+    return name(getNextHop(source, dest)) + " cost " +
+      costs[source*n + dest];
+  }
+  /** Returns a node's name, or its address if it has none. */
+  private String name(int address) {
+    if (address < 0 || address >= n)
+      return String.valueOf(address);
+    String s = simulation.getNodeName(address);
+    return (s != null) ? s : String.valueOf(address);
+  }
+  /** Add a problem to a task's list, unless the list is full. */
+  private void note(Vector found, int source, int dest, String what) {
+    if (found.size() < MAX_PROBLEMS)
+      found.addElement(name(source) + " -> " + name(dest) + " " + what);
+  }
+  /** Runs a range of nodes, splitting it while it is large: shortest
+  *   paths from each as a source, or its routes and the loops to it as a
+  *   destination.
+  */
+  private class RangeTask extends RecursiveAction {
+    RangeTask(int from, int to, boolean checking) {
+      this.from = from;
+      this.to = to;
+      this.checking = checking;
+    }
+    protected void compute() {
+      if (to - from > GRAIN) {
+        int mid = (from + to) / 2;
+        invokeAll(new RangeTask(from, mid, checking),
+          new RangeTask(mid, to, checking));
+        return;
+      }
+      Scratch s = new Scratch();
+      if (!checking) {
+        for (int i=from; i<to; i++)
+          shortestPaths(i, s);
+        return;
+      }
+      long[] count = new long[COUNTS];
+      Vector found = new Vector();
+      for (int i=from; i<to; i++) {
+        checkRoutes(i, count, found);
+        checkLoops(i, s, count, found);
+      }
+      taskCounts[from] = count;
+      taskProblems[from] = found;
+    }
+    private int from, to;
+    private boolean checking;
+  }
+  /** One task's working arrays. */
+  private class Scratch {
+    void push(long x) {
+      if (size == heap.length) {
+        long[] a = new long[size*2];
+        System.arraycopy(heap, 0, a, 0, size);
+        heap = a;
+      }
+      int i = size++;
+      while (i > 0 && heap[(i-1)/2] > x) {
+        heap[i] = heap[(i-1)/2];
+        i = (i-1)/2;
+      }
+      heap[i] = x;
+    }
+    long pop() {
+      long top = heap[0];
+      long x = heap[--size];
+      int i = 0;
+      while (2*i+1 < size) {
+        int c = 2*i+1;
+        if (c+1 < size && heap[c+1] < heap[c])
+          c++;
+        if (x <= heap[c])
+          break;
+        heap[i] = heap[c];
+        i = c;
+      }
+      heap[i] = x;
+      return top;
+    }
+    final int[] dist = new int[n], hop = new int[n];
+    long[] heap = new long[64];
+    int size;
+  }
+
+  /** No node or hop. */
+  private static final int NONE = -1;
+  /** The cost of a path that does not exist. */
+  private static final int INFINITY = Integer.MAX_VALUE;
+  /** The nodes per task. */
+  private static final int GRAIN = 16;
+  /** The most problems printed. */
+  private static final int MAX_PROBLEMS = 10;
+  /** What happens to a packet forwarded along the tables, in
+  *   checkLoops().
+  */
+  private static final int UNKNOWN = 0, ON_PATH = 1, DELIVERS = 2,
+    STOPS = 3, LOOPS = 4;
+  /** The slots of the counts array. */
+  private static final int CHECKED = 0, WRONG = 1, MISSING = 2,
+    UNREACHABLE = 3, LOOPING = 4, NO_PATH = 5, COUNTS = 6;
+
+  /** The simulation, its nodes, and how many there are. */
+  private Simulation simulation;
+  private NodeBase[] nodes;
+  private int n;
+  /** The number of threads to use. */
+  private int threads;
+  /** Each node's up links: the neighbors adjacent[adjacencyStart[i]] to
+  *   adjacent[adjacencyStart[i+1]-1], at the costs in adjacentCost.
+  */
+  private int[] adjacencyStart, adjacent, adjacentCost;
+  /** The cost of the cheapest path from each source to each destination,
+  *   at source*n + destination, or INFINITY.
+  */
+  private int[] costs;
+  /** The first hop of each cheapest path, laid out like costs, in
+  *   whichever array is not <b>null</b>.
+  */
+  private short[] shortHops;
+  private int[] intHops;
+  /** What check() found, and the first few problems. */
+  private long[] counts = new long[COUNTS];
+  private Vector problems = new Vector();
+  /** What each task of check() found, in the slot of its first node. */
+  private long[][] taskCounts;
+  private Vector[] taskProblems;
+  /** The time taken by compute() and check(), in nanoseconds. */
+  private long computeNanos, checkNanos;
+}
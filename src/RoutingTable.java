@@ -1,76 +1,263 @@
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.NoSuchElementException;
 
-/** A class to represent a node's routing table. */
+/** A class to represent a node's routing table.  Routes are stored in an
+*   array indexed by destination address, so finding, adding or removing
+*   the route for a destination takes constant time.  The routes are also
+*   threaded onto two sets of doubly-linked lists, also kept in arrays
+*   indexed by destination: one list of all routes in the order they were
+*   added, which enumerate() follows, and one list per next hop, so that
+*   the routes through a given neighbor can be found or removed in time
+*   proportional to their number.
+*   Every change to the table increments a version number, so that
+*   observers such as the GUI can tell cheaply whether anything changed.
+*/
 public class RoutingTable {
   /** Create a new, empty routing table. */
   public RoutingTable() {
-    routes = new Vector();
+    routes = new Route[0];
+    prev = next = hopPrev = hopNext = new int[0];
+    hopHead = hopTail = new int[0];
+    head = tail = NONE;
+    size = 0;
   }
-  /** Add a route to the table.  This function does not check for
-  *   duplicate routes or routes for which the nextHop is not an available
-  *   neighbor.
+  /** Add a route to the table.  A route already in the table for the same
+  *   destination is replaced, and the new route takes its place in the
+  *   enumeration order.  Replacing a route with one with the same next
+  *   hop and cost is not a change, and leaves the version alone.  This
+  *   function does not check for routes for which the nextHop is not an
+  *   available neighbor.
   *   @param r The route to add.
+  *   @exception java.lang.IllegalArgumentException Thrown when the
+  *   destination is negative.
   */
   public void add(Route r) {
-    routes.addElement(r);
+    int dest = r.getDest();
+    if (dest < 0)
+      throw new IllegalArgumentException("negative destination: " + dest);
+    ensureCapacity(Math.max(dest, r.getNextHop()) + 1);
+    Route old = routes[dest];
+    if (old != null && old.getNextHop() == r.getNextHop() &&
+        old.getCost() == r.getCost()) {
+      routes[dest] = r;
+      return;
+    }
+    if (old != null) {
+      unlinkHop(dest);
+      routes[dest] = r;
+    }
+    else {
+      routes[dest] = r;
+      prev[dest] = tail;
+      next[dest] = NONE;
+      if (tail == NONE)
+        head = dest;
+      else
+        next[tail] = dest;
+      tail = dest;
+      size++;
+    }
+    linkHop(dest);
+    changed();
   }
-  /** Remove the route for the given destination from the table.  If the
-  *   routing table is internally consistent, only one route will have
-  *   the given destination.
+  /** Remove the route for the given destination from the table.
   *   @param dest The destination for the route to remove.
   */
   public void remove(int dest) {
-    int i = findRouteIndex(dest);
-    if (i != -1) {
-      routes.removeElementAt(i);
+    if (dest < 0 || dest >= routes.length || routes[dest] == null)
+      return;
+    unlinkHop(dest);
+    if (prev[dest] == NONE)
+      head = next[dest];
+    else
+      next[prev[dest]] = next[dest];
+    if (next[dest] == NONE)
+      tail = prev[dest];
+    else
+      prev[next[dest]] = prev[dest];
+    routes[dest] = null;
+    size--;
+    changed();
+  }
+  /** Remove every route whose next hop is the given neighbor, typically
+  *   because the interface to it went down.  This takes time proportional
+  *   to the number of routes removed.
+  *   @param nextHop The neighbor whose routes are removed.
+  *   @return The number of routes removed.
+  */
+  public int removeByNextHop(int nextHop) {
+    int removed = 0;
+    if (nextHop < 0 || nextHop >= hopHead.length)
+      return 0;
+    while (hopHead[nextHop] != NONE) {
+      remove(hopHead[nextHop]);
+      removed++;
     }
+    return removed;
   }
   /** Remove all routes in the table. */
   public void flush() {
-    routes.removeAllElements();
+    for (int d=head; d!=NONE; d=next[d])
+      routes[d] = null;
+    for (int h=0; h<hopHead.length; h++)
+      hopHead[h] = hopTail[h] = NONE;
+    head = tail = NONE;
+    size = 0;
+    changed();
   }
-  /** Find the route for the given destination.  If the routing table is
-  *   internally consistent, only one route will match.
+  /** Find the route for the given destination.
   *   @param dest The destination to search for.
   */
   public Route findRoute(int dest) {
-    int i = findRouteIndex(dest);
-    return (i == -1) ? null : (Route)routes.elementAt(i);
+    return (dest < 0 || dest >= routes.length) ? null : routes[dest];
   }
   /** Find the first route with the given next hop.  There may be many
   *   routes with the given next hop; this function returns only the
-  *   first.
+  *   first (the earliest added of them).
   *   @param nextHop The value of nextHop to search for.
   */
   public Route findRouteByNextHop(int nextHop) {
-    for (int i=0; i<routes.size(); i++) {
-      if (((Route)(routes.elementAt(i))).getNextHop() == nextHop) {
-        return (Route)routes.elementAt(i);
-      }
-    }
-    return null;
+    if (nextHop < 0 || nextHop >= hopHead.length || hopHead[nextHop] == NONE)
+      return null;
+    return routes[hopHead[nextHop]];
   }
-  /** Return an Enumeration representing all routes in the table. */
+  /** Return an Enumeration representing all routes with the given next
+  *   hop, earliest added first.  The table may be changed while the
+  *   enumeration is in use.
+  *   @param nextHop The value of nextHop to search for.
+  */
+  public Enumeration findRoutesByNextHop(int nextHop) {
+    if (nextHop < 0 || nextHop >= hopHead.length)
+      return new ArrayEnumeration(new Route[0], 0);
+    int count = 0;
+    for (int d=hopHead[nextHop]; d!=NONE; d=hopNext[d])
+      count++;
+    Route[] a = new Route[count];
+    count = 0;
+    for (int d=hopHead[nextHop]; d!=NONE; d=hopNext[d])
+      a[count++] = routes[d];
+    return new ArrayEnumeration(a, count);
+  }
+  /** Return an Enumeration representing all routes in the table, in the
+  *   order their destinations were first added.  The table may be changed
+  *   while the enumeration is in use; the enumeration still returns the
+  *   routes as they were when it was created.
+  */
   public Enumeration enumerate() {
-    return routes.elements();
+    if (snapshot == null) {
+      snapshot = new Route[size];
+      int i = 0;
+      for (int d=head; d!=NONE; d=next[d])
+        snapshot[i++] = routes[d];
+    }
+    return new ArrayEnumeration(snapshot, snapshot.length);
   }
-  /** Find the index in the routing table of the route for the given
-  *   destination.  If the routing table is internally consistent, only
-  *   one route will match.
-  *   @param dest The destination to search for.
+  /** Returns the number of routes in the table. */
+  public int size() {
+    return size;
+  }
+  /** Returns the table's version number, which changes every time a
+  *   route is added or removed or the table is flushed.
   */
-  private int findRouteIndex(int dest) {
-    for (int i=0; i<routes.size(); i++) {
-      if (((Route)(routes.elementAt(i))).getDest() == dest) {
-        return i;
-      }
+  public long getVersion() {
+    return version;
+  }
+
+  /** Note that the table has changed. */
+  private void changed() {
+    version++;
+    snapshot = null;
+  }
+  /** Append the route for a destination to its next hop's list. */
+  private void linkHop(int dest) {
+    int h = routes[dest].getNextHop();
+    if (h < 0) {
+      hopPrev[dest] = hopNext[dest] = NONE;
+      return;
+    }
+    hopPrev[dest] = hopTail[h];
+    hopNext[dest] = NONE;
+    if (hopTail[h] == NONE)
+      hopHead[h] = dest;
+    else
+      hopNext[hopTail[h]] = dest;
+    hopTail[h] = dest;
+  }
+  /** Remove the route for a destination from its next hop's list. */
+  private void unlinkHop(int dest) {
+    int h = routes[dest].getNextHop();
+    if (h < 0)
+      return;
+    if (hopPrev[dest] == NONE)
+      hopHead[h] = hopNext[dest];
+    else
+      hopNext[hopPrev[dest]] = hopNext[dest];
+    if (hopNext[dest] == NONE)
+      hopTail[h] = hopPrev[dest];
+    else
+      hopPrev[hopNext[dest]] = hopPrev[dest];
+  }
+  /** Grow the arrays, if necessary, to hold addresses up to n-1. */
+  private void ensureCapacity(int n) {
+    if (n <= routes.length)
+      return;
+    int capacity = Math.max(n, routes.length*2);
+    Route[] newRoutes = new Route[capacity];
+    System.arraycopy(routes, 0, newRoutes, 0, routes.length);
+    routes = newRoutes;
+    prev = grow(prev, capacity);
+    next = grow(next, capacity);
+    hopPrev = grow(hopPrev, capacity);
+    hopNext = grow(hopNext, capacity);
+    hopHead = grow(hopHead, capacity);
+    hopTail = grow(hopTail, capacity);
+  }
+  /** Copy an array into a larger one, filling the new slots with NONE. */
+  private static int[] grow(int[] a, int capacity) {
+    int[] b = new int[capacity];
+    System.arraycopy(a, 0, b, 0, a.length);
+    for (int i=a.length; i<capacity; i++)
+      b[i] = NONE;
+    return b;
+  }
+
+  /** An Enumeration over the first COUNT elements of an array. */
+  private static class ArrayEnumeration implements Enumeration {
+    ArrayEnumeration(Object[] a, int count) {
+      this.a = a;
+      this.count = count;
     }
-    return -1;
+    public boolean hasMoreElements() {
+      return i < count;
+    }
+    public Object nextElement() {
+      if (i >= count)
+        throw new NoSuchElementException();
+      return a[i++];
+    }
+    private Object[] a;
+    private int count;
+    private int i = 0;
   }
-  
-  /** The array representing the actual routes.  Not in any particular
-  *   order.
+
+  /** Marks the end of a list. */
+  private static final int NONE = -1;
+  /** The route for each destination, or <b>null</b> if there is none. */
+  private Route[] routes;
+  /** The previous and next destination in the order routes were added. */
+  private int[] prev, next;
+  /** The first and last destination in the order routes were added. */
+  private int head, tail;
+  /** The previous and next destination with the same next hop. */
+  private int[] hopPrev, hopNext;
+  /** The first and last destination routed through each next hop. */
+  private int[] hopHead, hopTail;
+  /** The number of routes in the table. */
+  private int size;
+  /** The number of changes made to the table so far. */
+  private long version;
+  /** The routes in enumeration order, built by enumerate() and dropped
+  *   whenever the table changes.
   */
-  private Vector routes;
+  private Route[] snapshot;
 }
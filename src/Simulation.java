@@ -0,0 +1,1208 @@
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.text.NumberFormat;
+import java.util.*;
+import java.util.zip.*;
+
+/** One simulated network: its topology, event queue, clock and counters.
+*   Nodes and events belong to the simulation that created them and talk
+*   only to it, so any number of simulations may be built and run in the
+*   same JVM, one per thread.
+*   A simulation is built by reading a .net file (or by adding nodes, links
+*   and link events directly), started with init(), and then either run to
+*   completion with run() or stepped one event at a time with step().
+*   Instead of init(), a simulation may be restored from a checkpoint
+*   written by another simulation of the same topology, and run on from
+*   there.
+*   @see Network
+*/
+public class Simulation {
+  /** Create a new, empty simulation with a binary heap event queue,
+  *   event recycling, and Node on every node.
+  */
+  public Simulation() {
+    this(new HeapEventQueue(2), new EventPool(true, false), Node.class);
+  }
+  /** Create a new, empty simulation.
+  *   @param eventQueue The (empty) event queue to use.
+  *   @param eventPool Where events come from.
+  *   @param nodeClass The NodeBase subclass to run on every node.  It
+  *   must have a public constructor taking the node's address.
+  *   @exception java.lang.IllegalArgumentException Thrown when nodeClass
+  *   is not a usable NodeBase subclass.
+  */
+  public Simulation(EventQueue eventQueue, EventPool eventPool,
+      Class nodeClass) {
+    if (!NodeBase.class.isAssignableFrom(nodeClass))
+      throw new IllegalArgumentException(nodeClass.getName() +
+        " is not a NodeBase");
+    try {
+      nodeConstructor = nodeClass.getConstructor(new Class[] {int.class});
+    }
+    catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(nodeClass.getName() +
+        " has no public (int address) constructor");
+    }
+    this.eventQueue = eventQueue;
+    this.eventPool = eventPool;
+    nodesByName = new Hashtable();
+    linksByName = new Hashtable();
+    nodes = new Vector();
+    nodeCoords = new Vector();
+    links = new Vector();
+    linkIndex = new LinkIndex(0);
+    nodeNames = new Vector();
+    linkNames = new Vector();
+    now = 0.0;
+  }
+
+  /** Read in a topology file, adding its nodes, links and events.  Errors
+  *   on individual lines are reported and the lines skipped.
+  *   @param filename The name of the file, typically ending in ".net"
+  *   @return <b>false</b> if the file could not be found.
+  */
+  public boolean readTopology(String filename) {
+    Topology t = Topology.read(filename);
+    if (t == null)
+      return false;
+    load(t);
+    return true;
+  }
+  /** Add the nodes, links and link events of a parsed topology.  The
+  *   topology itself is not changed, and may be loaded into any number of
+  *   simulations.
+  *   @param t The topology.
+  */
+  public void load(Topology t) {
+    int base = nodes.size();
+    for (int i=0; i<t.getNodeCount(); i++)
+      addNode(t.getNodeName(i), t.getNodeX(i), t.getNodeY(i));
+    Link[] added = new Link[t.getLinkCount()];
+    for (int i=0; i<added.length; i++)
+      added[i] = addLink(t.getLinkName(i),
+        getNode(base + t.getLinkEndpointA(i)),
+        getNode(base + t.getLinkEndpointB(i)), t.getLinkSpeed(i),
+        t.getLinkLatency(i), t.getLinkCost(i));
+    for (int i=0; i<t.getEventCount(); i++)
+      addLinkEvent(t.getEventTime(i), added[t.getEventLink(i)],
+        t.getEventUp(i));
+  }
+
+  /** Create a new node.  Nodes are numbered in the order they are added,
+  *   beginning with 0.
+  *   @param name The node's label.
+  *   @param x The X coordinate to draw the node at, in the range 0.0-1.0.
+  *   @param y The Y coordinate to draw the node at, in the range 0.0-1.0.
+  *   @return The new node.
+  */
+  public NodeBase addNode(String name, double x, double y) {
+    NodeBase newNode;
+    try {
+      newNode = (NodeBase)nodeConstructor.newInstance(
+        new Object[] { Integer.valueOf(nodes.size()) });
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("cannot create node " + name +
+        ": " + e);
+    }
+    newNode.simulation = this;
+    nodes.addElement(newNode);
+    nodesByName.put(name, newNode);
+    nodeCoords.addElement(new FPoint(x, y));
+    nodeNames.addElement(name);
+    return newNode;
+  }
+  /** Create a new link between two existing nodes.
+  *   @param name The link's label.
+  *   @param nodeA The label of one endpoint.
+  *   @param nodeB The label of the other endpoint.
+  *   @param speed The speed, in bits per second.
+  *   @param latency The latency, in seconds.
+  *   @param cost The per-packet cost of using the link.
+  *   @return The new link.
+  *   @exception NoSuchNodeException Thrown when an endpoint does not
+  *   exist.
+  */
+  public Link addLink(String name, String nodeA, String nodeB, int speed,
+      double latency, int cost) throws NoSuchNodeException {
+    NodeBase firstNode = (NodeBase)nodesByName.get(nodeA);
+    if (firstNode == null)
+      throw new NoSuchNodeException(nodeA);
+    NodeBase secondNode = (NodeBase)nodesByName.get(nodeB);
+    if (secondNode == null)
+      throw new NoSuchNodeException(nodeB);
+    return addLink(name, firstNode, secondNode, speed, latency, cost);
+  }
+  /** Create a new link between two nodes of this simulation. */
+  private Link addLink(String name, NodeBase firstNode, NodeBase secondNode,
+      int speed, double latency, int cost) {
+    Link newLink = new Link(firstNode.getAddress(), secondNode.getAddress(),
+      speed, latency, cost);
+    firstNode.addInterface(newLink);
+    secondNode.addInterface(newLink);
+    newLink.index = links.size();
+    links.addElement(newLink);
+    linkIndex.add(newLink);
+    linksByName.put(name, newLink);
+    linkNames.addElement(name);
+    return newLink;
+  }
+  /** Schedule a link to be brought up or down.  Link events come before
+  *   packets delivered at the same time, and among themselves in the order
+  *   they were added.
+  *   @param time The time of the change.
+  *   @param linkName The link's label.
+  *   @param up <b>true</b> if the link is being brought up.
+  *   @exception NoSuchLinkException Thrown when the link does not exist.
+  */
+  public void addLinkEvent(double time, String linkName, boolean up)
+      throws NoSuchLinkException {
+    Link link = (Link)linksByName.get(linkName);
+    if (link == null)
+      throw new NoSuchLinkException(linkName);
+    addLinkEvent(time, link, up);
+  }
+  /** Schedule a link of this simulation to be brought up or down. */
+  private void addLinkEvent(double time, Link link, boolean up) {
+    LinkEvent le = eventPool.linkEvent(time, link, up);
+    le.setOrder(Long.MIN_VALUE + linkEventCount++);
+    insert(le);
+  }
+
+  /** Boot the network: freeze the topology and call init() for every
+  *   node, in address order.
+  */
+  public void init() {
+    freeze();
+    convergence = new ConvergenceTracker(now, packetsSent);
+    if (traffic != null)
+      traffic.start();
+    for (int i=0; i<nodeArray.length; i++)
+      nodeArray[i].init();
+  }
+  /** Freeze the topology into arrays, for init() or a restore. */
+  private void freeze() {
+    nodeArray = new NodeBase[nodes.size()];
+    nodes.copyInto(nodeArray);
+    linkArray = new Link[links.size()];
+    links.copyInto(linkArray);
+    sendCounts = new long[nodeArray.length];
+    // The highest address takes the bits above the count, and the key
+    // stays positive, above every link event's.
+    sendCountBits = 63 - (32 -
+      Integer.numberOfLeadingZeros(Math.max(1, nodeArray.length - 1)));
+    routeChangeTimes = new double[nodeArray.length];
+  }
+  /** Start counting events, packets and queue depth; see
+  *   SimulationMetrics.  The topology must be complete; call this before
+  *   init() to count the packets init() sends.
+  *   @return The counters, which may be registered with JMX or logged.
+  */
+  public SimulationMetrics enableMetrics() {
+    if (metrics == null)
+      metrics = new SimulationMetrics(this);
+    return metrics;
+  }
+  /** Returns the counters started by enableMetrics(), or <b>null</b>. */
+  public SimulationMetrics getMetrics() { return metrics; }
+  /** Add a data plane, to which flows of end-to-end traffic may be added;
+  *   see TrafficEngine.  The topology must be complete; call this and add
+  *   the flows before init().  A simulation with a data plane can only be
+  *   run sequentially.
+  *   @return The data plane.
+  */
+  public TrafficEngine enableTraffic() {
+    if (traffic == null)
+      traffic = new TrafficEngine(this);
+    return traffic;
+  }
+  /** Returns the data plane added by enableTraffic(), or <b>null</b>. */
+  public TrafficEngine getTraffic() { return traffic; }
+  /** Record every packet sent, received and dropped, every link event,
+  *   timer and routing table change in a binary trace; see EventTrace.
+  *   The topology must be complete; call this before init() to trace the
+  *   packets init() sends.  A traced simulation can only be run
+  *   sequentially.  Close the trace when the run is over.
+  *   @param name The name of the trace; its segments are named after it.
+  *   @param snapLength The most bytes of each packet to keep, or 0 to
+  *   keep none and make every record the same size.
+  *   @return The trace.
+  *   @exception java.io.IOException Thrown when the trace cannot be
+  *   created.
+  */
+  public EventTrace enableTrace(String name, int snapLength)
+      throws IOException {
+    if (trace != null)
+      return trace;
+    // The trace names the links in index order, from the frozen topology;
+    // init() freezes it again.
+    if (linkArray == null)
+      freeze();
+    trace = new EventTrace(name, this, snapLength, EventTrace.SEGMENT_SIZE);
+    return trace;
+  }
+  /** Returns the trace made by enableTrace(), or <b>null</b>. */
+  public EventTrace getTrace() { return trace; }
+  /** Stop run() as soon as the network has converged: when no link events
+  *   remain and no routing table has changed for the given simulated
+  *   time, the events still queued (typically periodic updates that change
+  *   nothing) are not run.  Must be called before run().
+  *   @param quiet The quiet time, in seconds, or a negative number to run
+  *   until no events remain.
+  */
+  public void setStopWhenQuiet(double quiet) {
+    quietPeriod = quiet;
+  }
+  /** Model contention on the links: each direction of a link sends one
+  *   packet at a time, so a packet sent while the link is busy waits in
+  *   a transmit queue, and is dropped if that queue is full; see
+  *   Link.transmit.  By default, every packet is sent as if it had the
+  *   link to itself.  Must be called before init().
+  *   @param on <b>true</b> to queue packets on the links.
+  *   @param buffer The most packets that may wait in each direction, or 0
+  *   for no limit.
+  */
+  public void setTransmitQueues(boolean on, int buffer) {
+    transmitQueues = on;
+    transmitBuffer = buffer;
+  }
+  /** Run events on several threads, with the nodes partitioned between
+  *   them; see ParallelEngine.  Must be called before run().
+  *   @param threads The number of threads, or 0 to run sequentially.
+  */
+  public void setParallelThreads(int threads) {
+    parallelThreads = threads;
+  }
+  /** Run events with equal times on several threads; see BatchEngine.
+  *   Must be called before run().
+  *   @param threads The number of threads, or 0 to run sequentially.
+  */
+  public void setBatchThreads(int threads) {
+    batchThreads = threads;
+  }
+
+  /** Run the simulation to completion as fast as possible, using the
+  *   engine selected with setParallelThreads or setBatchThreads, and
+  *   record the wall time and allocation of the run.
+  */
+  public void run() {
+    if (traffic != null && (parallelThreads > 0 || batchThreads > 0))
+      throw new IllegalStateException("data-plane traffic can only be " +
+        "run sequentially");
+    if (trace != null && (parallelThreads > 0 || batchThreads > 0))
+      throw new IllegalStateException("a traced simulation can only be " +
+        "run sequentially");
+    long startAllocated = allocatedBytes();
+    long startWall = System.nanoTime();
+    if (parallelThreads > 0) {
+      parallel = new ParallelEngine(parallelThreads, this);
+      try {
+        parallel.run(eventQueue);
+        engineSummary = "Partitions: " + parallel.getPartitions() +
+          ", lookahead: " + parallel.getLookahead() + " sec, windows: " +
+          parallel.getWindows();
+        finishEngineRun(parallel.getEndTime(), parallel.getEvents(),
+          parallel.getPacketsSent(), parallel.getCreated(),
+          parallel.getReused());
+      }
+      finally {
+        parallel = null;
+      }
+    }
+    else if (batchThreads > 0) {
+      batch = new BatchEngine(batchThreads, this);
+      try {
+        batch.run(eventQueue);
+        engineSummary = "Batches: " + batch.getBatches() +
+          ", in parallel: " + batch.getParallelBatches() +
+          ", largest: " + batch.getLargestBatch();
+        finishEngineRun(batch.getEndTime(), batch.getEvents(),
+          batch.getPacketsSent(), batch.getCreated(), batch.getReused());
+      }
+      finally {
+        batch = null;
+      }
+    }
+    else {
+      while (!eventQueue.empty()) {
+        if (eventQueue.peekNext().getTime() >= stopTime()) {
+          stoppedEarly = true;
+          break;
+        }
+        step();
+      }
+      eventsCreated = eventPool.getCreated();
+      eventsReused = eventPool.getReused();
+      // Only this thread ran the simulation, so its allocation is the
+      // simulation's.
+      if (startAllocated >= 0)
+        allocated = allocatedBytes() - startAllocated;
+    }
+    convergence.finish(packetsSent);
+    wallTime += (System.nanoTime() - startWall) / 1e9;
+  }
+  /** Run events sequentially until the clock reaches a given time, and
+  *   leave the events at or after it queued, for run() or a checkpoint.
+  *   Stops sooner if the network converges; see setStopWhenQuiet.
+  *   @param time The time of the first event not to run.
+  */
+  public void runUntil(double time) {
+    long startWall = System.nanoTime();
+    while (!eventQueue.empty() && eventQueue.peekNext().getTime() < time) {
+      if (eventQueue.peekNext().getTime() >= stopTime()) {
+        stoppedEarly = true;
+        break;
+      }
+      step();
+    }
+    wallTime += (System.nanoTime() - startWall) / 1e9;
+  }
+
+  /** Write the complete state of the simulation between two events to a
+  *   file: the clock and counters, every pending event, each link's state
+  *   and transmit queues, and each node's routing table and own state
+  *   (see NodeBase.writeState).  The file is compressed binary, and can
+  *   only be restored into a simulation of the same topology and node
+  *   class.  Metrics are not saved.
+  *   @param filename The file to write.
+  *   @exception java.lang.IllegalStateException Thrown when the
+  *   simulation has a data plane, whose flows cannot be saved.
+  */
+  public void writeCheckpoint(String filename) throws IOException {
+    if (traffic != null)
+      throw new IllegalStateException("data-plane traffic cannot be " +
+        "checkpointed");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      new GZIPOutputStream(new FileOutputStream(filename), 1 << 16)));
+    try {
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeInt(CHECKPOINT_VERSION);
+      out.writeUTF(nodeConstructor.getDeclaringClass().getName());
+      out.writeInt(nodeArray.length);
+      out.writeInt(linkArray.length);
+      out.writeInt(topologyHash());
+      out.writeBoolean(transmitQueues);
+      out.writeInt(transmitBuffer);
+      out.writeDouble(now);
+      out.writeLong(eventsProcessed);
+      out.writeLong(packetsSent);
+      out.writeLong(linkEventCount);
+      out.writeLong(linkEventsRun);
+      for (int i=0; i<nodeArray.length; i++) {
+        out.writeLong(sendCounts[i]);
+        out.writeDouble(routeChangeTimes[i]);
+      }
+      convergence.write(out);
+      for (int i=0; i<linkArray.length; i++)
+        linkArray[i].writeState(out);
+      ByteArrayOutputStream state = new ByteArrayOutputStream();
+      for (int i=0; i<nodeArray.length; i++) {
+        RoutingTable table = nodeArray[i].routingTable;
+        out.writeInt(table.size());
+        Enumeration e = table.enumerate();
+        while (e.hasMoreElements()) {
+          Route r = (Route)e.nextElement();
+          out.writeInt(r.getDest());
+          out.writeInt(r.getNextHop());
+          out.writeInt(r.getCost());
+        }
+        // Each node's own state is written with its length, so that a
+        // node reading back more or less than it wrote is caught.
+        state.reset();
+        DataOutputStream nodeOut = new DataOutputStream(state);
+        nodeArray[i].writeState(nodeOut);
+        nodeOut.flush();
+        out.writeInt(state.size());
+        state.writeTo(out);
+      }
+      // The events in the order they will run, so that the file does not
+      // depend on the kind of queue.
+      Event[] pending = eventQueue.toArray();
+      Arrays.sort(pending, new Comparator() {
+        public int compare(Object a, Object b) {
+          return ((Event)a).before((Event)b) ? -1 :
+            ((Event)b).before((Event)a) ? 1 : 0;
+        }
+      });
+      out.writeInt(pending.length);
+      for (int i=0; i<pending.length; i++)
+        writeEvent(out, pending[i]);
+    }
+    finally {
+      out.close();
+    }
+  }
+  /** Restore the state written by writeCheckpoint, in place of init().
+  *   The topology must be complete and the same as the one checkpointed;
+  *   the link events it added are dropped in favor of those pending in
+  *   the checkpoint, but more may be added afterwards.  The transmit
+  *   queue setting is restored as well.
+  *   @param filename The file to read.
+  *   @exception java.io.IOException Thrown when the file cannot be read,
+  *   or was written by a simulation of another topology or node class.
+  *   @exception java.lang.IllegalStateException Thrown when the
+  *   simulation has a data plane.
+  */
+  public void restoreCheckpoint(String filename) throws IOException {
+    if (traffic != null)
+      throw new IllegalStateException("data-plane traffic cannot be " +
+        "restored from a checkpoint");
+    freeze();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+      new GZIPInputStream(new FileInputStream(filename), 1 << 16)));
+    try {
+      if (in.readInt() != CHECKPOINT_MAGIC)
+        throw new IOException(filename + ": not a checkpoint");
+      int version = in.readInt();
+      if (version != CHECKPOINT_VERSION)
+        throw new IOException(filename + ": checkpoint version " + version +
+          ", expected " + CHECKPOINT_VERSION);
+      String nodeClass = in.readUTF();
+      if (!nodeClass.equals(nodeConstructor.getDeclaringClass().getName()))
+        throw new IOException(filename + ": checkpoint of " + nodeClass +
+          " nodes");
+      if (in.readInt() != nodeArray.length ||
+          in.readInt() != linkArray.length || in.readInt() != topologyHash())
+        throw new IOException(filename + ": checkpoint of another topology");
+      transmitQueues = in.readBoolean();
+      transmitBuffer = in.readInt();
+      now = in.readDouble();
+      eventsProcessed = restoredEvents = in.readLong();
+      packetsSent = in.readLong();
+      linkEventCount = in.readLong();
+      linkEventsRun = in.readLong();
+      for (int i=0; i<nodeArray.length; i++) {
+        sendCounts[i] = in.readLong();
+        routeChangeTimes[i] = in.readDouble();
+      }
+      convergence = ConvergenceTracker.read(in);
+      for (int i=0; i<linkArray.length; i++)
+        linkArray[i].readState(in);
+      for (int i=0; i<nodeArray.length; i++) {
+        RoutingTable table = nodeArray[i].routingTable;
+        table.flush();
+        for (int k=in.readInt(); k>0; k--)
+          table.add(new Route(in.readInt(), in.readInt(), in.readInt()));
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+        ByteArrayInputStream nodeIn = new ByteArrayInputStream(state);
+        nodeArray[i].readState(new DataInputStream(nodeIn));
+        if (nodeIn.available() > 0)
+          throw new IOException(filename + ": node " + getNodeName(i) +
+            " left " + nodeIn.available() + " bytes of its state unread");
+      }
+      // The events queued now are dropped, so give back those the pool
+      // handed out, then clear the queue's clock too.
+      while (!eventQueue.empty())
+        eventPool.recycle(eventQueue.getNext());
+      eventQueue.clear();
+      for (int i=in.readInt(); i>0; i--)
+        insert(readEvent(in));
+    }
+    catch (EOFException e) {
+      throw new IOException(filename + ": checkpoint is truncated");
+    }
+    finally {
+      in.close();
+    }
+    restored = true;
+  }
+  /** Returns a hash of the node and link names and the links' endpoints,
+  *   to tell whether a checkpoint is of this topology.
+  */
+  private int topologyHash() {
+    int h = 0;
+    for (int i=0; i<nodeArray.length; i++)
+      h = 31*h + getNodeName(i).hashCode();
+    for (int i=0; i<linkArray.length; i++)
+      h = 31*(31*(31*h + getLinkName(i).hashCode()) +
+        linkArray[i].getEndpointA()) + linkArray[i].getEndpointB();
+    return h;
+  }
+  /** Write one pending event to a checkpoint. */
+  private void writeEvent(DataOutputStream out, Event e) throws IOException {
+    if (e instanceof PacketEvent) {
+      PacketEvent pe = (PacketEvent)e;
+      ByteBuffer bytes = pe.getBytes();
+      out.writeByte(bytes != null ? BINARY_PACKET : TEXT_PACKET);
+      out.writeDouble(e.getTime());
+      out.writeLong(e.getOrder());
+      out.writeInt(pe.getSource());
+      out.writeInt(pe.getDest());
+      if (bytes != null) {
+        out.writeInt(bytes.remaining());
+        for (int i=bytes.position(); i<bytes.limit(); i++)
+          out.writeByte(bytes.get(i));
+      }
+      else {
+        byte[] b = pe.getPacket().getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+      }
+    }
+    else if (e instanceof LinkEvent) {
+      LinkEvent le = (LinkEvent)e;
+      out.writeByte(LINK);
+      out.writeDouble(e.getTime());
+      out.writeLong(e.getOrder());
+      out.writeInt(le.getLink().index);
+      out.writeBoolean(le.isUp());
+    }
+    else if (e instanceof TimerEvent) {
+      TimerEvent te = (TimerEvent)e;
+      out.writeByte(TIMER);
+      out.writeDouble(e.getTime());
+      out.writeLong(e.getOrder());
+      out.writeInt(te.getNode());
+      out.writeInt(te.getId());
+    }
+    else
+      throw new IllegalStateException("cannot checkpoint event: " + e);
+  }
+  /** Read one pending event from a checkpoint. */
+  private Event readEvent(DataInputStream in) throws IOException {
+    int kind = in.readByte();
+    double time = in.readDouble();
+    long order = in.readLong();
+    Event e;
+    if (kind == TEXT_PACKET || kind == BINARY_PACKET) {
+      int source = in.readInt(), dest = in.readInt();
+      byte[] b = new byte[in.readInt()];
+      in.readFully(b);
+      if (kind == BINARY_PACKET)
+        e = eventPool.packetEvent(time, source, dest,
+          ByteBuffer.wrap(b).asReadOnlyBuffer());
+      else
+        e = eventPool.packetEvent(time, source, dest,
+          new String(b, "UTF-8"));
+    }
+    else if (kind == LINK)
+      e = eventPool.linkEvent(time, linkArray[in.readInt()],
+        in.readBoolean());
+    else if (kind == TIMER)
+      e = new TimerEvent(time, in.readInt(), in.readInt());
+    else
+      throw new IOException("unknown event in checkpoint: " + kind);
+    e.setOrder(order);
+    return e;
+  }
+  /** Returns the time from which run() may stop, because the network has
+  *   converged; infinity if it may not stop before all events have run.
+  *   The engines stop before running any event at or after this time.
+  */
+  double stopTime() {
+    if (quietPeriod < 0 || linkEventsRun < linkEventCount)
+      return Double.POSITIVE_INFINITY;
+    return convergence.getLastActivity() + quietPeriod;
+  }
+  /** Note that an engine stopped because the network converged. */
+  void stoppedEarly() {
+    stoppedEarly = true;
+  }
+  /** Record the results of a run by a parallel engine. */
+  private void finishEngineRun(double endTime, long events, long packets,
+      long created, long reused) {
+    now = Math.max(now, endTime);
+    eventsProcessed += events;
+    packetsSent += packets;
+    eventsCreated = created;
+    eventsReused = reused;
+  }
+  /** Returns <b>true</b> if any events remain to be run. */
+  public boolean hasPendingEvents() {
+    return !eventQueue.empty();
+  }
+  /** Returns the time of the next event.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when no
+  *   events remain.
+  */
+  public double peekNextTime() {
+    return eventQueue.peekNext().getTime();
+  }
+  /** Run the next event, advancing the clock to its time.
+  *   @exception java.lang.ArrayIndexOutOfBoundsException Thrown when no
+  *   events remain.
+  */
+  public void step() {
+    Event e = eventQueue.getNext();
+    if (e.getTime() > now)
+      convergence.advance(e.getTime(), packetsSent);
+    now = e.getTime();
+    if (metrics != null)
+      metrics.advance(now);
+    eventPool.checkLive(e);
+    e.run();
+    eventPool.recycle(e);
+    eventsProcessed++;
+  }
+
+  /** Send a packet (really queue a packet receive event).
+  *   @param source The node sending.
+  *   @param dest The node receiving.
+  *   @param pkt The actual packet to be sent.
+  */
+  public void sendPacket(int source, int dest, String pkt) {
+    Link l = findLinkByNodes(source, dest);
+    double time = arrivalTime(l, source, pkt.length());
+    if (trace != null)
+      trace.packet(time < 0 ? EventTrace.DROP_QUEUE : EventTrace.SEND,
+        source, dest, l, pkt);
+    if (time < 0) {
+      // The transmit queue is full.
+      if (metrics != null)
+        metrics.overflowed(l, source);
+      return;
+    }
+    if (metrics != null)
+      metrics.sent(l, source, pkt.length());
+    if (parallel != null) {
+      parallel.sendPacket(source, dest, time, pkt, null);
+      return;
+    }
+    if (batch != null) {
+      batch.sendPacket(source, dest, time, pkt, null);
+      return;
+    }
+    packetsSent++;
+    schedule(eventPool.packetEvent(time, source, dest, pkt), source);
+  }
+  /** Send a binary packet (really queue a packet receive event).  The
+  *   bytes are not copied; the receiver gets a read-only view of them, and
+  *   the transmission time is based on their exact number.
+  *   @param source The node sending.
+  *   @param dest The node receiving.
+  *   @param pkt The actual packet to be sent, from its position to its
+  *   limit.
+  */
+  public void sendPacket(int source, int dest, ByteBuffer pkt) {
+    Link l = findLinkByNodes(source, dest);
+    double time = arrivalTime(l, source, pkt.remaining());
+    if (trace != null)
+      trace.packet(time < 0 ? EventTrace.DROP_QUEUE : EventTrace.SEND,
+        source, dest, l, pkt);
+    if (time < 0) {
+      // The transmit queue is full.
+      if (metrics != null)
+        metrics.overflowed(l, source);
+      return;
+    }
+    if (metrics != null)
+      metrics.sent(l, source, pkt.remaining());
+    if (parallel != null) {
+      parallel.sendPacket(source, dest, time, null, pkt.asReadOnlyBuffer());
+      return;
+    }
+    if (batch != null) {
+      batch.sendPacket(source, dest, time, null, pkt.asReadOnlyBuffer());
+      return;
+    }
+    packetsSent++;
+    schedule(eventPool.packetEvent(time, source, dest,
+      pkt.asReadOnlyBuffer()), source);
+  }
+  /** Returns the time a packet sent now over a link arrives, or -1 if
+  *   it is dropped.
+  */
+  double arrivalTime(Link l, int source, int bytes) {
+    if (transmitQueues)
+      return l.transmit(source, getCurrentTime(), bytes, transmitBuffer);
+    return getCurrentTime() + l.timeToTransmit(bytes);
+  }
+  /** Set a node's timer; see NodeBase.setTimer.  Timers are ordered
+  *   among the node's packets by the same per-node count, so a timer set
+  *   for the same time as a packet's arrival is run in the same order by
+  *   every engine.
+  *   @exception java.lang.IllegalArgumentException Thrown when the delay
+  *   is not positive.
+  */
+  void setTimer(int node, double delay, int id) {
+    if (!(delay > 0))
+      throw new IllegalArgumentException("timer delay must be positive: " +
+        delay);
+    TimerEvent te = new TimerEvent(getCurrentTime() + delay, node, id);
+    te.setOrder(nextSendOrder(node));
+    te.simulation = this;
+    if (parallel != null)
+      parallel.schedule(te);
+    else if (batch != null)
+      batch.schedule(te);
+    else
+      insert(te);
+  }
+  /** Run a node's timer.  This is called by TimerEvent.run() only. */
+  void timerExpired(int node, int id) {
+    NodeBase n = nodeArray[node];
+    if (trace != null)
+      trace.timer(node, id);
+    long version = n.getRoutingTableVersion();
+    n.timerExpired(id);
+    if (n.getRoutingTableVersion() != version)
+      routeChanged(node);
+  }
+  /** Give a packet event its order key and queue it. */
+  private void schedule(PacketEvent pe, int source) {
+    pe.setOrder(nextSendOrder(source));
+    insert(pe);
+  }
+  /** Queue an event belonging to this simulation. */
+  void insert(Event e) {
+    e.simulation = this;
+    try { eventQueue.insert(e); }
+    catch (TimeInconsistencyException ex) {
+      System.out.println("Internal error: event occurs in the past.");
+    }
+    if (metrics != null)
+      metrics.queued(eventQueue.size());
+  }
+  /** Returns the order key for the next packet sent by a node.  Packets
+  *   delivered at the same time are ordered by sender, and then by the
+  *   order in which the sender sent them.  Each node's count is only ever
+  *   touched by the thread running that node.
+  *   @param source The node sending.
+  */
+  long nextSendOrder(int source) {
+    return ((long)source << sendCountBits) | sendCounts[source]++;
+  }
+
+  /** Deliver a packet.  This is called by PacketEvent.run() only. */
+  void deliver(int source, int dest, String pkt) {
+    Link l = findLinkByNodes(source, dest);
+    if (metrics != null)
+      metrics.delivered(l, source, dest, l.isUp());
+    if (trace != null)
+      trace.packet(l.isUp() ? EventTrace.RECEIVE : EventTrace.DROP_DOWN,
+        source, dest, l, pkt);
+    if (l.isUp()) {
+      NodeBase n = nodeArray[dest];
+      long version = n.getRoutingTableVersion();
+      n.receivePacket(source, pkt);
+      if (n.getRoutingTableVersion() != version)
+        routeChanged(dest);
+    }
+  }
+  /** Deliver a binary packet.  This is called by PacketEvent.run() only. */
+  void deliver(int source, int dest, ByteBuffer pkt) {
+    Link l = findLinkByNodes(source, dest);
+    if (metrics != null)
+      metrics.delivered(l, source, dest, l.isUp());
+    if (trace != null)
+      trace.packet(l.isUp() ? EventTrace.RECEIVE : EventTrace.DROP_DOWN,
+        source, dest, l, pkt);
+    if (l.isUp()) {
+      NodeBase n = nodeArray[dest];
+      long version = n.getRoutingTableVersion();
+      n.receivePacket(source, pkt);
+      if (n.getRoutingTableVersion() != version)
+        routeChanged(dest);
+    }
+  }
+  /** Bring a given link up or down.  This function takes care of calling
+  *   Up() or Down() for all appropriate interfaces and calling
+  *   interfaceUp() or interfaceDown() for all appropriate nodes.
+  *   @param link The link to bring up or down.
+  *   @param up <b>true</b> if the link is being brought up.
+  */
+  public void linkSet(Link link, boolean up) {
+    NodeBase a = nodeArray[link.getEndpointA()];
+    NodeBase b = nodeArray[link.getEndpointB()];
+    long versionA = a.getRoutingTableVersion();
+    long versionB = b.getRoutingTableVersion();
+    if (metrics != null)
+      metrics.linkEvent();
+    if (trace != null)
+      trace.link(link, up);
+    linkEventsRun++;
+    convergence.topologyChange(getCurrentTime(), getLinkName(link.index) +
+      (up ? " up" : " down"), packetsSentSoFar());
+    if (up) {
+      link.up();
+      a.interfaceUp(link);
+      b.interfaceUp(link);
+    }
+    else {
+      link.down();
+      a.interfaceDown(link);
+      b.interfaceDown(link);
+    }
+    if (traffic != null)
+      traffic.topologyChanged();
+    if (a.getRoutingTableVersion() != versionA)
+      routeChanged(link.getEndpointA());
+    if (b.getRoutingTableVersion() != versionB)
+      routeChanged(link.getEndpointB());
+  }
+  /** Note that a node's routing table has changed, at the current time. */
+  private void routeChanged(int node) {
+    double time = getCurrentTime();
+    routeChangeTimes[node] = time;
+    if (trace != null)
+      trace.routeChanged(node);
+    if (parallel != null)
+      parallel.routeChanged(time);
+    else if (batch != null)
+      batch.routeChanged(time);
+    else {
+      convergence.change(time);
+      if (traffic != null)
+        traffic.routeChanged();
+    }
+  }
+  /** Returns the number of packets sent so far, including those counted
+  *   by a running engine.  Only called between events on the main thread.
+  */
+  private long packetsSentSoFar() {
+    if (parallel != null)
+      return packetsSent + parallel.packetsSentSoFar();
+    if (batch != null)
+      return packetsSent + batch.getPacketsSent();
+    return packetsSent;
+  }
+
+  /** Returns the current simulated time.  When running in parallel, this
+  *   is the time of the event being run by the calling thread.
+  */
+  public double getCurrentTime() {
+    if (parallel != null)
+      return parallel.getCurrentTime();
+    if (batch != null)
+      return batch.getCurrentTime();
+    return now;
+  }
+  /** Finds a link object given two endpoints.  If the data structures are
+  *   consistent, the link returned should be unique.  This is a single
+  *   hash lookup in linkIndex, which is built as the topology is read.
+  *   @param a The address of one endpoint.
+  *   @param b The address of the other endpoint.
+  */
+  public Link findLinkByNodes(int a, int b) {
+    return linkIndex.find(a, b);
+  }
+
+  /** Returns the number of nodes. */
+  public int getNodeCount() { return nodes.size(); }
+  /** Returns the node with the given address. */
+  public NodeBase getNode(int address) {
+    return (NodeBase)nodes.elementAt(address);
+  }
+  /** Returns all nodes, indexed by address.  Only valid after init(). */
+  public NodeBase[] getNodes() { return nodeArray; }
+  /** Returns the label of the node with the given address. */
+  public String getNodeName(int address) {
+    return (String)nodeNames.elementAt(address);
+  }
+  /** Returns the address of the node with the given label, or -1 if
+  *   there is none.
+  */
+  public int getNodeAddress(String name) {
+    NodeBase n = (NodeBase)nodesByName.get(name);
+    return (n == null) ? -1 : n.getAddress();
+  }
+  /** Returns the drawing location of the node with the given address. */
+  public FPoint getNodeLocation(int address) {
+    return (FPoint)nodeCoords.elementAt(address);
+  }
+  /** Returns the number of links. */
+  public int getLinkCount() { return links.size(); }
+  /** Returns all links, in the order they were added.  Only valid after
+  *   init().
+  */
+  public Link[] getLinks() { return linkArray; }
+  /** Returns the label of the link with the given index. */
+  public String getLinkName(int index) {
+    return (String)linkNames.elementAt(index);
+  }
+  /** Returns the link with the given label, or <b>null</b>. */
+  public Link getLink(String name) {
+    return (Link)linksByName.get(name);
+  }
+  /** Returns the number of events waiting in the event queue, or in the
+  *   logical processes' queues while the parallel engine is running.
+  */
+  public int getQueueDepth() {
+    ParallelEngine p = parallel;
+    return (p != null) ? p.getQueueDepth() : eventQueue.size();
+  }
+  /** Returns the pool events come from. */
+  public EventPool getEventPool() { return eventPool; }
+  /** Returns the number of events run so far. */
+  public long getEventsProcessed() { return eventsProcessed; }
+  /** Returns the number of packets sent so far. */
+  public long getPacketsSent() { return packetsSent; }
+  /** Returns the convergence time: the last time any node's routing
+  *   table changed, or 0 if none has changed since init().
+  */
+  public double getConvergenceTime() {
+    double t = 0.0;
+    for (int i=0; i<routeChangeTimes.length; i++)
+      t = Math.max(t, routeChangeTimes[i]);
+    return t;
+  }
+  /** Returns the time of the last event run. */
+  public double getEndTime() { return now; }
+  /** Returns the convergence of each epoch of the run so far.  Only valid
+  *   after init().
+  */
+  public ConvergenceTracker getConvergenceTracker() { return convergence; }
+  /** Returns <b>true</b> if the last run() stopped because the network had
+  *   converged, leaving events unrun; see setStopWhenQuiet.
+  */
+  public boolean isStoppedEarly() { return stoppedEarly; }
+  /** Returns the wall-clock time of the runs so far, in seconds. */
+  public double getWallTime() { return wallTime; }
+
+  /** Print the summary of a run: events processed, simulated and
+  *   wall-clock times, event rate, event recycling, allocation, a hash of
+  *   the routing tables and the number of packets sent, the convergence
+  *   of each epoch, the metrics, transmit queues, data-plane traffic and
+  *   trace if they are enabled, and the nodes' own statistics.
+  */
+  public void printSummary() {
+    if (engineSummary != null)
+      System.out.println(engineSummary);
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(5);
+    if (restored)
+      System.out.println("Restored from checkpoint after " + restoredEvents +
+        " events");
+    System.out.println("Events processed: " + eventsProcessed);
+    System.out.println("Simulated time: " + nf.format(now) + " sec");
+    System.out.println("Convergence time: " +
+      nf.format(getConvergenceTime()) + " sec");
+    System.out.println("Wall time: " + nf.format(wallTime) + " sec");
+    nf.setMaximumFractionDigits(0);
+    System.out.println("Events/sec: " +
+      (wallTime > 0 ?
+        nf.format((eventsProcessed - restoredEvents) / wallTime) : "n/a"));
+    System.out.println("Events created: " + eventsCreated +
+      ", reused: " + eventsReused);
+    if (allocated >= 0) {
+      nf.setMaximumFractionDigits(2);
+      System.out.println("Allocated: " + nf.format(allocated / 1e6) +
+        " MB (" + (wallTime > 0 ?
+          nf.format(allocated / 1e6 / wallTime) : "n/a") + " MB/sec)");
+    }
+    System.out.println("Routing tables hash: " +
+      Integer.toHexString(routingTablesHash()));
+    System.out.println("Total packets sent: " + packetsSent);
+    nf.setMaximumFractionDigits(5);
+    int epochs = convergence.getEpochCount();
+    for (int i=0; i<Math.min(epochs, MAX_EPOCHS_PRINTED); i++) {
+      System.out.print("Epoch " + i + ": " + convergence.getTrigger(i) +
+        " at " + nf.format(convergence.getStartTime(i)) + " sec, ");
+      if (convergence.hasChanges(i))
+        System.out.println("converged after " +
+          nf.format(convergence.getConvergedTime(i) -
+            convergence.getStartTime(i)) + " sec and " +
+          convergence.getPackets(i) + " packets");
+      else
+        System.out.println("no routing changes");
+    }
+    if (epochs > MAX_EPOCHS_PRINTED)
+      System.out.println("(" + (epochs - MAX_EPOCHS_PRINTED) +
+        " more epochs)");
+    if (stoppedEarly)
+      System.out.println("Stopped at convergence");
+    if (transmitQueues)
+      printTransmitQueues();
+    if (traffic != null)
+      traffic.printSummary(MAX_EPOCHS_PRINTED);
+    printNodeStatistics();
+    if (metrics != null)
+      System.out.println(metrics.logLine());
+    if (trace != null)
+      System.out.println("Trace: " + trace.getRecords() + " records, " +
+        trace.getBytes() + " bytes in " + trace.getSegments() +
+        (trace.getSegments() == 1 ? " segment" : " segments") + " of " +
+        trace.getName());
+  }
+  /** Print the statistics of the first nodes that have any; see
+  *   NodeBase.getStatistics.
+  */
+  private void printNodeStatistics() {
+    int printed = 0, more = 0;
+    for (int i=0; i<nodeArray.length; i++) {
+      String s = nodeArray[i].getStatistics();
+      if (s == null)
+        continue;
+      if (printed < MAX_NODES_PRINTED) {
+        System.out.println("Node " + getNodeName(i) + ": " + s);
+        printed++;
+      }
+      else
+        more++;
+    }
+    if (more > 0)
+      System.out.println("(" + more + " more nodes)");
+  }
+  /** Print the totals of the links' transmit queues, and the busiest
+  *   and most delayed directions.
+  */
+  private void printTransmitQueues() {
+    long sent = 0, overflowed = 0;
+    double delay = 0.0, busiest = -1, longest = -1;
+    String busiestName = null, longestName = null;
+    for (int i=0; i<links.size(); i++) {
+      Link l = (Link)links.elementAt(i);
+      for (int end=0; end<2; end++) {
+        int from = (end == 0) ? l.getEndpointA() : l.getEndpointB();
+        int to = (end == 0) ? l.getEndpointB() : l.getEndpointA();
+        sent += l.getPacketsTransmitted(from);
+        overflowed += l.getPacketsOverflowed(from);
+        delay += l.getQueueingDelay(from);
+        String name = getLinkName(i) + " " + getNodeName(from) + "->" +
+          getNodeName(to);
+        if (l.getBusyTime(from) > busiest) {
+          busiest = l.getBusyTime(from);
+          busiestName = name;
+        }
+        if (l.getMaxQueueingDelay(from) > longest) {
+          longest = l.getMaxQueueingDelay(from);
+          longestName = name;
+        }
+      }
+    }
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(5);
+    System.out.print("Transmit queues: " + sent + " packets, " +
+      overflowed + " dropped on overflow, mean wait " +
+      nf.format(sent > 0 ? delay / sent : 0.0) + " sec");
+    if (busiestName == null) {
+      System.out.println();
+      return;
+    }
+    System.out.println(", longest wait " + nf.format(longest) + " sec (" +
+      longestName + ")");
+    nf.setMaximumFractionDigits(1);
+    System.out.println("Busiest link: " + busiestName + ", " +
+      nf.format(now > 0 ? 100 * busiest / now : 0.0) + "% utilized");
+  }
+  /** Returns a hash of every node's routing table, so that the results of
+  *   two runs can be compared at a glance.
+  */
+  public int routingTablesHash() {
+    int h = 0;
+    for (int i=0; i<nodeArray.length; i++) {
+      Enumeration e = nodeArray[i].getRoutingTable();
+      while (e.hasMoreElements()) {
+        Route r = (Route)e.nextElement();
+        h = 31*(31*(31*(31*h + i) + r.getDest()) + r.getNextHop()) +
+          r.getCost();
+      }
+    }
+    return h;
+  }
+  /** Returns the number of bytes allocated so far by the current thread,
+  *   or -1 if the JVM cannot tell.
+  */
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean tmx =
+      java.lang.management.ManagementFactory.getThreadMXBean();
+    if (!(tmx instanceof com.sun.management.ThreadMXBean))
+      return -1;
+    return ((com.sun.management.ThreadMXBean)tmx).getThreadAllocatedBytes(
+      Thread.currentThread().getId());
+  }
+
+  /** The (int address) constructor of the class run on every node. */
+  private Constructor nodeConstructor;
+  /** All nodes in the network. */
+  private Vector nodes;
+  /** All nodes in the network, indexed by address.  Filled in by init(). */
+  private NodeBase[] nodeArray;
+  /** All links in the network. */
+  private Vector links;
+  /** All links in the network, as an array.  Filled in by init(). */
+  private Link[] linkArray;
+  /** All links in the network, indexed by their pair of endpoints. */
+  private LinkIndex linkIndex;
+  /** The coordinates (X and Y in the range 0.0-1.0) of each node. */
+  private Vector nodeCoords;
+  /** A mapping from node names (in the .net file) to node objects. */
+  private Hashtable nodesByName;
+  /** A mapping from link names (in the .net file) to link objects. */
+  private Hashtable linksByName;
+  /** Each node's name (in the .net file) */
+  private Vector nodeNames;
+  /** Each link's name (in the .net file) */
+  private Vector linkNames;
+  /** The simulator's current time (the time of the last event run). */
+  private double now;
+  /** The event queue. */
+  private EventQueue eventQueue;
+  /** Where events come from, and go back to once they have run. */
+  private EventPool eventPool;
+  /** The number of packets each node has sent; see nextSendOrder. */
+  private long[] sendCounts;
+  /** The number of bits of a packet's order key that hold the sender's
+  *   packet count; the sender's address fills the bits above.  Sized from
+  *   the node count, leaving at least 32 bits for the count.
+  */
+  private int sendCountBits;
+  /** The last time each node's routing table changed.  Like sendCounts,
+  *   each entry is only touched by the thread running that node.
+  */
+  private double[] routeChangeTimes;
+  /** The number of link events added so far; see addLinkEvent. */
+  private long linkEventCount = 0;
+  /** The number of threads to run on, or 0 to run sequentially. */
+  private int parallelThreads = 0;
+  /** The parallel engine while one is running, or <b>null</b>. */
+  private ParallelEngine parallel;
+  /** The number of threads to run batches of equal-time events on, or 0
+  *   to run them sequentially.
+  */
+  private int batchThreads = 0;
+  /** The batch engine while one is running, or <b>null</b>. */
+  private BatchEngine batch;
+  /** A count of all events run so far. */
+  private long eventsProcessed = 0;
+  /** A count of all packets sent so far. */
+  private long packetsSent = 0;
+  /** The wall-clock time of the last run, in seconds. */
+  private double wallTime = 0.0;
+  /** The live counters, or <b>null</b> if they are not enabled. */
+  private SimulationMetrics metrics;
+  /** The data plane, or <b>null</b> if there is none. */
+  private TrafficEngine traffic;
+  /** The binary trace, or <b>null</b> if there is none. */
+  private EventTrace trace;
+  /** The convergence of each epoch.  Created by init(). */
+  private ConvergenceTracker convergence;
+  /** The number of link events run so far. */
+  private long linkEventsRun = 0;
+  /** How long the routing tables must stay unchanged, with no link
+  *   events left, for run() to stop early; negative to never stop early.
+  */
+  private double quietPeriod = -1;
+  /** <b>true</b> if the simulation was restored from a checkpoint. */
+  private boolean restored = false;
+  /** The number of events run before the checkpoint it was restored
+  *   from, which the event rate leaves out.
+  */
+  private long restoredEvents = 0;
+  /** <b>true</b> if the last run() stopped early. */
+  private boolean stoppedEarly = false;
+  /** <b>true</b> if packets wait in the links' transmit queues. */
+  private boolean transmitQueues = false;
+  /** The most packets that may wait in each direction of a link, or 0 for
+  *   no limit.
+  */
+  private int transmitBuffer = 0;
+  /** The most epochs printSummary() lists. */
+  private static final int MAX_EPOCHS_PRINTED = 20;
+  /** The most nodes whose statistics printSummary() lists. */
+  private static final int MAX_NODES_PRINTED = 20;
+  /** The bytes allocated by the last run, or -1 if unknown. */
+  private long allocated = -1;
+  /** The events allocated and reused during the last run. */
+  private long eventsCreated, eventsReused;
+  /** The engine's own line for the summary, if any. */
+  private String engineSummary;
+  /** The first int of a checkpoint file, and its format's version. */
+  private static final int CHECKPOINT_MAGIC = 0x5253434b;
+  private static final int CHECKPOINT_VERSION = 1;
+  /** The kinds of event in a checkpoint. */
+  private static final int TEXT_PACKET = 0, BINARY_PACKET = 1, LINK = 2,
+    TIMER = 3;
+}
@@ -0,0 +1,222 @@
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.Timer;
+import java.util.TimerTask;
+import javax.management.ObjectName;
+
+/** Live counters for one Simulation, readable while it runs through JMX
+*   (as the MBean "RoutingSimulator:type=Simulation,id=<i>n</i>") and as a
+*   periodic log line.  Created by Simulation.enableMetrics(); a simulation
+*   without metrics pays only a null check at each counting point.
+*   Every counter is written by one thread only, even under the parallel
+*   engines: packets and bytes sent and transmit queue overflows are
+*   counted per link and direction, by the thread running the sender, and
+*   receipts and drops per node and per link and direction by the thread
+*   running the receiver.  The
+*   simulated time, link events and the peak queue depth are noted by the
+*   thread running the simulation, or by an engine's main thread between
+*   windows or batches.  Readers on other threads may see slightly stale
+*   values.
+*   @see Simulation#enableMetrics
+*/
+public class SimulationMetrics implements SimulationMetricsMBean {
+  /** Create the counters for a simulation whose topology is complete. */
+  SimulationMetrics(Simulation simulation) {
+    this.simulation = simulation;
+    int n = simulation.getNodeCount(), m = simulation.getLinkCount();
+    nodeReceived = new long[n];
+    linkSent = new long[2*m];
+    linkBytes = new long[2*m];
+    linkDropped = new long[2*m];
+    linkOverflowed = new long[2*m];
+    startWall = System.nanoTime();
+  }
+
+  /** Count a packet sent over a link. */
+  final void sent(Link l, int source, int bytes) {
+    int d = 2*l.index + (source == l.getEndpointA() ? 0 : 1);
+    linkSent[d]++;
+    linkBytes[d] += bytes;
+  }
+  /** Count a packet dropped on sending because the link's transmit
+  *   queue was full.
+  */
+  final void overflowed(Link l, int source) {
+    linkOverflowed[2*l.index + (source == l.getEndpointA() ? 0 : 1)]++;
+  }
+  /** Count a packet delivery event: a receipt, or a drop if the link is
+  *   down.
+  */
+  final void delivered(Link l, int source, int dest, boolean up) {
+    if (up)
+      nodeReceived[dest]++;
+    else
+      linkDropped[2*l.index + (source == l.getEndpointA() ? 0 : 1)]++;
+  }
+  /** Count a link event. */
+  final void linkEvent() {
+    linkEvents++;
+  }
+  /** Note the simulated time reached. */
+  final void advance(double time) {
+    if (time > simulatedTime)
+      simulatedTime = time;
+  }
+  /** Note the depth of the event queue after an insert, or, under the
+  *   parallel engine, of all the logical processes' queues together.
+  */
+  final void queued(int depth) {
+    if (depth > peakQueueDepth)
+      peakQueueDepth = depth;
+  }
+
+  /** Register the counters with the platform MBean server.
+  *   @return The name they were registered under.
+  *   @exception java.lang.IllegalStateException Thrown when they cannot
+  *   be registered.
+  */
+  public ObjectName register() {
+    try {
+      objectName = new ObjectName("RoutingSimulator:type=Simulation,id=" +
+        nextId());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        objectName);
+      return objectName;
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("cannot register metrics: " + e);
+    }
+  }
+  /** Remove the counters from the MBean server, if they were registered.
+  *   @exception java.lang.IllegalStateException Thrown when they cannot
+  *   be removed.
+  */
+  public void unregister() {
+    if (objectName == null)
+      return;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("cannot unregister metrics: " + e);
+    }
+    finally {
+      objectName = null;
+    }
+  }
+  /** Print a log line every so often, on a daemon thread, until
+  *   stopLogging() is called.
+  *   @param seconds The interval between lines, in wall-clock seconds.
+  */
+  public void startLogging(double seconds) {
+    stopLogging();
+    long period = Math.max(1, (long)(seconds * 1000));
+    timer = new Timer("metrics", true);
+    timer.scheduleAtFixedRate(new TimerTask() {
+      public void run() {
+        System.out.println(logLine());
+      }
+    }, period, period);
+  }
+  /** Stop the periodic log line. */
+  public void stopLogging() {
+    if (timer != null)
+      timer.cancel();
+    timer = null;
+  }
+  /** Returns a one-line summary of the counters. */
+  public String logLine() {
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(5);
+    String time = nf.format(getSimulatedTime());
+    nf.setMaximumFractionDigits(0);
+    return "metrics: time " + time + " sec, events " + getEventsProcessed() +
+      " (" + getPacketEvents() + " packet, " + getLinkEvents() + " link), " +
+      nf.format(getEventsPerWallSecond()) + "/sec wall, " +
+      nf.format(getEventsPerSimulatedSecond()) + "/sec simulated, queue " +
+      getQueueDepth() + " (peak " + getPeakQueueDepth() + "), sent " +
+      getPacketsSent() + " packets/" + getBytesSent() + " bytes, dropped " +
+      getPacketsDropped() + ", overflowed " + getPacketsOverflowed();
+  }
+
+  public double getSimulatedTime() { return simulatedTime; }
+  public long getEventsProcessed() {
+    return getPacketEvents() + getLinkEvents();
+  }
+  public long getPacketEvents() {
+    return sum(nodeReceived) + sum(linkDropped);
+  }
+  public long getLinkEvents() { return linkEvents; }
+  public double getEventsPerWallSecond() {
+    double seconds = (System.nanoTime() - startWall) / 1e9;
+    return (seconds > 0) ? getEventsProcessed() / seconds : 0.0;
+  }
+  public double getEventsPerSimulatedSecond() {
+    return (simulatedTime > 0) ? getEventsProcessed() / simulatedTime : 0.0;
+  }
+  public int getQueueDepth() { return simulation.getQueueDepth(); }
+  public int getPeakQueueDepth() { return peakQueueDepth; }
+  public long getPacketsSent() { return sum(linkSent); }
+  public long getBytesSent() { return sum(linkBytes); }
+  public long getPacketsDropped() { return sum(linkDropped); }
+  public long getPacketsOverflowed() { return sum(linkOverflowed); }
+  public String[] getLinkNames() {
+    String[] names = new String[linkSent.length/2];
+    for (int i=0; i<names.length; i++)
+      names[i] = simulation.getLinkName(i);
+    return names;
+  }
+  public long[] getLinkPacketsSent() { return perLink(linkSent); }
+  public long[] getLinkBytesSent() { return perLink(linkBytes); }
+  public long[] getLinkPacketsDropped() { return perLink(linkDropped); }
+  public long[] getLinkPacketsOverflowed() {
+    return perLink(linkOverflowed);
+  }
+  public long[] getNodePacketsReceived() {
+    return nodeReceived.clone();
+  }
+
+  /** Returns the total of an array of counters. */
+  private static long sum(long[] a) {
+    long s = 0;
+    for (int i=0; i<a.length; i++)
+      s += a[i];
+    return s;
+  }
+  /** Returns per-link totals of counters kept per link and direction. */
+  private static long[] perLink(long[] a) {
+    long[] s = new long[a.length/2];
+    for (int i=0; i<s.length; i++)
+      s[i] = a[2*i] + a[2*i+1];
+    return s;
+  }
+  /** Returns the id of the next MBean registered. */
+  private static synchronized int nextId() {
+    return ids++;
+  }
+
+  /** The simulation counted. */
+  private Simulation simulation;
+  /** The number of packets each node has received. */
+  private long[] nodeReceived;
+  /** Packets and bytes sent, packets dropped because the link was down,
+  *   and packets dropped because its transmit queue was full, over each
+  *   link: entry 2*i for link i from endpoint A to B, and 2*i+1 from B to
+  *   A.
+  */
+  private long[] linkSent, linkBytes, linkDropped, linkOverflowed;
+  /** The number of link events run. */
+  private long linkEvents;
+  /** The latest simulated time seen. */
+  private double simulatedTime;
+  /** The deepest the event queue has been. */
+  private int peakQueueDepth;
+  /** When the counters were created, from System.nanoTime(). */
+  private long startWall;
+  /** The name the counters are registered under, or <b>null</b>. */
+  private ObjectName objectName;
+  /** The timer printing the log line, or <b>null</b>. */
+  private Timer timer;
+  /** The id of the next MBean registered. */
+  private static int ids = 0;
+}
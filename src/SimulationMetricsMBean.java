@@ -0,0 +1,50 @@
+/** The management interface of SimulationMetrics: what a JMX console
+*   such as jconsole shows for a running simulation.
+*   @see SimulationMetrics
+*/
+public interface SimulationMetricsMBean {
+  /** Returns the latest simulated time seen, in seconds. */
+  double getSimulatedTime();
+  /** Returns the number of events run: packet plus link events. */
+  long getEventsProcessed();
+  /** Returns the number of packet delivery events run, including packets
+  *   dropped because their link was down.
+  */
+  long getPacketEvents();
+  /** Returns the number of link events run. */
+  long getLinkEvents();
+  /** Returns the events run per wall-clock second since the metrics were
+  *   enabled.
+  */
+  double getEventsPerWallSecond();
+  /** Returns the events run per simulated second. */
+  double getEventsPerSimulatedSecond();
+  /** Returns the number of events waiting in the simulation's queue. */
+  int getQueueDepth();
+  /** Returns the deepest the simulation's queue has been. */
+  int getPeakQueueDepth();
+  /** Returns the number of packets sent. */
+  long getPacketsSent();
+  /** Returns the number of bytes sent. */
+  long getBytesSent();
+  /** Returns the number of packets dropped because their link was down. */
+  long getPacketsDropped();
+  /** Returns the number of packets dropped on sending because a link's
+  *   transmit queue was full.
+  */
+  long getPacketsOverflowed();
+  /** Returns each link's label, in the order of the per-link counts. */
+  String[] getLinkNames();
+  /** Returns the number of packets sent over each link. */
+  long[] getLinkPacketsSent();
+  /** Returns the number of bytes sent over each link. */
+  long[] getLinkBytesSent();
+  /** Returns the number of packets dropped on each link. */
+  long[] getLinkPacketsDropped();
+  /** Returns the number of packets dropped on each link because its
+  *   transmit queue was full.
+  */
+  long[] getLinkPacketsOverflowed();
+  /** Returns the number of packets each node has received. */
+  long[] getNodePacketsReceived();
+}
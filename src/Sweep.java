@@ -0,0 +1,339 @@
+import java.io.*;
+import java.text.NumberFormat;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Runs many variants of one or more scenarios, headless and in parallel,
+*   and writes one CSV row of results per run.  Run as
+*   <pre>
+*   java Sweep [-threads n] [-out file.csv] [-node class] [-queue kind]
+*              [-stop-quiet seconds] [-link-queue packets]
+*              [-vary link.param=v1,v2,...]... [-schedule file]...
+*              file.net...
+*   </pre>
+*   Every .net file is read once, and each "-schedule" file (a .net file
+*   of "event" lines) once per .net file; the parsed Topology objects are
+*   shared by all of the runs built from them.  The runs are the
+*   cartesian product of the .net files, the schedules (or just the events
+*   in the .net file, if there are none) and the values of every "-vary"
+*   axis.  An axis names a link, or "*" for every link, and one of "cost",
+*   "latency" or "speed".  The runs go to a pool of "-threads" workers
+*   (by default one per processor), each run in its own Simulation, and
+*   the rows are written in run order.  With "-stop-quiet", each run
+*   stops as soon as its network has converged; see
+*   Simulation.setStopWhenQuiet.  With "-link-queue", packets wait for
+*   busy links; see Simulation.setTransmitQueues.
+*   @see Simulation
+*   @see Topology
+*/
+public class Sweep {
+  /** Run a sweep.
+  *   @param argv Command-line arguments; see above.
+  */
+  public static void main(String[] argv) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    String out = "sweep.csv";
+    String nodeClassName = "Node";
+    String queueKind = "heap";
+    double quiet = -1;
+    int linkQueue = -1;
+    Vector axes = new Vector();
+    Vector schedules = new Vector();
+    int arg = 0;
+    while (arg < argv.length && argv[arg].startsWith("-")) {
+      if (argv[arg].equals("-threads") && arg+1 < argv.length)
+        threads = Integer.parseInt(argv[++arg]);
+      else if (argv[arg].equals("-out") && arg+1 < argv.length)
+        out = argv[++arg];
+      else if (argv[arg].equals("-node") && arg+1 < argv.length)
+        nodeClassName = argv[++arg];
+      else if (argv[arg].equals("-queue") && arg+1 < argv.length)
+        queueKind = argv[++arg];
+      else if (argv[arg].equals("-stop-quiet") && arg+1 < argv.length)
+        quiet = Double.valueOf(argv[++arg]).doubleValue();
+      else if (argv[arg].equals("-link-queue") && arg+1 < argv.length)
+        linkQueue = Integer.parseInt(argv[++arg]);
+      else if (argv[arg].equals("-vary") && arg+1 < argv.length)
+        axes.addElement(parseAxis(argv[++arg]));
+      else if (argv[arg].equals("-schedule") && arg+1 < argv.length)
+        schedules.addElement(argv[++arg]);
+      else {
+        System.out.println("unknown option: " + argv[arg]);
+        usage();
+      }
+      arg++;
+    }
+    if (arg == argv.length)
+      usage();
+    if (!queueKind.equals("heap") && !queueKind.equals("heap4") &&
+        !queueKind.equals("calendar")) {
+      System.out.println("unknown event queue: " + queueKind);
+      usage();
+    }
+    Class nodeClass = null;
+    try {
+      nodeClass = Class.forName(nodeClassName);
+      new Simulation(new HeapEventQueue(), new EventPool(true, false),
+        nodeClass);
+    }
+    catch (Exception e) {
+      System.out.println("cannot use node class " + nodeClassName + ": " + e);
+      usage();
+    }
+
+    // Parse every file once, then build the runs on top of them.
+    Vector runs = new Vector();
+    for (; arg < argv.length; arg++) {
+      Topology base = Topology.read(argv[arg]);
+      if (base == null)
+        System.exit(-1);
+      if (schedules.isEmpty())
+        addRuns(runs, base, "", axes);
+      for (int i=0; i<schedules.size(); i++) {
+        String schedule = (String)schedules.elementAt(i);
+        Topology t = Topology.read(schedule, base);
+        if (t == null)
+          System.exit(-1);
+        addRuns(runs, t.withName(base.getName()), schedule, axes);
+      }
+    }
+
+    PrintWriter csv;
+    try {
+      csv = new PrintWriter(new BufferedWriter(new FileWriter(out)));
+    }
+    catch (IOException e) {
+      System.out.println(out + ": " + e);
+      System.exit(-1);
+      return;  // not reached
+    }
+    csv.print("run,topology,schedule");
+    for (int i=0; i<axes.size(); i++)
+      csv.print("," + csvField(((Axis)axes.elementAt(i)).toString()));
+    csv.println(",events,packets,convergence_time,simulated_time," +
+      "wall_time,routing_hash");
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List futures = new ArrayList();
+    for (int i=0; i<runs.size(); i++)
+      futures.add(executor.submit(new RunTask(i, (Run)runs.elementAt(i),
+        queueKind, nodeClass, quiet, linkQueue)));
+    executor.shutdown();
+    int failed = 0;
+    for (int i=0; i<futures.size(); i++) {
+      Run run = (Run)runs.elementAt(i);
+      String row;
+      try {
+        row = (String)((Future)futures.get(i)).get();
+      }
+      catch (InterruptedException e) {
+        throw new IllegalStateException("sweep interrupted");
+      }
+      catch (ExecutionException e) {
+        System.out.println("run " + i + " failed: " + e.getCause());
+        row = run.describe(i) + ",,,,,,";
+        failed++;
+      }
+      csv.println(row);
+      csv.flush();
+    }
+    csv.close();
+    System.out.println(runs.size() + " runs (" + failed + " failed) " +
+      "written to " + out);
+  }
+  /** Print a usage message and exit. */
+  private static void usage() {
+    System.out.println("usage: java Sweep [-threads n] [-out file.csv] " +
+      "[-node class] [-queue heap|heap4|calendar] [-stop-quiet seconds] " +
+      "[-link-queue packets] [-vary link.cost|latency|speed=v1,v2,...]... " +
+      "[-schedule file]... <file.net>...");
+    System.exit(-1);
+  }
+
+  /** Parse a "-vary" argument, such as "l4.cost=1,5,10" or
+  *   "*.latency=0.01,0.02".
+  */
+  private static Axis parseAxis(String s) {
+    int eq = s.indexOf('=');
+    int dot = (eq == -1) ? -1 : s.lastIndexOf('.', eq);
+    if (dot <= 0) {
+      System.out.println("bad -vary argument: " + s);
+      usage();
+    }
+    Axis a = new Axis();
+    a.link = s.substring(0, dot);
+    a.param = s.substring(dot+1, eq);
+    if (!a.param.equals("cost") && !a.param.equals("latency") &&
+        !a.param.equals("speed")) {
+      System.out.println("unknown link parameter: " + a.param);
+      usage();
+    }
+    StringTokenizer t = new StringTokenizer(s.substring(eq+1), ",");
+    a.values = new String[t.countTokens()];
+    for (int i=0; i<a.values.length; i++) {
+      a.values[i] = t.nextToken();
+      try {
+        if (a.param.equals("latency"))
+          Double.valueOf(a.values[i]);
+        else
+          Integer.parseInt(a.values[i]);
+      }
+      catch (NumberFormatException e) {
+        System.out.println("bad value for " + a + ": " + a.values[i]);
+        usage();
+      }
+    }
+    if (a.values.length == 0) {
+      System.out.println("no values for " + a);
+      usage();
+    }
+    return a;
+  }
+  /** Add a run for every combination of the axes' values to a topology.
+  *   @param runs Where to add the runs.
+  *   @param t The topology, with its schedule already added.
+  *   @param schedule The name of the schedule, for the results.
+  *   @param axes The axes to vary.
+  */
+  private static void addRuns(Vector runs, Topology t, String schedule,
+      Vector axes) {
+    int[][] links = new int[axes.size()][];
+    for (int a=0; a<axes.size(); a++) {
+      Axis axis = (Axis)axes.elementAt(a);
+      if (axis.link.equals("*")) {
+        links[a] = new int[t.getLinkCount()];
+        for (int i=0; i<links[a].length; i++)
+          links[a][i] = i;
+      }
+      else {
+        int l = t.findLink(axis.link);
+        if (l == -1) {
+          System.out.println(t.getName() + ": no link named " + axis.link);
+          System.exit(-1);
+        }
+        links[a] = new int[] { l };
+      }
+    }
+    int[] choice = new int[axes.size()];
+    while (true) {
+      int n = t.getLinkCount();
+      int[] speed = new int[n];
+      double[] latency = new double[n];
+      int[] cost = new int[n];
+      for (int i=0; i<n; i++) {
+        speed[i] = t.getLinkSpeed(i);
+        latency[i] = t.getLinkLatency(i);
+        cost[i] = t.getLinkCost(i);
+      }
+      String[] values = new String[axes.size()];
+      for (int a=0; a<axes.size(); a++) {
+        Axis axis = (Axis)axes.elementAt(a);
+        values[a] = axis.values[choice[a]];
+        for (int i=0; i<links[a].length; i++) {
+          int l = links[a][i];
+          if (axis.param.equals("cost"))
+            cost[l] = Integer.parseInt(values[a]);
+          else if (axis.param.equals("latency"))
+            latency[l] = Double.valueOf(values[a]).doubleValue();
+          else
+            speed[l] = Integer.parseInt(values[a]);
+        }
+      }
+      Run run = new Run();
+      run.topology = axes.isEmpty() ? t : t.withLinks(speed, latency, cost);
+      run.schedule = schedule;
+      run.values = values;
+      runs.addElement(run);
+      // Advance to the next combination, last axis fastest.
+      int a = axes.size()-1;
+      while (a >= 0 && ++choice[a] == ((Axis)axes.elementAt(a)).values.length)
+        choice[a--] = 0;
+      if (a < 0)
+        break;
+    }
+  }
+  /** Returns a value quoted for CSV, if it needs to be. */
+  static String csvField(String s) {
+    if (s.indexOf(',') == -1 && s.indexOf('"') == -1 &&
+        s.indexOf('\n') == -1)
+      return s;
+    StringBuffer b = new StringBuffer("\"");
+    for (int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"')
+        b.append('"');
+      b.append(c);
+    }
+    return b.append('"').toString();
+  }
+
+  /** One parameter varied by the sweep. */
+  private static class Axis {
+    /** The link's label, or "*" for every link. */
+    String link;
+    /** "cost", "latency" or "speed". */
+    String param;
+    /** The values to try. */
+    String[] values;
+    public String toString() {
+      return link + "." + param;
+    }
+  }
+  /** One simulation to run. */
+  private static class Run {
+    /** The topology, with the run's schedule and parameters applied. */
+    Topology topology;
+    /** The name of the schedule file, or "". */
+    String schedule;
+    /** The value of each axis. */
+    String[] values;
+    /** Returns the columns that identify the run. */
+    String describe(int index) {
+      StringBuffer b = new StringBuffer();
+      b.append(index).append(',').append(csvField(topology.getName()))
+        .append(',').append(csvField(schedule));
+      for (int i=0; i<values.length; i++)
+        b.append(',').append(csvField(values[i]));
+      return b.toString();
+    }
+  }
+  /** Runs one simulation and returns its CSV row. */
+  private static class RunTask implements Callable {
+    RunTask(int index, Run run, String queueKind, Class nodeClass,
+        double quiet, int linkQueue) {
+      this.index = index;
+      this.run = run;
+      this.queueKind = queueKind;
+      this.nodeClass = nodeClass;
+      this.quiet = quiet;
+      this.linkQueue = linkQueue;
+    }
+    public Object call() {
+      EventQueue queue = queueKind.equals("calendar") ?
+        (EventQueue)new CalendarEventQueue() :
+        new HeapEventQueue(queueKind.equals("heap4") ? 4 : 2);
+      Simulation sim = new Simulation(queue, new EventPool(true, false),
+        nodeClass);
+      sim.load(run.topology);
+      if (linkQueue >= 0)
+        sim.setTransmitQueues(true, linkQueue);
+      sim.init();
+      sim.setStopWhenQuiet(quiet);
+      sim.run();
+      NumberFormat nf = NumberFormat.getInstance(Locale.US);
+      nf.setGroupingUsed(false);
+      nf.setMaximumFractionDigits(6);
+      return run.describe(index) + "," + sim.getEventsProcessed() + "," +
+        sim.getPacketsSent() + "," + nf.format(sim.getConvergenceTime()) +
+        "," + nf.format(sim.getEndTime()) + "," +
+        nf.format(sim.getWallTime()) + "," +
+        Integer.toHexString(sim.routingTablesHash());
+    }
+    private int index;
+    private Run run;
+    private String queueKind;
+    private Class nodeClass;
+    private double quiet;
+    private int linkQueue;
+  }
+}
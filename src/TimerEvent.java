@@ -0,0 +1,35 @@
+/** A subclass of Event representing a node's timer going off.
+*   @see NodeBase#setTimer
+*   @see Event
+*/
+public class TimerEvent extends Event {
+  /** Create a new timer event.
+  *   @param time The time at which the timer goes off.
+  *   @param node The address of the node that set the timer.
+  *   @param id The number the node gave the timer.
+  */
+  public TimerEvent(double time, int node, int id) {
+    super(time);
+    this.node = node;
+    this.id = id;
+  }
+  /** Returns the number the node gave the timer. */
+  public int getId() { return id; }
+  /** Returns the address of the node that set the timer. */
+  int getNode() { return node; }
+  /** Run the event (call the node's timerExpired). */
+  public void run() {
+    simulation.timerExpired(node, id);
+  }
+  /** Returns a string representation.  For example, <code>0.25: 3: timer
+  *   0</code>
+  */
+  public String toString() {
+    return getTime() + ": " + node + ": timer " + id;
+  }
+
+  /** The address of the node that set the timer. */
+  private int node;
+  /** The number the node gave the timer. */
+  private int id;
+}
@@ -0,0 +1,195 @@
+/** A parsed .net file: the nodes, links and link events of a network,
+*   without any simulation state.  A Topology never changes once read, so
+*   one can be shared by any number of simulations, on any number of
+*   threads; variants with different link parameters or extra events are
+*   new Topology objects that share whatever did not change.
+*   @see Simulation#load
+*/
+public class Topology {
+  /** Read a topology file.  Errors on individual lines are reported and
+  *   the lines skipped.  The file may also be an image compiled by
+  *   TopologyImage, or "gen:" followed by a TopologyGenerator spec, to
+  *   generate the topology in memory instead.
+  *   @param filename The name of the file, typically ending in ".net"
+  *   @return The topology, or <b>null</b> if the file could not be found,
+  *   is an image that cannot be used or is a bad spec.
+  *   @see TopologyLoader
+  *   @see TopologyImage
+  *   @see TopologyGenerator
+  */
+  public static Topology read(String filename) {
+    return read(filename, null);
+  }
+  /** Read a topology file on top of an existing topology, adding to its
+  *   nodes, links and events.  The file may refer to the nodes and links
+  *   of the base by name; a file holding only "event" lines is a failure
+  *   schedule for the base.
+  *   @param filename The name of the file.
+  *   @param base The topology to add to, or <b>null</b>.
+  *   @return The combined topology, or <b>null</b> if the file could not
+  *   be found.
+  */
+  public static Topology read(String filename, Topology base) {
+    return read(filename, base, false);
+  }
+  /** Read a topology file on top of an existing topology, and report how
+  *   fast a .net file was read, or a "gen:" topology generated, if asked
+  *   to.  The simulator's front end reports it; tools that read many files
+  *   do not.
+  *   @see TopologyLoader#setReportThroughput
+  */
+  static Topology read(String filename, Topology base, boolean report) {
+    if (filename.startsWith(GENERATE)) {
+      if (base != null) {
+        System.out.println(filename + ": a generated topology cannot be " +
+          "added to another topology");
+        return null;
+      }
+      try {
+        TopologyGenerator g =
+          new TopologyGenerator(filename.substring(GENERATE.length()));
+        long start = System.nanoTime();
+        Topology t = g.generate(filename);
+        if (report)
+          System.out.println(t.getNodeCount() + " nodes, " +
+            t.getLinkCount() + " links generated in " +
+            (System.nanoTime() - start) / 1000000 + " ms.");
+        return t;
+      }
+      catch (IllegalArgumentException e) {
+        System.out.println(filename + ": " + e.getMessage());
+        return null;
+      }
+    }
+    if (TopologyImage.isImage(filename)) {
+      if (base == null)
+        return TopologyImage.read(filename);
+      System.out.println(filename + ": a compiled image cannot be added " +
+        "to another topology");
+      return null;
+    }
+    TopologyLoader loader = new TopologyLoader(base);
+    loader.setReportThroughput(report);
+    return loader.load(filename);
+  }
+
+  /** Create a topology from its columns.  The arrays become part of the
+  *   topology, so the caller must not change them afterwards.
+  */
+  Topology(String name, String[] nodeNames, double[] nodeX, double[] nodeY,
+      String[] linkNames, int[] linkA, int[] linkB, int[] linkSpeed,
+      double[] linkLatency, int[] linkCost, double[] eventTime,
+      int[] eventLink, boolean[] eventUp) {
+    this.name = name;
+    this.nodeNames = nodeNames;
+    this.nodeX = nodeX;
+    this.nodeY = nodeY;
+    this.linkNames = linkNames;
+    this.linkA = linkA;
+    this.linkB = linkB;
+    this.linkSpeed = linkSpeed;
+    this.linkLatency = linkLatency;
+    this.linkCost = linkCost;
+    this.eventTime = eventTime;
+    this.eventLink = eventLink;
+    this.eventUp = eventUp;
+  }
+
+  /** Returns a copy of this topology with new link parameters.  The
+  *   arrays are copied, so the caller may go on changing them.
+  *   @param speed Each link's speed, in bits per second.
+  *   @param latency Each link's latency, in seconds.
+  *   @param cost Each link's per-packet cost.
+  */
+  public Topology withLinks(int[] speed, double[] latency, int[] cost) {
+    if (speed.length != linkNames.length ||
+        latency.length != linkNames.length || cost.length != linkNames.length)
+      throw new IllegalArgumentException("wrong number of links");
+    Topology t = copy();
+    t.linkSpeed = speed.clone();
+    t.linkLatency = latency.clone();
+    t.linkCost = cost.clone();
+    return t;
+  }
+  /** Returns a copy of this topology with a new name, for reports. */
+  public Topology withName(String name) {
+    Topology t = copy();
+    t.name = name;
+    return t;
+  }
+
+  /** Returns the name of the file the topology was read from. */
+  public String getName() { return name; }
+  /** Returns the number of nodes. */
+  public int getNodeCount() { return nodeNames.length; }
+  /** Returns the label of a node. */
+  public String getNodeName(int node) { return nodeNames[node]; }
+  /** Returns the X drawing coordinate of a node, in the range 0.0-1.0. */
+  public double getNodeX(int node) { return nodeX[node]; }
+  /** Returns the Y drawing coordinate of a node, in the range 0.0-1.0. */
+  public double getNodeY(int node) { return nodeY[node]; }
+  /** Returns the number of links. */
+  public int getLinkCount() { return linkNames.length; }
+  /** Returns the index of the link with the given label, or -1.  If
+  *   several links have the label, the last one is returned, just as
+  *   "event" lines refer to it.
+  */
+  public int findLink(String name) {
+    for (int i=linkNames.length-1; i>=0; i--)
+      if (linkNames[i].equals(name))
+        return i;
+    return -1;
+  }
+  /** Returns the label of a link. */
+  public String getLinkName(int link) { return linkNames[link]; }
+  /** Returns the index of the node at one end of a link. */
+  public int getLinkEndpointA(int link) { return linkA[link]; }
+  /** Returns the index of the node at the other end of a link. */
+  public int getLinkEndpointB(int link) { return linkB[link]; }
+  /** Returns the speed of a link, in bits per second. */
+  public int getLinkSpeed(int link) { return linkSpeed[link]; }
+  /** Returns the latency of a link, in seconds. */
+  public double getLinkLatency(int link) { return linkLatency[link]; }
+  /** Returns the per-packet cost of a link. */
+  public int getLinkCost(int link) { return linkCost[link]; }
+  /** Returns the number of link events. */
+  public int getEventCount() { return eventTime.length; }
+  /** Returns the time of a link event. */
+  public double getEventTime(int event) { return eventTime[event]; }
+  /** Returns the index of the link a link event changes. */
+  public int getEventLink(int event) { return eventLink[event]; }
+  /** Returns <b>true</b> if a link event brings its link up. */
+  public boolean getEventUp(int event) { return eventUp[event]; }
+
+  /** Returns a copy sharing all arrays with this topology. */
+  private Topology copy() {
+    return new Topology(name, nodeNames, nodeX, nodeY, linkNames, linkA,
+      linkB, linkSpeed, linkLatency, linkCost, eventTime, eventLink,
+      eventUp);
+  }
+
+  /** The prefix of the file names that are generator specs. */
+  private static final String GENERATE = "gen:";
+  /** The name of the file the topology was read from. */
+  private String name;
+  /** Each node's label. */
+  private String[] nodeNames;
+  /** Each node's drawing coordinates, in the range 0.0-1.0. */
+  private double[] nodeX, nodeY;
+  /** Each link's label. */
+  private String[] linkNames;
+  /** The node indices of each link's endpoints. */
+  private int[] linkA, linkB;
+  /** Each link's speed, in bits per second. */
+  private int[] linkSpeed;
+  /** Each link's latency, in seconds. */
+  private double[] linkLatency;
+  /** Each link's per-packet cost. */
+  private int[] linkCost;
+  /** Each link event's time. */
+  private double[] eventTime;
+  /** The index of the link each link event changes. */
+  private int[] eventLink;
+  /** <b>true</b> for each link event that brings its link up. */
+  private boolean[] eventUp;
+}
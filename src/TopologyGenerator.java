@@ -0,0 +1,602 @@
+import java.io.*;
+import java.util.*;
+
+/** Generates topologies from parameterized families, either as .net text
+*   or straight into a Topology, so large networks can be simulated
+*   without writing a file first.  A generator is described by a spec:
+*   a family name followed by comma-separated parameters, such as
+*   <pre>
+*   grid,width=100,height=50
+*   torus,width=1000,latency=uniform:0.005:0.02
+*   tree,n=10000,k=3
+*   fattree,k=8,hosts=4
+*   waxman,n=5000,alpha=0.05,beta=0.4,seed=7
+*   ba,n=1000000,m=2,cost=choice:1:5:10
+*   </pre>
+*   The families are ring (n), grid and torus (width, height; height
+*   defaults to width), tree (n nodes, each with up to k children),
+*   fattree (a k-ary fat tree of switches, k even, with "hosts" hosts per
+*   edge switch), waxman (n nodes placed at random, each pair linked with
+*   probability beta*exp(-d/(alpha*L)), where L is the largest possible
+*   distance) and ba (Barabasi-Albert: n nodes, each new node linked to m
+*   existing nodes chosen in proportion to their degree).
+*   Every family also takes "seed" (default 1) and the distributions of
+*   link "speed" (default const:57600), "latency" (default const:0.01) and
+*   "cost" (default const:1).  A distribution is const:v, uniform:lo:hi,
+*   exp:mean or choice:v1:v2:...; speeds and costs are rounded to whole
+*   numbers.  Nodes are named n0, n1, ... and links l0, l1, ..., and every
+*   node gets coordinates in the range 0.0-1.0 for NetworkMap.
+*   Topology.read accepts "gen:" followed by a spec in place of a file
+*   name, and
+*   <pre>
+*   java TopologyGenerator spec [file.net]
+*   </pre>
+*   writes the .net text to a file or to the standard output, one line at
+*   a time.
+*   @see Topology
+*/
+public class TopologyGenerator {
+  /** Write a generated topology as .net text.
+  *   @param argv The spec and, optionally, the file to write.
+  */
+  public static void main(String[] argv) {
+    if (argv.length < 1 || argv.length > 2) {
+      System.out.println("usage: java TopologyGenerator <spec> [file.net]");
+      System.exit(-1);
+    }
+    TopologyGenerator g;
+    try {
+      g = new TopologyGenerator(argv[0]);
+    }
+    catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.exit(-1);
+      return;  // not reached
+    }
+    try {
+      Writer w = (argv.length == 2) ? (Writer)new FileWriter(argv[1]) :
+        new OutputStreamWriter(System.out);
+      TextSink sink = new TextSink(new BufferedWriter(w, 1 << 16));
+      g.generate(sink);
+      sink.close();
+      if (argv.length == 2)
+        System.out.println(argv[1] + ": " + sink.nodes + " nodes, " +
+          sink.links + " links written.");
+    }
+    catch (IOException e) {
+      System.out.println(e);
+      System.exit(-1);
+    }
+  }
+
+  /** Create a generator from a spec; see above.
+  *   @exception java.lang.IllegalArgumentException Thrown when the spec
+  *   is not valid; the message says why.
+  */
+  public TopologyGenerator(String spec) {
+    StringTokenizer t = new StringTokenizer(spec, ",");
+    if (!t.hasMoreTokens())
+      throw new IllegalArgumentException("empty topology spec");
+    family = t.nextToken().trim();
+    params = new Hashtable();
+    while (t.hasMoreTokens()) {
+      String p = t.nextToken().trim();
+      int eq = p.indexOf('=');
+      if (eq <= 0)
+        throw new IllegalArgumentException("bad parameter in topology " +
+          "spec: " + p);
+      params.put(p.substring(0, eq), p.substring(eq+1));
+    }
+    seed = longParam("seed", 1);
+    speed = new Distribution(stringParam("speed", "const:57600"));
+    latency = new Distribution(stringParam("latency", "const:0.01"));
+    cost = new Distribution(stringParam("cost", "const:1"));
+    if (family.equals("ring"))
+      n = sizeParam("n", -1);
+    else if (family.equals("grid") || family.equals("torus")) {
+      width = sizeParam("width", -1);
+      height = sizeParam("height", width);
+      n = nodeCount((long)width * height);
+    }
+    else if (family.equals("tree")) {
+      n = sizeParam("n", -1);
+      k = sizeParam("k", 2);
+    }
+    else if (family.equals("fattree")) {
+      k = sizeParam("k", 4);
+      if (k % 2 != 0)
+        throw new IllegalArgumentException("fattree: k must be even");
+      hosts = intParam("hosts", 0);
+      if (hosts < 0)
+        throw new IllegalArgumentException("fattree: hosts must not be " +
+          "negative");
+      long k2 = (long)k * k;
+      n = nodeCount(k2/4 + k2 + k2/2*hosts);
+    }
+    else if (family.equals("waxman")) {
+      n = sizeParam("n", -1);
+      alpha = doubleParam("alpha", 0.1);
+      beta = doubleParam("beta", 0.4);
+    }
+    else if (family.equals("ba")) {
+      n = sizeParam("n", -1);
+      k = sizeParam("m", 2);
+      if (n <= k)
+        throw new IllegalArgumentException("ba: n must be more than m");
+    }
+    else
+      throw new IllegalArgumentException("unknown topology family: " +
+        family);
+    Enumeration e = params.keys();
+    while (e.hasMoreElements()) {
+      String name = (String)e.nextElement();
+      if (!used.contains(name))
+        throw new IllegalArgumentException(family + ": unknown parameter " +
+          name);
+    }
+  }
+
+  /** Generate the topology in memory. */
+  public Topology generate(String name) {
+    ColumnSink sink = new ColumnSink(n);
+    generate(sink);
+    return sink.topology(name);
+  }
+  /** Generate the topology, passing each node and link to a sink as it is
+  *   made.
+  */
+  public void generate(Sink sink) {
+    Random r = new Random(seed);
+    linkCount = 0;
+    if (family.equals("ring"))
+      ring(sink, r);
+    else if (family.equals("grid") || family.equals("torus"))
+      grid(sink, r, family.equals("torus"));
+    else if (family.equals("tree"))
+      tree(sink, r);
+    else if (family.equals("fattree"))
+      fatTree(sink, r);
+    else if (family.equals("waxman"))
+      waxman(sink, r);
+    else
+      barabasiAlbert(sink, r);
+  }
+
+  /** Receives the nodes and links of a generated topology.  A link only
+  *   ever refers to nodes already given.
+  */
+  public interface Sink {
+    /** Take a node.
+    *   @param index The node's index; nodes come in index order.
+    *   @param x The X coordinate to draw the node at, in the range
+    *   0.0-1.0.
+    *   @param y The Y coordinate, in the same range.
+    */
+    void node(int index, double x, double y);
+    /** Take a link.
+    *   @param index The link's index; links come in index order.
+    *   @param a The index of one endpoint.
+    *   @param b The index of the other endpoint.
+    *   @param speed The speed, in bits per second.
+    *   @param latency The latency, in seconds.
+    *   @param cost The per-packet cost of using the link.
+    */
+    void link(int index, int a, int b, int speed, double latency, int cost);
+  }
+
+  /** A ring of n nodes laid out on a circle, each linked to the next. */
+  private void ring(Sink sink, Random r) {
+    for (int i=0; i<n; i++) {
+      double angle = 2*Math.PI*i/n;
+      sink.node(i, 0.5 + 0.45*Math.cos(angle), 0.5 + 0.45*Math.sin(angle));
+    }
+    for (int i=0; i+1<n; i++)
+      link(sink, r, i, i+1);
+    if (n > 2)
+      link(sink, r, n-1, 0);
+  }
+  /** A width by height grid, each node linked to its right and lower
+  *   neighbors; on a torus the last column and row wrap around.
+  */
+  private void grid(Sink sink, Random r, boolean torus) {
+    for (int y=0; y<height; y++)
+      for (int x=0; x<width; x++)
+        sink.node(y*width + x, spread(x, width), spread(y, height));
+    for (int y=0; y<height; y++)
+      for (int x=0; x<width; x++) {
+        int i = y*width + x;
+        if (x+1 < width)
+          link(sink, r, i, i+1);
+        else if (torus && width > 2)
+          link(sink, r, i, y*width);
+        if (y+1 < height)
+          link(sink, r, i, i+width);
+        else if (torus && height > 2)
+          link(sink, r, i, x);
+      }
+  }
+  /** A complete k-ary tree of n nodes in breadth-first order, so the
+  *   parent of node i is (i-1)/k.  With k of n-1 or more it is a star.
+  */
+  private void tree(Sink sink, Random r) {
+    // Lay the tree out level by level, spreading each level across.  A
+    // level is never counted as larger than n, so the sizes cannot wrap.
+    int levelStart = 0, levelSize = 1, depth = 0;
+    while (levelStart < n) {
+      levelStart += Math.min(levelSize, n - levelStart);
+      levelSize = (int)Math.min((long)levelSize * k, n);
+      depth++;
+    }
+    levelStart = 0;
+    levelSize = 1;
+    for (int level=0; levelStart < n; level++) {
+      int count = Math.min(levelSize, n - levelStart);
+      for (int j=0; j<count; j++) {
+        int i = levelStart + j;
+        sink.node(i, spread(j, count), spread(level, depth));
+        if (i > 0)
+          link(sink, r, (i-1)/k, i);
+      }
+      levelStart += count;
+      levelSize = (int)Math.min((long)levelSize * k, n);
+    }
+  }
+  /** A k-ary fat tree: (k/2)^2 core switches, and k pods of k/2
+  *   aggregation and k/2 edge switches, fully linked within each pod, with
+  *   "hosts" hosts below each edge switch.  Laid out in rows: cores,
+  *   aggregation, edge, then hosts.
+  */
+  private void fatTree(Sink sink, Random r) {
+    int half = k/2;
+    int cores = half*half, aggs = k*half, edges = k*half;
+    int rows = (hosts > 0) ? 4 : 3;
+    for (int i=0; i<cores; i++)
+      sink.node(i, spread(i, cores), spread(0, rows));
+    for (int i=0; i<aggs; i++)
+      sink.node(cores + i, spread(i, aggs), spread(1, rows));
+    for (int i=0; i<edges; i++)
+      sink.node(cores + aggs + i, spread(i, edges), spread(2, rows));
+    // Aggregation switch j of each pod links to cores j*half .. j*half+half-1.
+    for (int pod=0; pod<k; pod++)
+      for (int j=0; j<half; j++) {
+        int agg = cores + pod*half + j;
+        for (int c=0; c<half; c++)
+          link(sink, r, j*half + c, agg);
+      }
+    for (int pod=0; pod<k; pod++)
+      for (int j=0; j<half; j++)
+        for (int e=0; e<half; e++)
+          link(sink, r, cores + pod*half + j, cores + aggs + pod*half + e);
+    int first = cores + aggs + edges;
+    for (int e=0; e<edges; e++)
+      for (int h=0; h<hosts; h++) {
+        int host = first + e*hosts + h;
+        sink.node(host, spread(e*hosts + h, edges*hosts), spread(3, rows));
+        link(sink, r, cores + aggs + e, host);
+      }
+  }
+  /** Waxman's random graph.  Nodes are bucketed in a grid of cells so that
+  *   only pairs close enough to have a probability of at least 1e-12 of
+  *   being linked are considered.
+  */
+  private void waxman(Sink sink, Random r) {
+    double[] x = new double[n], y = new double[n];
+    for (int i=0; i<n; i++) {
+      x[i] = r.nextDouble();
+      y[i] = r.nextDouble();
+      sink.node(i, x[i], y[i]);
+    }
+    double scale = alpha * Math.sqrt(2.0);
+    double cutoff = (beta > 1e-12) ? scale * Math.log(beta / 1e-12) : 0.0;
+    int cells = (int)Math.max(1, Math.min(Math.sqrt(n), 1.0 / cutoff));
+    int[] cellStart = new int[cells*cells + 1];
+    int[] cellOf = new int[n];
+    for (int i=0; i<n; i++) {
+      cellOf[i] = cell(y[i], cells)*cells + cell(x[i], cells);
+      cellStart[cellOf[i]+1]++;
+    }
+    for (int c=0; c<cells*cells; c++)
+      cellStart[c+1] += cellStart[c];
+    int[] members = new int[n];
+    int[] fill = cellStart.clone();
+    for (int i=0; i<n; i++)
+      members[fill[cellOf[i]]++] = i;
+    int reach = (int)Math.ceil(cutoff * cells);
+    double cutoff2 = cutoff*cutoff;
+    for (int i=0; i<n; i++) {
+      int cx = cellOf[i] % cells, cy = cellOf[i] / cells;
+      for (int dy=-reach; dy<=reach; dy++)
+        for (int dx=-reach; dx<=reach; dx++) {
+          int ox = cx + dx, oy = cy + dy;
+          if (ox < 0 || oy < 0 || ox >= cells || oy >= cells)
+            continue;
+          int c = oy*cells + ox;
+          for (int m=cellStart[c]; m<cellStart[c+1]; m++) {
+            int j = members[m];
+            if (j <= i)
+              continue;
+            double dx2 = x[i] - x[j], dy2 = y[i] - y[j];
+            double d2 = dx2*dx2 + dy2*dy2;
+            if (d2 <= cutoff2 &&
+                r.nextDouble() < beta*Math.exp(-Math.sqrt(d2)/scale))
+              link(sink, r, i, j);
+          }
+        }
+    }
+  }
+  /** The Barabasi-Albert model: the first m+1 nodes form a clique, and
+  *   every later node links to m distinct earlier nodes, each chosen with
+  *   probability proportional to its degree by picking a random endpoint
+  *   of the links made so far.
+  */
+  private void barabasiAlbert(Sink sink, Random r) {
+    int m = k;
+    long ends = 2L*((long)m*(m+1)/2 + (long)(n-m-1)*m);
+    if (ends > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("ba: too many links");
+    int[] endpoints = new int[(int)ends];
+    int used = 0;
+    for (int i=0; i<n; i++)
+      sink.node(i, r.nextDouble(), r.nextDouble());
+    for (int i=0; i<=m; i++)
+      for (int j=0; j<i; j++) {
+        link(sink, r, j, i);
+        endpoints[used++] = j;
+        endpoints[used++] = i;
+      }
+    int[] chosen = new int[m];
+    for (int i=m+1; i<n; i++) {
+      int count = 0;
+      while (count < m) {
+        int t = endpoints[r.nextInt(used)];
+        boolean again = false;
+        for (int c=0; c<count; c++)
+          if (chosen[c] == t)
+            again = true;
+        if (!again)
+          chosen[count++] = t;
+      }
+      for (int c=0; c<m; c++) {
+        link(sink, r, chosen[c], i);
+        endpoints[used++] = chosen[c];
+        endpoints[used++] = i;
+      }
+    }
+  }
+
+  /** Give a sink a new link with parameters drawn from the distributions. */
+  private void link(Sink sink, Random r, int a, int b) {
+    int s = (int)Math.max(1, Math.round(speed.sample(r)));
+    double l = Math.max(0.0, latency.sample(r));
+    int c = (int)Math.round(cost.sample(r));
+    sink.link(linkCount++, a, b, s, l, c);
+  }
+  /** Returns the coordinate of item i of count, spread over 0.05-0.95. */
+  private static double spread(int i, int count) {
+    return (count <= 1) ? 0.5 : 0.05 + 0.9*i/(count-1);
+  }
+  /** Returns the cell of a coordinate in the range 0.0-1.0. */
+  private static int cell(double v, int cells) {
+    return Math.min(cells-1, (int)(v*cells));
+  }
+
+  /** Returns a parameter's value, and notes that the family uses it.
+  *   @param dflt The value if the parameter is not given.
+  */
+  private String stringParam(String name, String dflt) {
+    used.add(name);
+    String v = (String)params.get(name);
+    return (v == null) ? dflt : v;
+  }
+  /** Returns an int parameter.
+  *   @param dflt The value if the parameter is not given, or -1 if it
+  *   must be.
+  *   @exception java.lang.IllegalArgumentException Thrown when the value
+  *   is missing or not a number.
+  */
+  private int intParam(String name, int dflt) {
+    String v = stringParam(name, null);
+    if (v == null) {
+      if (dflt == -1)
+        throw new IllegalArgumentException(family + ": missing parameter " +
+          name);
+      return dflt;
+    }
+    try {
+      return Integer.parseInt(v);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(family + ": bad " + name + ": " + v);
+    }
+  }
+  /** Returns a long parameter, or a default if it is not given.
+  *   @exception java.lang.IllegalArgumentException Thrown when the value
+  *   is not a number.
+  */
+  private long longParam(String name, long dflt) {
+    String v = stringParam(name, null);
+    try {
+      return (v == null) ? dflt : Long.parseLong(v);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(family + ": bad " + name + ": " + v);
+    }
+  }
+  /** Returns a double parameter, or a default if it is not given.
+  *   @exception java.lang.IllegalArgumentException Thrown when the value
+  *   is not a number.
+  */
+  private double doubleParam(String name, double dflt) {
+    String v = stringParam(name, null);
+    try {
+      return (v == null) ? dflt : Double.valueOf(v).doubleValue();
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(family + ": bad " + name + ": " + v);
+    }
+  }
+
+  /** Returns a size parameter, such as a node count or a degree, as
+  *   intParam does.
+  *   @exception java.lang.IllegalArgumentException Thrown when the value
+  *   is not positive.
+  */
+  private int sizeParam(String name, int dflt) {
+    int v = intParam(name, dflt);
+    if (v < 1)
+      throw new IllegalArgumentException(family + ": " + name +
+        " must be positive");
+    return v;
+  }
+  /** Returns a node count worked out from the size parameters.
+  *   @exception java.lang.IllegalArgumentException Thrown when it does not
+  *   fit in an int.
+  */
+  private int nodeCount(long count) {
+    if (count > Integer.MAX_VALUE)
+      throw new IllegalArgumentException(family + ": too many nodes: " +
+        count);
+    return (int)count;
+  }
+
+  /** A distribution of link parameters: const:v, uniform:lo:hi, exp:mean
+  *   or choice:v1:v2:...
+  */
+  private static class Distribution {
+    Distribution(String spec) {
+      StringTokenizer t = new StringTokenizer(spec, ":");
+      kind = t.hasMoreTokens() ? t.nextToken() : "";
+      values = new double[t.countTokens()];
+      try {
+        for (int i=0; i<values.length; i++)
+          values[i] = Double.valueOf(t.nextToken()).doubleValue();
+      }
+      catch (NumberFormatException e) {
+        throw new IllegalArgumentException("bad distribution: " + spec);
+      }
+      int expected = kind.equals("const") ? 1 : kind.equals("uniform") ? 2 :
+        kind.equals("exp") ? 1 : kind.equals("choice") ? -1 : 0;
+      if (expected == 0 || (expected > 0 && values.length != expected) ||
+          values.length == 0)
+        throw new IllegalArgumentException("bad distribution: " + spec);
+    }
+    /** Returns a value drawn from the distribution. */
+    double sample(Random r) {
+      if (kind.equals("const"))
+        return values[0];
+      if (kind.equals("uniform"))
+        return values[0] + (values[1] - values[0])*r.nextDouble();
+      if (kind.equals("exp"))
+        return -values[0]*Math.log(1.0 - r.nextDouble());
+      return values[r.nextInt(values.length)];
+    }
+    private String kind;
+    private double[] values;
+  }
+
+  /** Writes .net text. */
+  private static class TextSink implements Sink {
+    TextSink(Writer out) {
+      this.out = new PrintWriter(out);
+    }
+    public void node(int index, double x, double y) {
+      out.println("node n" + index + " " + x + " " + y);
+      nodes++;
+    }
+    public void link(int index, int a, int b, int speed, double latency,
+        int cost) {
+      out.println("link l" + index + " n" + a + " n" + b + " " + speed + " " +
+        latency + " " + cost);
+      links++;
+    }
+    /** Close the output, and report whether any of it failed. */
+    void close() throws IOException {
+      out.close();
+      if (out.checkError())
+        throw new IOException("write failed");
+    }
+    private PrintWriter out;
+    int nodes = 0, links = 0;
+  }
+  /** Collects a topology's columns in memory. */
+  private static class ColumnSink implements Sink {
+    ColumnSink(int nodes) {
+      nodeX = new double[nodes];
+      nodeY = new double[nodes];
+      int capacity = Math.max(16, nodes*2);
+      linkA = new int[capacity];
+      linkB = new int[capacity];
+      linkSpeed = new int[capacity];
+      linkLatency = new double[capacity];
+      linkCost = new int[capacity];
+    }
+    public void node(int index, double x, double y) {
+      nodeX[index] = x;
+      nodeY[index] = y;
+    }
+    public void link(int index, int a, int b, int speed, double latency,
+        int cost) {
+      if (links == linkA.length) {
+        int capacity = links*2;
+        linkA = copy(linkA, capacity);
+        linkB = copy(linkB, capacity);
+        linkSpeed = copy(linkSpeed, capacity);
+        linkCost = copy(linkCost, capacity);
+        double[] d = new double[capacity];
+        System.arraycopy(linkLatency, 0, d, 0, links);
+        linkLatency = d;
+      }
+      linkA[links] = a;
+      linkB[links] = b;
+      linkSpeed[links] = speed;
+      linkLatency[links] = latency;
+      linkCost[links] = cost;
+      links++;
+    }
+    /** Returns the topology collected, with its nodes and links named. */
+    Topology topology(String name) {
+      int n = nodeX.length;
+      String[] nodeNames = new String[n];
+      for (int i=0; i<n; i++)
+        nodeNames[i] = "n" + i;
+      String[] linkNames = new String[links];
+      for (int i=0; i<links; i++)
+        linkNames[i] = "l" + i;
+      double[] latency = new double[links];
+      System.arraycopy(linkLatency, 0, latency, 0, links);
+      return new Topology(name, nodeNames, nodeX, nodeY, linkNames,
+        copy(linkA, links), copy(linkB, links), copy(linkSpeed, links),
+        latency, copy(linkCost, links), new double[0], new int[0],
+        new boolean[0]);
+    }
+    /** Returns a copy of a column cut down or grown to a length. */
+    private static int[] copy(int[] a, int length) {
+      int[] c = new int[length];
+      System.arraycopy(a, 0, c, 0, Math.min(length, a.length));
+      return c;
+    }
+    private double[] nodeX, nodeY;
+    private int[] linkA, linkB, linkSpeed, linkCost;
+    private double[] linkLatency;
+    private int links = 0;
+  }
+
+  /** The family. */
+  private String family;
+  /** The parameters, by name. */
+  private Hashtable params;
+  /** The names of the parameters the family uses. */
+  private Set used = new HashSet();
+  /** The seed of the random numbers. */
+  private long seed;
+  /** The distributions of link speed, latency and cost. */
+  private Distribution speed, latency, cost;
+  /** The number of nodes. */
+  private int n;
+  /** The family's size parameters. */
+  private int width, height, k = 1, hosts;
+  /** Waxman's parameters. */
+  private double alpha, beta;
+  /** The number of links made so far. */
+  private int linkCount;
+}
@@ -0,0 +1,307 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.util.zip.CRC32;
+
+/** A compiled topology: the columns of a Topology written out as a binary
+*   image that can be loaded again through a read-only memory map, with no
+*   parsing at all.  Compile a .net file with
+*   <pre>
+*   java TopologyImage file.net [file.netc]
+*   </pre>
+*   and give the image to Network or Sweep in place of the .net file;
+*   Topology.read recognizes images by their header.
+*   The image holds the node labels and coordinates, the link endpoints,
+*   speeds, latencies and costs as arrays, the link labels, and the link
+*   events sorted by time (events with equal times keep their order in the
+*   file, so runs are unchanged).  A header gives the format version, the
+*   length and modification time of the .net file it was compiled from,
+*   and a CRC-32 of everything after the header.  An image with another
+*   version or a bad checksum is rejected, and so is one whose .net file
+*   has changed since it was compiled.
+*   @see Topology
+*/
+public class TopologyImage {
+  /** Compile a .net file into an image.
+  *   @param argv The .net file and, optionally, the image to write;
+  *   by default the .net file's name with "c" appended.
+  */
+  public static void main(String[] argv) {
+    if (argv.length < 1 || argv.length > 2) {
+      System.out.println("usage: java TopologyImage <file.net> [<image>]");
+      System.exit(-1);
+    }
+    String image = (argv.length == 2) ? argv[1] : argv[0] + "c";
+    Topology t = new TopologyLoader().load(argv[0]);
+    if (t == null)
+      System.exit(-1);
+    try {
+      long bytes = write(t, new File(argv[0]), image);
+      NumberFormat nf = NumberFormat.getInstance();
+      nf.setMaximumFractionDigits(2);
+      System.out.println(image + ": " + nf.format(bytes / 1e6) +
+        " MB written.");
+    }
+    catch (IOException e) {
+      System.out.println(image + ": " + e);
+      System.exit(-1);
+    }
+  }
+
+  /** Write a topology as an image.
+  *   @param t The topology.
+  *   @param source The .net file it was read from, or <b>null</b>; its
+  *   absolute path, length and modification time are recorded so that
+  *   the image can be recognized as stale from any directory.
+  *   @param filename The image file to write.
+  *   @return The length of the image, in bytes.
+  *   @exception java.io.IOException Thrown when the image cannot be
+  *   written.
+  */
+  public static long write(Topology t, File source, String filename)
+      throws IOException {
+    int n = t.getNodeCount(), m = t.getLinkCount(), k = t.getEventCount();
+    byte[][] names = new byte[n+m][];
+    int nameBytes = 0;
+    for (int i=0; i<n+m; i++) {
+      names[i] = TopologyLoader.utf8(i < n ? t.getNodeName(i) :
+        t.getLinkName(i-n));
+      nameBytes += names[i].length;
+    }
+    byte[] sourceName = TopologyLoader.utf8(source == null ? "" :
+      source.getAbsolutePath());
+    int[] order = sortedEvents(t);
+
+    long length = (long)HEADER + 8L*(2*n + m + k) + 4L*(4*m + k + n+m) +
+      k + nameBytes + sourceName.length;
+    if (length > Integer.MAX_VALUE)
+      throw new IOException("topology too large for an image");
+    ByteBuffer b = ByteBuffer.allocate((int)length);
+    b.position(HEADER);
+    for (int i=0; i<n; i++) b.putDouble(t.getNodeX(i));
+    for (int i=0; i<n; i++) b.putDouble(t.getNodeY(i));
+    for (int i=0; i<m; i++) b.putDouble(t.getLinkLatency(i));
+    for (int i=0; i<k; i++) b.putDouble(t.getEventTime(order[i]));
+    for (int i=0; i<m; i++) b.putInt(t.getLinkEndpointA(i));
+    for (int i=0; i<m; i++) b.putInt(t.getLinkEndpointB(i));
+    for (int i=0; i<m; i++) b.putInt(t.getLinkSpeed(i));
+    for (int i=0; i<m; i++) b.putInt(t.getLinkCost(i));
+    for (int i=0; i<k; i++) b.putInt(t.getEventLink(order[i]));
+    int end = 0;
+    for (int i=0; i<n+m; i++) {
+      end += names[i].length;
+      b.putInt(end);
+    }
+    for (int i=0; i<k; i++) b.put((byte)(t.getEventUp(order[i]) ? 1 : 0));
+    for (int i=0; i<n+m; i++) b.put(names[i]);
+    b.put(sourceName);
+
+    CRC32 crc = new CRC32();
+    crc.update(b.array(), HEADER, (int)length - HEADER);
+    b.position(0);
+    b.putInt(MAGIC);
+    b.putInt(VERSION);
+    b.putInt(n);
+    b.putInt(m);
+    b.putInt(k);
+    b.putInt(nameBytes);
+    b.putInt(sourceName.length);
+    b.putInt(0);  // reserved
+    b.putLong(source == null ? -1 : source.length());
+    b.putLong(source == null ? -1 : source.lastModified());
+    b.putLong(crc.getValue());
+
+    FileOutputStream out = new FileOutputStream(filename);
+    try {
+      out.write(b.array());
+    }
+    finally {
+      out.close();
+    }
+    return length;
+  }
+
+  /** Returns <b>true</b> if a file starts like an image.  Returns
+  *   <b>false</b> if it does not, or cannot be read.
+  */
+  public static boolean isImage(String filename) {
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(filename));
+      try {
+        return in.readInt() == MAGIC;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Load an image through a read-only memory map.  The columns are
+  *   copied out of the map in bulk; only the labels are decoded.
+  *   Problems are reported and the image rejected.
+  *   @param filename The image file.
+  *   @return The topology, or <b>null</b> if the image cannot be used.
+  */
+  public static Topology read(String filename) {
+    long start = System.nanoTime();
+    MappedByteBuffer b;
+    try {
+      FileChannel channel = new RandomAccessFile(filename, "r").getChannel();
+      try {
+        if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+          System.out.println(filename + ": not a topology image");
+          return null;
+        }
+        b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      finally {
+        channel.close();  // the mapping stays valid
+      }
+    }
+    catch (FileNotFoundException e) {
+      System.out.println(filename + ": file not found");
+      return null;
+    }
+    catch (IOException e) {
+      System.out.println(filename + ": " + e);
+      return null;
+    }
+
+    if (b.getInt(0) != MAGIC) {
+      System.out.println(filename + ": not a topology image");
+      return null;
+    }
+    if (b.getInt(4) != VERSION) {
+      System.out.println(filename + ": image version " + b.getInt(4) +
+        ", expected " + VERSION + "; compile it again");
+      return null;
+    }
+    int n = b.getInt(8), m = b.getInt(12), k = b.getInt(16);
+    int nameBytes = b.getInt(20), sourceNameLength = b.getInt(24);
+    long sourceLength = b.getLong(32), sourceModified = b.getLong(40);
+    long checksum = b.getLong(48);
+    long length = (long)HEADER + 8L*(2*n + m + k) + 4L*(4*m + k + n+m) +
+      k + nameBytes + sourceNameLength;
+    if (n < 0 || m < 0 || k < 0 || nameBytes < 0 || sourceNameLength < 0 ||
+        length != b.capacity()) {
+      System.out.println(filename + ": image is truncated or corrupt");
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    b.position(HEADER);
+    crc.update(b);
+    if (crc.getValue() != checksum) {
+      System.out.println(filename + ": image checksum mismatch; " +
+        "compile it again");
+      return null;
+    }
+
+    b.position(HEADER);
+    double[] nodeX = new double[n], nodeY = new double[n];
+    double[] linkLatency = new double[m], eventTime = new double[k];
+    b.asDoubleBuffer().get(nodeX).get(nodeY).get(linkLatency).get(eventTime);
+    b.position(b.position() + 8*(2*n + m + k));
+    int[] linkA = new int[m], linkB = new int[m], linkSpeed = new int[m];
+    int[] linkCost = new int[m], eventLink = new int[k];
+    int[] nameEnds = new int[n+m];
+    b.asIntBuffer().get(linkA).get(linkB).get(linkSpeed).get(linkCost)
+      .get(eventLink).get(nameEnds);
+    b.position(b.position() + 4*(4*m + k + n+m));
+    byte[] up = new byte[k];
+    b.get(up);
+    byte[] names = new byte[nameBytes];
+    b.get(names);
+    byte[] sourceName = new byte[sourceNameLength];
+    b.get(sourceName);
+
+    // Reject the image if its .net file has changed since.
+    if (sourceNameLength > 0) {
+      File source = new File(new String(sourceName, StandardCharsets.UTF_8));
+      if (!source.exists())
+        System.out.println(filename + ": " + source + " is missing; " +
+          "cannot tell whether the image is stale");
+      else if (source.length() != sourceLength ||
+          source.lastModified() != sourceModified) {
+        System.out.println(filename + ": image is stale; " + source +
+          " has changed since it was compiled");
+        return null;
+      }
+    }
+    boolean[] eventUp = new boolean[k];
+    for (int i=0; i<k; i++)
+      eventUp[i] = (up[i] != 0);
+    String[] nodeNames = new String[n], linkNames = new String[m];
+    int from = 0;
+    for (int i=0; i<n+m; i++) {
+      if (nameEnds[i] < from || nameEnds[i] > nameBytes) {
+        System.out.println(filename + ": image is corrupt");
+        return null;
+      }
+      String s = TopologyLoader.decode(names, from, nameEnds[i]);
+      if (i < n)
+        nodeNames[i] = s;
+      else
+        linkNames[i-n] = s;
+      from = nameEnds[i];
+    }
+    for (int i=0; i<m; i++)
+      if (linkA[i] < 0 || linkA[i] >= n || linkB[i] < 0 || linkB[i] >= n) {
+        System.out.println(filename + ": image is corrupt");
+        return null;
+      }
+    for (int i=0; i<k; i++)
+      if (eventLink[i] < 0 || eventLink[i] >= m) {
+        System.out.println(filename + ": image is corrupt");
+        return null;
+      }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(n + " nodes read.");
+    System.out.println(m + " links read.");
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(2);
+    System.out.println(filename + ": " + nf.format(length / 1e6) +
+      " MB image in " + nf.format(seconds) + " sec");
+    return new Topology(filename, nodeNames, nodeX, nodeY, linkNames, linkA,
+      linkB, linkSpeed, linkLatency, linkCost, eventTime, eventLink, eventUp);
+  }
+
+  /** Returns the indices of a topology's events, sorted by time; events
+  *   with equal times stay in their original order.
+  */
+  private static int[] sortedEvents(Topology t) {
+    int k = t.getEventCount();
+    Integer[] order = new Integer[k];
+    for (int i=0; i<k; i++)
+      order[i] = Integer.valueOf(i);
+    final Topology topology = t;
+    java.util.Arrays.sort(order, new java.util.Comparator() {
+      public int compare(Object a, Object b) {
+        double ta = topology.getEventTime(((Integer)a).intValue());
+        double tb = topology.getEventTime(((Integer)b).intValue());
+        return (ta < tb) ? -1 : (ta > tb) ? 1 : 0;
+      }
+    });
+    int[] result = new int[k];
+    for (int i=0; i<k; i++)
+      result[i] = order[i].intValue();
+    return result;
+  }
+
+  /** The first four bytes of every image: "RSTI". */
+  private static final int MAGIC = 0x52535449;
+  /** The version of the image format. */
+  private static final int VERSION = 1;
+  /** The length of the header, in bytes.  The header holds the magic
+  *   number, version, node, link and event counts, the lengths of the
+  *   labels and of the source file name, a reserved word, the source's
+  *   length and modification time, and the checksum.
+  */
+  private static final int HEADER = 64;
+}
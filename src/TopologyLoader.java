@@ -0,0 +1,673 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+
+/** A fast reader for .net files.  The file is read through a large NIO
+*   buffer and every line is tokenized in place: tokens are byte ranges of
+*   the buffer, numbers are parsed straight from the bytes, and node and
+*   link labels are looked up in open-addressing tables keyed by their
+*   bytes.  The only Strings made are the labels kept in the Topology, one
+*   per node and link, and the messages for bad lines, which are the same
+*   as they have always been.
+*   Numbers in the usual forms ("57600", "-3", "0.01") are parsed
+*   directly; any other form goes to Integer.parseInt or Double.valueOf,
+*   so every number means exactly what it did before.
+*   @see Topology
+*/
+public class TopologyLoader {
+  /** Create a loader for a new topology. */
+  public TopologyLoader() {
+    this(null);
+  }
+  /** Create a loader that adds to an existing topology.
+  *   @param base The topology to add to, or <b>null</b>.
+  */
+  public TopologyLoader(Topology base) {
+    this.base = base;
+  }
+  /** Report the size of each file read, and how fast it was read.  Off
+  *   by default, so that tools reading many files stay quiet.
+  */
+  public void setReportThroughput(boolean report) {
+    reportThroughput = report;
+  }
+
+  /** Read a topology file.  Errors on individual lines are reported and
+  *   the lines skipped.  Reports the load throughput when done, if
+  *   asked to; see setReportThroughput.
+  *   @param filename The name of the file, typically ending in ".net"
+  *   @return The topology, or <b>null</b> if the file could not be found.
+  */
+  public Topology load(String filename) {
+    FileInputStream in;
+    try {
+      in = new FileInputStream(filename);
+    }
+    catch (FileNotFoundException e) {
+      System.out.println(filename + ": file not found");
+      return null;
+    }
+    this.filename = filename;
+    long start = System.nanoTime();
+    long size = 0;
+    line = 0;
+    try {
+      try {
+        FileChannel channel = in.getChannel();
+        size = channel.size();
+        start(size);
+        byte[] buf = new byte[(int)Math.max(MIN_BUFFER,
+          Math.min(size+1, BUFFER))];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        boolean skipLF = false;
+        while (true) {
+          int n = channel.read(bb);
+          int limit = bb.position();
+          if (n == -1) {
+            if (limit > 0) {
+              line++;
+              parseLine(buf, 0, limit);
+            }
+            break;
+          }
+          // Parse every complete line in the buffer.  A line ends at "\n",
+          // "\r" or "\r\n", as with BufferedReader.readLine.
+          int pos = 0;
+          while (true) {
+            if (skipLF) {
+              if (pos == limit)
+                break;
+              if (buf[pos] == '\n')
+                pos++;
+              skipLF = false;
+            }
+            int end = pos;
+            while (end < limit && buf[end] != '\n' && buf[end] != '\r')
+              end++;
+            if (end == limit)
+              break;
+            line++;
+            parseLine(buf, pos, end);
+            skipLF = (buf[end] == '\r');
+            pos = end+1;
+          }
+          // Keep the partial last line for the next read.
+          System.arraycopy(buf, pos, buf, 0, limit-pos);
+          bb.position(limit-pos);
+          if (pos == 0 && limit == buf.length) {
+            byte[] bigger = new byte[buf.length*2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+            bb = ByteBuffer.wrap(buf);
+            bb.position(limit);
+          }
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      System.out.println(filename + ":" + line + ": " + e);
+    }
+    Topology t = finish();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(t.getNodeCount() + " nodes read.");
+    System.out.println(t.getLinkCount() + " links read.");
+    if (reportThroughput) {
+      NumberFormat nf = NumberFormat.getInstance();
+      nf.setMaximumFractionDigits(2);
+      System.out.println(filename + ": " + nf.format(size / 1e6) +
+        " MB in " + nf.format(seconds) + " sec (" + (seconds > 0 ?
+          nf.format(size / 1e6 / seconds) : "n/a") + " MB/sec)");
+    }
+    return t;
+  }
+
+  /** Set up the tables, sized for a file of the given length but no
+  *   larger than INITIAL_ROWS, and fill them with the base topology.
+  *   They grow by doubling as they fill.
+  */
+  private void start(long fileSize) {
+    int expected = (int)Math.min(Math.max(fileSize / BYTES_PER_LINE, 16),
+      INITIAL_ROWS);
+    int baseNodes = (base == null) ? 0 : base.getNodeCount();
+    int baseLinks = (base == null) ? 0 : base.getLinkCount();
+    nodes = new LabelTable(baseNodes + expected);
+    nodeX = new double[baseNodes + expected];
+    nodeY = new double[baseNodes + expected];
+    links = new LabelTable(baseLinks + expected);
+    linkA = new int[baseLinks + expected];
+    linkB = new int[baseLinks + expected];
+    linkSpeed = new int[baseLinks + expected];
+    linkLatency = new double[baseLinks + expected];
+    linkCost = new int[baseLinks + expected];
+    eventTime = new double[16];
+    eventLink = new int[16];
+    eventUp = new boolean[16];
+    events = 0;
+    if (base == null)
+      return;
+    for (int i=0; i<baseNodes; i++) {
+      byte[] b = utf8(base.getNodeName(i));
+      addNode(b, 0, b.length, base.getNodeX(i), base.getNodeY(i));
+    }
+    for (int i=0; i<baseLinks; i++) {
+      byte[] b = utf8(base.getLinkName(i));
+      addLink(b, 0, b.length, base.getLinkEndpointA(i),
+        base.getLinkEndpointB(i), base.getLinkSpeed(i),
+        base.getLinkLatency(i), base.getLinkCost(i));
+    }
+    for (int i=0; i<base.getEventCount(); i++)
+      addEvent(base.getEventTime(i), base.getEventLink(i),
+        base.getEventUp(i));
+  }
+  /** Freeze what has been read into a Topology. */
+  private Topology finish() {
+    int n = nodes.size();
+    String[] nodeNames = new String[n];
+    for (int i=0; i<n; i++)
+      nodeNames[i] = nodes.name(i);
+    int m = links.size();
+    String[] linkNames = new String[m];
+    for (int i=0; i<m; i++)
+      linkNames[i] = links.name(i);
+    return new Topology(filename, nodeNames, trim(nodeX, n), trim(nodeY, n),
+      linkNames, trim(linkA, m), trim(linkB, m), trim(linkSpeed, m),
+      trim(linkLatency, m), trim(linkCost, m), trim(eventTime, events),
+      trim(eventLink, events), trim(eventUp, events));
+  }
+
+  /** Split a line into tokens and run its command.
+  *   @param b The buffer holding the line.
+  *   @param from The offset of the line's first byte.
+  *   @param to The offset just past the line's last byte.
+  */
+  private void parseLine(byte[] b, int from, int to) {
+    for (int i=from; i<to; i++)
+      if (b[i] == '#') {
+        to = i;
+        break;
+      }
+    tokens = 0;
+    int i = from;
+    while (true) {
+      while (i < to && isSpace(b[i]))
+        i++;
+      if (i == to)
+        break;
+      int start = i;
+      while (i < to && !isSpace(b[i]))
+        i++;
+      if (tokens < MAX_TOKENS) {
+        tokenStart[tokens] = start;
+        tokenEnd[tokens] = i;
+      }
+      tokens++;
+    }
+    if (tokens == 0)
+      return;
+    this.b = b;
+    int used;
+    try {
+      if (tokenIs(0, "node"))
+        used = cmdNode();
+      else if (tokenIs(0, "link"))
+        used = cmdLink();
+      else if (tokenIs(0, "event"))
+        used = cmdEvent();
+      else {
+        System.out.println(filename + ":" + line +
+          ": unknown command: " + token(0));
+        return;
+      }
+      if (tokens > used)
+        System.out.println(filename + ":" + line +
+          ": extra argument(s) ignored");
+    }
+    catch (NumberFormatException e) {
+      System.out.println(filename + ":" + line + ": " + e);
+    }
+    catch (NoSuchNodeException e) {
+      System.out.println(filename + ":" + line + ": " + e);
+    }
+    catch (NoSuchLinkException e) {
+      System.out.println(filename + ":" + line + ": " + e);
+    }
+    catch (MissingArgument e) {
+      System.out.println(filename + ":" + line +
+        ": missing argument(s) to " + token(0));
+    }
+  }
+  /** Process a "node" command.
+  *   @return The number of tokens used.
+  *   @exception java.lang.NumberFormatException Thrown when a coordinate
+  *   contains an invalid number.
+  */
+  private int cmdNode() throws MissingArgument {
+    need(1);
+    need(2);
+    double x = parseDouble(2);
+    need(3);
+    double y = parseDouble(3);
+    addNode(b, tokenStart[1], tokenEnd[1], x, y);
+    return 4;
+  }
+  /** Process a "link" command.
+  *   @return The number of tokens used.
+  *   @exception NoSuchNodeException Thrown when a link description
+  *   references a node that has not been defined.
+  *   @exception java.lang.NumberFormatException Thrown when a numeric
+  *   field (i.e., bandwidth or latency) contains an invalid number.
+  */
+  private int cmdLink() throws MissingArgument, NoSuchNodeException {
+    need(1);
+    need(2);
+    need(3);
+    int a = nodes.get(b, tokenStart[2], tokenEnd[2]);
+    if (a == -1)
+      throw new NoSuchNodeException(token(2));
+    int bb = nodes.get(b, tokenStart[3], tokenEnd[3]);
+    if (bb == -1)
+      throw new NoSuchNodeException(token(3));
+    need(4);
+    int speed = parseInt(4);
+    need(5);
+    double latency = parseDouble(5);
+    int cost = (tokens > 6) ? parseInt(6) : 1;
+    addLink(b, tokenStart[1], tokenEnd[1], a, bb, speed, latency, cost);
+    return (tokens > 6) ? 7 : 6;
+  }
+  /** Process an "event" command.
+  *   @return The number of tokens used.
+  *   @exception NoSuchLinkException Thrown when an event description
+  *   references a link that has not been defined.
+  */
+  private int cmdEvent() throws MissingArgument, NoSuchLinkException {
+    need(1);
+    need(2);
+    if (!tokenIs(2, "state")) {
+      System.out.println("Unknown event type: " + token(2));
+      return 3;
+    }
+    need(3);
+    int link = links.get(b, tokenStart[3], tokenEnd[3]);
+    if (link == -1)
+      throw new NoSuchLinkException(token(3));
+    need(4);
+    addEvent(parseDouble(1), link, tokenIs(4, "up"));
+    return 5;
+  }
+
+  /** Add a node, or give an existing label the next index, and grow the
+  *   coordinate columns if they are full.
+  *   @param b The buffer holding the label, from <i>from</i> up to
+  *   <i>to</i>.
+  */
+  private void addNode(byte[] b, int from, int to, double x, double y) {
+    int i = nodes.add(b, from, to);
+    if (i == nodeX.length) {
+      nodeX = grow(nodeX);
+      nodeY = grow(nodeY);
+    }
+    nodeX[i] = x;
+    nodeY[i] = y;
+  }
+  /** Add a link, or give an existing label the next index, and grow the
+  *   link columns if they are full.
+  *   @param b The buffer holding the label, from <i>from</i> up to
+  *   <i>to</i>.
+  *   @param a The index of one endpoint.
+  *   @param bb The index of the other endpoint.
+  */
+  private void addLink(byte[] b, int from, int to, int a, int bb,
+      int speed, double latency, int cost) {
+    int i = links.add(b, from, to);
+    if (i == linkA.length) {
+      linkA = grow(linkA);
+      linkB = grow(linkB);
+      linkSpeed = grow(linkSpeed);
+      linkLatency = grow(linkLatency);
+      linkCost = grow(linkCost);
+    }
+    linkA[i] = a;
+    linkB[i] = bb;
+    linkSpeed[i] = speed;
+    linkLatency[i] = latency;
+    linkCost[i] = cost;
+  }
+  /** Add a link event, growing the event columns if they are full. */
+  private void addEvent(double time, int link, boolean up) {
+    if (events == eventTime.length) {
+      eventTime = grow(eventTime);
+      eventLink = grow(eventLink);
+      boolean[] a = new boolean[eventUp.length*2];
+      System.arraycopy(eventUp, 0, a, 0, events);
+      eventUp = a;
+    }
+    eventTime[events] = time;
+    eventLink[events] = link;
+    eventUp[events] = up;
+    events++;
+  }
+
+  /** Throw MissingArgument unless the line has token number i. */
+  private void need(int i) throws MissingArgument {
+    if (i >= tokens)
+      throw MISSING;
+  }
+  /** Returns <b>true</b> if token i is the given word, ignoring case. */
+  private boolean tokenIs(int i, String word) {
+    int start = tokenStart[i];
+    if (tokenEnd[i] - start != word.length())
+      return false;
+    for (int j=0; j<word.length(); j++) {
+      int c = b[start+j];
+      if (c >= 'A' && c <= 'Z')
+        c += 'a' - 'A';
+      if (c != word.charAt(j))
+        return false;
+    }
+    return true;
+  }
+  /** Returns token i as a String, for messages and fallbacks. */
+  private String token(int i) {
+    return decode(b, tokenStart[i], tokenEnd[i]);
+  }
+  /** Parse token i as an int, exactly as Integer.parseInt does. */
+  private int parseInt(int i) {
+    int p = tokenStart[i], end = tokenEnd[i];
+    boolean negative = false;
+    if (b[p] == '-' || b[p] == '+') {
+      negative = (b[p] == '-');
+      p++;
+    }
+    if (p == end || end - p > 10)
+      return Integer.parseInt(token(i));
+    long v = 0;
+    for (; p<end; p++) {
+      int d = b[p] - '0';
+      if (d < 0 || d > 9)
+        return Integer.parseInt(token(i));
+      v = v*10 + d;
+    }
+    if (negative)
+      v = -v;
+    if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+      return Integer.parseInt(token(i));
+    return (int)v;
+  }
+  /** Parse token i as a double, exactly as Double.valueOf does.  A plain
+  *   decimal whose digits, taken as an integer, are at most 2^53, with at
+  *   most 22 of them after the point, is one exact integer divided by one
+  *   exact power of ten, which IEEE division rounds correctly.
+  */
+  private double parseDouble(int i) {
+    int p = tokenStart[i], end = tokenEnd[i];
+    boolean negative = false;
+    if (b[p] == '-' || b[p] == '+') {
+      negative = (b[p] == '-');
+      p++;
+    }
+    long m = 0;
+    int digits = 0, fraction = 0;
+    boolean point = false;
+    for (; p<end; p++) {
+      int d = b[p] - '0';
+      if (d >= 0 && d <= 9) {
+        m = m*10 + d;
+        if (m > MAX_EXACT)
+          return Double.valueOf(token(i)).doubleValue();
+        digits++;
+        if (point)
+          fraction++;
+      }
+      else if (b[p] == '.' && !point)
+        point = true;
+      else
+        return Double.valueOf(token(i)).doubleValue();
+    }
+    if (digits == 0 || fraction >= POWERS_OF_TEN.length)
+      return Double.valueOf(token(i)).doubleValue();
+    double v = m / POWERS_OF_TEN[fraction];
+    return negative ? -v : v;
+  }
+
+  /** Returns <b>true</b> for the bytes that separate tokens. */
+  private static boolean isSpace(byte c) {
+    return c >= 0 && c <= ' ';
+  }
+  /** Returns the given bytes as a String. */
+  static String decode(byte[] b, int from, int to) {
+    return new String(b, from, to-from, StandardCharsets.UTF_8);
+  }
+  /** Returns a String as bytes. */
+  static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+  /** Returns a copy of a column with twice the room (at least 16). */
+  private static int[] grow(int[] a) {
+    int[] c = new int[Math.max(16, a.length*2)];
+    System.arraycopy(a, 0, c, 0, a.length);
+    return c;
+  }
+  /** Returns a copy of a column with twice the room (at least 16). */
+  private static double[] grow(double[] a) {
+    double[] c = new double[Math.max(16, a.length*2)];
+    System.arraycopy(a, 0, c, 0, a.length);
+    return c;
+  }
+  /** Returns a column cut down to its first n entries, or the column
+  *   itself if it holds exactly that many.
+  */
+  private static int[] trim(int[] a, int n) {
+    if (a.length == n)
+      return a;
+    int[] c = new int[n];
+    System.arraycopy(a, 0, c, 0, n);
+    return c;
+  }
+  /** Returns a column cut down to its first n entries, or the column
+  *   itself if it holds exactly that many.
+  */
+  private static double[] trim(double[] a, int n) {
+    if (a.length == n)
+      return a;
+    double[] c = new double[n];
+    System.arraycopy(a, 0, c, 0, n);
+    return c;
+  }
+  /** Returns a column cut down to its first n entries, or the column
+  *   itself if it holds exactly that many.
+  */
+  private static boolean[] trim(boolean[] a, int n) {
+    if (a.length == n)
+      return a;
+    boolean[] c = new boolean[n];
+    System.arraycopy(a, 0, c, 0, n);
+    return c;
+  }
+
+  /** An open-addressing hash table from labels, kept as UTF-8 bytes, to
+  *   the dense indices of the nodes or links they label.  Adding a label
+  *   that is already present gives it the new index, as Hashtable.put
+  *   did; every index keeps its own copy of its label's bytes.
+  *   Each slot's hash sits next to its index, and each label's start
+  *   next to its length, so that a lookup in a large table touches as few
+  *   cache lines as possible.
+  */
+  private static class LabelTable {
+    /** Create a table with room for the given number of labels. */
+    LabelTable(int expected) {
+      int capacity = 16;
+      while (capacity < expected*2)
+        capacity *= 2;
+      slots = new int[capacity*2];
+      keys = new int[Math.max(16, expected)*2];
+      bytes = new byte[Math.max(64, expected*8)];
+    }
+    /** Returns the number of indices given out. */
+    int size() {
+      return size;
+    }
+    /** Returns the index of a label, or -1. */
+    int get(byte[] b, int from, int to) {
+      return slots[find(b, from, to, hash(b, from, to)) + 1] - 1;
+    }
+    /** Give a label the next index, and return it. */
+    int add(byte[] b, int from, int to) {
+      int index = size++;
+      int length = to - from;
+      if (index*2 == keys.length)
+        keys = grow(keys);
+      if (used + length > bytes.length) {
+        byte[] c = new byte[Math.max(bytes.length*2, used + length)];
+        System.arraycopy(bytes, 0, c, 0, used);
+        bytes = c;
+      }
+      System.arraycopy(b, from, bytes, used, length);
+      keys[index*2] = used;
+      keys[index*2+1] = length;
+      used += length;
+      int h = hash(b, from, to);
+      int slot = find(b, from, to, h);
+      if (slots[slot+1] == 0) {
+        slots[slot] = h;
+        labels++;
+      }
+      slots[slot+1] = index+1;
+      if (labels*4 > slots.length)
+        rehash();
+      return index;
+    }
+    /** Returns the label of an index. */
+    String name(int index) {
+      return decode(bytes, keys[index*2], keys[index*2] + keys[index*2+1]);
+    }
+    /** Returns the offset in slots of the slot holding a label, or of the
+    *   empty slot where it belongs.
+    */
+    private int find(byte[] b, int from, int to, int h) {
+      int mask = slots.length-1;
+      int slot = (h*2) & mask;
+      while (true) {
+        int s = slots[slot+1];
+        if (s == 0 || (slots[slot] == h && equal(s-1, b, from, to)))
+          return slot;
+        slot = (slot+2) & mask;
+      }
+    }
+    /** Returns <b>true</b> if an index's label is the given bytes. */
+    private boolean equal(int index, byte[] b, int from, int to) {
+      int length = to - from;
+      if (keys[index*2+1] != length)
+        return false;
+      int k = keys[index*2];
+      for (int i=0; i<length; i++)
+        if (bytes[k+i] != b[from+i])
+          return false;
+      return true;
+    }
+    /** Double the number of slots. */
+    private void rehash() {
+      int[] old = slots;
+      slots = new int[old.length*2];
+      int mask = slots.length-1;
+      for (int i=0; i<old.length; i+=2)
+        if (old[i+1] != 0) {
+          int slot = (old[i]*2) & mask;
+          while (slots[slot+1] != 0)
+            slot = (slot+2) & mask;
+          slots[slot] = old[i];
+          slots[slot+1] = old[i+1];
+        }
+    }
+    private static int hash(byte[] b, int from, int to) {
+      int h = 0;
+      for (int i=from; i<to; i++)
+        h = 31*h + b[i];
+      // Mix the bits, as labels often differ only in their last digits.
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      return h ^ (h >>> 16);
+    }
+
+    /** Pairs of (hash, index plus one); an index of 0 marks an empty
+    *   slot.
+    */
+    private int[] slots;
+    /** Pairs of (start, length) locating each index's label in bytes. */
+    private int[] keys;
+    /** The labels of all indices, end to end. */
+    private byte[] bytes;
+    /** The number of bytes in use. */
+    private int used = 0;
+    /** The number of indices given out. */
+    private int size = 0;
+    /** The number of distinct labels. */
+    private int labels = 0;
+  }
+
+  /** Thrown when a line has too few tokens.  One instance is reused, as
+  *   it carries no information.
+  */
+  private static class MissingArgument extends Exception {
+    MissingArgument() {
+      super(null, null, false, false);
+    }
+  }
+
+  /** The loader's buffer size. */
+  private static final int BUFFER = 1 << 22;
+  /** The smallest buffer used, even for tiny files. */
+  private static final int MIN_BUFFER = 1 << 12;
+  /** A guess at the length of an average line, to size the tables. */
+  private static final int BYTES_PER_LINE = 32;
+  /** The most rows the node and link tables start with, whatever the size
+  *   of the file: a large file's lines are not all nodes, nor all links.
+  */
+  private static final int INITIAL_ROWS = 1 << 16;
+  /** The most tokens kept for a line; further tokens are only counted. */
+  private static final int MAX_TOKENS = 8;
+  /** The largest mantissa for which a double is exact. */
+  private static final long MAX_EXACT = 1L << 53;
+  /** The powers of ten that are exact doubles. */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+    1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+  private static final MissingArgument MISSING = new MissingArgument();
+  /** The topology added to, or <b>null</b>. */
+  private Topology base;
+  /** <b>true</b> if load() reports its throughput. */
+  private boolean reportThroughput;
+  /** The name of the file being read. */
+  private String filename;
+  /** The number of the line being parsed. */
+  private int line;
+  /** The buffer holding the line being parsed. */
+  private byte[] b;
+  /** The number of tokens on the line. */
+  private int tokens;
+  /** Where each token starts and ends in the buffer. */
+  private int[] tokenStart = new int[MAX_TOKENS],
+    tokenEnd = new int[MAX_TOKENS];
+  /** The nodes' labels. */
+  private LabelTable nodes;
+  /** The nodes' coordinates. */
+  private double[] nodeX, nodeY;
+  /** The links' labels. */
+  private LabelTable links;
+  /** The links' columns; see Topology. */
+  private int[] linkA, linkB, linkSpeed, linkCost;
+  private double[] linkLatency;
+  /** The link events' columns; see Topology. */
+  private double[] eventTime;
+  private int[] eventLink;
+  private boolean[] eventUp;
+  /** The number of link events. */
+  private int events;
+}
@@ -0,0 +1,454 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Vector;
+
+/** Studies a trace written by EventTrace, without running the simulation
+*   again.  Run as
+*   <pre>
+*   java TraceAnalyzer [-top n] [-buckets n] [-node name]...
+*                      [-link name]... trace
+*   </pre>
+*   where "trace" is the name given to "-trace", without a segment
+*   number.  It prints the records of each type; the convergence of each
+*   epoch, as Simulation's summary does, from the link events and routing
+*   changes in the trace; the "-top" nodes that sent the most packets (10
+*   by default) and the links that carried the most; and a timeline of
+*   the packets each of those nodes and links sent, in "-buckets" equal
+*   slices of the trace (20 by default).  With "-node" or "-link", the
+*   timelines are of the nodes and links named instead.
+*   <p>
+*   The segments are mapped into memory one at a time and read twice:
+*   once for the counts, and once for the timelines, whose slices depend
+*   on the trace's length.
+*   @see EventTrace
+*/
+public class TraceAnalyzer {
+  /** Analyze a trace.
+  *   @param argv Command-line arguments; see above.
+  */
+  public static void main(String[] argv) {
+    int top = 10;
+    int buckets = 20;
+    Vector nodeNames = new Vector();
+    Vector linkNames = new Vector();
+    int arg = 0;
+    while (arg < argv.length && argv[arg].startsWith("-")) {
+      if (argv[arg].equals("-top") && arg+1 < argv.length)
+        top = Integer.parseInt(argv[++arg]);
+      else if (argv[arg].equals("-buckets") && arg+1 < argv.length)
+        buckets = Integer.parseInt(argv[++arg]);
+      else if (argv[arg].equals("-node") && arg+1 < argv.length)
+        nodeNames.addElement(argv[++arg]);
+      else if (argv[arg].equals("-link") && arg+1 < argv.length)
+        linkNames.addElement(argv[++arg]);
+      else {
+        System.out.println("unknown option: " + argv[arg]);
+        usage();
+      }
+      arg++;
+    }
+    if (arg != argv.length-1 || top < 0 || buckets < 1)
+      usage();
+    try {
+      TraceAnalyzer a = new TraceAnalyzer(argv[arg]);
+      a.count();
+      a.printCounts();
+      a.printConvergence();
+      int[] nodes = a.select(nodeNames, a.nodeNames, a.nodeSent, top);
+      int[] links = a.select(linkNames, a.linkNames, a.linkSent, top);
+      a.printTopTalkers(nodes, links, nodeNames.isEmpty(),
+        linkNames.isEmpty());
+      a.printTimelines(nodes, links, buckets);
+    }
+    catch (IOException e) {
+      System.out.println(e.getMessage());
+      System.exit(-1);
+    }
+    catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      System.exit(-1);
+    }
+  }
+  /** Print a usage message and exit. */
+  private static void usage() {
+    System.out.println("usage: java TraceAnalyzer [-top n] [-buckets n] " +
+      "[-node name]... [-link name]... <trace>");
+    System.exit(-1);
+  }
+
+  /** Read the topology from the first segment of a trace.
+  *   @param name The name of the trace.
+  *   @exception java.io.IOException Thrown when the trace cannot be read
+  *   or is not a trace.
+  */
+  public TraceAnalyzer(String name) throws IOException {
+    this.name = name;
+    MappedByteBuffer b = map(0);
+    nodeNames = new String[b.getInt()];
+    for (int i=0; i<nodeNames.length; i++)
+      nodeNames[i] = getUTF(b);
+    linkNames = new String[b.getInt()];
+    linkA = new int[linkNames.length];
+    linkB = new int[linkNames.length];
+    for (int i=0; i<linkNames.length; i++) {
+      linkNames[i] = getUTF(b);
+      linkA[i] = b.getInt();
+      linkB[i] = b.getInt();
+    }
+    topologyEnd = b.position();
+    while (new File(EventTrace.segmentName(name, segments)).exists())
+      segments++;
+    int n = nodeNames.length, m = linkNames.length;
+    nodeSent = new long[n];
+    nodeBytes = new long[n];
+    nodeReceived = new long[n];
+    nodeChanges = new long[n];
+    linkSent = new long[m];
+    linkBytes = new long[m];
+    linkForward = new long[m];
+    linkDropped = new long[m];
+    typeCounts = new long[TYPE_NAMES.length];
+    epochStart = new double[16];
+    epochTrigger = new String[16];
+    epochChange = new double[16];
+    epochStartPackets = new long[16];
+    epochPackets = new long[16];
+  }
+
+  /** Read every record, counting them by type, node and link, and
+  *   following the convergence of each epoch.
+  */
+  public void count() throws IOException {
+    boolean pending = false;
+    long sent = 0;
+    for (int s=0; s<segments; s++) {
+      MappedByteBuffer b = map(s);
+      if (s == 0)
+        b.position(topologyEnd);
+      while (b.remaining() >= recordSize) {
+        int p = b.position();
+        int type = b.get(p + 8);
+        if (type == EventTrace.END)
+          break;
+        if (type < 0 || type >= TYPE_NAMES.length)
+          throw new IOException(EventTrace.segmentName(name, s) +
+            ": bad record type " + type + " at " + p);
+        double time = b.getDouble(p);
+        int source = b.getInt(p + 12), dest = b.getInt(p + 16);
+        int link = b.getInt(p + 20), length = b.getInt(p + 24);
+        b.position(p + recordSize + b.getShort(p + 10));
+        if (records++ == 0) {
+          startTime = time;
+          openEpoch(time == 0 ? "boot" : "start of trace", time, 0);
+        }
+        endTime = time;
+        typeCounts[type]++;
+        if (pending && time > epochChange[epochs-1]) {
+          epochPackets[epochs-1] = sent - epochStartPackets[epochs-1];
+          pending = false;
+        }
+        switch (type) {
+        case EventTrace.SEND:
+          sent++;
+          nodeSent[source]++;
+          nodeBytes[source] += length;
+          linkSent[link]++;
+          linkBytes[link] += length;
+          if (source == linkA[link])
+            linkForward[link]++;
+          break;
+        case EventTrace.RECEIVE:
+          nodeReceived[dest]++;
+          break;
+        case EventTrace.DROP_DOWN:
+        case EventTrace.DROP_QUEUE:
+          linkDropped[link]++;
+          break;
+        case EventTrace.LINK_UP:
+        case EventTrace.LINK_DOWN:
+          String what = linkNames[link] +
+            (type == EventTrace.LINK_UP ? " up" : " down");
+          // Link events at the same time make one epoch, as in
+          // ConvergenceTracker.
+          if (epochs > 1 && epochStart[epochs-1] == time)
+            epochTrigger[epochs-1] += ", " + what;
+          else {
+            if (pending)
+              epochPackets[epochs-1] = sent - epochStartPackets[epochs-1];
+            pending = false;
+            openEpoch(what, time, sent);
+          }
+          break;
+        case EventTrace.ROUTE_CHANGE:
+          nodeChanges[source]++;
+          epochChange[epochs-1] = time;
+          pending = true;
+          break;
+        }
+      }
+    }
+    if (pending)
+      epochPackets[epochs-1] = sent - epochStartPackets[epochs-1];
+  }
+
+  /** Print the trace's size and time span, and its records by type. */
+  public void printCounts() {
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(5);
+    System.out.println("Trace " + name + ": " + segments +
+      (segments == 1 ? " segment, " : " segments, ") + records +
+      " records, " + nodeNames.length + " nodes, " + linkNames.length +
+      " links, snap length " + snapLength);
+    System.out.println("Time: " + nf.format(startTime) + " to " +
+      nf.format(endTime) + " sec");
+    StringBuffer line = new StringBuffer("Records:");
+    for (int t=1; t<TYPE_NAMES.length; t++)
+      line.append(t == 1 ? " " : ", ").append(typeCounts[t]).append(' ')
+        .append(TYPE_NAMES[t]);
+    System.out.println(line);
+  }
+  /** Print the convergence of each epoch, as Simulation.printSummary
+  *   does.
+  */
+  public void printConvergence() {
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(5);
+    for (int i=0; i<epochs; i++) {
+      System.out.print("Epoch " + i + ": " + epochTrigger[i] + " at " +
+        nf.format(epochStart[i]) + " sec, ");
+      if (epochChange[i] >= epochStart[i])
+        System.out.println("converged after " +
+          nf.format(epochChange[i] - epochStart[i]) + " sec and " +
+          epochPackets[i] + " packets");
+      else
+        System.out.println("no routing changes");
+    }
+  }
+  /** Print the packets and bytes sent by some nodes and over some links.
+  *   @param nodes The nodes.
+  *   @param links The links.
+  *   @param topNodes <b>true</b> if the nodes are those that sent most.
+  *   @param topLinks <b>true</b> if the links are those that carried most.
+  */
+  public void printTopTalkers(int[] nodes, int[] links, boolean topNodes,
+      boolean topLinks) {
+    System.out.println(topNodes ? "Top talkers:" : "Nodes:");
+    for (int k=0; k<nodes.length; k++) {
+      int i = nodes[k];
+      System.out.println("  " + nodeNames[i] + ": sent " + nodeSent[i] +
+        " packets/" + nodeBytes[i] + " bytes, received " +
+        nodeReceived[i] + ", " + nodeChanges[i] + " routing changes");
+    }
+    System.out.println(topLinks ? "Busiest links:" : "Links:");
+    for (int k=0; k<links.length; k++) {
+      int i = links[k];
+      System.out.println("  " + linkNames[i] + " (" +
+        nodeNames[linkA[i]] + "-" + nodeNames[linkB[i]] + "): " +
+        linkSent[i] + " packets/" + linkBytes[i] + " bytes (" +
+        linkForward[i] + " from " + nodeNames[linkA[i]] + ", " +
+        (linkSent[i] - linkForward[i]) + " from " + nodeNames[linkB[i]] +
+        "), " + linkDropped[i] + " dropped");
+    }
+  }
+  /** Read the trace again, and print how many packets some nodes and
+  *   links sent in each of a number of equal slices of it.
+  *   @param nodes The nodes.
+  *   @param links The links.
+  *   @param buckets The number of slices.
+  */
+  public void printTimelines(int[] nodes, int[] links, int buckets)
+      throws IOException {
+    if (records == 0 || (nodes.length == 0 && links.length == 0))
+      return;
+    double width = (endTime - startTime) / buckets;
+    if (width <= 0)
+      width = 1;
+    int[] nodeRow = new int[nodeNames.length];
+    int[] linkRow = new int[linkNames.length];
+    Arrays.fill(nodeRow, -1);
+    Arrays.fill(linkRow, -1);
+    for (int k=0; k<nodes.length; k++)
+      nodeRow[nodes[k]] = k;
+    for (int k=0; k<links.length; k++)
+      linkRow[links[k]] = k;
+    long[][] nodeCounts = new long[nodes.length][buckets];
+    long[][] linkCounts = new long[links.length][buckets];
+    for (int s=0; s<segments; s++) {
+      MappedByteBuffer b = map(s);
+      if (s == 0)
+        b.position(topologyEnd);
+      while (b.remaining() >= recordSize) {
+        int p = b.position();
+        int type = b.get(p + 8);
+        if (type == EventTrace.END)
+          break;
+        b.position(p + recordSize + b.getShort(p + 10));
+        if (type != EventTrace.SEND)
+          continue;
+        int bucket = Math.min(buckets-1,
+          (int)((b.getDouble(p) - startTime) / width));
+        int node = nodeRow[b.getInt(p + 12)];
+        int link = linkRow[b.getInt(p + 20)];
+        if (node >= 0)
+          nodeCounts[node][bucket]++;
+        if (link >= 0)
+          linkCounts[link][bucket]++;
+      }
+    }
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(5);
+    System.out.println("Packets sent per " + nf.format(width) +
+      " sec from " + nf.format(startTime) + " sec:");
+    for (int k=0; k<nodes.length; k++)
+      printTimeline(nodeNames[nodes[k]], nodeCounts[k]);
+    for (int k=0; k<links.length; k++)
+      printTimeline(linkNames[links[k]], linkCounts[k]);
+  }
+
+  /** Returns the indices of the named nodes or links, or if none are
+  *   named, of the most that counted the most, largest first.
+  */
+  private int[] select(Vector named, String[] names, long[] counts,
+      int most) {
+    if (!named.isEmpty()) {
+      int[] chosen = new int[named.size()];
+      for (int k=0; k<chosen.length; k++) {
+        chosen[k] = Arrays.asList(names).indexOf(named.elementAt(k));
+        if (chosen[k] < 0)
+          throw new IllegalArgumentException(name + ": no node or link " +
+            named.elementAt(k));
+      }
+      return chosen;
+    }
+    // Sort by count, largest first, then by index; both fit in a long.
+    long[] keys = new long[names.length];
+    for (int i=0; i<keys.length; i++)
+      keys[i] = ((Long.MAX_VALUE >> 24) - counts[i]) << 24 | i;
+    Arrays.sort(keys);
+    int[] chosen = new int[Math.min(most, keys.length)];
+    for (int k=0; k<chosen.length; k++)
+      chosen[k] = (int)(keys[k] & 0xffffff);
+    return chosen;
+  }
+  /** Print one row of a timeline. */
+  private static void printTimeline(String label, long[] counts) {
+    StringBuffer line = new StringBuffer("  ").append(label).append(':');
+    for (int i=0; i<counts.length; i++)
+      line.append(' ').append(counts[i]);
+    System.out.println(line);
+  }
+  /** Start a new epoch. */
+  private void openEpoch(String trigger, double time, long packetsSent) {
+    if (epochs == epochStart.length) {
+      int capacity = 2 * epochs;
+      epochStart = Arrays.copyOf(epochStart, capacity);
+      epochTrigger = Arrays.copyOf(epochTrigger, capacity);
+      epochChange = Arrays.copyOf(epochChange, capacity);
+      epochStartPackets = Arrays.copyOf(epochStartPackets, capacity);
+      epochPackets = Arrays.copyOf(epochPackets, capacity);
+    }
+    epochStart[epochs] = time;
+    epochTrigger[epochs] = trigger;
+    epochChange[epochs] = Double.NEGATIVE_INFINITY;
+    epochStartPackets[epochs] = packetsSent;
+    epochs++;
+  }
+  /** Map one segment and check its header, leaving the buffer positioned
+  *   after it.
+  */
+  private MappedByteBuffer map(int segment) throws IOException {
+    String file = EventTrace.segmentName(name, segment);
+    RandomAccessFile f;
+    try {
+      f = new RandomAccessFile(file, "r");
+    }
+    catch (IOException e) {
+      throw new IOException(file + ": cannot open: " + e.getMessage());
+    }
+    MappedByteBuffer b;
+    try {
+      b = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+    }
+    finally {
+      f.close();
+    }
+    if (b.remaining() < EventTrace.HEADER_SIZE)
+      throw new IOException(file + ": not a trace");
+    // The trace is in the byte order of the machine that wrote it.
+    b.order(ByteOrder.BIG_ENDIAN);
+    if (b.getInt(0) != EventTrace.MAGIC)
+      b.order(ByteOrder.LITTLE_ENDIAN);
+    if (b.getInt() != EventTrace.MAGIC)
+      throw new IOException(file + ": not a trace");
+    int version = b.getInt();
+    if (version != EventTrace.VERSION)
+      throw new IOException(file + ": trace version " + version +
+        ", expected " + EventTrace.VERSION);
+    if (b.getInt() != segment)
+      throw new IOException(file + ": segment out of place");
+    int snap = b.getInt(), size = b.getInt();
+    if (segment == 0) {
+      snapLength = snap;
+      recordSize = size;
+    }
+    else if (snap != snapLength || size != recordSize)
+      throw new IOException(file + ": from another trace");
+    return b;
+  }
+  /** Read a string written by EventTrace, as DataInput.readUTF does.
+  *   @exception java.io.IOException Thrown when it is not modified UTF-8.
+  */
+  private static String getUTF(MappedByteBuffer b) throws IOException {
+    // The length is in the trace's byte order; readUTF wants it first.
+    int length = b.getShort() & 0xffff;
+    byte[] utf = new byte[2 + length];
+    utf[0] = (byte)(length >> 8);
+    utf[1] = (byte)length;
+    b.get(utf, 2, length);
+    return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+  }
+
+  /** The names of the record types, by type. */
+  private static final String[] TYPE_NAMES = { "end", "sent", "received",
+    "dropped on down links", "dropped by full queues", "link up",
+    "link down", "routing changes", "timers" };
+
+  /** The name of the trace, and its number of segments. */
+  private final String name;
+  private int segments;
+  /** The snap length and record size, from the first segment's header. */
+  private int snapLength, recordSize;
+  /** The names of the nodes and links, and the links' endpoints. */
+  private final String[] nodeNames, linkNames;
+  private final int[] linkA, linkB;
+  /** Where the records begin in the first segment. */
+  private final int topologyEnd;
+  /** The number of records, and the times of the first and last. */
+  private long records;
+  private double startTime, endTime;
+  /** The records of each type. */
+  private final long[] typeCounts;
+  /** Each node's packets and bytes sent, packets received and routing
+  *   changes.
+  */
+  private final long[] nodeSent, nodeBytes, nodeReceived, nodeChanges;
+  /** Each link's packets and bytes sent, packets sent from its endpoint A,
+  *   and packets dropped.
+  */
+  private final long[] linkSent, linkBytes, linkForward, linkDropped;
+  /** The epochs: when each started and what started it, its last routing
+  *   change, and the packets sent before it and through its last change.
+  */
+  private int epochs;
+  private double[] epochStart, epochChange;
+  private String[] epochTrigger;
+  private long[] epochStartPackets, epochPackets;
+}
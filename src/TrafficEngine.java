@@ -0,0 +1,653 @@
+import java.io.*;
+import java.text.NumberFormat;
+import java.util.*;
+
+/** The data plane of a Simulation: end-to-end flows of packets forwarded
+*   hop by hop along the routing tables the nodes have computed, to show
+*   how well those tables carry traffic, especially while they converge
+*   after a link event.  A flow is described by a spec, like a
+*   TopologyGenerator's:
+*   <pre>
+*   cbr,from=n1,to=n9,rate=100,bytes=1000,start=0.5,stop=2
+*   poisson,from=n3,to=n7,rate=50,count=1000,seed=2
+*   trace,file=flows.txt
+*   </pre>
+*   A "cbr" flow sends "rate" packets a second at even intervals, and a
+*   "poisson" flow at exponentially distributed intervals, from "start"
+*   (default 0) until "stop" or until "count" packets have been sent; one
+*   of the two is required.  Packets have "bytes" bytes (default 1000) and
+*   are dropped after "ttl" hops (default 64).  A "trace" flow reads lines
+*   of "time from to bytes", in order of time, from a file; "#" starts a
+*   comment.
+*   Each node forwards a packet to the next hop of its route for the
+*   packet's destination, looked up in its routing table, which indexes
+*   routes by destination, as the packet arrives.  Packets take the
+*   same time over links as the nodes' own packets, and share the links'
+*   transmit queues with them if those are enabled (see
+*   Simulation.setTransmitQueues).  A packet is lost when a node has no
+*   route for it ("no route"), when the route's link is down ("dead
+*   link"), when its link goes down while it is on the way, when a
+*   transmit queue is full, or when its hops run out.  A packet that
+*   visits a node twice has been caught in a loop.  Delivered packets
+*   count towards the throughput, the end-to-end latency, and the path
+*   stretch: the cost of the path taken over the cost of the cheapest path
+*   when the packet was sent.
+*   Every packet is counted in the epoch it was sent in (see
+*   ConvergenceTracker), either as sent while routing was converging,
+*   before the epoch's last routing table change, or as sent after it.
+*   The data plane only runs under the sequential engine.
+*   @see Simulation#enableTraffic
+*/
+public class TrafficEngine {
+  /** Create a data plane without flows for a simulation whose topology is
+  *   complete.
+  */
+  TrafficEngine(Simulation simulation) {
+    this.simulation = simulation;
+    flows = new Vector();
+    epochs = new Vector();
+    totals = new Stats();
+  }
+
+  /** Add a flow; see above.  Must be called before the simulation's
+  *   init().
+  *   @param spec The flow's spec.
+  *   @exception java.lang.IllegalArgumentException Thrown when the spec
+  *   is not valid; the message says why.
+  */
+  public void addFlow(String spec) {
+    StringTokenizer t = new StringTokenizer(spec, ",");
+    if (!t.hasMoreTokens())
+      throw new IllegalArgumentException("empty flow spec");
+    String kind = t.nextToken().trim();
+    Hashtable params = new Hashtable();
+    while (t.hasMoreTokens()) {
+      String p = t.nextToken().trim();
+      int eq = p.indexOf('=');
+      if (eq <= 0)
+        throw new IllegalArgumentException("bad parameter in flow spec: " +
+          p);
+      params.put(p.substring(0, eq), p.substring(eq+1));
+    }
+    Flow f = new Flow(this);
+    f.kind = kind;
+    f.ttl = (int)number(params, kind, "ttl", 64);
+    if (kind.equals("trace"))
+      readTrace(f, (String)take(params, kind, "file", true));
+    else if (kind.equals("cbr") || kind.equals("poisson")) {
+      f.from = node(params, kind, "from");
+      f.to = node(params, kind, "to");
+      if (f.from == f.to)
+        throw new IllegalArgumentException(kind + ": from and to are the " +
+          "same node");
+      f.rate = number(params, kind, "rate", -1);
+      if (!(f.rate > 0))
+        throw new IllegalArgumentException(kind + ": rate must be positive");
+      f.bytes = (int)number(params, kind, "bytes", 1000);
+      f.start = number(params, kind, "start", 0);
+      f.stop = number(params, kind, "stop", Double.POSITIVE_INFINITY);
+      f.remaining = (long)number(params, kind, "count", Long.MAX_VALUE);
+      if (f.stop == Double.POSITIVE_INFINITY && f.remaining == Long.MAX_VALUE)
+        throw new IllegalArgumentException(kind + ": stop or count is " +
+          "required");
+      f.random = new Random((long)number(params, kind, "seed",
+        flows.size() + 1));
+    }
+    else
+      throw new IllegalArgumentException("unknown flow kind: " + kind);
+    if (!params.isEmpty())
+      throw new IllegalArgumentException(kind + ": unknown parameter " +
+        params.keys().nextElement());
+    flows.addElement(f);
+  }
+  /** Returns the number of flows. */
+  public int getFlowCount() { return flows.size(); }
+
+  /** Set up the per-node tables and schedule the first packet of every
+  *   flow.  Called by Simulation.init(), before the nodes boot.
+  */
+  void start() {
+    nodes = simulation.getNodes();
+    int n = nodes.length;
+    distances = new int[n][];
+    // Each node's links, as offsets into one array, for cheapestCost().
+    Link[] links = simulation.getLinks();
+    linkStart = new int[n+1];
+    for (int i=0; i<links.length; i++) {
+      linkStart[links[i].getEndpointA()+1]++;
+      linkStart[links[i].getEndpointB()+1]++;
+    }
+    for (int i=0; i<n; i++)
+      linkStart[i+1] += linkStart[i];
+    nodeLinks = new Link[linkStart[n]];
+    int[] fill = linkStart.clone();
+    for (int i=0; i<links.length; i++) {
+      nodeLinks[fill[links[i].getEndpointA()]++] = links[i];
+      nodeLinks[fill[links[i].getEndpointB()]++] = links[i];
+    }
+    tracker = simulation.getConvergenceTracker();
+    syncEpochs();
+    for (int i=0; i<flows.size(); i++) {
+      Flow f = (Flow)flows.elementAt(i);
+      if (f.kind.equals("trace")) {
+        if (f.times.length > 0)
+          schedule(f, f.times[0], f.froms[0]);
+      }
+      else if (f.start <= f.stop && f.remaining > 0)
+        schedule(f, f.start, f.from);
+    }
+  }
+  /** Note that a routing table changed: the packets sent so far in this
+  *   epoch were sent while routing converged.
+  */
+  void routeChanged() {
+    if (current.sent > 0) {
+      current = new Stats();
+      ((Vector)epochs.lastElement()).addElement(current);
+    }
+  }
+  /** Note that a link came up or went down, after the change. */
+  void topologyChanged() {
+    for (int i=0; i<distances.length; i++)
+      distances[i] = null;
+    syncEpochs();
+  }
+
+  /** Send the next packet of a flow and schedule the one after. */
+  private void emit(Flow f) {
+    double now = simulation.getCurrentTime();
+    if (f.kind.equals("trace")) {
+      int i = f.next++;
+      send(f, f.froms[i], f.tos[i], f.sizes[i], now);
+      if (f.next < f.times.length)
+        schedule(f, f.times[f.next], f.froms[f.next]);
+      return;
+    }
+    send(f, f.from, f.to, f.bytes, now);
+    if (--f.remaining == 0)
+      return;
+    double gap = f.kind.equals("cbr") ? 1/f.rate :
+      -Math.log(1 - f.random.nextDouble()) / f.rate;
+    if (now + gap <= f.stop)
+      schedule(f, now + gap, f.from);
+  }
+  /** Queue a flow to send its next packet. */
+  private void schedule(Flow f, double time, int from) {
+    f.setTime(time);
+    f.setOrder(simulation.nextSendOrder(from));
+    simulation.insert(f);
+  }
+  /** Create a packet and forward it from its source. */
+  private void send(Flow f, int from, int to, int bytes, double now) {
+    DataPacket p = new DataPacket(this);
+    p.to = to;
+    p.bytes = bytes;
+    p.ttl = f.ttl;
+    p.sent = now;
+    p.cheapest = cheapestCost(from, to);
+    p.trail = new int[4];
+    p.trail[p.trailLength++] = from;
+    p.stats = current;
+    current.sent++;
+    totals.sent++;
+    forward(p, from);
+  }
+  /** A packet arrives at its link's far end. */
+  private void arrive(DataPacket p) {
+    if (!p.link.isUp()) {
+      count(p, LOST);
+      return;
+    }
+    int at = p.at;
+    boolean revisit = false;
+    for (int i=0; i<p.trailLength; i++)
+      if (p.trail[i] == at)
+        revisit = true;
+    if (revisit && !p.looped) {
+      p.looped = true;
+      p.stats.looped++;
+      totals.looped++;
+    }
+    if (!revisit) {
+      if (p.trailLength == p.trail.length) {
+        int[] a = new int[p.trail.length*2];
+        System.arraycopy(p.trail, 0, a, 0, p.trailLength);
+        p.trail = a;
+      }
+      p.trail[p.trailLength++] = at;
+    }
+    forward(p, at);
+  }
+  /** Deliver a packet that has reached its destination, or send it on to
+  *   the next hop.
+  */
+  private void forward(DataPacket p, int at) {
+    double now = simulation.getCurrentTime();
+    if (at == p.to) {
+      deliver(p.stats, p, now);
+      deliver(totals, p, now);
+      return;
+    }
+    int hop = nextHop(at, p.to);
+    if (hop < 0) {
+      count(p, NO_ROUTE);
+      return;
+    }
+    Link l = simulation.findLinkByNodes(at, hop);
+    if (l == null || !l.isUp()) {
+      count(p, DEAD_LINK);
+      return;
+    }
+    if (p.hops == p.ttl) {
+      count(p, EXPIRED);
+      return;
+    }
+    double time = simulation.arrivalTime(l, at, p.bytes);
+    if (time < 0) {
+      count(p, OVERFLOWED);
+      return;
+    }
+    p.hops++;
+    p.cost += l.getCost();
+    p.link = l;
+    p.at = hop;
+    p.setTime(time);
+    p.setOrder(simulation.nextSendOrder(at));
+    simulation.insert(p);
+  }
+  /** Count a delivered packet. */
+  private void deliver(Stats s, DataPacket p, double now) {
+    s.delivered++;
+    s.bytesDelivered += p.bytes;
+    double latency = now - p.sent;
+    s.latency += latency;
+    s.maxLatency = Math.max(s.maxLatency, latency);
+    if (p.cheapest > 0 && p.cheapest < Integer.MAX_VALUE) {
+      double stretch = p.cost / (double)p.cheapest;
+      s.stretched++;
+      s.stretch += stretch;
+      s.maxStretch = Math.max(s.maxStretch, stretch);
+    }
+    if (p.sent < firstSent)
+      firstSent = p.sent;
+    lastDelivered = now;
+  }
+  /** Count a lost packet. */
+  private void count(DataPacket p, int why) {
+    p.stats.lost[why]++;
+    totals.lost[why]++;
+  }
+  /** Returns a node's next hop towards a destination, or -1 if it has no
+  *   route.
+  */
+  private int nextHop(int at, int dest) {
+    Route r = nodes[at].routingTable.findRoute(dest);
+    return (r == null) ? -1 : r.getNextHop();
+  }
+  /** Returns the cost of the cheapest path between two nodes over the
+  *   links that are up, or Integer.MAX_VALUE if there is none.  The costs
+  *   to each destination are found once per topology, by Dijkstra's
+  *   algorithm.
+  */
+  private int cheapestCost(int from, int to) {
+    if (distances[to] == null) {
+      int n = nodes.length;
+      int[] d = new int[n];
+      Arrays.fill(d, Integer.MAX_VALUE);
+      d[to] = 0;
+      // A binary heap of (cost << 32 | node), with stale entries skipped.
+      long[] heap = new long[16];
+      int size = 0;
+      heap[size++] = to;
+      while (size > 0) {
+        long top = heap[0];
+        heap[0] = heap[--size];
+        for (int i=0; ; ) {
+          int c = 2*i+1;
+          if (c >= size)
+            break;
+          if (c+1 < size && heap[c+1] < heap[c])
+            c++;
+          if (heap[i] <= heap[c])
+            break;
+          long x = heap[i]; heap[i] = heap[c]; heap[c] = x;
+          i = c;
+        }
+        int u = (int)top;
+        if ((int)(top >>> 32) != d[u])
+          continue;
+        for (int k=linkStart[u]; k<linkStart[u+1]; k++) {
+          Link l = nodeLinks[k];
+          int v = l.getDest(u);
+          if (!l.isUp() || d[u] + l.getCost() >= d[v])
+            continue;
+          d[v] = d[u] + l.getCost();
+          if (size == heap.length) {
+            long[] a = new long[size*2];
+            System.arraycopy(heap, 0, a, 0, size);
+            heap = a;
+          }
+          int i = size++;
+          heap[i] = ((long)d[v] << 32) | v;
+          while (i > 0 && heap[(i-1)/2] > heap[i]) {
+            long x = heap[i]; heap[i] = heap[(i-1)/2]; heap[(i-1)/2] = x;
+            i = (i-1)/2;
+          }
+        }
+      }
+      distances[to] = d;
+    }
+    return distances[to][from];
+  }
+  /** Open an entry for every epoch the tracker has started. */
+  private void syncEpochs() {
+    while (epochs.size() < tracker.getEpochCount()) {
+      Vector segments = new Vector();
+      current = new Stats();
+      segments.addElement(current);
+      epochs.addElement(segments);
+    }
+  }
+
+  /** Print the totals, and the traffic of each epoch that had any while
+  *   routing converged and after.
+  *   @param maxEpochs The most epochs to list.
+  */
+  void printSummary(int maxEpochs) {
+    NumberFormat nf = NumberFormat.getInstance();
+    nf.setMaximumFractionDigits(3);
+    double span = lastDelivered - firstSent;
+    System.out.println("Traffic: " + flows.size() +
+      (flows.size() == 1 ? " flow, " : " flows, ") +
+      describe(totals, nf) + ", throughput " + (span > 0 ?
+        nf.format(totals.bytesDelivered * 8 / span / 1000) + " kbit/sec" :
+        "n/a"));
+    for (int i=0; i<Math.min(epochs.size(), maxEpochs); i++) {
+      Stats converging = getEpochStats(i, true);
+      Stats after = getEpochStats(i, false);
+      if (converging.sent + after.sent == 0)
+        continue;
+      System.out.println("Epoch " + i + " traffic: " +
+        (converging.sent > 0 ?
+          "while converging " + describe(converging, nf) : "") +
+        (converging.sent > 0 && after.sent > 0 ? "; " : "") +
+        (after.sent > 0 ? "after " + describe(after, nf) : ""));
+    }
+  }
+  /** Returns a description of some traffic's fate. */
+  private static String describe(Stats s, NumberFormat nf) {
+    StringBuffer b = new StringBuffer();
+    b.append(s.sent).append(" sent, ").append(s.delivered)
+      .append(" delivered");
+    if (s.sent > 0)
+      b.append(" (").append(nf.format(100.0 * s.delivered / s.sent))
+        .append("%)");
+    for (int i=0; i<LOSSES; i++)
+      if (s.lost[i] > 0)
+        b.append(", ").append(s.lost[i]).append(' ').append(LOSS_NAMES[i]);
+    if (s.looped > 0)
+      b.append(", ").append(s.looped).append(" looped");
+    if (s.delivered > 0)
+      b.append(", latency ").append(nf.format(s.getMeanLatency()))
+        .append(" sec (max ").append(nf.format(s.maxLatency)).append(')');
+    if (s.stretched > 0)
+      b.append(", stretch ").append(nf.format(s.getMeanStretch()))
+        .append(" (max ").append(nf.format(s.maxStretch)).append(')');
+    return b.toString();
+  }
+
+  /** Returns the traffic of the whole run. */
+  public Stats getTotals() { return totals; }
+  /** Returns the number of epochs with traffic statistics. */
+  public int getEpochCount() { return epochs.size(); }
+  /** Returns the traffic sent in an epoch.
+  *   @param epoch The epoch, as numbered by the ConvergenceTracker.
+  *   @param converging <b>true</b> for the packets sent before the
+  *   epoch's last routing table change, <b>false</b> for those sent after.
+  */
+  public Stats getEpochStats(int epoch, boolean converging) {
+    Vector segments = (Vector)epochs.elementAt(epoch);
+    Stats s = new Stats();
+    if (converging) {
+      for (int i=0; i<segments.size()-1; i++)
+        s.add((Stats)segments.elementAt(i));
+    }
+    else
+      s.add((Stats)segments.lastElement());
+    return s;
+  }
+
+  /** What happened to some packets. */
+  public static class Stats {
+    /** Returns the number of packets sent. */
+    public long getSent() { return sent; }
+    /** Returns the number of packets delivered. */
+    public long getDelivered() { return delivered; }
+    /** Returns the number of bytes delivered. */
+    public long getBytesDelivered() { return bytesDelivered; }
+    /** Returns the number of packets dropped by a node with no route. */
+    public long getNoRoute() { return lost[NO_ROUTE]; }
+    /** Returns the number of packets dropped because their next hop's
+    *   link was down.
+    */
+    public long getDeadLink() { return lost[DEAD_LINK]; }
+    /** Returns the number of packets lost when their link went down. */
+    public long getLost() { return lost[LOST]; }
+    /** Returns the number of packets dropped by a full transmit queue. */
+    public long getOverflowed() { return lost[OVERFLOWED]; }
+    /** Returns the number of packets that ran out of hops. */
+    public long getExpired() { return lost[EXPIRED]; }
+    /** Returns the number of packets that visited a node twice. */
+    public long getLooped() { return looped; }
+    /** Returns the mean end-to-end latency of the delivered packets. */
+    public double getMeanLatency() {
+      return (delivered > 0) ? latency / delivered : 0.0;
+    }
+    /** Returns the longest end-to-end latency. */
+    public double getMaxLatency() { return maxLatency; }
+    /** Returns the mean path stretch of the delivered packets. */
+    public double getMeanStretch() {
+      return (stretched > 0) ? stretch / stretched : 0.0;
+    }
+    /** Returns the largest path stretch. */
+    public double getMaxStretch() { return maxStretch; }
+
+    /** Add another set of statistics to this one. */
+    void add(Stats s) {
+      sent += s.sent;
+      delivered += s.delivered;
+      bytesDelivered += s.bytesDelivered;
+      for (int i=0; i<LOSSES; i++)
+        lost[i] += s.lost[i];
+      looped += s.looped;
+      latency += s.latency;
+      maxLatency = Math.max(maxLatency, s.maxLatency);
+      stretched += s.stretched;
+      stretch += s.stretch;
+      maxStretch = Math.max(maxStretch, s.maxStretch);
+    }
+
+    /** Packets sent and delivered, bytes delivered, packets looped, and
+    *   delivered packets whose stretch is known.
+    */
+    long sent, delivered, bytesDelivered, looped, stretched;
+    /** Packets lost, by reason. */
+    long[] lost = new long[LOSSES];
+    /** The total and largest latency and stretch. */
+    double latency, maxLatency, stretch, maxStretch;
+  }
+
+  /** A flow; queued as an event for the time of its next packet. */
+  private static class Flow extends Event {
+    Flow(TrafficEngine engine) {
+      super(0.0);
+      this.engine = engine;
+    }
+    public void run() { engine.emit(this); }
+    public String toString() {
+      return getTime() + ": " + kind + " flow";
+    }
+    TrafficEngine engine;
+    /** "cbr", "poisson" or "trace". */
+    String kind;
+    /** The source, destination and packet size of a cbr or poisson flow. */
+    int from, to, bytes;
+    /** The hops a packet may take. */
+    int ttl;
+    /** Packets a second. */
+    double rate;
+    /** When the flow starts and stops. */
+    double start, stop;
+    /** The packets left to send. */
+    long remaining;
+    /** The random intervals of a poisson flow. */
+    Random random;
+    /** The packets of a trace: times, sources, destinations and sizes. */
+    double[] times;
+    int[] froms, tos, sizes;
+    /** The next packet of a trace. */
+    int next;
+  }
+  /** A data packet; queued as an event for its arrival at each hop. */
+  private static class DataPacket extends Event {
+    DataPacket(TrafficEngine engine) {
+      super(0.0);
+      this.engine = engine;
+    }
+    public void run() { engine.arrive(this); }
+    public String toString() {
+      return getTime() + ": data packet to " + to + " at " + at;
+    }
+    TrafficEngine engine;
+    /** The destination, size and the most hops the packet may take. */
+    int to, bytes, ttl;
+    /** The node the packet is travelling to, and the link it uses. */
+    int at;
+    Link link;
+    /** The hops taken so far, and the total cost of their links. */
+    int hops, cost;
+    /** The cost of the cheapest path when the packet was sent. */
+    int cheapest;
+    /** When the packet was sent. */
+    double sent;
+    /** The nodes the packet has visited. */
+    int[] trail;
+    int trailLength;
+    /** <b>true</b> once the packet has visited a node twice. */
+    boolean looped;
+    /** The statistics the packet is counted in. */
+    Stats stats;
+  }
+
+  /** Read a trace flow's packets from a file. */
+  private void readTrace(Flow f, String file) {
+    Vector lines = new Vector();
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      String line;
+      while ((line = in.readLine()) != null) {
+        int hash = line.indexOf('#');
+        if (hash >= 0)
+          line = line.substring(0, hash);
+        if (line.trim().length() > 0)
+          lines.addElement(line);
+      }
+      in.close();
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("trace: cannot read " + file +
+        ": " + e);
+    }
+    int n = lines.size();
+    f.times = new double[n];
+    f.froms = new int[n];
+    f.tos = new int[n];
+    f.sizes = new int[n];
+    for (int i=0; i<n; i++) {
+      StringTokenizer t = new StringTokenizer((String)lines.elementAt(i));
+      String where = file + ": line \"" + lines.elementAt(i) + "\"";
+      try {
+        if (t.countTokens() != 4)
+          throw new NumberFormatException();
+        f.times[i] = Double.valueOf(t.nextToken()).doubleValue();
+        f.froms[i] = simulation.getNodeAddress(t.nextToken());
+        f.tos[i] = simulation.getNodeAddress(t.nextToken());
+        f.sizes[i] = Integer.parseInt(t.nextToken());
+      }
+      catch (NumberFormatException e) {
+        throw new IllegalArgumentException(where + ": expected time, " +
+          "from, to and bytes");
+      }
+      if (f.froms[i] < 0 || f.tos[i] < 0 || f.froms[i] == f.tos[i])
+        throw new IllegalArgumentException(where + ": bad nodes");
+      if (i > 0 && f.times[i] < f.times[i-1])
+        throw new IllegalArgumentException(where + ": out of order");
+    }
+  }
+  /** Remove a parameter from a flow spec and return it. */
+  private static Object take(Hashtable params, String kind, String name,
+      boolean required) {
+    Object v = params.remove(name);
+    if (v == null && required)
+      throw new IllegalArgumentException(kind + ": missing parameter " +
+        name);
+    return v;
+  }
+  /** Remove a numeric parameter from a flow spec and return it. */
+  private static double number(Hashtable params, String kind, String name,
+      double dflt) {
+    String v = (String)take(params, kind, name, false);
+    try {
+      return (v == null) ? dflt : Double.valueOf(v).doubleValue();
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException(kind + ": bad " + name + ": " + v);
+    }
+  }
+  /** Remove a node parameter from a flow spec and return its address. */
+  private int node(Hashtable params, String kind, String name) {
+    String v = (String)take(params, kind, name, true);
+    int address = simulation.getNodeAddress(v);
+    if (address < 0)
+      throw new IllegalArgumentException(kind + ": no such node: " + v);
+    return address;
+  }
+
+  /** The reasons a packet is lost, as indices into Stats.lost. */
+  private static final int NO_ROUTE = 0, DEAD_LINK = 1, LOST = 2,
+    OVERFLOWED = 3, EXPIRED = 4, LOSSES = 5;
+  /** The reasons, as printed. */
+  private static final String[] LOSS_NAMES = { "no route", "dead link",
+    "lost in flight", "overflowed", "out of hops" };
+
+  /** The simulation carrying the traffic. */
+  private Simulation simulation;
+  /** The flows. */
+  private Vector flows;
+  /** The simulation's nodes, indexed by address.  Set by start(). */
+  private NodeBase[] nodes;
+  /** The cheapest cost from every node to each destination, for the
+  *   current topology, or <b>null</b> until needed.
+  */
+  private int[][] distances;
+  /** Every node's links: those of node i are nodeLinks[linkStart[i]] to
+  *   nodeLinks[linkStart[i+1]-1].
+  */
+  private Link[] nodeLinks;
+  private int[] linkStart;
+  /** The simulation's convergence tracker. */
+  private ConvergenceTracker tracker;
+  /** For each epoch, a Vector of Stats: one for the packets sent between
+  *   each pair of routing table changes, the last for those sent after
+  *   the last change.
+  */
+  private Vector epochs;
+  /** The Stats that packets sent now are counted in. */
+  private Stats current;
+  /** The traffic of the whole run. */
+  private Stats totals;
+  /** When the first delivered packet was sent, and when the last was
+  *   delivered.
+  */
+  private double firstSent = Double.POSITIVE_INFINITY, lastDelivered;
+}